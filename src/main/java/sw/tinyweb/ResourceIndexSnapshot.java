@@ -0,0 +1,454 @@
+package sw.tinyweb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+import sw.tinyweb.utils.ETags;
+import sw.tinyweb.utils.ServletUtils;
+
+/**
+ * A persistent index of the files in the web content folder.
+ *
+ * <p>
+ * Holds the path, size, last-modified time, MIME type and ETag of each
+ * file, together with the servlet mappings the index was created for.
+ * The index is written at startup, and memory mapped by the next start,
+ * so the first request for each resource is answered without touching
+ * the file system.
+ * </p>
+ *
+ * <p>
+ * A loaded index may be out of date. It is validated in the background
+ * against a fresh scan of the folder; files that changed since it was
+ * written are {@link #invalidate(String) invalidated}, as are files
+ * reported changed afterwards.
+ * </p>
+ *
+ * <p>
+ * Format (big endian) ...
+ * <pre>
+ *     int magic, int version
+ *     string webContentHome
+ *     int mappingCount, { string pattern, string servletName } ...
+ *     int recordCount, int recordOffset ...
+ *     { string path, long length, long lastModified, string mimeType, string etag } ...
+ * </pre>
+ * where strings are an unsigned short length followed by UTF-8 bytes.
+ * Records are sorted by the bytes of their path, so they can be found
+ * by binary search.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ */
+public final class ResourceIndexSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(ResourceIndexSnapshot.class);
+
+    private static final int MAGIC = 0x54574958; // "TWIX"
+
+    private static final int VERSION = 1;
+
+    private static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] aLeft, byte[] aRight) {
+            return compareBytes(aLeft, ByteBuffer.wrap(aRight), 0, aRight.length);
+        }
+    };
+
+    private final ByteBuffer data;
+
+    private final Set<String> invalidPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Map<String, String> mappings;
+
+    private final int recordCount;
+
+    private final int offsetsStart;
+
+    private ResourceIndexSnapshot(ByteBuffer aData, Map<String, String> aMappings, int aRecordCount, int aOffsetsStart) {
+        this.data = aData;
+        this.mappings = aMappings;
+        this.recordCount = aRecordCount;
+        this.offsetsStart = aOffsetsStart;
+    }
+
+    /**
+     * Load a snapshot.
+     *
+     * @param aSnapshot
+     *            The snapshot file
+     * @param aWebContentHome
+     *            The web content folder
+     * @param aMappings
+     *            The servlet mappings; URL pattern to servlet name
+     * @return the snapshot, or null (missing, invalid, or created for another
+     *         folder or other mappings)
+     */
+    @Nullable
+    public static ResourceIndexSnapshot load(File aSnapshot, File aWebContentHome, Map<String, String> aMappings) {
+        if (!aSnapshot.isFile()) {
+            return null;
+        }
+
+        try {
+            final MappedByteBuffer b;
+            final RandomAccessFile raf = new RandomAccessFile(aSnapshot, "r");
+            try {
+                final FileChannel channel = raf.getChannel();
+                b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+
+            if ((b.getInt() != MAGIC) || (b.getInt() != VERSION)
+                    || !aWebContentHome.getAbsolutePath().equals(readString(b))) {
+                return null;
+            }
+
+            final Map<String, String> mappings = new HashMap<String, String>();
+            for (int n = b.getInt(); n > 0; n--) {
+                mappings.put(readString(b), readString(b));
+            }
+            if (!mappings.equals(aMappings)) {
+                LOGGER.info("Servlet mappings changed; ignoring resource index " + aSnapshot);
+                return null;
+            }
+
+            final int count = b.getInt();
+            final ResourceIndexSnapshot s = new ResourceIndexSnapshot(b, mappings, count, b.position());
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Loaded " + count + " resources from " + aSnapshot);
+            }
+            return s;
+
+        } catch (final RuntimeException e) {
+            // eg. truncated
+            LOGGER.warn("Invalid resource index " + aSnapshot, e);
+        } catch (final IOException e) {
+            LOGGER.warn("Cannot read resource index " + aSnapshot, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Scan the web content folder.
+     *
+     * <p>
+     * Files in <code>WEB-INF</code> folders are not included.
+     * </p>
+     *
+     * @param aWebContentHome
+     *            The web content folder
+     * @return the files found
+     */
+    public static List<Record> scan(File aWebContentHome) {
+        final List<Record> records = new ArrayList<Record>();
+        scan(aWebContentHome, "/", records);
+        return records;
+    }
+
+    private static void scan(File aFolder, String aPath, List<Record> aRecords) {
+        final File[] files = aFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (final File f : files) {
+            final String path = aPath + f.getName();
+            if (f.isDirectory()) {
+                if (!"WEB-INF".equals(f.getName())) {
+                    scan(f, path + "/", aRecords);
+                }
+            } else if (f.isFile()) {
+                final long length = f.length();
+                final long lastModified = f.lastModified();
+                aRecords.add(new Record(path, length, lastModified,
+                        TinyWebServletContext.findMimeType(path), ETags.create(length, lastModified)));
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot.
+     *
+     * <p>
+     * The snapshot is written to a new temporary file that then replaces
+     * the stated file, so a snapshot being loaded is never partially written.
+     * Missing folders are created, accessible by their owner only.
+     * </p>
+     *
+     * @param aSnapshot
+     *            The snapshot file
+     * @param aWebContentHome
+     *            The web content folder
+     * @param aMappings
+     *            The servlet mappings; URL pattern to servlet name
+     * @param aRecords
+     *            The files, see {@link #scan(File)}
+     * @throws IOException
+     *             when the snapshot cannot be written
+     */
+    public static void write(File aSnapshot, File aWebContentHome, Map<String, String> aMappings, List<Record> aRecords)
+            throws IOException {
+
+        final TreeMap<byte[], Record> sorted = new TreeMap<byte[], Record>(BYTE_ORDER);
+        for (final Record r : aRecords) {
+            sorted.put(r.getPath().getBytes(StandardCharsets.UTF_8), r);
+        }
+
+        final File folder = aSnapshot.getAbsoluteFile().getParentFile();
+        ServletUtils.createPrivateFolder(folder);
+
+        // a new file, never one planted by someone else
+        final File tmp = File.createTempFile("." + aSnapshot.getName() + "-", ".tmp", folder);
+        final DataOutputStream out;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        } catch (final IOException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, aWebContentHome.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+
+            out.writeInt(aMappings.size());
+            for (final Map.Entry<String, String> e : aMappings.entrySet()) {
+                writeString(out, e.getKey().getBytes(StandardCharsets.UTF_8));
+                writeString(out, e.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+
+            // records follow the offset table
+            out.writeInt(sorted.size());
+            int offset = out.size() + (4 * sorted.size());
+            for (final Map.Entry<byte[], Record> e : sorted.entrySet()) {
+                out.writeInt(offset);
+                offset += e.getValue().getEncodedSize(e.getKey());
+            }
+
+            for (final Map.Entry<byte[], Record> e : sorted.entrySet()) {
+                final Record r = e.getValue();
+                writeString(out, e.getKey());
+                out.writeLong(r.length);
+                out.writeLong(r.lastModified);
+                writeString(out, r.mimeType.getBytes(StandardCharsets.UTF_8));
+                writeString(out, r.etag.getBytes(StandardCharsets.UTF_8));
+            }
+            written = true;
+
+        } finally {
+            out.close();
+            if (!written) {
+                tmp.delete();
+            }
+        }
+
+        if (!tmp.renameTo(aSnapshot)) {
+            aSnapshot.delete();
+            if (!tmp.renameTo(aSnapshot)) {
+                tmp.delete();
+                throw new IOException("Cannot replace " + aSnapshot);
+            }
+        }
+    }
+
+    /** @return the servlet mappings the snapshot was created for */
+    public Map<String, String> getServletMappings() {
+        return Collections.unmodifiableMap(this.mappings);
+    }
+
+    /** @return the number of files indexed */
+    public int size() {
+        return this.recordCount;
+    }
+
+    /**
+     * Find the stated file.
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/foo.js"
+     * @return the file, or null (not indexed or invalidated)
+     */
+    @Nullable
+    public Record find(String aPath) {
+        if (this.invalidPaths.contains(aPath)) {
+            return null;
+        }
+
+        final byte[] key = aPath.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer b = this.data.duplicate();
+
+        int low = 0;
+        int high = this.recordCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int pos = b.getInt(this.offsetsStart + (4 * mid));
+            final int len = b.getShort(pos) & 0xffff;
+
+            final int cmp = compareBytes(key, b, pos + 2, len);
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                b.position(pos + 2 + len);
+                return new Record(aPath, b.getLong(), b.getLong(), readString(b), readString(b));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Stop using the stated entry, eg. its file has changed.
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/foo.js"
+     */
+    public void invalidate(String aPath) {
+        this.invalidPaths.add(aPath);
+    }
+
+    /**
+     * Invalidate the entries that do not match the current files.
+     *
+     * @param aCurrent
+     *            The files, see {@link #scan(File)}
+     * @return the paths of the entries invalidated
+     */
+    public List<String> validate(List<Record> aCurrent) {
+        final Map<String, Record> current = new HashMap<String, Record>();
+        for (final Record r : aCurrent) {
+            current.put(r.getPath(), r);
+        }
+
+        final List<String> invalid = new ArrayList<String>();
+
+        final ByteBuffer b = this.data.duplicate();
+        for (int i = 0; i < this.recordCount; i++) {
+            b.position(b.getInt(this.offsetsStart + (4 * i)));
+
+            final String path = readString(b);
+            final long length = b.getLong();
+            final long lastModified = b.getLong();
+
+            final Record r = current.get(path);
+            if ((r == null) || (r.length != length) || (r.lastModified != lastModified)) {
+                this.invalidate(path);
+                invalid.add(path);
+            }
+        }
+
+        return invalid;
+    }
+
+    private static int compareBytes(byte[] aKey, ByteBuffer aBuf, int aPos, int aLen) {
+        final int n = Math.min(aKey.length, aLen);
+        for (int i = 0; i < n; i++) {
+            final int cmp = (aKey[i] & 0xff) - (aBuf.get(aPos + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return aKey.length - aLen;
+    }
+
+    private static String readString(ByteBuffer aBuf) {
+        final byte[] bytes = new byte[aBuf.getShort() & 0xffff];
+        aBuf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream aOut, byte[] aBytes) throws IOException {
+        if (aBytes.length > 0xffff) {
+            throw new IOException("String too long: " + aBytes.length + " bytes");
+        }
+
+        aOut.writeShort(aBytes.length);
+        aOut.write(aBytes);
+    }
+
+    /**
+     * An indexed file.
+     */
+    public static final class Record {
+
+        private final String etag;
+
+        private final long lastModified;
+
+        private final long length;
+
+        private final String mimeType;
+
+        private final String path;
+
+        Record(String aPath, long aLength, long aLastModified, String aMimeType, String aETag) {
+            this.path = aPath;
+            this.length = aLength;
+            this.lastModified = aLastModified;
+            this.mimeType = aMimeType;
+            this.etag = aETag;
+        }
+
+        /** @return the resource path, eg. "/js/foo.js" */
+        public String getPath() {
+            return this.path;
+        }
+
+        /** @return the file size */
+        public long getLength() {
+            return this.length;
+        }
+
+        /** @return when the file was last modified */
+        public long getLastModified() {
+            return this.lastModified;
+        }
+
+        /** @return the MIME type */
+        public String getMimeType() {
+            return this.mimeType;
+        }
+
+        /** @return the entity tag */
+        public String getETag() {
+            return this.etag;
+        }
+
+        private int getEncodedSize(byte[] aPath) {
+            return (2 + aPath.length) + 8 + 8
+                    + (2 + this.mimeType.getBytes(StandardCharsets.UTF_8).length)
+                    + (2 + this.etag.getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+}
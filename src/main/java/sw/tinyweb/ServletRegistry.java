@@ -0,0 +1,103 @@
+package sw.tinyweb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletContext;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The servlet instances of a server, one per servlet name.
+ *
+ * <p>
+ * Servlets are created and initialised when first requested, exactly once,
+ * however many threads request them at the same time. Requests for an
+ * initialised servlet take no locks.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ */
+final class ServletRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(ServletRegistry.class);
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Get the servlet of the stated configuration, creating it when needed.
+     *
+     * @param aConfig
+     *            The servlet configuration
+     * @param aContext
+     *            The application context
+     * @return the initialised servlet
+     * @throws Exception
+     *             when the servlet cannot be created or initialised
+     */
+    Servlet getServlet(TinyWebServletConfig aConfig, ServletContext aContext) throws Exception {
+        Entry e = this.entries.get(aConfig.getServletName());
+        if (e == null) {
+            final Entry created = new Entry(aConfig);
+            e = this.entries.putIfAbsent(aConfig.getServletName(), created);
+            if (e == null) {
+                e = created;
+            }
+        }
+
+        final Servlet s = e.servlet;
+        return (s != null) ? s : e.init(aContext);
+    }
+
+    /** Destroy all initialised servlets. */
+    void destroyAll() {
+        for (final Entry e : this.entries.values()) {
+            e.destroy();
+        }
+        this.entries.clear();
+    }
+
+    /**
+     * A servlet name and its instance.
+     */
+    private static final class Entry {
+
+        private final TinyWebServletConfig config;
+
+        volatile Servlet servlet;
+
+        Entry(TinyWebServletConfig aConfig) {
+            this.config = aConfig;
+        }
+
+        synchronized Servlet init(ServletContext aContext) throws Exception {
+            if (this.servlet == null) {
+                final Class<?> c = Class.forName(this.config.getServletClass());
+                final Servlet s = (Servlet) c.newInstance();
+
+                this.config.setServletContext(aContext);
+                s.init(this.config);
+
+                // published only once initialised
+                this.servlet = s;
+            }
+
+            return this.servlet;
+        }
+
+        synchronized void destroy() {
+            if (this.servlet != null) {
+                try {
+                    this.servlet.destroy();
+                } catch (final RuntimeException e) {
+                    LOGGER.error("Cannot destroy servlet " + this.config.getServletName(), e);
+                }
+                this.servlet = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+package sw.tinyweb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Matches request paths to servlet mappings.
+ *
+ * <p>
+ * URL patterns follow the servlet specification, and are tried in this order ...
+ * <ol>
+ * <li>exact paths, eg. <code>/about</code>,
+ * <li>path prefixes, eg. <code>/messagebroker/*</code>, longest first,
+ * <li>extensions, eg. <code>*.jsp</code>,
+ * <li>the default, <code>/</code> (or <code>*</code>).
+ * </ol>
+ * </p>
+ *
+ * <p>
+ * Exact paths and prefixes are compiled into a radix tree. Each lookup
+ * walks the tree once, comparing characters in place; it never allocates.
+ * </p>
+ *
+ * <p>
+ * Immutable, thread safe.
+ * </p>
+ */
+public final class ServletRouter {
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Route defaultRoute;
+
+    private final Route[] extensions;
+
+    private final Node root = new Node("");
+
+    /**
+     * Constructor.
+     *
+     * @param aMappings
+     *            URL patterns and the servlet names they are mapped to
+     */
+    public ServletRouter(Map<String, String> aMappings) {
+        Route def = null;
+        final List<Route> exts = new ArrayList<Route>();
+
+        for (final Map.Entry<String, String> e : aMappings.entrySet()) {
+            final String p = e.getKey();
+            if ("/".equals(p) || "*".equals(p)) {
+                if ((def == null) || "/".equals(p)) {
+                    def = new Route(p, e.getValue(), null, null);
+                }
+            } else if (p.startsWith("*.")) {
+                exts.add(new Route(p, e.getValue(), null, p.substring(2)));
+            } else if (p.endsWith("/*")) {
+                final String prefix = p.substring(0, p.length() - 2);
+                this.insert(prefix).prefixRoute = new Route(p, e.getValue(), prefix, null);
+            } else {
+                this.insert(p).exactRoute = new Route(p, e.getValue(), null, null);
+            }
+        }
+
+        this.defaultRoute = def;
+        this.extensions = exts.toArray(new Route[exts.size()]);
+    }
+
+    /**
+     * Find the mapping of a request.
+     *
+     * @param aPath
+     *            The request path, eg. "/messagebroker/amf"
+     * @return the route or null (no servlet is mapped)
+     */
+    @Nullable
+    public Route find(String aPath) {
+        final int len = aPath.length();
+        Route prefix = null;
+
+        Node n = this.root;
+        int pos = 0;
+        while (true) {
+            // "/x/*" matches "/x" and "/x/..."
+            if ((n.prefixRoute != null) && ((pos == len) || (aPath.charAt(pos) == '/'))) {
+                prefix = n.prefixRoute;
+            }
+            if (pos == len) {
+                if (n.exactRoute != null) {
+                    return n.exactRoute;
+                }
+                break;
+            }
+
+            final Node child = n.findChild(aPath.charAt(pos));
+            if ((child == null) || !aPath.regionMatches(pos, child.label, 0, child.label.length())) {
+                break;
+            }
+            pos += child.label.length();
+            n = child;
+        }
+
+        if (prefix != null) {
+            return prefix;
+        }
+
+        final int slash = aPath.lastIndexOf('/');
+        for (final Route r : this.extensions) {
+            final int start = len - r.extension.length();
+            if ((start - 1 > slash) && (aPath.charAt(start - 1) == '.')
+                    && aPath.regionMatches(start, r.extension, 0, r.extension.length())) {
+                return r;
+            }
+        }
+
+        return this.defaultRoute;
+    }
+
+    /** @return the node of the path, added when needed */
+    private Node insert(String aPath) {
+        Node n = this.root;
+        int pos = 0;
+        while (pos < aPath.length()) {
+            Node child = n.findChild(aPath.charAt(pos));
+            if (child == null) {
+                child = new Node(aPath.substring(pos));
+                n.addChild(child);
+                return child;
+            }
+
+            int common = 1;
+            while ((common < child.label.length()) && (pos + common < aPath.length())
+                    && (child.label.charAt(common) == aPath.charAt(pos + common))) {
+                common++;
+            }
+
+            if (common < child.label.length()) {
+                // split the edge; the new node keeps the same first character
+                final Node split = new Node(child.label.substring(0, common));
+                n.replaceChild(child, split);
+                child.label = child.label.substring(common);
+                split.addChild(child);
+                child = split;
+            }
+
+            pos += common;
+            n = child;
+        }
+        return n;
+    }
+
+    /**
+     * A servlet mapping.
+     */
+    public static final class Route {
+
+        /** Extension, eg. "jsp", or null. */
+        final String extension;
+
+        private final String pattern;
+
+        /** Servlet path of a prefix mapping, eg. "/messagebroker", or null. */
+        private final String prefix;
+
+        private final String servletName;
+
+        Route(String aPattern, String aServletName, String aPrefix, String aExtension) {
+            this.pattern = aPattern;
+            this.servletName = aServletName;
+            this.prefix = aPrefix;
+            this.extension = aExtension;
+        }
+
+        /** @return the URL pattern, eg. "/messagebroker/*" */
+        public String getPattern() {
+            return this.pattern;
+        }
+
+        /** @return the servlet identifier */
+        public String getServletName() {
+            return this.servletName;
+        }
+
+        /**
+         * Get the portion of a matched path that identified the servlet.
+         *
+         * @param aPath
+         *            The request path, eg. "/messagebroker/amf"
+         * @return the servlet path, eg. "/messagebroker"
+         */
+        public String getServletPath(String aPath) {
+            return (this.prefix != null) ? this.prefix : aPath;
+        }
+
+        /**
+         * Get the portion of a matched path that follows the servlet path.
+         *
+         * @param aPath
+         *            The request path, eg. "/messagebroker/amf"
+         * @return the path info, eg. "/amf", or null (none)
+         */
+        @Nullable
+        public String getPathInfo(String aPath) {
+            if ((this.prefix == null) || (aPath.length() == this.prefix.length())) {
+                return null;
+            }
+            return aPath.substring(this.prefix.length());
+        }
+
+        @Override
+        public String toString() {
+            return this.pattern + " -> " + this.servletName;
+        }
+    }
+
+    /**
+     * A radix tree node.
+     */
+    private static final class Node {
+
+        /** Ordered by first character. */
+        Node[] children = NO_CHILDREN;
+
+        Route exactRoute;
+
+        String label;
+
+        Route prefixRoute;
+
+        Node(String aLabel) {
+            this.label = aLabel;
+        }
+
+        Node findChild(char aFirst) {
+            int lo = 0;
+            int hi = this.children.length - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                final char c = this.children[mid].label.charAt(0);
+                if (c < aFirst) {
+                    lo = mid + 1;
+                } else if (c > aFirst) {
+                    hi = mid - 1;
+                } else {
+                    return this.children[mid];
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node aChild) {
+            final char first = aChild.label.charAt(0);
+            int i = 0;
+            while ((i < this.children.length) && (this.children[i].label.charAt(0) < first)) {
+                i++;
+            }
+
+            final Node[] c = new Node[this.children.length + 1];
+            System.arraycopy(this.children, 0, c, 0, i);
+            c[i] = aChild;
+            System.arraycopy(this.children, i, c, i + 1, this.children.length - i);
+            this.children = c;
+        }
+
+        void replaceChild(Node aOld, Node aNew) {
+            for (int i = 0; i < this.children.length; i++) {
+                if (this.children[i] == aOld) {
+                    this.children[i] = aNew;
+                    return;
+                }
+            }
+        }
+    }
+
+}
@@ -12,8 +12,6 @@ import java.net.URLDecoder;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -34,9 +32,10 @@ import org.apache.log4j.Logger;
 
 import sw.tinyweb.io.HttpChunkedInputStream;
 import sw.tinyweb.io.HttpHeaderReader;
+import sw.tinyweb.utils.AcceptLanguageCache;
+import sw.tinyweb.utils.HttpDateCodec;
 import sw.tinyweb.utils.HttpHeaderUtils;
 import sw.tinyweb.utils.IteratorEnumeration;
-import sw.tinyweb.utils.LanguageTag;
 
 /**
  * A single HTTP request.
@@ -101,6 +100,10 @@ public class TinyWebRequest implements HttpServletRequest {
     /** Empty array. */
     public static final String[] NO_PARAMS = new String[0];
 
+    private static final String ACCEPT_LANGUAGE = "Accept-Language";
+
+    private static final String COOKIE = "Cookie";
+
     private static final Logger LOGGER = Logger.getLogger(TinyWebRequest.class);
 
     private final Map<String, Object> attributes = new HashMap<String, Object>();
@@ -111,6 +114,7 @@ public class TinyWebRequest implements HttpServletRequest {
 
     private String contextPath;
 
+    /** Cookies created from the <code>Cookie</code> headers on first use. */
     private List<Cookie> cookies;
 
     private InetSocketAddress localAddress;
@@ -119,6 +123,10 @@ public class TinyWebRequest implements HttpServletRequest {
 
     private InputStream inputStream;
 
+    private List<Locale> locales;
+
+    private String pathInfo;
+
     private String method;
 
     private final Map<String, String[]> parameterMap = new HashMap<String, String[]>();
@@ -129,6 +137,8 @@ public class TinyWebRequest implements HttpServletRequest {
 
     private String requestedSessionId;
 
+    private boolean sessionCookieChecked;
+
     private URL requestURL;
 
     private String servletPath;
@@ -174,12 +184,13 @@ public class TinyWebRequest implements HttpServletRequest {
 
     @Override
     public Cookie[] getCookies() {
-        if (this.cookies == null) {
+        final List<Cookie> list = this.parseCookies();
+        if (list.isEmpty()) {
             return null;
         }
 
-        final Cookie[] c = new Cookie[this.cookies.size()];
-        this.cookies.toArray(c);
+        final Cookie[] c = new Cookie[list.size()];
+        list.toArray(c);
         return c;
     }
 
@@ -190,11 +201,12 @@ public class TinyWebRequest implements HttpServletRequest {
             return -1L;
         }
 
-        try {
-            return HttpHeaderUtils.getInstance().parseDate(header).getTime();
-        } catch (final TinyWebException e) {
+        final long time = HttpDateCodec.parse(header);
+        if (time == -1) {
             throw new IllegalArgumentException("Cannot parse date: " + header);
         }
+
+        return time;
     }
 
     @Override
@@ -279,90 +291,45 @@ public class TinyWebRequest implements HttpServletRequest {
 
     @Override
     public Locale getLocale() {
-        return this.getLocales().nextElement();
+        return this.getLocaleList().get(0);
     }
 
     @Override
     public Enumeration<Locale> getLocales() {
-        // create unique list of languages tags
-        //
-        // NB. Headers may contain multiple Accept-Language fields
-
-        final List<LanguageTag> languages = new ArrayList<LanguageTag>();
-        for (final Enumeration<String> i = this.getHeaders("Accept-Language"); i.hasMoreElements();) {
-            this.addLanguage(languages, i.nextElement());
-        }
-
-        // sort list into decreasing preference order (item 0 = highest)
-
-        Collections.sort(languages, new Comparator<LanguageTag>() {
-            @Override
-            public int compare(LanguageTag aTag, LanguageTag aOther) {
-                if (aTag.getQualityLevel() == aOther.getQualityLevel()) {
-                    return 0;
-                }
-
-                return (aTag.getQualityLevel() > aOther.getQualityLevel()) ? -1 : 1;
-            }
-        });
-
-        // list locales in decreasing preference order (item 0 = highest)
-
-        final List<Locale> locales = new ArrayList<Locale>();
-        for (final LanguageTag language : languages) {
-            locales.add(language.getLocale());
-        }
-
-        if (locales.isEmpty()) {
-            locales.add(Locale.getDefault());
-        }
-
-        return new IteratorEnumeration<Locale>(locales);
+        return new IteratorEnumeration<Locale>(this.getLocaleList());
     }
 
     /**
-     * Extract language tags from the stated header text.
+     * Get the locales requested by the <code>Accept-Language</code> header(s).
      *
-     * @param aList
-     *            The list of unique languages
-     * @param aText
-     *            The header text
-     * @throws IllegalArgumentException
-     *             when the language tags cannot be extracted
-     */
-    private void addLanguage(List<LanguageTag> aList, String aText)
-            throws IllegalArgumentException {
-
-        final List<LanguageTag> tags = HttpHeaderUtils.getInstance().parseLanguages(aText);
-        for (final LanguageTag lt : tags) {
-            final LanguageTag old = this.findLanguage(aList, lt.getLanguage());
-            if (old == null) {
-                aList.add(lt);
-            } else if (old.getQualityLevel() < lt.getQualityLevel()) {
-                aList.remove(old);
-                aList.add(lt);
-            }
-        }
-    }
-
-    /**
-     * Find the language.
+     * @return the locales in decreasing preference order (item 0 = highest)
      *
-     * @param aLanguages
-     *            The list of languages
-     * @param aLanguage
-     *            The RFC 1766 language tag
-     * @return the tag
+     * @see AcceptLanguageCache
      */
-    @Nullable
-    private LanguageTag findLanguage(List<LanguageTag> aLanguages, String aLanguage) {
-        for (final LanguageTag lt : aLanguages) {
-            if (lt.getLanguage().equals(aLanguage)) {
-                return lt;
+    private List<Locale> getLocaleList() {
+        if (this.locales == null) {
+            // NB. Headers may contain multiple Accept-Language fields
+
+            final Object header = this.headers.get(ACCEPT_LANGUAGE);
+
+            String text = null;
+            if (header instanceof Collection<?>) {
+                final StringBuilder sb = new StringBuilder();
+                for (final Object o : (Collection<?>) header) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(o);
+                }
+                text = sb.toString();
+            } else if (header != null) {
+                text = header.toString();
             }
+
+            this.locales = AcceptLanguageCache.getInstance().getLocales(text);
         }
 
-        return null;
+        return this.locales;
     }
 
     @Override
@@ -399,15 +366,10 @@ public class TinyWebRequest implements HttpServletRequest {
         //
         // The extra path information follows the servlet path but precedes
         // the query string and will start with a "/" character.
+        //
+        // Returns null if there was no extra path information.
 
-        final String p = this.requestURL.getPath();
-        if (this.servletPath != null) {
-            final int ipos = p.indexOf(this.servletPath);
-            if (ipos > -1) {
-                return p.substring(ipos + this.servletPath.length());
-            }
-        }
-        return p;
+        return this.pathInfo;
     }
 
     @Override
@@ -557,8 +519,25 @@ public class TinyWebRequest implements HttpServletRequest {
         return url.append(getRequestURI());
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * The session cookie takes precedence over the <code>jsessionid</code>
+     * request parameter.
+     * </p>
+     */
     @Override
     public String getRequestedSessionId() {
+        if (!this.sessionCookieChecked) {
+            this.sessionCookieChecked = true;
+
+            final String id = this.findCookieValue(TinyWebSession.SESSION_ID);
+            if (id != null) {
+                this.requestedSessionId = id;
+            }
+        }
+
         return this.requestedSessionId;
     }
 
@@ -603,12 +582,12 @@ public class TinyWebRequest implements HttpServletRequest {
      */
     @Override
     public HttpSession getSession(boolean aCreate) {
-        if ((this.session == null) && (this.requestedSessionId != null)) {
-            this.session = TinyWebSessionManager.getInstance().findSession(
-                    this.requestedSessionId);
+        final String requestedId = this.getRequestedSessionId();
+        if ((this.session == null) && (requestedId != null)) {
+            this.session = TinyWebSessionManager.getInstance().findSession(requestedId);
 
             if (this.session == null) {
-                LOGGER.warn("Cannot find request HTTP session " + this.requestedSessionId);
+                LOGGER.warn("Cannot find request HTTP session " + requestedId);
             }
         }
 
@@ -634,7 +613,7 @@ public class TinyWebRequest implements HttpServletRequest {
 
     @Override
     public boolean isRequestedSessionIdFromCookie() {
-        return (this.findCookie(TinyWebSession.SESSION_ID) != null);
+        return (this.findCookieValue(TinyWebSession.SESSION_ID) != null);
     }
 
     @Override
@@ -655,7 +634,7 @@ public class TinyWebRequest implements HttpServletRequest {
 
     @Override
     public boolean isRequestedSessionIdValid() {
-        return (this.requestedSessionId != null) && (this.getSession(false) != null);
+        return (this.getRequestedSessionId() != null) && (this.getSession(false) != null);
     }
 
     @Override
@@ -695,13 +674,10 @@ public class TinyWebRequest implements HttpServletRequest {
      *            The cookie
      */
     public void addCookie(Cookie aCookie) {
-        if (this.cookies == null) {
-            this.cookies = new ArrayList<Cookie>();
-        }
-
-        this.cookies.add(aCookie);
+        this.parseCookies().add(aCookie);
 
         if (TinyWebSession.SESSION_ID.equals(aCookie.getName())) {
+            this.sessionCookieChecked = true;
             this.requestedSessionId = aCookie.getValue();
         }
     }
@@ -715,7 +691,7 @@ public class TinyWebRequest implements HttpServletRequest {
      */
     @Nullable
     public Cookie findCookie(String aName) {
-        for (final Cookie c : this.cookies) {
+        for (final Cookie c : this.parseCookies()) {
             if (c.getName().equals(aName)) {
                 return c;
             }
@@ -724,6 +700,54 @@ public class TinyWebRequest implements HttpServletRequest {
         return null;
     }
 
+    /**
+     * Find the value of the stated cookie.
+     *
+     * <p>
+     * Unlike {@link #findCookie(String)}, does not create cookies
+     * for every name/value pair in the <code>Cookie</code> headers.
+     * </p>
+     *
+     * @param aName
+     *            The cookie identifier
+     * @return the value or null (not found)
+     */
+    @Nullable
+    public String findCookieValue(String aName) {
+        if (this.cookies != null) {
+            final Cookie c = this.findCookie(aName);
+            return (c != null) ? c.getValue() : null;
+        }
+
+        final HttpHeaderUtils utils = HttpHeaderUtils.getInstance();
+        for (final Enumeration<String> e = this.getHeaders(COOKIE); e.hasMoreElements();) {
+            final String value = utils.findCookieValue(e.nextElement(), aName);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Create cookies from the <code>Cookie</code> headers.
+     *
+     * @return the cookies
+     */
+    private List<Cookie> parseCookies() {
+        if (this.cookies == null) {
+            this.cookies = new ArrayList<Cookie>();
+
+            final HttpHeaderUtils utils = HttpHeaderUtils.getInstance();
+            for (final Enumeration<String> e = this.getHeaders(COOKIE); e.hasMoreElements();) {
+                utils.parseCookies(e.nextElement(), this.cookies);
+            }
+        }
+
+        return this.cookies;
+    }
+
     /**
      * Add a new HTTP header value.
      *
@@ -742,6 +766,7 @@ public class TinyWebRequest implements HttpServletRequest {
             final Collection<String> strings = new ArrayList<String>();
             strings.add((String) header);
             strings.add(aValue);
+            this.headers.put(aName, strings);
 
         } else { // if ( header == null )
             this.headers.put(aName, aValue);
@@ -843,13 +868,6 @@ public class TinyWebRequest implements HttpServletRequest {
                 LOGGER.debug(name + ": " + this.getHeader(name));
             }
 
-            if (this.cookies != null) {
-                LOGGER.debug("Cookies...");
-                for (final Cookie c : this.cookies) {
-                    LOGGER.debug(c.getName() + " = " + c.getValue());
-                }
-            }
-
             LOGGER.debug("Parameters...");
             for (final Enumeration<String> e = this.getParameterNames(); e.hasMoreElements();) {
                 final String name = e.nextElement();
@@ -917,6 +935,16 @@ public class TinyWebRequest implements HttpServletRequest {
         this.servletPath = aPath;
     }
 
+    /**
+     * What portion of the request URL path follows the servlet path?
+     *
+     * @param aPath
+     *            The value, or null (none)
+     */
+    public void setPathInfo(@Nullable String aPath) {
+        this.pathInfo = aPath;
+    }
+
     /**
      * What is creating the response for this request?
      *
@@ -951,6 +979,7 @@ public class TinyWebRequest implements HttpServletRequest {
         try {
             this.setRequestURL(new URL(sb.toString()));
             this.setServletPath(aPath);
+            this.setPathInfo(null);
 
         } catch (final MalformedURLException e) {
             LOGGER.error("Invalid URL: " + sb);
@@ -967,7 +996,6 @@ public class TinyWebRequest implements HttpServletRequest {
      *
      * @see #getMethod()
      * @see #getProtocol()
-     * @see #addCookie(Cookie)
      * @see #addHeader(String, String)
      * @see HttpHeaderUtils
      */
@@ -999,9 +1027,9 @@ public class TinyWebRequest implements HttpServletRequest {
             final String name = aText.substring(0, ipos).trim();
             final String value = aText.substring(ipos + 1);
 
-            if ("Cookie".equals(name)) {
-                final Cookie c = HttpHeaderUtils.getInstance().parseCookie(value);
-                this.addCookie(c);
+            if (COOKIE.equalsIgnoreCase(name)) {
+                // cookies created on demand, see parseCookies()
+                this.addHeader(COOKIE, value.trim());
             } else {
                 this.addHeader(name, value.trim());
             }
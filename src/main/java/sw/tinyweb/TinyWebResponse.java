@@ -1,18 +1,30 @@
 package sw.tinyweb;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.zip.Deflater;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
@@ -21,7 +33,18 @@ import javax.servlet.http.HttpSession;
 
 import org.apache.log4j.Logger;
 
+import sw.tinyweb.io.BufferPool;
+import sw.tinyweb.io.CachePolicy;
+import sw.tinyweb.io.CachePolicyTable;
+import sw.tinyweb.io.CompressionPolicy;
+import sw.tinyweb.io.HttpHeadEncoder;
+import sw.tinyweb.io.PooledOutputBuffer;
+import sw.tinyweb.io.ResponseCompressor;
+import sw.tinyweb.utils.ContentNegotiator;
+import sw.tinyweb.utils.ETags;
+import sw.tinyweb.utils.HttpDateCodec;
 import sw.tinyweb.utils.HttpHeaderUtils;
+import sw.tinyweb.utils.ServletUtils;
 
 /**
  * A single HTTP response.
@@ -46,53 +69,185 @@ public class TinyWebResponse implements HttpServletResponse {
      * </pre>
      * </p>
      */
-    private static final byte[] CRLF = "\r\n".getBytes();
+    private static final byte[] CRLF = { '\r', '\n' };
 
-    /** Buffer that auto writes content to the HTTP output stream when running out of capacity. */
-    protected class FixedSizeBuffer extends ByteArrayOutputStream {
+    /** End of the final data chunk, followed by the zero sized EOF chunk. */
+    private static final byte[] CRLF_LAST_CHUNK = { '\r', '\n', '0', '\r', '\n', '\r', '\n' };
+
+    /** The zero sized EOF chunk. */
+    private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+    private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    /**
+     * Buffer that auto writes content to the HTTP output stream when running out of capacity.
+     *
+     * <p>
+     * Also the servlet output stream; one instance is shared by all
+     * {@link #getOutputStream()} callers.
+     * </p>
+     */
+    protected class FixedSizeBuffer extends ServletOutputStream {
         @Override
-        public synchronized void close() throws IOException {
+        public void close() throws IOException {
             // stream will be closed by TinyWeb main loop
         }
 
         @Override
-        public synchronized void flush() throws IOException {
+        public void flush() throws IOException {
             flushBuffer();
         }
 
         @Override
-        public synchronized void write(int aValue) {
-            super.write(aValue);
+        public void write(int aValue) throws IOException {
+            content.write(aValue);
 
-            if (this.size() > getBufferSize()) {
-                this.flush_ignoreError();
+            if (content.size() >= getBufferSize()) {
+                writeBuffer(false, false);
             }
         }
 
         @Override
-        public synchronized void write(byte aBuf[], int aOffset, int aLen) {
-            super.write(aBuf, aOffset, aLen);
+        public void write(byte aBuf[], int aOffset, int aLen) throws IOException {
+            int offset = aOffset;
+            int len = aLen;
+
+            while (len > 0) {
+                final int n = Math.min(len, getBufferSize() - content.size());
+                if (n > 0) {
+                    content.write(aBuf, offset, n);
+                    offset += n;
+                    len -= n;
+                }
 
-            if (this.size() > getBufferSize()) {
-                this.flush_ignoreError();
+                if (content.size() >= getBufferSize()) {
+                    writeBuffer(false, false);
+                }
             }
         }
+    }
 
-        private void flush_ignoreError() {
-            try {
-                this.flush();
-            } catch (final IOException e) {
-                LOGGER.error("Cannot flush buffer to HTTP output stream", e);
+    /**
+     * Writer that encodes characters straight into the response buffer.
+     *
+     * <p>
+     * Uses a single {@link CharsetEncoder} for the lifetime of the response.
+     * </p>
+     */
+    private class ResponseWriter extends Writer {
+
+        /** Enough space for any character in any supported encoding. */
+        private static final int MIN_SPACE = 8;
+
+        private final CharsetEncoder encoder;
+
+        /** High surrogate waiting for the rest of the character. */
+        private final CharBuffer pendingChars = CharBuffer.allocate(2);
+
+        ResponseWriter(Charset aCharset) {
+            this.encoder = aCharset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public void write(int aChar) throws IOException {
+            this.write(new char[] { (char) aChar }, 0, 1);
+        }
+
+        @Override
+        public void write(char[] aBuf, int aOffset, int aLen) throws IOException {
+            this.encode(CharBuffer.wrap(aBuf, aOffset, aLen));
+        }
+
+        @Override
+        public void write(String aText, int aOffset, int aLen) throws IOException {
+            this.encode(CharBuffer.wrap(aText, aOffset, aOffset + aLen));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            buffer.close();
+        }
+
+        /**
+         * Encode the characters into the response buffer.
+         *
+         * @param aChars
+         *            The characters
+         * @throws IOException
+         *             when a full buffer cannot be flushed
+         */
+        private void encode(CharBuffer aChars) throws IOException {
+            if ((this.pendingChars.position() > 0) && aChars.hasRemaining()) {
+                // complete the surrogate pair from the previous write
+                this.pendingChars.put(aChars.get());
+                this.pendingChars.flip();
+                this.encodeAll(this.pendingChars);
+                this.pendingChars.clear();
+            }
+
+            this.encodeAll(aChars);
+
+            if (aChars.hasRemaining()) {
+                // incomplete surrogate pair
+                this.pendingChars.put(aChars.get());
+            }
+        }
+
+        private void encodeAll(CharBuffer aChars) throws IOException {
+            while (true) {
+                int space = getBufferSize() - content.size();
+                if (space < MIN_SPACE) {
+                    if (content.size() > 0) {
+                        writeBuffer(false, false);
+                    }
+                    space = Math.max(getBufferSize(), MIN_SPACE);
+                }
+
+                final CoderResult r = content.encode(this.encoder, aChars, space);
+                if (r.isUnderflow()) {
+                    return;
+                }
+
+                if (r.isError()) {
+                    r.throwException();
+                }
             }
         }
     }
 
+    /** Response data, held in pooled buffers until flushed. */
+    private final PooledOutputBuffer content;
+
+    /** Compressed response data, when the content is being compressed. */
+    private PooledOutputBuffer compressedContent;
+
+    private ResponseCompressor compressor;
+
     private final FixedSizeBuffer buffer = new FixedSizeBuffer();
 
+    private PrintWriter writer;
+
+    /** Chunk size as HEX followed by CRLF. */
+    private final byte[] chunkHeader = new byte[18];
+
+    private final HttpHeadEncoder headEncoder = new HttpHeadEncoder();
+
+    /** Head, chunk header, data and chunk trailer; sent with a single gathering write. */
+    private ByteBuffer[] writeBuffers = new ByteBuffer[8];
+
     private int bufferSize = DEFAULT_BUFFER_SIZE;
 
     private boolean chunkedOutput;
 
+    private boolean closed;
+
     private boolean committed;
 
     private final List<Cookie> cookies = new ArrayList<Cookie>();
@@ -103,13 +258,46 @@ public class TinyWebResponse implements HttpServletResponse {
 
     private final OutputStream outputStream;
 
+    private final GatheringByteChannel outputChannel;
+
     private final HttpServletRequest servletRequest;
 
     private int statusCode;
 
     private String statusMessage;
 
+    /**
+     * Constructor.
+     *
+     * @param aRequest
+     *            The HTTP request
+     * @param aOut
+     *            The HTTP output stream
+     */
     public TinyWebResponse(HttpServletRequest aRequest, OutputStream aOut) {
+        this(aRequest, aOut, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * <p>
+     * Response data is sent using gathering writes, so the head and
+     * each chunk of data are sent by a single system call.
+     * </p>
+     *
+     * @param aRequest
+     *            The HTTP request
+     * @param aChannel
+     *            The HTTP output channel, eg. {@link java.nio.channels.SocketChannel}
+     */
+    public TinyWebResponse(HttpServletRequest aRequest, GatheringByteChannel aChannel) {
+        this(aRequest, Channels.newOutputStream(aChannel), aChannel);
+    }
+
+    private TinyWebResponse(HttpServletRequest aRequest, OutputStream aOut, GatheringByteChannel aChannel) {
+        this.content = new PooledOutputBuffer(BufferPool.getInstance());
+        this.outputChannel = aChannel;
         this.outputStream = aOut;
         this.servletRequest = aRequest;
 
@@ -132,28 +320,21 @@ public class TinyWebResponse implements HttpServletResponse {
 
     @Override
     public ServletOutputStream getOutputStream() throws IOException {
-
-        return new ServletOutputStream() {
-            @Override
-            public void close() throws IOException {
-                buffer.close();
-            }
-
-            @Override
-            public void flush() throws IOException {
-                buffer.flush();
-            }
-
-            @Override
-            public void write(int aValue) throws IOException {
-                buffer.write(aValue);
-            }
-        };
+        return this.buffer;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Has no effect after {@link #getWriter()} has been called.
+     * </p>
+     */
     @Override
     public void setCharacterEncoding(String aEncoding) {
-        this.setHeader("Character-Encoding", aEncoding);
+        if (this.writer == null) {
+            this.setHeader("Character-Encoding", aEncoding);
+        }
     }
 
     @Override
@@ -169,6 +350,7 @@ public class TinyWebResponse implements HttpServletResponse {
     @Override
     public void setStatus(int aCode) {
         this.statusCode = aCode;
+        this.statusMessage = null; // standard reason phrase
     }
 
     /**
@@ -184,30 +366,7 @@ public class TinyWebResponse implements HttpServletResponse {
 
     @Override
     public void flushBuffer() throws IOException {
-        if (!this.committed) {
-            this.writeResponseHeader();
-            this.committed = true;
-        }
-
-        try {
-            final byte[] data = this.buffer.toByteArray();
-            if (!this.chunkedOutput) {
-                this.outputStream.write(data);
-
-            } else if (data.length > 0) {
-                // EOF is marked with a empty chunk. Therefore, must NEVER
-                // create a zero sized chunk whilst stream is open.
-
-                final String chunkSize = Integer.toHexString(this.buffer.size());
-                this.outputStream.write(chunkSize.getBytes("UTF-8"));
-                this.outputStream.write(CRLF);
-                this.outputStream.write(data);
-                this.outputStream.write(CRLF);
-            }
-
-        } finally {
-            this.resetBuffer();
-        }
+        this.writeBuffer(false, true);
     }
 
     @Override
@@ -220,9 +379,30 @@ public class TinyWebResponse implements HttpServletResponse {
         return this.locale;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Characters are encoded using the {@link #getCharacterEncoding()
+     * response encoding}.
+     * </p>
+     */
     @Override
     public PrintWriter getWriter() throws IOException {
-        return new PrintWriter(this.buffer, true);
+        if (this.writer == null) {
+            final String encoding = this.getCharacterEncoding();
+
+            Charset charset;
+            try {
+                charset = (encoding != null) ? Charset.forName(encoding.trim()) : StandardCharsets.UTF_8;
+            } catch (final IllegalArgumentException e) {
+                throw new UnsupportedEncodingException("Unsupported response encoding: " + encoding);
+            }
+
+            this.writer = new PrintWriter(new ResponseWriter(charset), false);
+        }
+
+        return this.writer;
     }
 
     @Override
@@ -236,17 +416,17 @@ public class TinyWebResponse implements HttpServletResponse {
             throw new IllegalStateException("Cannot reset output stream after it has been committed");
         }
 
-        this.buffer.reset();
+        this.content.release();
         this.cookies.clear();
         this.headers.clear();
         this.locale = Locale.getDefault();
         this.statusCode = SC_OK;
-        this.statusMessage = "OK";
+        this.statusMessage = null;
     }
 
     @Override
     public void resetBuffer() {
-        this.buffer.reset();
+        this.content.release();
     }
 
     @Override
@@ -261,8 +441,7 @@ public class TinyWebResponse implements HttpServletResponse {
 
     @Override
     public void setDateHeader(String aName, long aValue) {
-        final String dateStr = HttpHeaderUtils.getInstance().formatDate(new Date(aValue), this.getLocale());
-        this.setHeader(aName, dateStr);
+        this.setHeader(aName, HttpDateCodec.format(aValue));
     }
 
     @Override
@@ -347,8 +526,7 @@ public class TinyWebResponse implements HttpServletResponse {
 
     @Override
     public void sendError(int aCode) throws IOException {
-        this.setStatus(aCode);
-        this.closeStream();
+        this.sendError(aCode, null);
     }
 
     @Override
@@ -358,6 +536,34 @@ public class TinyWebResponse implements HttpServletResponse {
         this.closeStream();
     }
 
+    /**
+     * Send a <code>304 Not Modified</code> response.
+     *
+     * <p>
+     * Fast path for revalidation. Buffered content and the headers that
+     * describe the (unsent) body are discarded. Cache related headers,
+     * eg. <code>ETag</code> and <code>Cache-Control</code>, are sent.
+     * </p>
+     *
+     * @throws IllegalStateException
+     *             when the response has already been committed
+     */
+    public void sendNotModified() {
+        if (this.committed) {
+            throw new IllegalStateException("Cannot send 304 after the response has been committed");
+        }
+
+        this.content.release();
+        this.headers.remove("Character-Encoding");
+        this.headers.remove("Content-Encoding");
+        this.headers.remove("Content-Length");
+        this.headers.remove("Content-Type");
+
+        this.statusCode = SC_NOT_MODIFIED;
+        this.statusMessage = null;
+        this.closeStream();
+    }
+
     @Override
     public void sendRedirect(String aURL) throws IOException {
         throw new UnsupportedOperationException("HttpServletResponse.sendRedirect() not supported");
@@ -365,7 +571,93 @@ public class TinyWebResponse implements HttpServletResponse {
 
     /** @return the buffered content */
     public byte[] getBufferContent() {
-        return this.buffer.toByteArray();
+        return this.content.toByteArray();
+    }
+
+    /**
+     * Send part of a file.
+     *
+     * <p>
+     * The response head and any buffered content are sent first. The file
+     * data is then handed to {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * which uses <code>sendfile</code> (or similar) where available, so the
+     * data is never copied into the java heap. The data is copied through
+     * the response buffer instead when the response is being compressed or
+     * was not created with a channel.
+     * </p>
+     *
+     * <p>
+     * Set the <code>Content-Length</code> beforehand, otherwise the data is
+     * sent as a single chunk.
+     * </p>
+     *
+     * @param aFile
+     *            The file
+     * @param aPosition
+     *            The first byte to send
+     * @param aCount
+     *            The number of bytes to send
+     * @throws IOException
+     *             when the data cannot be sent
+     */
+    public void transferFrom(FileChannel aFile, long aPosition, long aCount) throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.writeBuffer(false, true);
+
+        if ((this.compressor != null) || (this.outputChannel == null)) {
+            this.copyFrom(aFile, aPosition, aCount);
+            return;
+        }
+
+        if ((aCount < 1) || !isBodyAllowed(this.statusCode)) {
+            return;
+        }
+
+        if (this.chunkedOutput) {
+            this.write(new ByteBuffer[] { this.encodeChunkHeader(aCount) }, 1);
+        }
+
+        final long end = aPosition + aCount;
+        long pos = aPosition;
+
+        while (pos < end) {
+            final long n = aFile.transferTo(pos, end - pos, this.outputChannel);
+            if ((n < 1) && (pos >= aFile.size())) {
+                throw new EOFException("File truncated at " + pos);
+            }
+            pos += n;
+        }
+
+        if (this.chunkedOutput) {
+            this.write(new ByteBuffer[] { ByteBuffer.wrap(CRLF) }, 1);
+        }
+    }
+
+    /**
+     * Send content held in memory.
+     *
+     * <p>
+     * The content is sent with the response head and any buffered content
+     * in a single gathering write, so content held in a direct buffer is
+     * never copied into the java heap. The content is copied through the
+     * response buffer instead when the response is being compressed.
+     * </p>
+     *
+     * <p>
+     * Set the <code>Content-Length</code> beforehand, otherwise the content is
+     * sent as a single chunk.
+     * </p>
+     *
+     * @param aContent
+     *            The content; its position is advanced to its limit
+     * @throws IOException
+     *             when the content cannot be sent
+     */
+    public void transferFrom(ByteBuffer aContent) throws IOException {
+        this.writeBuffer(false, true, aContent);
     }
 
     /**
@@ -384,21 +676,33 @@ public class TinyWebResponse implements HttpServletResponse {
         return null;
     }
 
-    /** Close the output stream. */
+    /**
+     * Close the output stream.
+     *
+     * <p>
+     * When the response has not been committed, the whole body is still
+     * buffered. Therefore, it is sent with a <code>Content-Length</code>
+     * rather than chunked.
+     * </p>
+     *
+     * <p>
+     * Does nothing when the stream has already been closed.
+     * </p>
+     */
     public void closeStream() {
-        try {
-            this.flushBuffer();
+        if (this.closed) {
+            return;
+        }
 
-            if (this.chunkedOutput) {
-                this.outputStream.write('0'); // zero bytes remaining
-                this.outputStream.write(CRLF);
-                this.outputStream.write(CRLF);
-            }
+        try {
+            this.writeBuffer(true, true);
 
         } catch (final IOException e) {
             LOGGER.error("Cannot commit HttpResponseServlet changes", e);
         }
 
+        this.closed = true;
+
         try {
             this.outputStream.close();
 
@@ -408,18 +712,355 @@ public class TinyWebResponse implements HttpServletResponse {
     }
 
     /**
-     * Write the HTTP response header.
+     * Send the buffered content to the client.
+     *
+     * <p>
+     * The response head (when not already committed), chunk framing and
+     * data are sent using a single gathering write. Compressed responses
+     * send the compressed data instead.
+     * </p>
+     *
+     * @param aLast
+     *            Is this the final write for this response?
+     * @param aFlush
+     *            Must all data written so far be sent, rather than
+     *            just a full buffer?
+     * @throws IOException
+     *             when the content cannot be sent
+     */
+    private void writeBuffer(boolean aLast, boolean aFlush) throws IOException {
+        this.writeBuffer(aLast, aFlush, null);
+    }
+
+    /**
+     * Write the buffered content, followed by the stated content.
+     *
+     * @param aLast
+     *            Is all of the content buffered?
+     * @param aFlush
+     *            Must compressed content be flushed?
+     * @param aTail
+     *            Content sent after the buffered content, or null
+     * @throws IOException
+     *             when the content cannot be sent
+     */
+    private void writeBuffer(boolean aLast, boolean aFlush, @Nullable ByteBuffer aTail) throws IOException {
+        int n = 0;
+
+        try {
+            if (this.closed || !isBodyAllowed(this.statusCode)) {
+                this.content.release();
+            }
+
+            if (this.closed) {
+                return;
+            }
+
+            if (!this.committed) {
+                this.applyCachePolicy();
+                this.startCompression(aLast);
+            }
+
+            ByteBuffer tail = isBodyAllowed(this.statusCode) ? aTail : null;
+            if ((tail != null) && (this.compressor != null)) {
+                this.content.write(tail);
+                tail = null;
+            }
+
+            PooledOutputBuffer out = this.content;
+            if (this.compressor != null) {
+                out = this.compressedContent;
+                if (aLast) {
+                    this.compressor.finish(this.content, out);
+                } else {
+                    this.compressor.compress(this.content, out, aFlush);
+                }
+            }
+
+            final int segments = out.getSegmentCount();
+            if (this.writeBuffers.length < segments + 5) {
+                this.writeBuffers = new ByteBuffer[segments + 5];
+            }
+
+            final int len = out.size() + ((tail != null) ? tail.remaining() : 0);
+            if (!this.committed) {
+                this.writeResponseHeader(aLast, len);
+                this.committed = true;
+                this.writeBuffers[n++] = this.headEncoder.toByteBuffer();
+            }
+
+            if (this.chunkedOutput && (len > 0)) {
+                // EOF is marked with a empty chunk. Therefore, must NEVER
+                // create a zero sized chunk whilst stream is open.
+
+                this.writeBuffers[n++] = this.encodeChunkHeader(len);
+            }
+
+            // hand pooled buffers to the channel without copying
+
+            final ByteBuffer[] data = out.flip();
+            System.arraycopy(data, 0, this.writeBuffers, n, segments);
+            n += segments;
+
+            if (tail != null) {
+                this.writeBuffers[n++] = tail;
+            }
+
+            if (this.chunkedOutput) {
+                if (len > 0) {
+                    this.writeBuffers[n++] = ByteBuffer.wrap(aLast ? CRLF_LAST_CHUNK : CRLF);
+                } else if (aLast) {
+                    this.writeBuffers[n++] = ByteBuffer.wrap(LAST_CHUNK);
+                }
+            }
+
+            this.write(this.writeBuffers, n);
+
+        } finally {
+            for (int i = 0; i < n; i++) {
+                this.writeBuffers[i] = null;
+            }
+
+            this.content.release();
+
+            if (this.compressor != null) {
+                this.compressedContent.release();
+
+                if (aLast) {
+                    this.compressor.end();
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the <code>Cache-Control</code> header decided by the {@link CachePolicyTable}.
+     *
+     * <p>
+     * Called once, just before the response is committed. Does nothing
+     * when the servlet has set the header itself, or the response is not
+     * a success or <code>304 Not Modified</code>.
+     * </p>
+     */
+    private void applyCachePolicy() {
+        if ((this.statusCode != SC_NOT_MODIFIED) && ((this.statusCode < 200) || (this.statusCode >= 300))) {
+            return;
+        }
+        if ((this.servletRequest == null) || this.containsHeader("Cache-Control")) {
+            return;
+        }
+
+        if (this.servletRequest.getServletPath() == null) {
+            return;
+        }
+        final String path = ServletUtils.getRequestPath(this.servletRequest);
+
+        final CachePolicy policy = CachePolicyTable.getInstance().find(path, this.getContentType());
+        if (policy != null) {
+            this.setHeader("Cache-Control", policy.getHeaderValue());
+        }
+    }
+
+    /**
+     * Decide whether to compress the response.
+     *
+     * <p>
+     * Called once, just before the response is committed.
+     * </p>
+     *
+     * @param aLast
+     *            Is all of the content buffered?
+     *
+     * @see CompressionPolicy
+     */
+    private void startCompression(boolean aLast) {
+        if ((this.statusCode < 200) || (this.statusCode >= 300) || (this.statusCode == SC_PARTIAL_CONTENT)
+                || !isBodyAllowed(this.statusCode) || this.containsHeader("Content-Encoding")) {
+            return;
+        }
+
+        final CompressionPolicy policy = CompressionPolicy.getInstance();
+        if (!policy.isCompressible(this.getContentType())) {
+            return;
+        }
+
+        // response depends on Accept-Encoding, whatever the outcome
+        this.addVary(ContentNegotiator.ACCEPT_ENCODING);
+
+        long size = this.content.size();
+        if (!aLast) {
+            final String length = this.headers.get("Content-Length");
+            if (length != null) {
+                try {
+                    size = Long.parseLong(length.trim());
+
+                } catch (final NumberFormatException e) {
+                    // ignore
+                }
+            }
+        }
+
+        if ((size == 0) || (size < policy.getMinimumSize())) {
+            return;
+        }
+
+        final String encoding = policy.selectEncoding(this.servletRequest);
+        if (encoding == null) {
+            return;
+        }
+
+        final int level = policy.selectLevel();
+        if (level == Deflater.NO_COMPRESSION) {
+            LOGGER.debug("Server busy; response not compressed");
+            return;
+        }
+
+        this.compressor = new ResponseCompressor(encoding, level);
+        this.compressedContent = new PooledOutputBuffer(BufferPool.getInstance());
+
+        this.headers.remove("Content-Length"); // length of uncompressed data
+        this.setHeader("Content-Encoding", encoding);
+
+        final String etag = this.headers.get("ETag");
+        if (etag != null) {
+            // each representation needs its own tag
+            this.setHeader("ETag", ETags.withEncoding(etag, encoding));
+        }
+    }
+
+    /**
+     * Add a request header name to the <code>Vary</code> header.
+     *
+     * @param aName
+     *            The request header name
+     */
+    private void addVary(String aName) {
+        final String vary = this.headers.get("Vary");
+        if (vary == null) {
+            this.setHeader("Vary", aName);
+        } else if (!vary.toLowerCase(Locale.ENGLISH).contains(aName.toLowerCase(Locale.ENGLISH))) {
+            this.setHeader("Vary", vary + ", " + aName);
+        }
+    }
+
+    /**
+     * Copy part of a file through the response buffer.
      *
+     * @param aFile
+     *            The file
+     * @param aPosition
+     *            The first byte to send
+     * @param aCount
+     *            The number of bytes to send
      * @throws IOException
-     *             when the headers cannot be sent
+     *             when the data cannot be sent
      */
-    private void writeResponseHeader() throws IOException {
-        final ByteArrayOutputStream header = new ByteArrayOutputStream();
-        final PrintWriter writer = new PrintWriter(header);
-        writer.print("HTTP/1.1 ");
-        writer.print(this.statusCode);
-        writer.print(" ");
-        writer.println(this.statusMessage);
+    private void copyFrom(FileChannel aFile, long aPosition, long aCount) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(Math.min(this.getBufferSize(), DEFAULT_BUFFER_SIZE));
+
+        long pos = aPosition;
+        long remaining = aCount;
+
+        while (remaining > 0) {
+            buf.clear();
+            if (remaining < buf.capacity()) {
+                buf.limit((int) remaining);
+            }
+
+            final int n = aFile.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException("File truncated at " + pos);
+            }
+
+            this.buffer.write(buf.array(), 0, n);
+            pos += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Create a chunk header.
+     *
+     * @param aSize
+     *            The chunk size
+     * @return the chunk size as HEX followed by CRLF
+     */
+    private ByteBuffer encodeChunkHeader(long aSize) {
+        int digits = 1;
+        for (long v = aSize >>> 4; v > 0; v >>>= 4) {
+            digits++;
+        }
+
+        long v = aSize;
+        for (int i = digits - 1; i >= 0; i--) {
+            this.chunkHeader[i] = HEX_DIGITS[(int) (v & 0xf)];
+            v >>>= 4;
+        }
+
+        this.chunkHeader[digits] = '\r';
+        this.chunkHeader[digits + 1] = '\n';
+
+        return ByteBuffer.wrap(this.chunkHeader, 0, digits + 2);
+    }
+
+    /**
+     * Write the stated buffers to the client.
+     *
+     * @param aBuffers
+     *            The buffers
+     * @param aCount
+     *            The number of buffers to write
+     * @throws IOException
+     *             when the data cannot be sent
+     */
+    private void write(ByteBuffer[] aBuffers, int aCount) throws IOException {
+        if (aCount < 1) {
+            return;
+        }
+
+        if (this.outputChannel != null) {
+            long remaining = 0;
+            for (int i = 0; i < aCount; i++) {
+                remaining += aBuffers[i].remaining();
+            }
+
+            while (remaining > 0) {
+                remaining -= this.outputChannel.write(aBuffers, 0, aCount);
+            }
+
+        } else {
+            for (int i = 0; i < aCount; i++) {
+                final ByteBuffer b = aBuffers[i];
+                if (b.hasArray()) {
+                    this.outputStream.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+                    b.position(b.limit());
+                } else {
+                    final byte[] tmp = new byte[b.remaining()];
+                    b.get(tmp);
+                    this.outputStream.write(tmp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encode the HTTP response header.
+     *
+     * @param aLast
+     *            Is all of the content buffered?
+     * @param aLength
+     *            The length of the buffered content
+     *
+     * @see HttpHeadEncoder
+     */
+    private void writeResponseHeader(boolean aLast, int aLength) {
+        final HttpHeadEncoder head = this.headEncoder;
+        head.reset();
+        head.writeStatusLine(this.statusCode, this.statusMessage);
+
+        if (!this.containsHeader("Date")) {
+            head.writeHeader("Date", HttpDateCodec.getCurrentDateBytes());
+        }
 
         if (this.statusCode < 400) // start of error codes
         {
@@ -437,33 +1078,49 @@ public class TinyWebResponse implements HttpServletResponse {
                 }
             }
 
-            if (!this.containsHeader("Content-Length")) {
-                // response size unknown, so chunk data to client
-                this.addHeader("Transfer-Encoding", "chunked");
-                this.chunkedOutput = true;
-            }
-
-            for (final String name : this.headers.keySet()) {
-                writer.print(name);
-                writer.print(": ");
-                writer.println(this.headers.get(name));
+            for (final Map.Entry<String, String> e : this.headers.entrySet()) {
+                head.writeHeader(e.getKey(), e.getValue());
             }
 
             final HttpHeaderUtils utils = HttpHeaderUtils.getInstance();
             for (final Cookie c : this.cookies) {
-                utils.writeSetCookie(writer, c, this.locale);
+                head.writeHeader("Set-Cookie", utils.formatSetCookie(c, this.locale));
+            }
+
+        } else if ((this.statusCode == SC_REQUESTED_RANGE_NOT_SATISFIABLE) && this.containsHeader("Content-Range")) {
+            // tells the client the current resource size
+            head.writeHeader("Content-Range", this.headers.get("Content-Range"));
+        }
+
+        if (!isBodyAllowed(this.statusCode)) {
+            // no framing required
+        } else if (aLast) {
+            if ((this.statusCode >= 400) || !this.containsHeader("Content-Length")) {
+                head.writeHeader("Content-Length", aLength);
             }
+        } else if ((this.statusCode >= 400) || !this.containsHeader("Content-Length")) {
+            // response size unknown, so chunk data to client
+            head.writeChunkedEncoding();
+            this.chunkedOutput = true;
         }
 
-        writer.close();
+        head.writeEnd();
 
         if (LOGGER.isDebugEnabled()) {
-            final String s = new String(header.toByteArray(), "UTF-8");
-            LOGGER.debug(s);
+            LOGGER.debug(head.toString());
         }
+    }
 
-        this.outputStream.write(header.toByteArray());
-        this.outputStream.write(CRLF);
+    /**
+     * Can a response with the stated status code have a body?
+     *
+     * @param aCode
+     *            The HTTP status code
+     * @return false for informational, <code>204 No Content</code> and
+     *         <code>304 Not Modified</code> responses
+     */
+    private static boolean isBodyAllowed(int aCode) {
+        return (aCode >= 200) && (aCode != SC_NO_CONTENT) && (aCode != SC_NOT_MODIFIED);
     }
 
 }
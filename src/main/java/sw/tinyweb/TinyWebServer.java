@@ -1,26 +1,46 @@
 package sw.tinyweb;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextAttributeListener;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 
+import sw.tinyweb.io.NullChannel;
+
 /**
  * A small footprint HTTP web server.
  *
@@ -32,6 +52,12 @@ import org.apache.log4j.Logger;
  * Designed for use on low powered embedded platforms.
  * </p>
  *
+ * <p>
+ * An index of the web content folder is written at startup, and used by
+ * the next start to find resources without reading the file system, see
+ * {@link #setResourceIndexFile(File)}.
+ * </p>
+ *
  * @see Servlet
  */
 public class TinyWebServer implements Runnable {
@@ -46,14 +72,20 @@ public class TinyWebServer implements Runnable {
 
     private final int listenPort;
 
+    private File resourceIndexFile;
+
     private TinyWebServletContext rootContext;
 
-    private final Map<String, Servlet> servletCache = new HashMap<String, Servlet>();
+    private volatile ServletRouter router = new ServletRouter(Collections.<String, String> emptyMap());
+
+    private final ServletRegistry servlets = new ServletRegistry();
 
     private final Map<String, TinyWebServletConfig> servletConfigs = new HashMap<String, TinyWebServletConfig>();
 
     private final Map<String, String> servletMappings = new HashMap<String, String>();
 
+    private WarmUpTraffic warmUpTraffic;
+
     private final File webContentHome;
 
     /**
@@ -67,6 +99,42 @@ public class TinyWebServer implements Runnable {
     public TinyWebServer(int aPort, File aWebContentHome) {
         this.listenPort = aPort;
         this.webContentHome = aWebContentHome;
+        this.resourceIndexFile = new File(new File(System.getProperty("user.home"), ".tinyweb"),
+                "index-" + Integer.toHexString(aWebContentHome.getAbsolutePath().hashCode()) + ".idx");
+    }
+
+    /**
+     * Change where the resource index is stored.
+     *
+     * <p>
+     * Defaults to a file in the <code>.tinyweb</code> folder of the user's
+     * home folder, named after the web content folder. The index is trusted
+     * by the next start, so must not be stored where other users can write,
+     * eg. <code>java.io.tmpdir</code>.
+     * </p>
+     *
+     * @param aFile
+     *            The index file, or null (no index)
+     *
+     * @see ResourceIndexSnapshot
+     */
+    public void setResourceIndexFile(@Nullable File aFile) {
+        this.resourceIndexFile = aFile;
+    }
+
+    /**
+     * Replay synthetic requests before accepting traffic.
+     *
+     * <p>
+     * The requests run the same code as client requests, so it is compiled
+     * by the JIT before the first client arrives. Responses are discarded.
+     * </p>
+     *
+     * @param aTraffic
+     *            The requests, or null (no warm up)
+     */
+    public void setWarmUpTraffic(@Nullable WarmUpTraffic aTraffic) {
+        this.warmUpTraffic = aTraffic;
     }
 
     /** @return the root servlet context */
@@ -169,12 +237,16 @@ public class TinyWebServer implements Runnable {
      * </p>
      *
      * @param aPattern
-     *            The URL pattern or "*" (match any)
+     *            The URL pattern, eg. "/about", "/messagebroker/*", "*.jsp",
+     *            or "/" (or "*") to match any
      * @param aServletName
      *            The servlet identifier
+     *
+     * @see ServletRouter
      */
-    public void addServletMapping(String aPattern, String aServletName) {
+    public synchronized void addServletMapping(String aPattern, String aServletName) {
         this.servletMappings.put(aPattern, aServletName);
+        this.router = new ServletRouter(this.servletMappings);
     }
 
     /**
@@ -196,12 +268,20 @@ public class TinyWebServer implements Runnable {
      * @return the configuration or null (not found)
      */
     public TinyWebServletConfig findServletConfigByPath(String aPath) {
-        String name = this.servletMappings.get(aPath);
-        if (name == null) {
-            name = this.servletMappings.get("*");
-        }
+        final ServletRouter.Route route = this.findRoute(aPath);
+        return (route != null) ? this.servletConfigs.get(route.getServletName()) : null;
+    }
 
-        return this.servletConfigs.get(name);
+    /**
+     * Find the servlet mapping for the stated path.
+     *
+     * @param aPath
+     *            The servlet URL
+     * @return the mapping or null (not found)
+     */
+    @Nullable
+    public ServletRouter.Route findRoute(String aPath) {
+        return this.router.find(aPath);
     }
 
     /**
@@ -230,7 +310,11 @@ public class TinyWebServer implements Runnable {
     }
 
     /**
-     * Create the servlet associated with the stated url path.
+     * Create the servlet associated with the stated name.
+     *
+     * <p>
+     * Each servlet is created and initialised once, when first needed.
+     * </p>
      *
      * @param aContext
      *            The application context
@@ -250,18 +334,7 @@ public class TinyWebServer implements Runnable {
             throw new TinyWebException(HttpStatusCodes.NOT_IMPLEMENTED, "Cannot find servlet: " + aServletName);
         }
 
-        Servlet s = this.servletCache.get(config.getServletClass());
-        if (s == null) {
-            final Class<?> c = Class.forName(config.getServletClass());
-            s = (Servlet) c.newInstance();
-
-            config.setServletContext(aContext);
-            s.init(config);
-
-            this.servletCache.put(c.getName(), s);
-        }
-
-        return s;
+        return this.servlets.getServlet(config, aContext);
     }
 
     /**
@@ -274,7 +347,7 @@ public class TinyWebServer implements Runnable {
     public void run() {
         final TinyWebSessionManager smgr = TinyWebSessionManager.getInstance();
 
-        ServerSocket listeningSocket = null;
+        ServerSocketChannel listeningChannel = null;
         try {
             TinyWebRequestDispatcherFactory.getInstance().setServer(this);
 
@@ -283,37 +356,185 @@ public class TinyWebServer implements Runnable {
             this.rootContext = new TinyWebServletContext("/", "TinyWeb 1.0", this.webContentHome);
             this.fireContextInitialized(this.rootContext);
 
+            this.loadResourceIndex();
+
             smgr.setServletContext(rootContext);
 
             rootContext.addServletContextAttributeListener(this.contextAttributeListeners);
 
+            this.loadServletsOnStartup(this.rootContext);
+
+            this.warmUp(this.rootContext);
+
             // wait for and process HTTP requests
 
             LOGGER.info("Starting web server on port " + this.listenPort);
 
-            listeningSocket = new ServerSocket(this.listenPort);
+            // channels allow responses to use gathering writes
+
+            listeningChannel = ServerSocketChannel.open();
+            listeningChannel.socket().bind(new InetSocketAddress(this.listenPort));
+
             while (!this.cancelled) {
-                final Socket clientSocket = listeningSocket.accept();
+                final Socket clientSocket = listeningChannel.accept().socket();
 
                 smgr.removeStaleSessions();
 
                 this.processRequest(rootContext, clientSocket);
             }
 
-            // shutdown server
+        } catch (final Throwable e) {
+            LOGGER.error("Web server failed", e);
+        } finally {
+            closeChannel(listeningChannel);
+
+            // shutdown server, including when start up failed
 
-            for (final String clazz : this.servletCache.keySet()) {
-                final Servlet s = this.servletCache.get(clazz);
-                s.destroy();
+            this.servlets.destroyAll();
+
+            if (this.rootContext != null) {
+                this.rootContext.stopResourceWatcher();
+
+                this.fireContextDestroyed(this.rootContext);
             }
+        }
+    }
 
-            this.fireContextDestroyed(this.rootContext);
+    /**
+     * Use the resource index written by the previous start, then replace it.
+     *
+     * <p>
+     * The web content folder is scanned in the background; entries of the
+     * loaded index that no longer match their files are invalidated, and
+     * a new index is written for the next start.
+     * </p>
+     */
+    private void loadResourceIndex() {
+        final File indexFile = this.resourceIndexFile;
+        if ((indexFile == null) || !this.webContentHome.isDirectory()) {
+            return;
+        }
+
+        final Map<String, String> mappings = new HashMap<String, String>(this.servletMappings);
+        final TinyWebServletContext context = this.rootContext;
+
+        ResourceIndexSnapshot loaded = ResourceIndexSnapshot.load(indexFile, this.webContentHome, mappings);
+        if ((loaded != null) && !context.setResourceSnapshot(loaded)) {
+            LOGGER.info("Cannot use resource index; changes to " + this.webContentHome + " are not watched");
+            loaded = null;
+        }
+        final ResourceIndexSnapshot snapshot = loaded;
+
+        final Thread indexer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<ResourceIndexSnapshot.Record> current = ResourceIndexSnapshot.scan(webContentHome);
+
+                if (snapshot != null) {
+                    // forget resources, and cached content, found with invalidated entries
+                    context.reportResourceChanges(snapshot.validate(current));
+                }
+
+                try {
+                    ResourceIndexSnapshot.write(indexFile, webContentHome, mappings, current);
+
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Wrote " + current.size() + " resources to " + indexFile);
+                    }
+                } catch (final IOException e) {
+                    LOGGER.warn("Cannot write resource index " + indexFile, e);
+                }
+            }
+        }, "TinyWeb-indexer");
+
+        indexer.setDaemon(true);
+        indexer.setPriority(Thread.MIN_PRIORITY);
+        indexer.start();
+    }
+
+    /**
+     * Create the servlets to be loaded on start up.
+     *
+     * <p>
+     * Servlets are created in {@link TinyWebServletConfig#getLoadOnStartup() start up order};
+     * servlets of the same order are created in parallel. The first failure
+     * stops the server from starting.
+     * </p>
+     *
+     * @param aContext
+     *            The application context
+     * @throws Exception
+     *             when a servlet cannot be created
+     */
+    void loadServletsOnStartup(final ServletContext aContext) throws Exception {
+        final SortedMap<Integer, List<TinyWebServletConfig>> groups = new TreeMap<Integer, List<TinyWebServletConfig>>();
+        int parallelism = 0;
+        for (final TinyWebServletConfig c : this.servletConfigs.values()) {
+            if (c.getLoadOnStartup() < 0) {
+                continue;
+            }
+
+            List<TinyWebServletConfig> group = groups.get(c.getLoadOnStartup());
+            if (group == null) {
+                group = new ArrayList<TinyWebServletConfig>();
+                groups.put(c.getLoadOnStartup(), group);
+            }
+            group.add(c);
+            parallelism = Math.max(parallelism, group.size());
+        }
+
+        if (groups.isEmpty()) {
+            return;
+        }
+
+        final AtomicInteger threads = new AtomicInteger();
+        // servlets often wait on I/O while initialising; one thread each
+        final ExecutorService pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable aTask) {
+                final Thread t = new Thread(aTask, "TinyWeb-init-" + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        final long start = System.nanoTime();
+        try {
+            for (final List<TinyWebServletConfig> group : groups.values()) {
+                final CompletionService<Servlet> inits = new ExecutorCompletionService<Servlet>(pool);
+                for (final TinyWebServletConfig c : group) {
+                    inits.submit(new Callable<Servlet>() {
+                        @Override
+                        public Servlet call() throws Exception {
+                            final long t = System.nanoTime();
+                            try {
+                                final Servlet s = createServletByName(aContext, c.getServletName());
+                                LOGGER.info("Servlet " + c.getServletName() + " loaded in "
+                                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t) + " ms");
+                                return s;
+
+                            } catch (final Exception e) {
+                                throw new ServletException("Cannot load servlet " + c.getServletName(), e);
+                            }
+                        }
+                    });
+                }
+
+                // next group starts once this one is complete
+                for (int i = 0; i < group.size(); i++) {
+                    try {
+                        inits.take().get();
+                    } catch (final ExecutionException e) {
+                        throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
 
-        } catch (final Throwable e) {
-            LOGGER.error("Web server failed", e);
         } finally {
-            closeSocket(listeningSocket);
+            pool.shutdownNow();
         }
+
+        LOGGER.info("Servlets loaded on start up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
     }
 
     /** Stop server execution. */
@@ -332,15 +553,17 @@ public class TinyWebServer implements Runnable {
      * @throws Exception
      *             when the request cannot be processed
      *
-     * @see #createServletByPath(ServletContext, String)
-     * @see #executeServlet(Socket, Servlet, TinyWebRequest, TinyWebResponse)
+     * @see #routeRequest(TinyWebRequest)
+     * @see #executeServlet(Socket, Servlet, TinyWebServletConfig, TinyWebRequest, TinyWebResponse)
      */
     private void processRequest(ServletContext aContext, Socket aSocket) throws Exception {
         final InputStream in = aSocket.getInputStream();
         final TinyWebRequest hreq = new TinyWebRequest();
 
-        final OutputStream out = aSocket.getOutputStream();
-        final TinyWebResponse hresp = new TinyWebResponse(hreq, out);
+        final SocketChannel channel = aSocket.getChannel();
+        final TinyWebResponse hresp = (channel != null)
+                ? new TinyWebResponse(hreq, channel)
+                : new TinyWebResponse(hreq, aSocket.getOutputStream());
 
         try {
             hreq.setLocalAddress((InetSocketAddress) aSocket.getLocalSocketAddress());
@@ -348,11 +571,10 @@ public class TinyWebServer implements Runnable {
             hreq.setServletResponse(hresp);
             hreq.initRequest(in);
 
-            final Servlet servlet = this.createServletByPath(aContext, hreq.getRequestURI());
-            hreq.setContextPath(""); // root context; individual application contexts not supported
-            hreq.setServletPath(hreq.getRequestURI());
+            final ServletRouter.Route route = this.routeRequest(hreq);
+            final Servlet servlet = this.createServletByName(aContext, route.getServletName());
 
-            this.executeServlet(aSocket, servlet, hreq, hresp);
+            this.executeServlet(aSocket, servlet, this.findServletConfigByName(route.getServletName()), hreq, hresp);
 
         } catch (final IOException e) {
             this.sendError(hresp, HttpStatusCodes.BAD_REQUEST, e.getMessage());
@@ -363,6 +585,107 @@ public class TinyWebServer implements Runnable {
         }
     }
 
+    /**
+     * Find the servlet mapping of a request, and set the request paths.
+     *
+     * <p>
+     * Each request is resolved once; the servlet, servlet path and path
+     * info all follow from the mapping.
+     * </p>
+     *
+     * @param aRequest
+     *            The HTTP request
+     * @return the mapping
+     * @throws TinyWebException
+     *             when no servlet is mapped
+     */
+    private ServletRouter.Route routeRequest(TinyWebRequest aRequest) throws TinyWebException {
+        final String path = aRequest.getRequestURI();
+        final ServletRouter.Route route = this.findRoute(path);
+        if (route == null) {
+            throw new TinyWebException(HttpStatusCodes.NOT_IMPLEMENTED, "Cannot find servlet by path: " + path);
+        }
+
+        aRequest.setContextPath(""); // root context; individual application contexts not supported
+        aRequest.setServletPath(route.getServletPath(path));
+        aRequest.setPathInfo(route.getPathInfo(path));
+
+        return route;
+    }
+
+    /**
+     * Replay the warm up traffic.
+     *
+     * <p>
+     * Requests are replayed until the JIT stops compiling, once the minimum
+     * number have been replayed, or until the maximum duration has passed.
+     * </p>
+     *
+     * @param aContext
+     *            The application context
+     *
+     * @see #setWarmUpTraffic(WarmUpTraffic)
+     */
+    private void warmUp(final ServletContext aContext) {
+        final WarmUpTraffic traffic = this.warmUpTraffic;
+        if ((traffic == null) || (traffic.size() == 0)) {
+            return;
+        }
+
+        final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), this.listenPort);
+
+        final CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        final boolean monitored = (jit != null) && jit.isCompilationTimeMonitoringSupported();
+        final long compilationStart = monitored ? jit.getTotalCompilationTime() : 0;
+
+        final long start = System.currentTimeMillis();
+        final int count = traffic.replay(new WarmUpTraffic.Replayer() {
+            @Override
+            public void replay(byte[] aRequest) {
+                replayRequest(aContext, aRequest, address);
+            }
+        }, jit);
+
+        LOGGER.info("Warm up replayed " + count + " requests in " + (System.currentTimeMillis() - start) + " ms"
+                + (monitored ? "; JIT compilation " + (jit.getTotalCompilationTime() - compilationStart) + " ms" : ""));
+    }
+
+    /**
+     * Process a warm up request, as {@link #processRequest(ServletContext, Socket)} would.
+     *
+     * @param aContext
+     *            The application context
+     * @param aRequest
+     *            The encoded request
+     * @param aAddress
+     *            The local and remote address of the request
+     */
+    private void replayRequest(ServletContext aContext, byte[] aRequest, InetSocketAddress aAddress) {
+        final TinyWebRequest hreq = new TinyWebRequest();
+        final TinyWebResponse hresp = new TinyWebResponse(hreq, new NullChannel());
+
+        try {
+            hreq.setLocalAddress(aAddress);
+            hreq.setRemoteAddress(aAddress);
+            hreq.setServletResponse(hresp);
+            hreq.initRequest(new ByteArrayInputStream(aRequest));
+
+            final ServletRouter.Route route = this.routeRequest(hreq);
+            this.createServletByName(aContext, route.getServletName()).service(hreq, hresp);
+            hresp.closeStream();
+
+        } catch (final TinyWebException e) {
+            this.sendError(hresp, e.getErrorCode(), e.getMessage());
+        } catch (final Exception e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Warm up request failed", e);
+            }
+            this.sendError(hresp, HttpStatusCodes.INTERNAL_SERVER_ERROR, e.getMessage());
+        } finally {
+            hreq.closeStream();
+        }
+    }
+
     /**
      * Execute the stated servlet.
      *
@@ -370,16 +693,17 @@ public class TinyWebServer implements Runnable {
      *            The socket associated with the request
      * @param aServlet
      *            The servlet
+     * @param aConfig
+     *            The servlet configuration
      * @param aRequest
      *            The HTTP request
      * @param aResponse
      *            The HTTP response
-     *
-     * @see #findServletConfigByPath(String)
      */
     private void executeServlet(
             final Socket aClientSocket,
             final Servlet aServlet,
+            final TinyWebServletConfig aConfig,
             final TinyWebRequest aRequest,
             final TinyWebResponse aResponse) {
 
@@ -398,8 +722,7 @@ public class TinyWebServer implements Runnable {
             }
         };
 
-        final TinyWebServletConfig config = this.findServletConfigByPath(aRequest.getRequestURI());
-        if (config.getExecutionOption() == ExecutionOptions.REQUIRES_THREAD) {
+        if (aConfig.getExecutionOption() == ExecutionOptions.REQUIRES_THREAD) {
             final Thread t = new Thread(servletRunner);
             t.start();
 
@@ -443,10 +766,10 @@ public class TinyWebServer implements Runnable {
         }
     }
 
-    private void closeSocket(ServerSocket aSocket) {
+    private void closeChannel(ServerSocketChannel aChannel) {
         try {
-            if (aSocket != null) {
-                aSocket.close();
+            if (aChannel != null) {
+                aChannel.close();
             }
 
         } catch (final IOException e) {
@@ -32,6 +32,8 @@ public class TinyWebServletConfig implements ServletConfig {
 
     private final Map<String, String> initParams = new HashMap<String, String>();
 
+    private int loadOnStartup = -1;
+
     private ServletContext servletContext;
 
     private String servletClass;
@@ -87,6 +89,30 @@ public class TinyWebServletConfig implements ServletConfig {
         this.executionOption = aOption;
     }
 
+    /** @return the start up order, or a negative value (created when first requested) */
+    public int getLoadOnStartup() {
+        return this.loadOnStartup;
+    }
+
+    /**
+     * When should the servlet be created?
+     *
+     * <p>
+     * From <code>web.xml</code> ...
+     * <pre>
+     *     &lt;load-on-startup>1&lt;/load-on-startup>
+     * </pre>
+     * Servlets with lower values are created first. Servlets with the same
+     * value are created in parallel.
+     * </p>
+     *
+     * @param aOrder
+     *            The start up order, or a negative value (when first requested)
+     */
+    public void setLoadOnStartup(int aOrder) {
+        this.loadOnStartup = aOrder;
+    }
+
     /** @return the class name */
     public String getServletClass() {
         return this.servletClass;
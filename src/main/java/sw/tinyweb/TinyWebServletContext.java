@@ -2,9 +2,12 @@ package sw.tinyweb;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -14,7 +17,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
 import javax.servlet.ServletContext;
@@ -24,15 +31,52 @@ import javax.servlet.ServletException;
 
 import org.apache.log4j.Logger;
 
+import sw.tinyweb.io.ZipContentSource;
+import sw.tinyweb.utils.ETags;
+import sw.tinyweb.utils.FolderWatcher;
 import sw.tinyweb.utils.IteratorEnumeration;
+import sw.tinyweb.utils.ServletUtils;
 
 /**
  * A single HTTP application context.
+ *
+ * <p>
+ * Resolved resources are cached, including resources that cannot be
+ * found, so repeated requests for the same path do not search the file
+ * system and class path. Cached resources stored in the web content
+ * folder are removed when their files change. Other resources, and
+ * resources that cannot be found, are cached for a short time. Resources
+ * that cannot be found are cached separately, so requests for many
+ * missing paths cannot empty the cache of resources found.
+ * </p>
+ *
+ * <p>
+ * Web content is stored in a folder, or a ZIP (or JAR) archive read by
+ * a {@link ZipContentSource}. Archive content never changes.
+ * </p>
+ *
+ * <p>
+ * Files in the web content folder may be found in a
+ * {@link #setResourceSnapshot(ResourceIndexSnapshot) resource index}
+ * written by a previous start, instead of the file system.
+ * </p>
  */
 public class TinyWebServletContext implements ServletContext {
 
     private static final Logger LOGGER = Logger.getLogger(TinyWebServletContext.class);
 
+    /** Resolved resources cached; beyond this, the cache is emptied. */
+    private static final int MAX_RESOLVED_RESOURCES = 4096;
+
+    /** Missing resources cached, separately, so probes cannot empty the cache of resolved resources. */
+    private static final int MAX_MISSING_RESOURCES = 1024;
+
+    /** How long missing resources are remembered. */
+    private static final long MISSING_RESOURCE_TTL = TimeUnit.SECONDS.toNanos(10);
+
+    /** How long resources are remembered when changes cannot be watched. */
+    private static final long UNWATCHED_RESOURCE_TTL = TimeUnit.SECONDS.toNanos(2);
+
     private static final Map<String, String> MIME_TYPES = new HashMap<String, String>();
     static {
         MIME_TYPES.put("pdf", "application/pdf");
@@ -60,10 +104,38 @@ public class TinyWebServletContext implements ServletContext {
 
     private final Map<String, String> initParams = new HashMap<String, String>();
 
+    private final ZipContentSource contentArchive;
+
+    /** Resources that cannot be found. */
+    private final Map<String, ResolvedResource> missingResources = new ConcurrentHashMap<String, ResolvedResource>();
+
+    /** How long missing resources are remembered, in nanoseconds. */
+    long missingResourceTTL = MISSING_RESOURCE_TTL;
+
+    private final Map<String, ResolvedResource> resolvedResources = new ConcurrentHashMap<String, ResolvedResource>();
+
+    /** Number of changes reported to resolved resources. */
+    private final AtomicLong resolvedResourceChanges = new AtomicLong();
+
+    /** Has watching for changes to resolved resources been attempted? */
+    private volatile boolean resolvedResourcesWatched;
+
+    /** Can resolved resources be cached until their files change? */
+    private volatile boolean resourceChangesReported;
+
+    private volatile ResourceIndexSnapshot resourceSnapshot;
+
+    private FolderWatcher resourceWatcher;
+
     private final String serverInfo;
 
+    /** How long resources are remembered when changes cannot be watched, in nanoseconds. */
+    long unwatchedResourceTTL = UNWATCHED_RESOURCE_TTL;
+
     private final File webContentHome;
 
+    private final URI webContentURI;
+
     /**
      * Constructor.
      *
@@ -72,13 +144,25 @@ public class TinyWebServletContext implements ServletContext {
      * @param aServerInfo
      *            The server information, eg. name and version
      * @param aWebContentHome
-     *            The location of the folder containing web content
+     *            The location of the folder (or archive) containing web content
      */
     public TinyWebServletContext(String aDisplayName, String aServerInfo, File aWebContentHome) {
         this.createdTime = Calendar.getInstance().getTimeInMillis();
         this.displayName = aDisplayName;
         this.serverInfo = aServerInfo;
         this.webContentHome = aWebContentHome;
+
+        ZipContentSource archive = null;
+        if (aWebContentHome.isFile()) {
+            try {
+                archive = new ZipContentSource(aWebContentHome);
+
+            } catch (final IOException e) {
+                LOGGER.error("Cannot read web content archive " + aWebContentHome, e);
+            }
+        }
+        this.contentArchive = archive;
+        this.webContentURI = aWebContentHome.getAbsoluteFile().toURI();
     }
 
     @Override
@@ -118,6 +202,15 @@ public class TinyWebServletContext implements ServletContext {
 
     @Override
     public String getMimeType(String aFile) {
+        final ResolvedResource r = this.resolvedResources.get(aFile);
+        if (r != null) {
+            return r.mimeType;
+        }
+
+        return findMimeType(aFile);
+    }
+
+    static String findMimeType(String aFile) {
         String mtype = null;
 
         final int ipos = aFile.lastIndexOf(".");
@@ -151,35 +244,238 @@ public class TinyWebServletContext implements ServletContext {
 
     @Override
     public URL getResource(String aPath) throws MalformedURLException {
-        String p = aPath;
-        if (aPath.startsWith("/")) {
-            p = aPath.substring(1);
+        return this.resolveResource(aPath).url;
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String aPath) {
+        try {
+            final ResolvedResource r = this.resolveResource(aPath);
+            if (r.file != null) {
+                return new FileInputStream(r.file);
+            }
+            if (r.entry != null) {
+                return this.contentArchive.openStream(r.entry);
+            }
+            if (r.url != null) {
+                return r.url.openStream();
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Cannot open resource " + aPath);
+        }
+        return null;
+    }
+
+    /**
+     * Find the stated resource, using the cache when possible.
+     *
+     * @param aPath
+     *            The resource; {@link ServletUtils#normalizePath(String) normalised}
+     *            first, so changes reported for the resource are found
+     * @return the resource; its URL is null when not found
+     * @throws MalformedURLException
+     *             when valid URLs cannot be created
+     */
+    private ResolvedResource resolveResource(String aPath) throws MalformedURLException {
+        // one entry per resource, whatever path it was requested with
+        final String path = ServletUtils.normalizePath(aPath);
+        final long now = System.nanoTime();
+
+        ResolvedResource r = this.resolvedResources.get(path);
+        if (r == null) {
+            r = this.missingResources.get(path);
+        }
+        if ((r != null) && (now - r.expires < 0)) {
+            return r;
+        }
+
+        if (!this.resolvedResourcesWatched) {
+            this.watchResolvedResources();
+        }
+
+        // read before resolving, so a change reported meanwhile is not lost
+        final boolean watched = this.resourceChangesReported;
+        final long changes = this.resolvedResourceChanges.get();
+
+        String p = path;
+        if (path.startsWith("/")) {
+            p = path.substring(1);
         }
 
-        final File f = new File(this.webContentHome, p);
-        if (f.exists()) {
-            return f.toURI().toURL();
+        final ZipContentSource.Entry entry = (this.contentArchive != null) ? this.contentArchive.getEntry(path) : null;
+        final File f = (this.contentArchive == null) ? new File(this.webContentHome, p) : null;
+
+        // index entries are only current while changes are reported
+        final ResourceIndexSnapshot snapshot = this.resourceSnapshot;
+        final ResourceIndexSnapshot.Record indexed = (watched && (snapshot != null)) ? snapshot.find(path) : null;
+
+        if (entry != null) {
+            // archive never changes
+            r = new ResolvedResource(this.contentArchive.getURL(entry), null, entry, entry.getLastModified(),
+                    findMimeType(path), ETags.create(entry.getSize(), entry.getLastModified()), now + (Long.MAX_VALUE / 2));
+
+        } else if (indexed != null) {
+            // no file system access
+            r = new ResolvedResource(this.toURL(p, f), f, null, indexed.getLastModified(),
+                    indexed.getMimeType(), indexed.getETag(), now + (Long.MAX_VALUE / 2));
+
+        } else if ((f != null) && f.exists()) {
+            final long ttl = watched ? Long.MAX_VALUE / 2 : this.unwatchedResourceTTL;
+            final long lastModified = f.lastModified();
+            final boolean isFile = f.isFile();
+            r = new ResolvedResource(f.toURI().toURL(), isFile ? f : null, null, lastModified, findMimeType(path),
+                    isFile ? ETags.create(f.length(), lastModified) : null, now + ttl);
+
+        } else {
+            final URL url = this.getClass().getResource(path);
+            if (url == null) {
+                // logged once per expiry, so probes for missing resources cannot flood the log
+                LOGGER.warn("Cannot find resource " + path);
+                r = new ResolvedResource(null, null, null, -1, findMimeType(path), null, now + this.missingResourceTTL);
+
+            } else {
+                final File classFile = "file".equals(url.getProtocol()) ? new File(url.getFile()) : null;
+                final boolean isFile = (classFile != null) && classFile.isFile();
+                final long lastModified = (classFile != null) ? classFile.lastModified() : this.getCreatedTime();
+                r = new ResolvedResource(
+                        url,
+                        isFile ? classFile : null,
+                        null,
+                        lastModified,
+                        findMimeType(path),
+                        isFile ? ETags.create(classFile.length(), lastModified) : null,
+                        now + this.unwatchedResourceTTL);
+            }
+        }
+
+        final Map<String, ResolvedResource> cache;
+        if (r.url != null) {
+            cache = this.resolvedResources;
+            this.missingResources.remove(path);
+        } else {
+            cache = this.missingResources;
+            this.resolvedResources.remove(path);
         }
 
-        final URL url = this.getClass().getResource(aPath);
-        if (url == null) {
-            LOGGER.warn("Cannot find resource " + aPath);
+        if (cache.size() >= ((r.url != null) ? MAX_RESOLVED_RESOURCES : MAX_MISSING_RESOURCES)) {
+            cache.clear();
         }
+        cache.put(path, r);
 
-        return url;
+        if (changes != this.resolvedResourceChanges.get()) {
+            // may be out of date
+            cache.remove(path);
+        }
+
+        return r;
     }
 
-    @Override
-    public InputStream getResourceAsStream(String aPath) {
+    /**
+     * Create the URL of a file in the web content folder, without reading
+     * the file system.
+     */
+    private URL toURL(String aRelativePath, File aFile) throws MalformedURLException {
         try {
-            final URL url = this.getResource(aPath);
-            if (url != null) {
-                return url.openStream();
+            return new URI(this.webContentURI.getScheme(), null, this.webContentURI.getPath() + aRelativePath, null).toURL();
+
+        } catch (final URISyntaxException e) {
+            return aFile.toURI().toURL();
+        }
+    }
+
+    /** Forget all resolved resources, including missing resources. */
+    private void clearResolvedResources() {
+        this.resolvedResources.clear();
+        this.missingResources.clear();
+    }
+
+    /** Remove cached resources when their files change. */
+    private synchronized void watchResolvedResources() {
+        if (this.resolvedResourcesWatched) {
+            return;
+        }
+
+        this.resourceChangesReported = this.addResourceListener(new FolderWatcher.Listener() {
+            @Override
+            public void resourceChanged(String aPath) {
+                final ResourceIndexSnapshot snapshot = resourceSnapshot;
+                if (snapshot != null) {
+                    snapshot.invalidate(aPath);
+                }
+
+                resolvedResourceChanges.incrementAndGet();
+                resolvedResources.remove(aPath);
+                missingResources.remove(aPath);
             }
-        } catch (final IOException e) {
-            LOGGER.error("Cannot open resource " + aPath);
+
+            @Override
+            public void resourcesChanged() {
+                // changes missed; index may be out of date
+                resourceSnapshot = null;
+
+                resolvedResourceChanges.incrementAndGet();
+                clearResolvedResources();
+            }
+        });
+
+        this.resolvedResourcesWatched = true;
+    }
+
+    /**
+     * Find resources using the stated index, instead of the file system.
+     *
+     * <p>
+     * The index is only used while changes to the
+     * {@link #getWebContentHome() web content folder} are reported, so
+     * entries can be {@link ResourceIndexSnapshot#invalidate(String)
+     * invalidated} when their files change.
+     * </p>
+     *
+     * @param aSnapshot
+     *            The index, or null (not used)
+     * @return false when the index cannot be used
+     */
+    public boolean setResourceSnapshot(@Nullable ResourceIndexSnapshot aSnapshot) {
+        if (!this.resolvedResourcesWatched) {
+            this.watchResolvedResources();
+        }
+
+        if ((aSnapshot != null) && ((this.contentArchive != null) || !this.resourceChangesReported)) {
+            this.resourceSnapshot = null;
+            return false;
+        }
+
+        this.resourceSnapshot = aSnapshot;
+        this.resolvedResourceChanges.incrementAndGet();
+        this.clearResolvedResources();
+        return true;
+    }
+
+    /**
+     * Inform all {@link #addResourceListener(FolderWatcher.Listener) resource listeners}
+     * about files that changed while they were not watched, eg. entries of
+     * the index found to be out of date.
+     *
+     * <p>
+     * Resources, and any content or validators cached for them, may have
+     * been taken from the index before it was validated.
+     * </p>
+     *
+     * @param aPaths
+     *            The resource paths, eg. "/js/foo.js"
+     */
+    void reportResourceChanges(List<String> aPaths) {
+        final FolderWatcher w;
+        synchronized (this) {
+            w = this.resourceWatcher;
+        }
+
+        if (w == null) {
+            return;
+        }
+        for (final String p : aPaths) {
+            w.reportChange(p);
         }
-        return null;
     }
 
     /** @return when was this context created? */
@@ -187,6 +483,44 @@ public class TinyWebServletContext implements ServletContext {
         return this.createdTime;
     }
 
+    /** @return the location of the folder containing web content */
+    public File getWebContentHome() {
+        return this.webContentHome;
+    }
+
+    /**
+     * Find the file holding the stated resource.
+     *
+     * @param aPath
+     *            The resource
+     * @return the file or null (not found or not stored in a file, eg. class path resource)
+     * @throws MalformedURLException
+     *             when valid URLs cannot be created
+     *
+     * @see #getResource(String)
+     */
+    public File getResourceFile(String aPath) throws MalformedURLException {
+        return this.resolveResource(aPath).file;
+    }
+
+    /** @return the archive holding web content, or null (stored in a folder) */
+    public ZipContentSource getContentArchive() {
+        return this.contentArchive;
+    }
+
+    /**
+     * Find the archive entry holding the stated resource.
+     *
+     * @param aPath
+     *            The resource
+     * @return the entry or null (not found or not stored in the {@link #getContentArchive() archive})
+     * @throws MalformedURLException
+     *             when valid URLs cannot be created
+     */
+    public ZipContentSource.Entry getResourceEntry(String aPath) throws MalformedURLException {
+        return this.resolveResource(aPath).entry;
+    }
+
     /**
      * When was the stated resource last modified?
      *
@@ -204,24 +538,90 @@ public class TinyWebServletContext implements ServletContext {
      * @see #getResource(String)
      */
     public long getResourceLastModified(String aPath) throws MalformedURLException {
-        final URL url = this.getResource(aPath);
-        if (url == null) {
-            // invalid resource
-            return -1;
+        return this.resolveResource(aPath).lastModified;
+    }
+
+    /**
+     * Get the entity tag of the stated resource.
+     *
+     * @param aPath
+     *            The resource
+     * @return the tag or null (not found or not stored in a file or archive)
+     * @throws MalformedURLException
+     *             when valid URLs cannot be created
+     *
+     * @see ETags#create(long, long)
+     */
+    public String getResourceETag(String aPath) throws MalformedURLException {
+        return this.resolveResource(aPath).etag;
+    }
+
+    /**
+     * Add a listener informed about changes to files in the
+     * {@link #getWebContentHome() web content folder}.
+     *
+     * <p>
+     * The folder is watched from when the first listener is added. Web
+     * content stored in an archive never changes, so is not watched.
+     * </p>
+     *
+     * @param aListener
+     *            The listener
+     * @return false when changes cannot be watched, ie. the listener will never be informed
+     */
+    public synchronized boolean addResourceListener(FolderWatcher.Listener aListener) {
+        if (this.contentArchive != null) {
+            return true;
         }
 
-        if ("file".equals(url.getProtocol())) {
-            // last-modified timestamp available
-            final File f = new File(url.getFile());
-            return f.lastModified();
+        if (this.resourceWatcher == null) {
+            final FolderWatcher w = new FolderWatcher(this.webContentHome);
+            try {
+                w.start();
+
+            } catch (final IOException e) {
+                LOGGER.warn("Cannot watch web content folder " + this.webContentHome, e);
+                return false;
+            }
+
+            this.resourceWatcher = w;
         }
 
-        // last-modified timestamp not available
-        return this.getCreatedTime();
+        this.resourceWatcher.addListener(aListener);
+        return true;
+    }
+
+    /**
+     * Remove the stated listener.
+     *
+     * @param aListener
+     *            The listener
+     */
+    public synchronized void removeResourceListener(FolderWatcher.Listener aListener) {
+        if (this.resourceWatcher != null) {
+            this.resourceWatcher.removeListener(aListener);
+        }
+    }
+
+    /** Stop watching the web content folder. */
+    public synchronized void stopResourceWatcher() {
+        if (this.resourceWatcher != null) {
+            this.resourceWatcher.stop();
+            this.resourceWatcher = null;
+        }
+
+        // changes no longer reported
+        this.resourceChangesReported = false;
+        this.resourceSnapshot = null;
+        this.clearResolvedResources();
     }
 
     @Override
     public Set<String> getResourcePaths(String aPath) {
+        if (this.contentArchive != null) {
+            return this.getArchivePaths(aPath);
+        }
+
         File folder;
 
         if ("/".equals(aPath)) {
@@ -251,6 +651,31 @@ public class TinyWebServletContext implements ServletContext {
         return results;
     }
 
+    /**
+     * List the sub-folders of an archive folder.
+     *
+     * @param aPath
+     *            The folder, eg. "/js"
+     * @return the sub-folder paths, eg. "/js/lib/"
+     */
+    private Set<String> getArchivePaths(String aPath) {
+        final String prefix = aPath.endsWith("/") ? aPath : (aPath + "/");
+
+        final TreeSet<String> results = new TreeSet<String>();
+        for (final ZipContentSource.Entry e : this.contentArchive.getEntries()) {
+            final String p = e.getPath();
+            if (p.startsWith(prefix) && (p.length() > prefix.length())) {
+                // archives need not hold folder entries
+                final int end = p.indexOf('/', prefix.length());
+                if (end > 0) {
+                    results.add(p.substring(0, end + 1));
+                }
+            }
+        }
+
+        return results;
+    }
+
     @Override
     public String getServerInfo() {
         return this.serverInfo;
@@ -412,4 +837,48 @@ public class TinyWebServletContext implements ServletContext {
         }
     }
 
+    /**
+     * A resolved resource, or a resource that cannot be found.
+     */
+    private static final class ResolvedResource {
+
+        /** When to resolve the resource again, see {@link System#nanoTime()}. */
+        final long expires;
+
+        /** The archive entry holding the resource, or null (not found or not stored in the archive). */
+        final ZipContentSource.Entry entry;
+
+        /** The entity tag, or null (not found or not stored in a file or archive). */
+        final String etag;
+
+        /** The file holding the resource, or null (not found or not stored in a file). */
+        final File file;
+
+        /** When the resource was last modified, or -1 (not found). */
+        final long lastModified;
+
+        final String mimeType;
+
+        /** The resource location, or null (not found). */
+        final URL url;
+
+        ResolvedResource(
+                URL aURL,
+                File aFile,
+                ZipContentSource.Entry aEntry,
+                long aLastModified,
+                String aMimeType,
+                String aETag,
+                long aExpires) {
+
+            this.url = aURL;
+            this.file = aFile;
+            this.entry = aEntry;
+            this.lastModified = aLastModified;
+            this.mimeType = aMimeType;
+            this.etag = aETag;
+            this.expires = aExpires;
+        }
+    }
+
 }
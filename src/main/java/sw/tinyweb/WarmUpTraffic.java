@@ -0,0 +1,237 @@
+package sw.tinyweb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.CompilationMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Synthetic requests replayed by the server before it accepts traffic.
+ *
+ * <p>
+ * Each request is parsed, routed, serviced and its response written
+ * (to a {@link sw.tinyweb.io.NullChannel}) exactly as a client request
+ * would be, so the code it runs is compiled by the JIT before the first
+ * client arrives.
+ * </p>
+ *
+ * <p>
+ * Only <code>GET</code> and <code>HEAD</code> requests are replayed, as
+ * other methods may change application state.
+ * </p>
+ *
+ * <p>
+ * Requests are added one by one, or loaded from a traffic sample; one
+ * request per line, either a request line ...
+ * <pre>
+ *     GET /w3org.html
+ * </pre>
+ * or an access log line, holding the quoted request line ...
+ * <pre>
+ *     127.0.0.1 - - [18/Oct/2026:10:00:00 +0000] "GET /w3org.html HTTP/1.1" 200 2642
+ * </pre>
+ * Other methods are ignored.
+ * </p>
+ *
+ * <p>
+ * Requests are replayed until JIT compilation settles, once at least
+ * {@link #getMinimumRequests()} have been replayed, or until
+ * {@link #getMaximumDuration()} has passed.
+ * </p>
+ *
+ * @see TinyWebServer#setWarmUpTraffic(WarmUpTraffic)
+ */
+public class WarmUpTraffic {
+
+    /** Enough for the JIT to compile methods called once per request. */
+    public static final int DEFAULT_MINIMUM_REQUESTS = 20000;
+
+    /** Milliseconds. */
+    public static final long DEFAULT_MAXIMUM_DURATION = 10000;
+
+    /** Requests replayed between checks of the JIT compilation time. */
+    static final int CHECK_INTERVAL = 1000;
+
+    /** Checks without compilation, after which compilation has settled. */
+    static final int QUIET_CHECKS = 3;
+
+    /** Processes a request, as if sent by a client. */
+    interface Replayer {
+
+        /**
+         * Process a request.
+         *
+         * @param aRequest
+         *            The encoded request
+         */
+        void replay(byte[] aRequest);
+    }
+
+    private long maximumDuration = DEFAULT_MAXIMUM_DURATION;
+
+    private int minimumRequests = DEFAULT_MINIMUM_REQUESTS;
+
+    private final List<byte[]> requests = new ArrayList<byte[]>();
+
+    /**
+     * Add a request.
+     *
+     * @param aMethod
+     *            The HTTP method, "GET" or "HEAD"
+     * @param aPath
+     *            The request path, including any query string, eg. "/w3org.html"
+     * @throws IllegalArgumentException
+     *             when the method may change application state
+     */
+    public void add(String aMethod, String aPath) {
+        if (!isReplayable(aMethod)) {
+            throw new IllegalArgumentException("Cannot replay " + aMethod + " requests");
+        }
+
+        final String request = aMethod + " " + aPath + " HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "User-Agent: TinyWeb-warmup\r\n"
+                + "Accept: */*\r\n"
+                + "Accept-Encoding: gzip, deflate\r\n"
+                + "Connection: close\r\n"
+                + "\r\n";
+
+        this.requests.add(request.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Add the requests of a traffic sample.
+     *
+     * @param aSample
+     *            The sample file
+     * @return the number of requests added, excluding those ignored
+     * @throws IOException
+     *             when the file cannot be read
+     */
+    public int load(File aSample) throws IOException {
+        int count = 0;
+
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(aSample), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+
+                final int quote = line.indexOf('"');
+                if (quote > -1) {
+                    final int end = line.indexOf('"', quote + 1);
+                    line = (end > -1) ? line.substring(quote + 1, end) : "";
+                }
+
+                final String[] parts = line.split("\\s+");
+                if ((parts.length < 2) || line.startsWith("#") || !parts[1].startsWith("/")) {
+                    continue; // blank, comment or not a request
+                }
+                if (!isReplayable(parts[0])) {
+                    continue; // may change application state
+                }
+
+                this.add(parts[0], parts[1]);
+                count++;
+            }
+        } finally {
+            in.close();
+        }
+
+        return count;
+    }
+
+    /** @return the encoded requests */
+    List<byte[]> getRequests() {
+        return Collections.unmodifiableList(this.requests);
+    }
+
+    /**
+     * Replay the requests, in turn, until compilation settles or the
+     * maximum duration passes.
+     *
+     * @param aReplayer
+     *            Processes each request
+     * @param aJit
+     *            The JIT compiler, or null (not monitored; stop after the minimum requests)
+     * @return the number of requests replayed
+     */
+    int replay(Replayer aReplayer, @Nullable CompilationMXBean aJit) {
+        final boolean monitored = (aJit != null) && aJit.isCompilationTimeMonitoringSupported();
+        final long deadline = System.currentTimeMillis() + this.maximumDuration;
+
+        long compilationTime = -1;
+        int quietChecks = 0;
+        int count = 0;
+        while (!this.requests.isEmpty() && (System.currentTimeMillis() < deadline)) {
+            aReplayer.replay(this.requests.get(count % this.requests.size()));
+            count++;
+
+            if ((count < this.minimumRequests) || ((count % CHECK_INTERVAL) != 0)) {
+                continue;
+            }
+            if (!monitored) {
+                break;
+            }
+
+            // settled when nothing is compiled for a few thousand requests
+            final long t = aJit.getTotalCompilationTime();
+            if (t != compilationTime) {
+                compilationTime = t;
+                quietChecks = 0;
+            } else if (++quietChecks == QUIET_CHECKS) {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    private static boolean isReplayable(String aMethod) {
+        return "GET".equals(aMethod) || "HEAD".equals(aMethod);
+    }
+
+    /** @return the number of requests */
+    public int size() {
+        return this.requests.size();
+    }
+
+    /** @return the maximum warm up time, in milliseconds */
+    public long getMaximumDuration() {
+        return this.maximumDuration;
+    }
+
+    /**
+     * How long can the warm up take?
+     *
+     * @param aMillis
+     *            The maximum time, in milliseconds
+     */
+    public void setMaximumDuration(long aMillis) {
+        this.maximumDuration = aMillis;
+    }
+
+    /** @return the number of requests replayed before checking whether compilation has settled */
+    public int getMinimumRequests() {
+        return this.minimumRequests;
+    }
+
+    /**
+     * How many requests must be replayed?
+     *
+     * @param aCount
+     *            The minimum number of requests, unless the maximum duration passes first
+     */
+    public void setMinimumRequests(int aCount) {
+        this.minimumRequests = aCount;
+    }
+
+}
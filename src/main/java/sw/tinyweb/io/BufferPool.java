@@ -0,0 +1,172 @@
+package sw.tinyweb.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server wide pool of fixed size byte buffers.
+ *
+ * <p>
+ * The total amount of memory held by the pool is capped. When the cap
+ * is reached, {@link #acquire()} returns a temporary heap buffer. Unless
+ * the pool itself holds heap buffers, a temporary buffer is discarded
+ * (rather than pooled) when released.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ *
+ * @see PooledOutputBuffer
+ */
+public class BufferPool {
+
+    /** Size of each buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = (4 * 1024); // 4K buffer
+
+    /** Maximum memory held by the pool. */
+    public static final long DEFAULT_MEMORY_LIMIT = (4 * 1024 * 1024); // 4MB
+
+    private static BufferPool globalInstance;
+
+    /** @return the global instance */
+    public static synchronized BufferPool getInstance() {
+        if (globalInstance == null) {
+            globalInstance = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MEMORY_LIMIT, true);
+        }
+
+        return globalInstance;
+    }
+
+    /**
+     * Replace the global instance.
+     *
+     * <p>
+     * Must be called before the server starts.
+     * </p>
+     *
+     * @param aPool
+     *            The new pool
+     */
+    public static synchronized void setInstance(BufferPool aPool) {
+        globalInstance = aPool;
+    }
+
+    private final int bufferSize;
+
+    private final boolean direct;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    private final int maxPooledCount;
+
+    private final AtomicLong temporaryCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aBufferSize
+     *            The size of each buffer
+     * @param aMemoryLimit
+     *            The maximum number of bytes held by the pool
+     * @param aDirect
+     *            Allocate direct (off heap) buffers?
+     */
+    public BufferPool(int aBufferSize, long aMemoryLimit, boolean aDirect) {
+        if (aBufferSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer size: " + aBufferSize);
+        }
+
+        this.bufferSize = aBufferSize;
+        this.direct = aDirect;
+        this.maxPooledCount = (int) Math.min(Integer.MAX_VALUE, aMemoryLimit / aBufferSize);
+    }
+
+    /** @return the size of each buffer */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /** @return true when buffers are allocated outside the java heap */
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /** @return the number of bytes allocated by the pool */
+    public long getAllocatedBytes() {
+        return (long) this.pooledCount.get() * this.bufferSize;
+    }
+
+    /** @return the number of buffers waiting to be re-used */
+    public int getFreeCount() {
+        return this.freeCount.get();
+    }
+
+    /** @return the number of temporary buffers created because the pool was exhausted */
+    public long getTemporaryCount() {
+        return this.temporaryCount.get();
+    }
+
+    /**
+     * Take a buffer from the pool.
+     *
+     * @return the empty buffer
+     *
+     * @see #release(ByteBuffer)
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer b = this.freeBuffers.poll();
+        if (b != null) {
+            this.freeCount.decrementAndGet();
+            b.clear();
+            return b;
+        }
+
+        if (this.pooledCount.incrementAndGet() <= this.maxPooledCount) {
+            return this.direct ? ByteBuffer.allocateDirect(this.bufferSize) : ByteBuffer.allocate(this.bufferSize);
+        }
+
+        // pool exhausted
+
+        this.pooledCount.decrementAndGet();
+        this.temporaryCount.incrementAndGet();
+        return ByteBuffer.allocate(this.bufferSize);
+    }
+
+    /**
+     * Return a buffer to the pool.
+     *
+     * <p>
+     * The buffer MUST NOT be used by the caller afterwards.
+     * </p>
+     *
+     * @param aBuffer
+     *            The buffer
+     */
+    public void release(ByteBuffer aBuffer) {
+        if ((aBuffer == null) || (aBuffer.capacity() != this.bufferSize)) {
+            return;
+        }
+
+        if (aBuffer.isDirect() != this.direct) {
+            // temporary, must not take the place of a direct buffer
+            return;
+        }
+
+        // never hold more buffers than have been allocated, so temporary
+        // buffers cannot push the pool over its memory limit
+
+        if (this.freeCount.incrementAndGet() <= this.pooledCount.get()) {
+            this.freeBuffers.offer(aBuffer);
+        } else {
+            this.freeCount.decrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package sw.tinyweb.io;
+
+/**
+ * How long clients and shared caches may reuse a response.
+ *
+ * <p>
+ * Immutable; the <code>Cache-Control</code> header is created once.
+ * </p>
+ *
+ * <p>
+ * See HTTP <a href="https://tools.ietf.org/html/rfc7234#section-5.2">Cache-Control</a>,
+ * <a href="https://tools.ietf.org/html/rfc5861">stale-while-revalidate</a> and
+ * <a href="https://tools.ietf.org/html/rfc8246">immutable</a>.
+ * </p>
+ *
+ * @see CachePolicyTable
+ */
+public final class CachePolicy {
+
+    /** Not set. */
+    public static final long UNSET = -1;
+
+    /** Never stored by any cache. */
+    public static final CachePolicy NO_STORE = new CachePolicy(UNSET, UNSET, UNSET, true, false);
+
+    /** Content that never changes, eg. fingerprinted URLs. */
+    public static final CachePolicy IMMUTABLE = new CachePolicy(31536000L, UNSET, UNSET, false, true); // 1 year
+
+    private final String headerValue;
+
+    private final boolean immutable;
+
+    private final long maxAge;
+
+    private final boolean noStore;
+
+    private final long sharedMaxAge;
+
+    private final long staleWhileRevalidate;
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxAge
+     *            <code>max-age</code> in seconds, or {@link #UNSET}
+     * @param aSharedMaxAge
+     *            <code>s-maxage</code> (shared caches) in seconds, or {@link #UNSET}
+     * @param aStaleWhileRevalidate
+     *            <code>stale-while-revalidate</code> in seconds, or {@link #UNSET}
+     * @param aNoStore
+     *            <code>no-store</code>; other values are ignored
+     * @param aImmutable
+     *            <code>immutable</code>
+     */
+    public CachePolicy(long aMaxAge, long aSharedMaxAge, long aStaleWhileRevalidate, boolean aNoStore, boolean aImmutable) {
+        this.maxAge = aMaxAge;
+        this.sharedMaxAge = aSharedMaxAge;
+        this.staleWhileRevalidate = aStaleWhileRevalidate;
+        this.noStore = aNoStore;
+        this.immutable = aImmutable;
+
+        final StringBuilder sb = new StringBuilder();
+        if (aNoStore) {
+            sb.append("no-store");
+
+        } else {
+            if (aImmutable) {
+                sb.append("immutable");
+            }
+            appendDirective(sb, "max-age", aMaxAge);
+            appendDirective(sb, "s-maxage", aSharedMaxAge);
+            appendDirective(sb, "stale-while-revalidate", aStaleWhileRevalidate);
+        }
+
+        this.headerValue = sb.toString();
+    }
+
+    /**
+     * Create a policy.
+     *
+     * @param aSeconds
+     *            <code>max-age</code> in seconds
+     * @return the policy
+     */
+    public static CachePolicy maxAge(long aSeconds) {
+        return new CachePolicy(aSeconds, UNSET, UNSET, false, false);
+    }
+
+    /** @return the <code>max-age</code> in seconds, or {@link #UNSET} */
+    public long getMaxAge() {
+        return this.maxAge;
+    }
+
+    /** @return the <code>s-maxage</code> in seconds, or {@link #UNSET} */
+    public long getSharedMaxAge() {
+        return this.sharedMaxAge;
+    }
+
+    /** @return the <code>stale-while-revalidate</code> period in seconds, or {@link #UNSET} */
+    public long getStaleWhileRevalidate() {
+        return this.staleWhileRevalidate;
+    }
+
+    /** @return true when responses must not be stored */
+    public boolean isNoStore() {
+        return this.noStore;
+    }
+
+    /** @return true when responses never change */
+    public boolean isImmutable() {
+        return this.immutable;
+    }
+
+    /** @return the <code>Cache-Control</code> header value, eg. "max-age=180" */
+    public String getHeaderValue() {
+        return this.headerValue;
+    }
+
+    @Override
+    public String toString() {
+        return "CachePolicy[" + this.headerValue + "]";
+    }
+
+    private static void appendDirective(StringBuilder aBuilder, String aName, long aSeconds) {
+        if (aSeconds < 0) {
+            return;
+        }
+
+        if (aBuilder.length() > 0) {
+            aBuilder.append(", ");
+        }
+        aBuilder.append(aName).append('=').append(aSeconds);
+    }
+
+}
@@ -0,0 +1,225 @@
+package sw.tinyweb.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Decides the {@link CachePolicy} of each response, from its path and MIME type.
+ *
+ * <p>
+ * Each entry has a URL pattern, as used by servlet mappings ...
+ * <ul>
+ * <li>exact paths, eg. <code>/index.html</code>,
+ * <li>path prefixes, eg. <code>/js/*</code>,
+ * <li>extensions, eg. <code>*.css</code>,
+ * <li>and <code>/</code> (or <code>*</code>) to match any path.
+ * </ul>
+ * and an optional MIME type, eg. <code>text/css</code>, or a prefix ending
+ * in '/', eg. <code>image/</code>.
+ * </p>
+ *
+ * <p>
+ * Patterns are tried in the order above, with longer prefixes first. The
+ * first entry (in the order added) whose pattern and MIME type match is
+ * used.
+ * </p>
+ *
+ * <p>
+ * Entries are compiled into lookup tables when added, so each response
+ * is matched with a few map lookups and no locking.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ */
+public class CachePolicyTable {
+
+    private static CachePolicyTable globalInstance;
+
+    /** @return the global instance */
+    public static synchronized CachePolicyTable getInstance() {
+        if (globalInstance == null) {
+            globalInstance = new CachePolicyTable();
+        }
+
+        return globalInstance;
+    }
+
+    /**
+     * Replace the global instance.
+     *
+     * @param aTable
+     *            The new table
+     */
+    public static synchronized void setInstance(CachePolicyTable aTable) {
+        globalInstance = aTable;
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private volatile Matcher matcher = new Matcher(Collections.<Entry> emptyList());
+
+    /**
+     * Add an entry.
+     *
+     * @param aPattern
+     *            The URL pattern, eg. "/js/*" or "*.css"
+     * @param aMimeType
+     *            The MIME type, eg. "text/css", a prefix, eg. "image/", or null (any)
+     * @param aPolicy
+     *            The policy of matching responses
+     */
+    public synchronized void add(String aPattern, @Nullable String aMimeType, CachePolicy aPolicy) {
+        this.entries.add(new Entry(aPattern, (aMimeType != null) ? aMimeType.toLowerCase(Locale.ENGLISH) : null, aPolicy));
+        this.matcher = new Matcher(this.entries);
+    }
+
+    /** Remove all entries. */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.matcher = new Matcher(this.entries);
+    }
+
+    /**
+     * Find the policy of a response.
+     *
+     * @param aPath
+     *            The request path, eg. "/js/app.js"
+     * @param aContentType
+     *            The content type, eg. "text/html; charset=UTF-8", or null
+     * @return the policy or null (no entry matches)
+     */
+    @Nullable
+    public CachePolicy find(String aPath, @Nullable String aContentType) {
+        String type = null;
+        if (aContentType != null) {
+            final int end = aContentType.indexOf(';');
+            type = ((end < 0) ? aContentType : aContentType.substring(0, end)).trim().toLowerCase(Locale.ENGLISH);
+        }
+
+        return this.matcher.find(aPath, type);
+    }
+
+    /**
+     * A table entry.
+     */
+    private static final class Entry {
+
+        final String mimeType;
+
+        final String pattern;
+
+        final CachePolicy policy;
+
+        Entry(String aPattern, String aMimeType, CachePolicy aPolicy) {
+            this.pattern = aPattern;
+            this.mimeType = aMimeType;
+            this.policy = aPolicy;
+        }
+
+        boolean matchesType(String aType) {
+            if (this.mimeType == null) {
+                return true;
+            }
+            if (aType == null) {
+                return false;
+            }
+
+            return this.mimeType.endsWith("/") ? aType.startsWith(this.mimeType) : aType.equals(this.mimeType);
+        }
+    }
+
+    /**
+     * Entries compiled into lookup tables.
+     */
+    private static final class Matcher {
+
+        final List<Entry> defaults = new ArrayList<Entry>();
+
+        final Map<String, List<Entry>> exact = new HashMap<String, List<Entry>>();
+
+        final Map<String, List<Entry>> extensions = new HashMap<String, List<Entry>>();
+
+        /** Path prefixes, eg. "/js/", longest first. */
+        final List<Entry> prefixes = new ArrayList<Entry>();
+
+        Matcher(List<Entry> aEntries) {
+            for (final Entry e : aEntries) {
+                final String p = e.pattern;
+                if ("/".equals(p) || "*".equals(p) || "/*".equals(p)) {
+                    this.defaults.add(e);
+                } else if (p.startsWith("*.")) {
+                    add(this.extensions, p.substring(2), e);
+                } else if (p.endsWith("/*")) {
+                    this.prefixes.add(e);
+                } else {
+                    add(this.exact, p, e);
+                }
+            }
+
+            // stable; entries added first remain first for equal prefixes
+            Collections.sort(this.prefixes, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry aLeft, Entry aRight) {
+                    return aRight.pattern.length() - aLeft.pattern.length();
+                }
+            });
+        }
+
+        CachePolicy find(String aPath, String aType) {
+            CachePolicy p = match(this.exact.get(aPath), aType);
+            if (p != null) {
+                return p;
+            }
+
+            for (final Entry e : this.prefixes) {
+                // "/js/*" matches "/js" and "/js/..."
+                final int len = e.pattern.length() - 2;
+                if (aPath.regionMatches(0, e.pattern, 0, len)
+                        && ((aPath.length() == len) || (aPath.charAt(len) == '/'))
+                        && e.matchesType(aType)) {
+                    return e.policy;
+                }
+            }
+
+            final int dot = aPath.lastIndexOf('.');
+            if (dot > aPath.lastIndexOf('/')) {
+                p = match(this.extensions.get(aPath.substring(dot + 1)), aType);
+                if (p != null) {
+                    return p;
+                }
+            }
+
+            return match(this.defaults, aType);
+        }
+
+        private static void add(Map<String, List<Entry>> aMap, String aKey, Entry aEntry) {
+            List<Entry> list = aMap.get(aKey);
+            if (list == null) {
+                list = new ArrayList<Entry>();
+                aMap.put(aKey, list);
+            }
+            list.add(aEntry);
+        }
+
+        private static CachePolicy match(List<Entry> aEntries, String aType) {
+            if (aEntries != null) {
+                for (final Entry e : aEntries) {
+                    if (e.matchesType(aType)) {
+                        return e.policy;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+}
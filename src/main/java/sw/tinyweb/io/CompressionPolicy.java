@@ -0,0 +1,287 @@
+package sw.tinyweb.io;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+import javax.servlet.http.HttpServletRequest;
+
+import sw.tinyweb.utils.ContentNegotiator;
+
+/**
+ * Decides which responses are compressed, and how hard.
+ *
+ * <p>
+ * A response is compressed when ...
+ * <ol>
+ * <li>the client accepts <code>gzip</code> or <code>deflate</code>,
+ * <li>the MIME type is compressible, eg. <code>text/html</code> or <code>application/json</code>,
+ * <li>the body is at least {@link #getMinimumSize()} bytes,
+ * <li>and the server is not saturated.
+ * </ol>
+ * </p>
+ *
+ * <p>
+ * The compression level adapts to the current CPU load. The system load
+ * average (sampled at most once per second) and the number of responses
+ * being compressed are compared with the number of processors. The level
+ * drops to {@link Deflater#BEST_SPEED} when busy, and compression is
+ * disabled when saturated.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ *
+ * @see ResponseCompressor
+ */
+public class CompressionPolicy {
+
+    /** Responses smaller than this are not worth compressing. */
+    public static final int DEFAULT_MINIMUM_SIZE = 1024;
+
+    /** Good compression for a modest amount of CPU. */
+    public static final int DEFAULT_LEVEL = 6;
+
+    /** Load (per processor) above which the fastest level is used. */
+    private static final double BUSY_LOAD = 1.0;
+
+    /** Load (per processor) above which compression is disabled. */
+    private static final double SATURATED_LOAD = 2.0;
+
+    private static final long LOAD_SAMPLE_PERIOD = 1000L; // 1 second
+
+    private static final ContentNegotiator ENCODINGS = ContentNegotiator.forEncodings(
+            ResponseCompressor.GZIP, ResponseCompressor.DEFLATE, ContentNegotiator.IDENTITY);
+
+    private static CompressionPolicy globalInstance;
+
+    /** @return the global instance */
+    public static synchronized CompressionPolicy getInstance() {
+        if (globalInstance == null) {
+            globalInstance = new CompressionPolicy();
+        }
+
+        return globalInstance;
+    }
+
+    /**
+     * Replace the global instance.
+     *
+     * @param aPolicy
+     *            The new policy
+     */
+    public static synchronized void setInstance(CompressionPolicy aPolicy) {
+        globalInstance = aPolicy;
+    }
+
+    private volatile boolean adaptive = true;
+
+    private volatile boolean enabled = true;
+
+    private volatile int level = DEFAULT_LEVEL;
+
+    private volatile int minimumSize = DEFAULT_MINIMUM_SIZE;
+
+    /** MIME type prefixes, eg. "text/" */
+    private final List<String> mimeTypes = new ArrayList<String>();
+
+    /** MIME type suffixes, eg. "+xml" */
+    private final List<String> mimeSuffixes = new ArrayList<String>();
+
+    private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+    private final int processors = Runtime.getRuntime().availableProcessors();
+
+    private volatile double loadPerProcessor;
+
+    private volatile long loadSampleTime;
+
+    /** Constructor. */
+    public CompressionPolicy() {
+        this.addMimeType("text/");
+        this.addMimeType("application/json");
+        this.addMimeType("application/javascript");
+        this.addMimeType("application/x-javascript");
+        this.addMimeType("application/xml");
+        this.addMimeType("image/svg+xml");
+
+        this.mimeSuffixes.add("+json");
+        this.mimeSuffixes.add("+xml");
+    }
+
+    /** @return true when responses may be compressed */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Enable or disable response compression.
+     *
+     * @param aEnabled
+     *            The new state
+     */
+    public void setEnabled(boolean aEnabled) {
+        this.enabled = aEnabled;
+    }
+
+    /** @return true when the compression level adapts to the server load */
+    public boolean isAdaptive() {
+        return this.adaptive;
+    }
+
+    /**
+     * Enable or disable load based compression levels.
+     *
+     * @param aAdaptive
+     *            The new state; false means always use {@link #getLevel()}
+     */
+    public void setAdaptive(boolean aAdaptive) {
+        this.adaptive = aAdaptive;
+    }
+
+    /** @return the compression level used when the server is not busy */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Change the compression level used when the server is not busy.
+     *
+     * @param aLevel
+     *            The level, 1 (fastest) to 9 (smallest)
+     */
+    public void setLevel(int aLevel) {
+        if ((aLevel < Deflater.BEST_SPEED) || (aLevel > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: " + aLevel);
+        }
+
+        this.level = aLevel;
+    }
+
+    /** @return the size of the smallest compressed response */
+    public int getMinimumSize() {
+        return this.minimumSize;
+    }
+
+    /**
+     * Change the size of the smallest compressed response.
+     *
+     * @param aSize
+     *            The size in bytes
+     */
+    public void setMinimumSize(int aSize) {
+        this.minimumSize = aSize;
+    }
+
+    /**
+     * Add a compressible MIME type.
+     *
+     * @param aType
+     *            The type, eg. "application/json", or a prefix ending in '/', eg. "text/"
+     */
+    public void addMimeType(String aType) {
+        synchronized (this.mimeTypes) {
+            this.mimeTypes.add(aType.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Is the stated content type worth compressing?
+     *
+     * @param aContentType
+     *            The content type, eg. "text/html; charset=UTF-8", or null
+     * @return true when compressible
+     */
+    public boolean isCompressible(String aContentType) {
+        if (aContentType == null) {
+            return false;
+        }
+
+        int end = aContentType.indexOf(';');
+        if (end < 0) {
+            end = aContentType.length();
+        }
+
+        final String type = aContentType.substring(0, end).trim().toLowerCase(Locale.ENGLISH);
+
+        synchronized (this.mimeTypes) {
+            for (final String t : this.mimeTypes) {
+                if (t.endsWith("/") ? type.startsWith(t) : type.equals(t)) {
+                    return true;
+                }
+            }
+        }
+
+        for (final String s : this.mimeSuffixes) {
+            if (type.endsWith(s)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Select the content encoding for the stated request.
+     *
+     * @param aRequest
+     *            The HTTP request
+     * @return {@link ResponseCompressor#GZIP}, {@link ResponseCompressor#DEFLATE} or null (do not compress)
+     */
+    public String selectEncoding(HttpServletRequest aRequest) {
+        final String encoding = ENCODINGS.negotiate(aRequest);
+        if ((encoding == null) || ContentNegotiator.IDENTITY.equals(encoding)) {
+            return null;
+        }
+
+        return encoding;
+    }
+
+    /**
+     * Select the compression level for the current server load.
+     *
+     * @return the level, or {@link Deflater#NO_COMPRESSION} (do not compress)
+     */
+    public int selectLevel() {
+        if (!this.enabled) {
+            return Deflater.NO_COMPRESSION;
+        }
+
+        if (!this.adaptive) {
+            return this.level;
+        }
+
+        if (DeflaterPool.getInstance().getActiveCount() >= this.processors) {
+            // every processor is already compressing
+            return Deflater.NO_COMPRESSION;
+        }
+
+        final double load = this.getLoadPerProcessor();
+        if (load >= SATURATED_LOAD) {
+            return Deflater.NO_COMPRESSION;
+        }
+
+        if (load >= BUSY_LOAD) {
+            return Deflater.BEST_SPEED;
+        }
+
+        return this.level;
+    }
+
+    /** @return the recent system load average divided by the number of processors, or a negative value (unknown) */
+    private double getLoadPerProcessor() {
+        final long now = System.currentTimeMillis();
+        if (now - this.loadSampleTime >= LOAD_SAMPLE_PERIOD) {
+            // racing threads may sample twice, which is harmless
+            this.loadPerProcessor = this.osBean.getSystemLoadAverage() / this.processors;
+            this.loadSampleTime = now;
+        }
+
+        return this.loadPerProcessor;
+    }
+
+}
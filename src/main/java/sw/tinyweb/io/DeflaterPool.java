@@ -0,0 +1,111 @@
+package sw.tinyweb.io;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Server wide pool of raw (no zlib wrapper) {@link Deflater} instances.
+ *
+ * <p>
+ * Deflaters hold native memory, which is only freed by {@link Deflater#end()}
+ * or finalization. Re-using them avoids the allocation and the finalizer
+ * cost for every compressed response.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ *
+ * @see ResponseCompressor
+ */
+public class DeflaterPool {
+
+    /** Maximum number of idle deflaters held by the pool. */
+    public static final int DEFAULT_MAX_IDLE = 16;
+
+    private static DeflaterPool globalInstance;
+
+    /** @return the global instance */
+    public static synchronized DeflaterPool getInstance() {
+        if (globalInstance == null) {
+            globalInstance = new DeflaterPool(DEFAULT_MAX_IDLE);
+        }
+
+        return globalInstance;
+    }
+
+    private final ConcurrentLinkedQueue<Deflater> idleDeflaters = new ConcurrentLinkedQueue<Deflater>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    private final int maxIdle;
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxIdle
+     *            The maximum number of idle deflaters to keep
+     */
+    public DeflaterPool(int aMaxIdle) {
+        this.maxIdle = aMaxIdle;
+    }
+
+    /** @return the number of deflaters currently in use */
+    public int getActiveCount() {
+        return this.activeCount.get();
+    }
+
+    /** @return the number of deflaters waiting to be re-used */
+    public int getIdleCount() {
+        return this.idleCount.get();
+    }
+
+    /**
+     * Take a deflater from the pool.
+     *
+     * @param aLevel
+     *            The compression level, 1 (fastest) to 9 (smallest)
+     * @return the deflater, ready for new input
+     *
+     * @see #release(Deflater)
+     */
+    public Deflater acquire(int aLevel) {
+        this.activeCount.incrementAndGet();
+
+        Deflater d = this.idleDeflaters.poll();
+        if (d != null) {
+            this.idleCount.decrementAndGet();
+            d.setLevel(aLevel);
+            return d;
+        }
+
+        d = new Deflater(aLevel, true);
+        return d;
+    }
+
+    /**
+     * Return a deflater to the pool.
+     *
+     * <p>
+     * The deflater MUST NOT be used by the caller afterwards.
+     * </p>
+     *
+     * @param aDeflater
+     *            The deflater
+     */
+    public void release(Deflater aDeflater) {
+        this.activeCount.decrementAndGet();
+
+        if (this.idleCount.incrementAndGet() <= this.maxIdle) {
+            aDeflater.reset();
+            this.idleDeflaters.offer(aDeflater);
+        } else {
+            this.idleCount.decrementAndGet();
+            aDeflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+package sw.tinyweb.io;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoder for the status line and headers of a HTTP response.
+ *
+ * <p>
+ * For example,
+ * <pre>
+ *     HTTP/1.1 200 OK&lt;CRLF>
+ *     Content-Type: text/html&lt;CRLF>
+ *     Transfer-Encoding: chunked&lt;CRLF>
+ *     &lt;CRLF>
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Status lines and common header names are pre-encoded. Everything else
+ * is written as US-ASCII (ISO-8859-1 for non-ASCII characters) straight
+ * into a re-usable byte array, so the complete head can be sent with a
+ * single write. CR and LF characters in header values are replaced by
+ * spaces, so a value can never terminate the head early.
+ * </p>
+ *
+ * <p>
+ * Not thread safe; each response uses its own encoder.
+ * </p>
+ */
+public class HttpHeadEncoder {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final byte[] HEADER_SEPARATOR = { ':', ' ' };
+
+    private static final byte[] HTTP_VERSION = ascii("HTTP/1.1 ");
+
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+
+    private static final String[] REASON_PHRASES = new String[600];
+
+    private static final byte[][] STATUS_LINES = new byte[600][];
+
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<String, byte[]>();
+
+    static {
+        REASON_PHRASES[200] = "OK";
+        REASON_PHRASES[201] = "Created";
+        REASON_PHRASES[202] = "Accepted";
+        REASON_PHRASES[204] = "No Content";
+        REASON_PHRASES[206] = "Partial Content";
+        REASON_PHRASES[301] = "Moved Permanently";
+        REASON_PHRASES[302] = "Found";
+        REASON_PHRASES[303] = "See Other";
+        REASON_PHRASES[304] = "Not Modified";
+        REASON_PHRASES[307] = "Temporary Redirect";
+        REASON_PHRASES[400] = "Bad Request";
+        REASON_PHRASES[401] = "Unauthorized";
+        REASON_PHRASES[403] = "Forbidden";
+        REASON_PHRASES[404] = "Not Found";
+        REASON_PHRASES[405] = "Method Not Allowed";
+        REASON_PHRASES[406] = "Not Acceptable";
+        REASON_PHRASES[408] = "Request Timeout";
+        REASON_PHRASES[411] = "Length Required";
+        REASON_PHRASES[412] = "Precondition Failed";
+        REASON_PHRASES[413] = "Request Entity Too Large";
+        REASON_PHRASES[414] = "Request-URI Too Long";
+        REASON_PHRASES[415] = "Unsupported Media Type";
+        REASON_PHRASES[416] = "Requested Range Not Satisfiable";
+        REASON_PHRASES[500] = "Internal Server Error";
+        REASON_PHRASES[501] = "Not Implemented";
+        REASON_PHRASES[503] = "Service Unavailable";
+        REASON_PHRASES[505] = "HTTP Version Not Supported";
+
+        for (int i = 0; i < REASON_PHRASES.length; i++) {
+            if (REASON_PHRASES[i] != null) {
+                STATUS_LINES[i] = ascii("HTTP/1.1 " + i + " " + REASON_PHRASES[i] + "\r\n");
+            }
+        }
+
+        final String[] names = {
+            "Accept-Ranges", "Cache-Control", "Character-Encoding", "Connection", "Content-Encoding",
+            "Content-Length", "Content-Range", "Content-Type", "Date", "ETag", "Expires",
+            "Last-Modified", "Location", "Pragma", "Set-Cookie", "Transfer-Encoding", "Vary",
+        };
+
+        for (final String name : names) {
+            HEADER_NAMES.put(name, ascii(name + ": "));
+        }
+    }
+
+    /**
+     * Get the standard reason phrase for the stated status code.
+     *
+     * @param aCode
+     *            The HTTP status code
+     * @return the phrase or null (unknown status code)
+     */
+    public static String getReasonPhrase(int aCode) {
+        return ((aCode >= 0) && (aCode < REASON_PHRASES.length)) ? REASON_PHRASES[aCode] : null;
+    }
+
+    private byte[] data = new byte[512];
+
+    private int count;
+
+    /** Discard the encoded head. */
+    public void reset() {
+        this.count = 0;
+    }
+
+    /** @return the number of encoded bytes */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Wrap the encoded head.
+     *
+     * <p>
+     * The buffer shares the encoder's storage and is only valid until the
+     * encoder is next changed.
+     * </p>
+     *
+     * @return the buffer, ready for writing to a channel
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(this.data, 0, this.count);
+    }
+
+    /**
+     * Append the status line.
+     *
+     * @param aCode
+     *            The HTTP status code
+     * @param aMessage
+     *            The reason phrase or null (standard phrase)
+     */
+    public void writeStatusLine(int aCode, String aMessage) {
+        final String phrase = getReasonPhrase(aCode);
+        if ((phrase != null) && ((aMessage == null) || phrase.equals(aMessage))) {
+            this.append(STATUS_LINES[aCode]);
+            return;
+        }
+
+        this.append(HTTP_VERSION);
+        this.appendInt(aCode);
+        this.append(' ');
+        this.appendText((aMessage != null) ? aMessage : "Unknown");
+        this.append(CRLF);
+    }
+
+    /**
+     * Append a header.
+     *
+     * @param aName
+     *            The header name
+     * @param aValue
+     *            The header value
+     */
+    public void writeHeader(String aName, String aValue) {
+        this.writeHeaderName(aName);
+        this.appendText(aValue);
+        this.append(CRLF);
+    }
+
+    /**
+     * Append a header.
+     *
+     * @param aName
+     *            The header name
+     * @param aValue
+     *            The encoded header value
+     */
+    public void writeHeader(String aName, byte[] aValue) {
+        this.writeHeaderName(aName);
+        this.append(aValue);
+        this.append(CRLF);
+    }
+
+    /**
+     * Append a numeric header.
+     *
+     * @param aName
+     *            The header name
+     * @param aValue
+     *            The header value
+     */
+    public void writeHeader(String aName, long aValue) {
+        this.writeHeaderName(aName);
+        this.appendInt(aValue);
+        this.append(CRLF);
+    }
+
+    /** Append <code>Transfer-Encoding: chunked</code>. */
+    public void writeChunkedEncoding() {
+        this.append(TRANSFER_ENCODING_CHUNKED);
+    }
+
+    /** Append the empty line that terminates the head. */
+    public void writeEnd() {
+        this.append(CRLF);
+    }
+
+    @Override
+    public String toString() {
+        final char[] chars = new char[this.count];
+        for (int i = 0; i < this.count; i++) {
+            chars[i] = (char) (this.data[i] & 0xff);
+        }
+        return new String(chars);
+    }
+
+    private void writeHeaderName(String aName) {
+        final byte[] name = HEADER_NAMES.get(aName);
+        if (name != null) {
+            this.append(name);
+        } else {
+            this.appendText(aName);
+            this.append(HEADER_SEPARATOR);
+        }
+    }
+
+    private void append(byte[] aBytes) {
+        this.ensureCapacity(aBytes.length);
+        System.arraycopy(aBytes, 0, this.data, this.count, aBytes.length);
+        this.count += aBytes.length;
+    }
+
+    private void append(char aChar) {
+        this.ensureCapacity(1);
+        this.data[this.count++] = (byte) aChar;
+    }
+
+    private void appendInt(long aValue) {
+        if (aValue < 0) {
+            this.append('-');
+            this.appendInt(-aValue);
+            return;
+        }
+
+        this.ensureCapacity(20);
+
+        int digits = 1;
+        for (long v = aValue / 10; v > 0; v /= 10) {
+            digits++;
+        }
+
+        long v = aValue;
+        for (int i = this.count + digits - 1; i >= this.count; i--) {
+            this.data[i] = (byte) ('0' + (v % 10));
+            v /= 10;
+        }
+
+        this.count += digits;
+    }
+
+    private void appendText(String aText) {
+        final int len = aText.length();
+        this.ensureCapacity(len);
+
+        for (int i = 0; i < len; i++) {
+            final char c = aText.charAt(i);
+            if ((c == '\r') || (c == '\n')) {
+                this.data[this.count++] = ' ';
+            } else if (c > 0xff) {
+                this.data[this.count++] = '?';
+            } else {
+                this.data[this.count++] = (byte) c;
+            }
+        }
+    }
+
+    private void ensureCapacity(int aLen) {
+        if (this.count + aLen > this.data.length) {
+            final byte[] newData = new byte[Math.max(this.data.length * 2, this.count + aLen)];
+            System.arraycopy(this.data, 0, newData, 0, this.count);
+            this.data = newData;
+        }
+    }
+
+    private static byte[] ascii(String aText) {
+        final byte[] bytes = new byte[aText.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) aText.charAt(i);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,61 @@
+package sw.tinyweb.io;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A channel that discards everything written to it.
+ *
+ * <p>
+ * Used to send responses nowhere, eg. when warming up the server.
+ * </p>
+ */
+public class NullChannel implements GatheringByteChannel {
+
+    private long bytesWritten;
+
+    private boolean open = true;
+
+    /** @return the number of bytes discarded */
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    @Override
+    public int write(ByteBuffer aSrc) throws ClosedChannelException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+
+        final int n = aSrc.remaining();
+        aSrc.position(aSrc.limit());
+        this.bytesWritten += n;
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] aSrcs, int aOffset, int aLength) throws ClosedChannelException {
+        long n = 0;
+        for (int i = aOffset; i < aOffset + aLength; i++) {
+            n += this.write(aSrcs[i]);
+        }
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] aSrcs) throws ClosedChannelException {
+        return this.write(aSrcs, 0, aSrcs.length);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public void close() {
+        this.open = false;
+    }
+
+}
@@ -0,0 +1,220 @@
+package sw.tinyweb.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Growable output buffer made from pooled, fixed size segments.
+ *
+ * <p>
+ * Segments are taken from the {@link BufferPool} as data is written and
+ * handed to a gathering write without copying, eg.
+ * <pre>
+ *     final ByteBuffer[] segments = buffer.flip();
+ *     channel.write(segments, 0, buffer.getSegmentCount());
+ *     buffer.release();
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Not thread safe; each response uses its own buffer.
+ * </p>
+ */
+public class PooledOutputBuffer {
+
+    private final BufferPool pool;
+
+    private ByteBuffer[] segments = new ByteBuffer[4];
+
+    private int segmentCount;
+
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param aPool
+     *            The source of the segments
+     */
+    public PooledOutputBuffer(BufferPool aPool) {
+        this.pool = aPool;
+    }
+
+    /** @return the number of bytes written */
+    public int size() {
+        return this.size;
+    }
+
+    /** @return the number of segments holding data */
+    public int getSegmentCount() {
+        return this.segmentCount;
+    }
+
+    /**
+     * Append a single byte.
+     *
+     * @param aValue
+     *            The byte
+     */
+    public void write(int aValue) {
+        this.currentSegment().put((byte) aValue);
+        this.size++;
+    }
+
+    /**
+     * Append the stated bytes.
+     *
+     * @param aBuf
+     *            The data
+     * @param aOffset
+     *            The first byte
+     * @param aLen
+     *            The number of bytes
+     */
+    public void write(byte[] aBuf, int aOffset, int aLen) {
+        int offset = aOffset;
+        int len = aLen;
+
+        while (len > 0) {
+            final ByteBuffer b = this.currentSegment();
+            final int n = Math.min(len, b.remaining());
+            b.put(aBuf, offset, n);
+
+            offset += n;
+            len -= n;
+            this.size += n;
+        }
+    }
+
+    /**
+     * Append the stated bytes.
+     *
+     * @param aSrc
+     *            The data; its position is moved to the limit
+     */
+    public void write(ByteBuffer aSrc) {
+        while (aSrc.hasRemaining()) {
+            final ByteBuffer b = this.currentSegment();
+            final int n = Math.min(aSrc.remaining(), b.remaining());
+
+            final ByteBuffer slice = aSrc.duplicate();
+            slice.limit(slice.position() + n);
+            b.put(slice);
+
+            aSrc.position(aSrc.position() + n);
+            this.size += n;
+        }
+    }
+
+    /**
+     * Encode characters straight into the segments.
+     *
+     * <p>
+     * Stops when all characters have been encoded or the stated number
+     * of bytes have been written, whichever comes first.
+     * </p>
+     *
+     * @param aEncoder
+     *            The encoder
+     * @param aSrc
+     *            The characters
+     * @param aMaxBytes
+     *            The maximum number of bytes to write
+     * @return the encoder result
+     */
+    public CoderResult encode(CharsetEncoder aEncoder, CharBuffer aSrc, int aMaxBytes) {
+        final ByteBuffer b = this.currentSegment();
+        final int start = b.position();
+        final int limit = b.limit();
+
+        final boolean segmentLimited = (b.remaining() <= aMaxBytes);
+        if (!segmentLimited) {
+            b.limit(start + aMaxBytes);
+        }
+
+        final CoderResult r = aEncoder.encode(aSrc, b, false);
+        b.limit(limit);
+
+        final int n = b.position() - start;
+        this.size += n;
+
+        if (r.isOverflow() && segmentLimited) {
+            // remaining space too small for the next character
+            b.limit(b.position());
+        }
+
+        return r;
+    }
+
+    /**
+     * Prepare the segments for writing to a channel.
+     *
+     * <p>
+     * No more data can be appended until the buffer is {@link #release() released}.
+     * </p>
+     *
+     * @return the segments; only the first {@link #getSegmentCount()} entries are used
+     */
+    public ByteBuffer[] flip() {
+        for (int i = 0; i < this.segmentCount; i++) {
+            this.segments[i].flip();
+        }
+
+        return this.segments;
+    }
+
+    /**
+     * Copy the buffered content.
+     *
+     * @return the data
+     */
+    public byte[] toByteArray() {
+        final byte[] data = new byte[this.size];
+
+        int offset = 0;
+        for (int i = 0; i < this.segmentCount; i++) {
+            final ByteBuffer b = this.segments[i].duplicate();
+            b.flip();
+
+            final int n = b.remaining();
+            b.get(data, offset, n);
+            offset += n;
+        }
+
+        return data;
+    }
+
+    /** Discard the content and return all segments to the pool. */
+    public void release() {
+        for (int i = 0; i < this.segmentCount; i++) {
+            this.pool.release(this.segments[i]);
+            this.segments[i] = null;
+        }
+
+        this.segmentCount = 0;
+        this.size = 0;
+    }
+
+    /** @return the segment with space for more data */
+    private ByteBuffer currentSegment() {
+        if (this.segmentCount > 0) {
+            final ByteBuffer b = this.segments[this.segmentCount - 1];
+            if (b.hasRemaining()) {
+                return b;
+            }
+        }
+
+        if (this.segmentCount == this.segments.length) {
+            final ByteBuffer[] newSegments = new ByteBuffer[this.segments.length * 2];
+            System.arraycopy(this.segments, 0, newSegments, 0, this.segmentCount);
+            this.segments = newSegments;
+        }
+
+        final ByteBuffer b = this.pool.acquire();
+        this.segments[this.segmentCount++] = b;
+        return b;
+    }
+
+}
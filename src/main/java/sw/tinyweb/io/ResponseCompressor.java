@@ -0,0 +1,210 @@
+package sw.tinyweb.io;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses response content using the <code>gzip</code> or
+ * <code>deflate</code> content encoding.
+ *
+ * <p>
+ * Uses a pooled raw {@link Deflater} and writes the gzip (RFC 1952) or
+ * zlib (RFC 1950) framing itself, so both encodings share one pool.
+ * Compressed data is written to a {@link PooledOutputBuffer}, ready to be
+ * sent with a gathering write. For example,
+ * <pre>
+ *     compressor.compress(content, compressed, false);
+ *     ...
+ *     compressor.finish(content, compressed);
+ *     compressor.end();
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * Not thread safe; each response uses its own compressor.
+ * </p>
+ *
+ * @see CompressionPolicy
+ */
+public class ResponseCompressor {
+
+    /** The <code>gzip</code> content encoding. */
+    public static final String GZIP = "gzip";
+
+    /** The <code>deflate</code> (zlib) content encoding. */
+    public static final String DEFLATE = "deflate";
+
+    /** Magic, deflate method, no flags, no time, no extra flags, unknown OS. */
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    /** Deflate method, 32K window and check bits. */
+    private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+
+    private static final int CHUNK_SIZE = (4 * 1024);
+
+    private final Checksum checksum;
+
+    private Deflater deflater;
+
+    private final String encoding;
+
+    private final boolean gzip;
+
+    private final byte[] input = new byte[CHUNK_SIZE];
+
+    private final byte[] output = new byte[CHUNK_SIZE];
+
+    private boolean started;
+
+    private long totalIn;
+
+    /**
+     * Constructor.
+     *
+     * @param aEncoding
+     *            The content encoding, {@link #GZIP} or {@link #DEFLATE}
+     * @param aLevel
+     *            The compression level, 1 (fastest) to 9 (smallest)
+     */
+    public ResponseCompressor(String aEncoding, int aLevel) {
+        if (GZIP.equals(aEncoding)) {
+            this.gzip = true;
+            this.checksum = new CRC32();
+        } else if (DEFLATE.equals(aEncoding)) {
+            this.gzip = false;
+            this.checksum = new Adler32();
+        } else {
+            throw new IllegalArgumentException("Unsupported content encoding: " + aEncoding);
+        }
+
+        this.encoding = aEncoding;
+        this.deflater = DeflaterPool.getInstance().acquire(aLevel);
+    }
+
+    /** @return the content encoding */
+    public String getEncoding() {
+        return this.encoding;
+    }
+
+    /**
+     * Compress the stated content.
+     *
+     * <p>
+     * The deflater may hold back some of the data, unless a flush is requested.
+     * </p>
+     *
+     * @param aSrc
+     *            The uncompressed data; released afterwards
+     * @param aDest
+     *            Receives the compressed data
+     * @param aFlush
+     *            Must all data written so far be sent?
+     */
+    public void compress(PooledOutputBuffer aSrc, PooledOutputBuffer aDest, boolean aFlush) {
+        this.writeHeader(aDest);
+        this.deflate(aSrc, aDest);
+        aSrc.release();
+
+        if (aFlush) {
+            // output buffer filled means there may be more
+            while (this.drainOnce(aDest, Deflater.SYNC_FLUSH) == this.output.length) {
+                // keep going
+            }
+        }
+    }
+
+    /**
+     * Compress the last of the content and append the trailer.
+     *
+     * @param aSrc
+     *            The uncompressed data; released afterwards
+     * @param aDest
+     *            Receives the compressed data
+     */
+    public void finish(PooledOutputBuffer aSrc, PooledOutputBuffer aDest) {
+        this.writeHeader(aDest);
+        this.deflate(aSrc, aDest);
+        aSrc.release();
+
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            this.drainOnce(aDest, Deflater.NO_FLUSH);
+        }
+
+        final long crc = this.checksum.getValue();
+        if (this.gzip) {
+            writeIntLE(aDest, crc);
+            writeIntLE(aDest, this.totalIn);
+        } else {
+            aDest.write((int) (crc >>> 24));
+            aDest.write((int) (crc >>> 16));
+            aDest.write((int) (crc >>> 8));
+            aDest.write((int) crc);
+        }
+    }
+
+    /**
+     * Return the deflater to the pool.
+     *
+     * <p>
+     * Does nothing when already ended.
+     * </p>
+     */
+    public void end() {
+        if (this.deflater != null) {
+            DeflaterPool.getInstance().release(this.deflater);
+            this.deflater = null;
+        }
+    }
+
+    private void writeHeader(PooledOutputBuffer aDest) {
+        if (!this.started) {
+            final byte[] header = this.gzip ? GZIP_HEADER : ZLIB_HEADER;
+            aDest.write(header, 0, header.length);
+            this.started = true;
+        }
+    }
+
+    private void deflate(PooledOutputBuffer aSrc, PooledOutputBuffer aDest) {
+        final int segments = aSrc.getSegmentCount();
+        final ByteBuffer[] data = aSrc.flip();
+
+        for (int i = 0; i < segments; i++) {
+            final ByteBuffer b = data[i];
+            while (b.hasRemaining()) {
+                // pooled buffers are normally direct, so copy into the
+                // heap for the byte[] based Deflater API
+
+                final int n = Math.min(b.remaining(), this.input.length);
+                b.get(this.input, 0, n);
+
+                this.checksum.update(this.input, 0, n);
+                this.totalIn += n;
+
+                this.deflater.setInput(this.input, 0, n);
+                while (!this.deflater.needsInput()) {
+                    this.drainOnce(aDest, Deflater.NO_FLUSH);
+                }
+            }
+        }
+    }
+
+    private int drainOnce(PooledOutputBuffer aDest, int aFlushMode) {
+        final int n = this.deflater.deflate(this.output, 0, this.output.length, aFlushMode);
+        if (n > 0) {
+            aDest.write(this.output, 0, n);
+        }
+        return n;
+    }
+
+    private static void writeIntLE(PooledOutputBuffer aDest, long aValue) {
+        aDest.write((int) aValue);
+        aDest.write((int) (aValue >>> 8));
+        aDest.write((int) (aValue >>> 16));
+        aDest.write((int) (aValue >>> 24));
+    }
+
+}
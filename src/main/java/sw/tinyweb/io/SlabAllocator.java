@@ -0,0 +1,386 @@
+package sw.tinyweb.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Allocates blocks of off-heap memory from a fixed budget.
+ *
+ * <p>
+ * Memory is reserved as direct buffers of a fixed size (slabs). Each slab
+ * is assigned to a size class when it is first needed, and divided into
+ * chunks of that size. An allocation is given a chunk of the smallest
+ * class that fits, so the java heap only holds small bookkeeping objects
+ * whatever the amount of data stored.
+ * </p>
+ *
+ * <p>
+ * A slab whose chunks are all free is returned to the budget, so it can
+ * be re-assigned to another size class.
+ * </p>
+ *
+ * <p>
+ * Chunks are reference counted; a chunk is freed when its last reference
+ * is {@link Chunk#release() released}.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ */
+public class SlabAllocator {
+
+    /** Size of each slab. */
+    public static final int DEFAULT_SLAB_SIZE = (128 * 1024); // 128K
+
+    private static final int ALIGNMENT = 64;
+
+    private static final double GROWTH_FACTOR = 1.5;
+
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    private final long budget;
+
+    private long chunkBytes;
+
+    private final SizeClass[] classes;
+
+    private long failures;
+
+    private final ArrayDeque<ByteBuffer> idleSlabs = new ArrayDeque<ByteBuffer>();
+
+    private final int maxSlabs;
+
+    private long requestedBytes;
+
+    private int slabCount;
+
+    private final int slabSize;
+
+    private int usedSlabs;
+
+    /**
+     * Constructor.
+     *
+     * @param aBudget
+     *            The maximum number of bytes reserved
+     * @param aSlabSize
+     *            The size of each slab
+     * @param aMaxChunkSize
+     *            The size of the largest allocation; at most the slab size
+     */
+    public SlabAllocator(long aBudget, int aSlabSize, int aMaxChunkSize) {
+        if ((aMaxChunkSize < 1) || (aMaxChunkSize > aSlabSize) || (aBudget < aSlabSize)) {
+            throw new IllegalArgumentException("Invalid slab sizes: budget=" + aBudget
+                    + ", slab=" + aSlabSize + ", chunk=" + aMaxChunkSize);
+        }
+
+        this.budget = aBudget;
+        this.slabSize = aSlabSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, aBudget / aSlabSize);
+
+        final List<SizeClass> sizes = new ArrayList<SizeClass>();
+        int size = Math.min(MIN_CHUNK_SIZE, aMaxChunkSize);
+        while (size < aMaxChunkSize) {
+            sizes.add(new SizeClass(size, aSlabSize / size));
+
+            final int next = (int) (size * GROWTH_FACTOR);
+            size = ((next + ALIGNMENT) - 1) & -ALIGNMENT;
+        }
+        sizes.add(new SizeClass(aMaxChunkSize, aSlabSize / aMaxChunkSize));
+
+        this.classes = sizes.toArray(new SizeClass[sizes.size()]);
+    }
+
+    /** @return the maximum number of bytes reserved */
+    public long getBudget() {
+        return this.budget;
+    }
+
+    /** @return the size of the largest allocation */
+    public int getMaxChunkSize() {
+        return this.classes[this.classes.length - 1].chunkSize;
+    }
+
+    /** @return the number of bytes reserved from the operating system */
+    public synchronized long getReservedBytes() {
+        return (long) this.slabCount * this.slabSize;
+    }
+
+    /** @return the number of bytes requested by live allocations */
+    public synchronized long getUsedBytes() {
+        return this.requestedBytes;
+    }
+
+    /** @return the fraction of the budget held by live chunks */
+    public synchronized double getOccupancy() {
+        return (double) this.chunkBytes / this.budget;
+    }
+
+    /**
+     * How much of the memory assigned to size classes does not hold data?
+     *
+     * <p>
+     * Includes the unused tail of each chunk, and free chunks that cannot
+     * be used by other size classes.
+     * </p>
+     *
+     * @return the fraction, from 0 (none wasted)
+     */
+    public synchronized double getFragmentation() {
+        final long assigned = (long) this.usedSlabs * this.slabSize;
+        return (assigned == 0) ? 0 : 1 - ((double) this.requestedBytes / assigned);
+    }
+
+    /** @return the number of allocations that failed because the budget was exhausted */
+    public synchronized long getFailureCount() {
+        return this.failures;
+    }
+
+    /**
+     * Get the chunk size used for allocations of the stated size.
+     *
+     * @param aSize
+     *            The number of bytes
+     * @return the chunk size or -1 (larger than any chunk)
+     */
+    public int getChunkSize(int aSize) {
+        final SizeClass c = this.findClass(aSize);
+        return (c == null) ? -1 : c.chunkSize;
+    }
+
+    /**
+     * Allocate a block of memory.
+     *
+     * @param aSize
+     *            The number of bytes
+     * @return the chunk, with one reference, or null (too large or budget exhausted)
+     */
+    @Nullable
+    public synchronized Chunk allocate(int aSize) {
+        final SizeClass c = this.findClass(aSize);
+        if (c == null) {
+            return null;
+        }
+
+        Slab slab = c.partial.peekFirst();
+        if (slab == null) {
+            slab = this.newSlab(c);
+            if (slab == null) {
+                this.failures++;
+                return null;
+            }
+            c.partial.addFirst(slab);
+        }
+
+        final int index = slab.free[--slab.freeCount];
+        if (slab.freeCount == 0) {
+            c.partial.removeFirst();
+        }
+
+        this.requestedBytes += aSize;
+        this.chunkBytes += c.chunkSize;
+
+        final ByteBuffer b = slab.memory.duplicate();
+        b.position(index * c.chunkSize);
+        b.limit(b.position() + aSize);
+
+        return new Chunk(this, slab, index, b.slice());
+    }
+
+    /**
+     * How many chunks of a slab are allocated?
+     *
+     * @param aChunk
+     *            A live chunk of the slab
+     * @return the number of chunks, including the stated chunk; the slab is
+     *         re-assigned once they are all freed
+     */
+    public synchronized int getAllocatedChunks(Chunk aChunk) {
+        final Slab slab = aChunk.slab;
+        return slab.sizeClass.chunksPerSlab - slab.freeCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SlabAllocator[budget=" + this.budget + ", reserved=" + this.getReservedBytes()
+                + ", used=" + this.requestedBytes + ", occupancy=" + String.format("%.2f", this.getOccupancy())
+                + ", fragmentation=" + String.format("%.2f", this.getFragmentation())
+                + ", failures=" + this.failures + "]";
+    }
+
+    /**
+     * Return a chunk to its slab.
+     *
+     * @param aChunk
+     *            The chunk; no longer referenced
+     */
+    private synchronized void free(Chunk aChunk) {
+        final Slab slab = aChunk.slab;
+        final SizeClass c = slab.sizeClass;
+
+        this.requestedBytes -= aChunk.getSize();
+        this.chunkBytes -= c.chunkSize;
+
+        slab.free[slab.freeCount++] = aChunk.index;
+
+        if (slab.freeCount == c.chunksPerSlab) {
+            // empty; may be re-assigned to another size class
+            c.partial.remove(slab);
+            this.idleSlabs.push(slab.memory);
+            this.usedSlabs--;
+
+        } else if (slab.freeCount == 1) {
+            c.partial.addLast(slab);
+        }
+    }
+
+    @Nullable
+    private SizeClass findClass(int aSize) {
+        for (final SizeClass c : this.classes) {
+            if (aSize <= c.chunkSize) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /** @return a new slab assigned to the stated class, or null (budget exhausted) */
+    @Nullable
+    private Slab newSlab(SizeClass aClass) {
+        ByteBuffer memory = this.idleSlabs.poll();
+        if (memory == null) {
+            if (this.slabCount >= this.maxSlabs) {
+                return null;
+            }
+
+            memory = ByteBuffer.allocateDirect(this.slabSize);
+            this.slabCount++;
+        }
+
+        this.usedSlabs++;
+        return new Slab(memory, aClass);
+    }
+
+    /**
+     * A block of memory allocated from a slab.
+     */
+    public static final class Chunk {
+
+        private final SlabAllocator allocator;
+
+        private final ByteBuffer buffer;
+
+        private final int index;
+
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private final Slab slab;
+
+        private Chunk(SlabAllocator aAllocator, Slab aSlab, int aIndex, ByteBuffer aBuffer) {
+            this.allocator = aAllocator;
+            this.slab = aSlab;
+            this.index = aIndex;
+            this.buffer = aBuffer;
+        }
+
+        /** @return a new view of the memory; from the first byte to the allocation size */
+        public ByteBuffer getBuffer() {
+            return this.buffer.duplicate();
+        }
+
+        /** @return the allocation size */
+        public int getSize() {
+            return this.buffer.capacity();
+        }
+
+        /** @return the size of the chunk holding the allocation */
+        public int getChunkSize() {
+            return this.slab.sizeClass.chunkSize;
+        }
+
+        /** @return the slab holding the chunk; the same object for all chunks of a slab */
+        public Object getSlab() {
+            return this.slab;
+        }
+
+        /** @return true when more than one reference remains, eg. while the memory is being sent */
+        public boolean isShared() {
+            return this.references.get() > 1;
+        }
+
+        /**
+         * Add a reference.
+         *
+         * @return false when the chunk has already been freed
+         */
+        public boolean retain() {
+            for (;;) {
+                final int n = this.references.get();
+                if (n < 1) {
+                    return false;
+                }
+                if (this.references.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Remove a reference; the chunk is freed when none remain.
+         *
+         * <p>
+         * The caller MUST NOT use the memory afterwards.
+         * </p>
+         */
+        public void release() {
+            if (this.references.decrementAndGet() == 0) {
+                this.allocator.free(this);
+            }
+        }
+    }
+
+    private static final class SizeClass {
+
+        final int chunkSize;
+
+        final int chunksPerSlab;
+
+        /** Slabs with free chunks. */
+        final ArrayDeque<Slab> partial = new ArrayDeque<Slab>();
+
+        SizeClass(int aChunkSize, int aChunksPerSlab) {
+            this.chunkSize = aChunkSize;
+            this.chunksPerSlab = aChunksPerSlab;
+        }
+    }
+
+    private static final class Slab {
+
+        final int[] free;
+
+        int freeCount;
+
+        final ByteBuffer memory;
+
+        final SizeClass sizeClass;
+
+        Slab(ByteBuffer aMemory, SizeClass aClass) {
+            this.memory = aMemory;
+            this.sizeClass = aClass;
+            this.free = new int[aClass.chunksPerSlab];
+
+            // allocate from the start of the slab first
+            for (int i = 0; i < this.free.length; i++) {
+                this.free[i] = this.free.length - 1 - i;
+            }
+            this.freeCount = this.free.length;
+        }
+    }
+
+}
@@ -0,0 +1,435 @@
+package sw.tinyweb.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Web content stored in a ZIP (or JAR) archive.
+ *
+ * <p>
+ * The archive is opened once; its central directory is read into an
+ * in-memory index and the whole archive is memory mapped, so looking up
+ * and reading an entry never touches the file system.
+ * </p>
+ *
+ * <p>
+ * <code>STORED</code> entries are read as slices of the mapped archive.
+ * <code>DEFLATED</code> entries can be read raw, ie. without inflating
+ * them, so they can be sent to clients that accept compressed content,
+ * see {@link #writeGzipHeader(ByteBuffer)}.
+ * </p>
+ *
+ * <p>
+ * ZIP64 archives (larger than 2GB) are not supported.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ */
+public class ZipContentSource {
+
+    private static final Logger LOGGER = Logger.getLogger(ZipContentSource.class);
+
+    /** Compression method; not compressed. */
+    public static final int STORED = 0;
+
+    /** Compression method; raw deflate data. */
+    public static final int DEFLATED = 8;
+
+    /** Size of a <code>gzip</code> header, see {@link #writeGzipHeader(ByteBuffer)}. */
+    public static final int GZIP_HEADER_SIZE = 10;
+
+    /** Size of a <code>gzip</code> trailer, see {@link #writeGzipTrailer(Entry, ByteBuffer)}. */
+    public static final int GZIP_TRAILER_SIZE = 8;
+
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int END_RECORD_SIZE = 22;
+
+    private static final int END_RECORD_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int FLAG_ENCRYPTED = 0x01;
+
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final byte[] GZIP_HEADER = {
+        0x1f, (byte) 0x8b, // magic
+        8, // deflate
+        0, // flags
+        0, 0, 0, 0, // modification time not available
+        0, // extra flags
+        (byte) 0xff, // operating system unknown
+    };
+
+    private final MappedByteBuffer archive;
+
+    private final File archiveFile;
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Constructor; reads the archive index.
+     *
+     * @param aArchive
+     *            The archive
+     * @throws IOException
+     *             when the archive cannot be read, or is not a valid ZIP archive
+     */
+    public ZipContentSource(File aArchive) throws IOException {
+        this.archiveFile = aArchive;
+
+        final RandomAccessFile raf = new RandomAccessFile(aArchive, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new ZipException("Archive too large: " + aArchive);
+            }
+
+            // mapping remains valid once the channel is closed
+            this.archive = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            this.archive.order(ByteOrder.LITTLE_ENDIAN);
+
+        } finally {
+            raf.close();
+        }
+
+        this.readIndex();
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Indexed " + this.entries.size() + " entries in " + aArchive);
+        }
+    }
+
+    /** @return the archive */
+    public File getArchiveFile() {
+        return this.archiveFile;
+    }
+
+    /**
+     * Find the stated entry.
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/foo.js"
+     * @return the entry or null (not found)
+     */
+    @Nullable
+    public Entry getEntry(String aPath) {
+        return this.entries.get(aPath.startsWith("/") ? aPath : ("/" + aPath));
+    }
+
+    /** @return all entries, including folders */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(this.entries.values());
+    }
+
+    /**
+     * Create the URL of the stated entry.
+     *
+     * @param aEntry
+     *            The entry
+     * @return the <code>jar:</code> URL
+     * @throws MalformedURLException
+     *             when a valid URL cannot be created
+     */
+    public URL getURL(Entry aEntry) throws MalformedURLException {
+        return new URL("jar:" + this.archiveFile.toURI() + "!" + aEntry.getPath());
+    }
+
+    /**
+     * Get the stored data of an entry, ie. compressed when the entry is
+     * {@link #DEFLATED}.
+     *
+     * @param aEntry
+     *            The entry
+     * @return a slice of the mapped archive; positioned at the first byte
+     */
+    public ByteBuffer getRawContent(Entry aEntry) {
+        final ByteBuffer b = this.archive.duplicate();
+        b.position(aEntry.dataOffset);
+        b.limit(aEntry.dataOffset + aEntry.compressedSize);
+        return b.slice();
+    }
+
+    /**
+     * Read the uncompressed content of an entry.
+     *
+     * @param aEntry
+     *            The entry
+     * @return the content
+     */
+    public InputStream openStream(Entry aEntry) {
+        final InputStream in = new ByteBufferInputStream(this.getRawContent(aEntry));
+        if (aEntry.method == STORED) {
+            return in;
+        }
+
+        return new InflaterInputStream(in, new Inflater(true)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                this.inf.end();
+            }
+        };
+    }
+
+    /**
+     * Write the header that turns the raw content of a {@link #DEFLATED}
+     * entry into a <code>gzip</code> stream.
+     *
+     * @param aDest
+     *            Where to write {@link #GZIP_HEADER_SIZE} bytes
+     */
+    public static void writeGzipHeader(ByteBuffer aDest) {
+        aDest.put(GZIP_HEADER);
+    }
+
+    /**
+     * Write the trailer that ends the <code>gzip</code> stream of a
+     * {@link #DEFLATED} entry.
+     *
+     * <p>
+     * The trailer holds the CRC and size of the uncompressed content, both
+     * of which are stored in the archive index.
+     * </p>
+     *
+     * @param aEntry
+     *            The entry
+     * @param aDest
+     *            Where to write {@link #GZIP_TRAILER_SIZE} bytes
+     */
+    public static void writeGzipTrailer(Entry aEntry, ByteBuffer aDest) {
+        final ByteOrder order = aDest.order();
+        aDest.order(ByteOrder.LITTLE_ENDIAN);
+        aDest.putInt(aEntry.crc);
+        aDest.putInt(aEntry.size);
+        aDest.order(order);
+    }
+
+    /**
+     * Read the central directory.
+     *
+     * @throws ZipException
+     *             when the archive is not valid
+     */
+    private void readIndex() throws ZipException {
+        final ByteBuffer b = this.archive;
+
+        // end of central directory record; followed by a comment
+        int end = b.limit() - END_RECORD_SIZE;
+        final int min = Math.max(0, end - MAX_COMMENT_SIZE);
+        while ((end >= min) && (b.getInt(end) != END_RECORD_SIGNATURE)) {
+            end--;
+        }
+        if (end < min) {
+            throw new ZipException("Not a ZIP archive: " + this.archiveFile);
+        }
+
+        final int count = b.getShort(end + 10) & 0xffff;
+        int pos = b.getInt(end + 16);
+
+        for (int i = 0; i < count; i++) {
+            if ((pos < 0) || (pos + CENTRAL_HEADER_SIZE > b.limit()) || (b.getInt(pos) != CENTRAL_HEADER_SIGNATURE)) {
+                throw new ZipException("Invalid central directory: " + this.archiveFile);
+            }
+
+            final int flags = b.getShort(pos + 8) & 0xffff;
+            final int method = b.getShort(pos + 10) & 0xffff;
+            final int dosTime = b.getShort(pos + 12) & 0xffff;
+            final int dosDate = b.getShort(pos + 14) & 0xffff;
+            final int crc = b.getInt(pos + 16);
+            final long compressedSize = b.getInt(pos + 20) & 0xffffffffL;
+            final long size = b.getInt(pos + 24) & 0xffffffffL;
+            final int nameLen = b.getShort(pos + 28) & 0xffff;
+            final int extraLen = b.getShort(pos + 30) & 0xffff;
+            final int commentLen = b.getShort(pos + 32) & 0xffff;
+            final long localOffset = b.getInt(pos + 42) & 0xffffffffL;
+
+            if ((long) pos + CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen > b.limit()) {
+                throw new ZipException("Invalid central directory: " + this.archiveFile);
+            }
+
+            final String name = this.readName(pos + CENTRAL_HEADER_SIZE, nameLen, flags);
+            pos += CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen;
+
+            if (((flags & FLAG_ENCRYPTED) != 0) || ((method != STORED) && (method != DEFLATED))) {
+                LOGGER.warn("Ignoring unsupported entry " + name + " in " + this.archiveFile);
+                continue;
+            }
+
+            if ((size > Integer.MAX_VALUE) || (compressedSize > Integer.MAX_VALUE)
+                    || (localOffset + LOCAL_HEADER_SIZE > b.limit())
+                    || (b.getInt((int) localOffset) != LOCAL_HEADER_SIGNATURE)) {
+                throw new ZipException("Invalid entry " + name + " in " + this.archiveFile);
+            }
+
+            // local header has its own name and extra field lengths
+            final int local = (int) localOffset;
+            final int dataOffset = local + LOCAL_HEADER_SIZE
+                    + (b.getShort(local + 26) & 0xffff) + (b.getShort(local + 28) & 0xffff);
+
+            if (dataOffset + compressedSize > b.limit()) {
+                throw new ZipException("Truncated entry " + name + " in " + this.archiveFile);
+            }
+
+            final Entry e = new Entry(
+                    "/" + name,
+                    method,
+                    crc,
+                    (int) compressedSize,
+                    (int) size,
+                    toJavaTime(dosDate, dosTime),
+                    dataOffset);
+
+            this.entries.put(e.getPath(), e);
+        }
+    }
+
+    private String readName(int aOffset, int aLength, int aFlags) {
+        final byte[] bytes = new byte[aLength];
+        final ByteBuffer b = this.archive.duplicate();
+        b.position(aOffset);
+        b.get(bytes);
+
+        // bit 11 marks UTF-8 names; otherwise IBM437, which matches ASCII names
+        return new String(bytes, ((aFlags & 0x800) != 0) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+
+    /** @return the MS-DOS date and time (local time) as milli-seconds since the epoch */
+    private static long toJavaTime(int aDate, int aTime) {
+        final Calendar c = new GregorianCalendar(
+                ((aDate >> 9) & 0x7f) + 1980,
+                ((aDate >> 5) & 0x0f) - 1,
+                aDate & 0x1f,
+                (aTime >> 11) & 0x1f,
+                (aTime >> 5) & 0x3f,
+                (aTime & 0x1f) * 2);
+
+        return c.getTimeInMillis();
+    }
+
+    /**
+     * An entry of the archive.
+     */
+    public static final class Entry {
+
+        private final int compressedSize;
+
+        private final int crc;
+
+        private final int dataOffset;
+
+        private final long lastModified;
+
+        private final int method;
+
+        private final String path;
+
+        private final int size;
+
+        Entry(String aPath, int aMethod, int aCRC, int aCompressedSize, int aSize, long aLastModified, int aDataOffset) {
+            this.path = aPath;
+            this.method = aMethod;
+            this.crc = aCRC;
+            this.compressedSize = aCompressedSize;
+            this.size = aSize;
+            this.lastModified = aLastModified;
+            this.dataOffset = aDataOffset;
+        }
+
+        /** @return the resource path, eg. "/js/foo.js"; folders end with "/" */
+        public String getPath() {
+            return this.path;
+        }
+
+        /** @return true when the entry is a folder */
+        public boolean isDirectory() {
+            return this.path.endsWith("/");
+        }
+
+        /** @return the compression method, ie. {@link ZipContentSource#STORED} or {@link ZipContentSource#DEFLATED} */
+        public int getMethod() {
+            return this.method;
+        }
+
+        /** @return the size of the stored data */
+        public int getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        /** @return the size of the uncompressed content */
+        public int getSize() {
+            return this.size;
+        }
+
+        /** @return when the entry was last modified */
+        public long getLastModified() {
+            return this.lastModified;
+        }
+    }
+
+    /**
+     * Reads a byte buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer aBuffer) {
+            this.buffer = aBuffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? (this.buffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] aBuf, int aOffset, int aLen) {
+            if (aLen == 0) {
+                return 0;
+            }
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int n = Math.min(aLen, this.buffer.remaining());
+            this.buffer.get(aBuf, aOffset, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.buffer.remaining();
+        }
+    }
+
+}
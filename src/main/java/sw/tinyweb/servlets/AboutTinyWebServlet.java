@@ -21,7 +21,7 @@ public class AboutTinyWebServlet extends HttpServlet {
         aResponse.setCharacterEncoding("UTF-8");
         aResponse.setContentType("text/html");
 
-        final PrintWriter writer = new PrintWriter(aResponse.getOutputStream(), true);
+        final PrintWriter writer = aResponse.getWriter();
         writer.println("<html>");
         writer.println("<head><title>TinyWeb - About</title></head>");
         writer.println("<body>");
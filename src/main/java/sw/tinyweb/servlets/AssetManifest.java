@@ -0,0 +1,390 @@
+package sw.tinyweb.servlets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletContext;
+
+import org.apache.log4j.Logger;
+
+import sw.tinyweb.ResourceIndexSnapshot;
+import sw.tinyweb.TinyWebServletContext;
+import sw.tinyweb.io.ZipContentSource;
+import sw.tinyweb.utils.FolderWatcher;
+
+/**
+ * Maps resource paths to fingerprinted URLs, eg. <code>/js/app.js</code>
+ * to <code>/js/app.3f2a9c81.js</code>.
+ *
+ * <p>
+ * The fingerprint is derived from the resource content, so a fingerprinted
+ * URL always identifies the same content, and can be cached by clients
+ * forever. Pages refer to resources using {@link #resolve(ServletContext, String)}
+ * so clients fetch new content when it changes.
+ * </p>
+ *
+ * <p>
+ * Fingerprints are computed in the background, on one thread per processor.
+ * Until a fingerprint is known, the resource path is used unchanged; a
+ * request for a fingerprinted URL meanwhile computes the fingerprint of
+ * its resource immediately.
+ * </p>
+ *
+ * <p>
+ * Fingerprints are recomputed when their files change; URLs containing
+ * the old fingerprint are no longer found. Changes are reported some time
+ * after they happen, so {@link #isCurrent(String)} checks that a file is
+ * unchanged before its content is treated as immutable.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ *
+ * @see DownloadFileServlet
+ */
+public class AssetManifest implements FolderWatcher.Listener {
+
+    /** The context attribute holding the manifest. */
+    public static final String ATTRIBUTE = AssetManifest.class.getName();
+
+    private static final Logger LOGGER = Logger.getLogger(AssetManifest.class);
+
+    private static final int FINGERPRINT_LENGTH = 8; // hex digits
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final TinyWebServletContext context;
+
+    private final ExecutorService hasher;
+
+    /** Fingerprinted URL to resource. */
+    private final Map<String, Fingerprint> logicalPaths = new ConcurrentHashMap<String, Fingerprint>();
+
+    /** Resource path to fingerprinted URL. */
+    private final Map<String, String> urls = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Constructor.
+     *
+     * @param aContext
+     *            The context holding the resources
+     */
+    public AssetManifest(TinyWebServletContext aContext) {
+        this.context = aContext;
+
+        final AtomicInteger threads = new AtomicInteger();
+        this.hasher = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable aTask) {
+                final Thread t = new Thread(aTask, "TinyWeb-fingerprint-" + threads.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Get the URL of the stated resource, using the context's manifest.
+     *
+     * @param aContext
+     *            The servlet context
+     * @param aPath
+     *            The resource path, eg. "/js/app.js"
+     * @return the fingerprinted URL, or the path (no manifest, or fingerprint not known)
+     */
+    public static String resolve(ServletContext aContext, String aPath) {
+        final Object manifest = aContext.getAttribute(ATTRIBUTE);
+        return (manifest instanceof AssetManifest) ? ((AssetManifest) manifest).resolve(aPath) : aPath;
+    }
+
+    /**
+     * Get the URL of the stated resource.
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/app.js"
+     * @return the fingerprinted URL, or the path (fingerprint not known)
+     */
+    public String resolve(String aPath) {
+        final String url = this.urls.get(aPath);
+        return (url != null) ? url : aPath;
+    }
+
+    /**
+     * Find the resource identified by a fingerprinted URL.
+     *
+     * @param aURL
+     *            The URL path, eg. "/js/app.3f2a9c81.js"
+     * @return the resource path, or null (not a current fingerprinted URL)
+     */
+    @Nullable
+    public String findLogicalPath(String aURL) {
+        Fingerprint f = this.logicalPaths.get(aURL);
+        if (f != null) {
+            return f.path;
+        }
+
+        // fingerprint may not be known yet, eg. soon after startup
+        final String candidate = fromURL(aURL);
+        if ((candidate == null) || this.urls.containsKey(candidate) || !isFingerprinted(candidate)) {
+            return null;
+        }
+
+        this.fingerprint(candidate);
+        f = this.logicalPaths.get(aURL);
+        return (f != null) ? f.path : null;
+    }
+
+    /**
+     * Is the file identified by a fingerprinted URL unchanged since its
+     * fingerprint was computed?
+     *
+     * <p>
+     * A changed file is found by comparing its size and last-modified time,
+     * before the change is reported.
+     * </p>
+     *
+     * @param aURL
+     *            The URL path, eg. "/js/app.3f2a9c81.js"
+     * @return false when the file has changed, or the URL is not known
+     */
+    public boolean isCurrent(String aURL) {
+        final Fingerprint f = this.logicalPaths.get(aURL);
+        if (f == null) {
+            return false;
+        }
+        if (f.file == null) {
+            return true; // archive never changes
+        }
+
+        return (f.file.length() == f.length) && (f.file.lastModified() == f.lastModified);
+    }
+
+    /** @return the number of fingerprinted resources */
+    public int size() {
+        return this.urls.size();
+    }
+
+    /** Compute the fingerprints of all resources, in the background. */
+    public void scheduleAll() {
+        final ZipContentSource archive = this.context.getContentArchive();
+        if (archive != null) {
+            for (final ZipContentSource.Entry e : archive.getEntries()) {
+                if (!e.isDirectory()) {
+                    this.schedule(e.getPath());
+                }
+            }
+            return;
+        }
+
+        for (final ResourceIndexSnapshot.Record r : ResourceIndexSnapshot.scan(this.context.getWebContentHome())) {
+            this.schedule(r.getPath());
+        }
+    }
+
+    /** Stop computing fingerprints. */
+    public void shutdown() {
+        this.hasher.shutdownNow();
+    }
+
+    @Override
+    public void resourceChanged(String aPath) {
+        this.remove(aPath);
+        this.schedule(aPath);
+    }
+
+    @Override
+    public void resourcesChanged() {
+        this.logicalPaths.clear();
+        this.urls.clear();
+        this.scheduleAll();
+    }
+
+    /**
+     * Create a fingerprinted URL.
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/app.js"
+     * @param aFingerprint
+     *            The fingerprint, eg. "3f2a9c81"
+     * @return the URL, eg. "/js/app.3f2a9c81.js"
+     */
+    static String toURL(String aPath, String aFingerprint) {
+        final int dot = aPath.lastIndexOf('.');
+        if (dot <= aPath.lastIndexOf('/') + 1) {
+            // no extension, or hidden file
+            return aPath + '.' + aFingerprint;
+        }
+
+        return aPath.substring(0, dot) + '.' + aFingerprint + aPath.substring(dot);
+    }
+
+    /**
+     * Find the resource path a URL may have been created from.
+     *
+     * @param aURL
+     *            The URL path, eg. "/js/app.3f2a9c81.js"
+     * @return the path, eg. "/js/app.js", or null (not a fingerprinted URL)
+     */
+    @Nullable
+    static String fromURL(String aURL) {
+        final int name = aURL.lastIndexOf('/') + 1;
+        final int end = aURL.lastIndexOf('.');
+        if (end < name) {
+            return null;
+        }
+
+        // fingerprint before the extension
+        final int start = aURL.lastIndexOf('.', end - 1);
+        if ((start >= name) && isFingerprint(aURL.substring(start + 1, end))) {
+            final String path = aURL.substring(0, start) + aURL.substring(end);
+            if (aURL.equals(toURL(path, aURL.substring(start + 1, end)))) {
+                return path;
+            }
+        }
+
+        // no extension
+        final String path = aURL.substring(0, end);
+        if (isFingerprint(aURL.substring(end + 1)) && aURL.equals(toURL(path, aURL.substring(end + 1)))) {
+            return path;
+        }
+
+        return null;
+    }
+
+    private static boolean isFingerprint(String aText) {
+        if (aText.length() != FINGERPRINT_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < aText.length(); i++) {
+            final char c = aText.charAt(i);
+            if (!(((c >= '0') && (c <= '9')) || ((c >= 'a') && (c <= 'f')))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return can the stated resource have a fingerprinted URL? */
+    private static boolean isFingerprinted(String aPath) {
+        return !aPath.endsWith(".gz") && !aPath.endsWith(".br") // pre-compressed variants are not requested directly
+                && (aPath.indexOf("WEB-INF") < 0); // never served
+    }
+
+    private void remove(String aPath) {
+        final String url = this.urls.remove(aPath);
+        if (url != null) {
+            this.logicalPaths.remove(url);
+        }
+    }
+
+    private void schedule(final String aPath) {
+        if (!isFingerprinted(aPath)) {
+            return;
+        }
+
+        try {
+            this.hasher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fingerprint(aPath);
+                }
+            });
+
+        } catch (final RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Compute the fingerprint of the stated resource.
+     *
+     * @param aPath
+     *            The resource path
+     */
+    private void fingerprint(String aPath) {
+        try {
+            final File file = this.context.getResourceFile(aPath);
+            if ((file == null) && (this.context.getResourceEntry(aPath) == null)) {
+                return; // deleted, or a folder
+            }
+
+            final long length = (file != null) ? file.length() : -1;
+            final long lastModified = (file != null) ? file.lastModified() : -1;
+
+            final InputStream in = this.context.getResourceAsStream(aPath);
+            if (in == null) {
+                return;
+            }
+
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try {
+                final byte[] buf = new byte[8 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    digest.update(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+
+            if ((file != null) && ((file.length() != length) || (file.lastModified() != lastModified))) {
+                return; // changed whilst hashing; recomputed when the change is reported
+            }
+
+            final byte[] hash = digest.digest();
+            final char[] hex = new char[FINGERPRINT_LENGTH];
+            for (int i = 0; i < FINGERPRINT_LENGTH; i++) {
+                final int b = hash[i / 2] >> ((i % 2 == 0) ? 4 : 0);
+                hex[i] = HEX_DIGITS[b & 0x0f];
+            }
+
+            final String url = toURL(aPath, new String(hex));
+
+            this.remove(aPath);
+            this.logicalPaths.put(url, new Fingerprint(aPath, file, length, lastModified));
+            this.urls.put(aPath, url);
+
+        } catch (final NoSuchAlgorithmException e) {
+            LOGGER.error("Cannot fingerprint " + aPath, e);
+        } catch (final IOException e) {
+            LOGGER.warn("Cannot fingerprint " + aPath, e);
+        }
+    }
+
+    /**
+     * The resource a fingerprint was computed from.
+     */
+    private static final class Fingerprint {
+
+        /** The file, or null (archive entry). */
+        final File file;
+
+        final long lastModified;
+
+        final long length;
+
+        final String path;
+
+        Fingerprint(String aPath, File aFile, long aLength, long aLastModified) {
+            this.path = aPath;
+            this.file = aFile;
+            this.length = aLength;
+            this.lastModified = aLastModified;
+        }
+    }
+
+}
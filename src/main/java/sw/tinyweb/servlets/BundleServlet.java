@@ -0,0 +1,355 @@
+package sw.tinyweb.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+import sw.tinyweb.TinyWebResponse;
+import sw.tinyweb.TinyWebServletContext;
+import sw.tinyweb.io.CompressionPolicy;
+import sw.tinyweb.utils.ContentNegotiator;
+import sw.tinyweb.utils.ETags;
+import sw.tinyweb.utils.Minifier;
+import sw.tinyweb.utils.ServletUtils;
+
+/**
+ * Send several JavaScript or CSS resources as a single response.
+ *
+ * <p>
+ * Each bundle is declared by an init parameter, named after the bundle
+ * path, listing its resources in order ...
+ * <pre>
+ *     &lt;init-param>
+ *         &lt;param-name>bundle./bundles/site.css&lt;/param-name>
+ *         &lt;param-value>/css/reset.css, /css/layout.css&lt;/param-value>
+ *     &lt;/init-param>
+ * </pre>
+ * and the bundle path is mapped to the servlet. The MIME type of the
+ * bundle is decided by its path.
+ * </p>
+ *
+ * <p>
+ * Bundles are built when first requested, and held in memory with their
+ * <code>gzip</code> representation. A bundle is rebuilt when the
+ * {@link TinyWebServletContext#getResourceLastModified(String) last-modified time}
+ * of any of its resources changes.
+ * </p>
+ *
+ * <p>
+ * Relative <code>url(...)</code> references in style sheets are rewritten,
+ * so they still refer to the same resources. Bundles are minified (see
+ * {@link Minifier}) unless the init parameter <code>minify</code> is "false".
+ * </p>
+ */
+public class BundleServlet extends HttpServlet {
+    private static final long serialVersionUID = 3580913385213436511L;
+
+    /** Init parameter prefix; the rest of the name is the bundle path. */
+    public static final String BUNDLE_PREFIX = "bundle.";
+
+    /** Init parameter; "false" disables minification. */
+    public static final String MINIFY = "minify";
+
+    private static final String GZIP = "gzip";
+
+    private static final ContentNegotiator ENCODINGS = ContentNegotiator.forEncodings(GZIP, ContentNegotiator.IDENTITY);
+
+    private static final Logger LOGGER = Logger.getLogger(BundleServlet.class);
+
+    private static final Pattern CSS_CHARSET = Pattern.compile("@charset\\s+[\"'][^\"']*[\"']\\s*;");
+
+    private static final Pattern CSS_URL = Pattern.compile("url\\(\\s*([\"']?)([^\"')]+)\\1\\s*\\)");
+
+    private transient Map<String, Bundle> bundles;
+
+    private transient boolean minify;
+
+    @Override
+    public void init() throws ServletException {
+        this.minify = !"false".equalsIgnoreCase(this.getInitParameter(MINIFY));
+        this.bundles = new HashMap<String, Bundle>();
+
+        @SuppressWarnings("unchecked")
+        final Enumeration<String> names = this.getInitParameterNames();
+        while (names.hasMoreElements()) {
+            final String name = names.nextElement();
+            if (!name.startsWith(BUNDLE_PREFIX)) {
+                continue;
+            }
+
+            final List<String> sources = new ArrayList<String>();
+            for (final String s : this.getInitParameter(name).split(",")) {
+                if (s.trim().length() > 0) {
+                    sources.add(s.trim());
+                }
+            }
+
+            final String path = name.substring(BUNDLE_PREFIX.length());
+            this.bundles.put(path, new Bundle(path, sources.toArray(new String[sources.size()])));
+        }
+    }
+
+    @Override
+    public void doGet(HttpServletRequest aRequest, HttpServletResponse aResponse)
+            throws ServletException, IOException {
+
+        final String path = ServletUtils.getRequestPath(aRequest);
+        final Bundle bundle = this.bundles.get(path);
+        if (bundle == null) {
+            LOGGER.error("Cannot find bundle: " + path);
+            aResponse.sendError(HttpServletResponse.SC_NOT_FOUND, "Cannot find bundle: " + path);
+            return;
+        }
+
+        final BuiltBundle b = bundle.getContent((TinyWebServletContext) this.getServletContext(), this.minify);
+        if (b == null) {
+            aResponse.sendError(HttpServletResponse.SC_NOT_FOUND, "Cannot build bundle: " + path);
+            return;
+        }
+
+        aResponse.addDateHeader("Last-Modified", b.lastModified);
+        aResponse.setHeader("ETag", b.etag);
+        if (b.gzipContent != null) {
+            aResponse.setHeader("Vary", ContentNegotiator.ACCEPT_ENCODING);
+        }
+
+        if (DownloadFileServlet.isNotModified(aRequest, aResponse, b.etag, b.lastModified)) {
+            DownloadFileServlet.sendNotModified(path, aRequest, aResponse);
+            return;
+        }
+
+        byte[] content = b.content;
+        if ((b.gzipContent != null) && GZIP.equals(ENCODINGS.negotiate(aRequest))) {
+            content = b.gzipContent;
+            aResponse.setHeader("Content-Encoding", GZIP);
+            aResponse.setHeader("ETag", ETags.withEncoding(b.etag, GZIP));
+        }
+
+        aResponse.setCharacterEncoding("UTF-8");
+        aResponse.setContentType(b.mimeType);
+        aResponse.setHeader("Content-Length", Integer.toString(content.length));
+
+        if (aResponse instanceof TinyWebResponse) {
+            // sent with the response head
+            ((TinyWebResponse) aResponse).transferFrom(ByteBuffer.wrap(content));
+        } else {
+            aResponse.getOutputStream().write(content);
+        }
+    }
+
+    /**
+     * Rewrite relative <code>url(...)</code> references, so they are
+     * relative to the web content root.
+     *
+     * @param aCss
+     *            The style sheet
+     * @param aPath
+     *            The style sheet path, eg. "/css/site.css"
+     * @return the style sheet
+     */
+    static String rebaseUrls(String aCss, String aPath) {
+        final String folder = aPath.substring(0, aPath.lastIndexOf('/') + 1);
+
+        final Matcher m = CSS_URL.matcher(aCss);
+        final StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            final String url = m.group(2).trim();
+            if (url.startsWith("/") || url.startsWith("#") || (url.indexOf(':') > -1)) {
+                continue; // absolute, fragment, or data: etc.
+            }
+
+            final String quote = m.group(1);
+            m.appendReplacement(sb, Matcher.quoteReplacement("url(" + quote + normalize(folder + url) + quote + ")"));
+        }
+        m.appendTail(sb);
+
+        return sb.toString();
+    }
+
+    /** @return the path, without "." and ".." segments */
+    private static String normalize(String aPath) {
+        final List<String> segments = new ArrayList<String>();
+        for (final String s : aPath.split("/", -1)) {
+            if ("..".equals(s)) {
+                if (segments.size() > 1) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else if (!".".equals(s)) {
+                segments.add(s);
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (final String s : segments) {
+            if ((sb.length() > 0) || !s.isEmpty()) {
+                sb.append('/').append(s);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A declared bundle.
+     */
+    private static final class Bundle {
+
+        private volatile BuiltBundle built;
+
+        private final String path;
+
+        private final String[] sources;
+
+        Bundle(String aPath, String[] aSources) {
+            this.path = aPath;
+            this.sources = aSources;
+        }
+
+        /**
+         * Get the current content, building it when needed.
+         *
+         * @return the content, or null (a resource cannot be read)
+         */
+        BuiltBundle getContent(TinyWebServletContext aContext, boolean aMinify) throws IOException {
+            final long[] times = new long[this.sources.length];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = aContext.getResourceLastModified(this.sources[i]);
+                if (times[i] == -1) {
+                    LOGGER.error("Cannot find resource " + this.sources[i] + " of bundle " + this.path);
+                    return null;
+                }
+            }
+
+            BuiltBundle b = this.built;
+            if ((b != null) && Arrays.equals(b.sourceTimes, times)) {
+                return b;
+            }
+
+            synchronized (this) {
+                b = this.built;
+                if ((b == null) || !Arrays.equals(b.sourceTimes, times)) {
+                    b = this.build(aContext, aMinify, times);
+                    this.built = b;
+                }
+            }
+            return b;
+        }
+
+        private BuiltBundle build(TinyWebServletContext aContext, boolean aMinify, long[] aTimes) throws IOException {
+            final String mimeType = aContext.getMimeType(this.path);
+            final boolean css = "text/css".equals(mimeType);
+
+            final StringBuilder sb = new StringBuilder();
+            long lastModified = 0;
+
+            for (int i = 0; i < this.sources.length; i++) {
+                final InputStream in = aContext.getResourceAsStream(this.sources[i]);
+                if (in == null) {
+                    return null;
+                }
+
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try {
+                    ServletUtils.copyContent(in, bytes);
+                } finally {
+                    in.close();
+                }
+
+                String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+                if (css) {
+                    // bundle is sent as UTF-8
+                    text = CSS_CHARSET.matcher(text).replaceAll("");
+                    text = rebaseUrls(text, this.sources[i]);
+                    text = aMinify ? Minifier.css(text) : text;
+                } else {
+                    text = aMinify ? Minifier.javaScript(text) : text;
+                }
+
+                sb.append(text);
+                // scripts need not end with a semicolon
+                sb.append(css ? "\n" : ";\n");
+
+                lastModified = Math.max(lastModified, aTimes[i]);
+            }
+
+            final byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            final String etag = '"' + Long.toHexString(crc.getValue()) + '-' + Integer.toHexString(content.length) + '"';
+
+            byte[] gzipContent = null;
+            if (CompressionPolicy.getInstance().isCompressible(mimeType)
+                    && (content.length >= CompressionPolicy.getInstance().getMinimumSize())) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final GZIPOutputStream gzip = new GZIPOutputStream(out) {
+                    {
+                        this.def.setLevel(Deflater.BEST_COMPRESSION);
+                    }
+                };
+                gzip.write(content);
+                gzip.close();
+
+                if (out.size() < content.length) {
+                    gzipContent = out.toByteArray();
+                }
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Built bundle " + this.path + " from " + this.sources.length + " resources; "
+                        + content.length + " bytes");
+            }
+
+            return new BuiltBundle(content, gzipContent, mimeType, lastModified, etag, aTimes);
+        }
+    }
+
+    /**
+     * The content of a bundle.
+     */
+    private static final class BuiltBundle {
+
+        final byte[] content;
+
+        final String etag;
+
+        /** Compressed content, or null (not worth compressing). */
+        final byte[] gzipContent;
+
+        final long lastModified;
+
+        final String mimeType;
+
+        /** Last-modified times of the resources the content was built from. */
+        final long[] sourceTimes;
+
+        BuiltBundle(byte[] aContent, byte[] aGzipContent, String aMimeType, long aLastModified, String aETag, long[] aSourceTimes) {
+            this.content = aContent;
+            this.gzipContent = aGzipContent;
+            this.mimeType = aMimeType;
+            this.lastModified = aLastModified;
+            this.etag = aETag;
+            this.sourceTimes = aSourceTimes;
+        }
+    }
+
+}
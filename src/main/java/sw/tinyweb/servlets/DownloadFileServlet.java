@@ -1,7 +1,17 @@
 package sw.tinyweb.servlets;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -10,46 +20,316 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 
+import sw.tinyweb.TinyWebResponse;
 import sw.tinyweb.TinyWebServletContext;
+import sw.tinyweb.io.CachePolicy;
+import sw.tinyweb.io.CachePolicyTable;
+import sw.tinyweb.io.CompressionPolicy;
+import sw.tinyweb.io.SlabAllocator;
+import sw.tinyweb.io.ZipContentSource;
+import sw.tinyweb.utils.ByteRange;
+import sw.tinyweb.utils.ContentNegotiator;
+import sw.tinyweb.utils.ETags;
 import sw.tinyweb.utils.ServletUtils;
 
 /**
  * Download the contents of a single resource.
  *
  * <p>
- * Supports <code>Last-Modified</code> and <code>Cache-Control</code>
- * based caching.
+ * Supports <code>Last-Modified</code>, <code>ETag</code> and <code>Cache-Control</code>
+ * based caching. <code>If-None-Match</code> takes precedence over
+ * <code>If-Modified-Since</code>. <code>Cache-Control</code> is decided by
+ * the {@link CachePolicyTable}, or is <code>max-age=180</code>.
  * <p>
  *
+ * <p>
+ * Supports <code>Range</code> and <code>If-Range</code> requests for
+ * resources stored in files, including <code>multipart/byteranges</code>
+ * responses for several ranges.
+ * </p>
+ *
+ * <p>
+ * Serves {@link PrecompressedVariants pre-compressed variants} of
+ * compressible resources, eg. <code>foo.js.gz</code>, when the client
+ * accepts them. Init parameters ...
+ * <ul>
+ * <li><code>precompressed</code> - "false" disables variants
+ * <li><code>precompressed.folder</code> - where generated variants are stored,
+ *     defaults to a folder in the <code>.tinyweb</code> folder of the user's
+ *     home folder; must only be writable by the server
+ * <li><code>precompressed.atStartup</code> - "true" generates variants for all
+ *     web content when the servlet starts
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * Web content stored in an archive (see {@link ZipContentSource}) is sent
+ * straight from the mapped archive. Compressed entries are sent to
+ * clients that accept <code>gzip</code> without being inflated.
+ * Archive content is not cached, and has no pre-compressed variants.
+ * </p>
+ *
+ * <p>
+ * Small files are held in a {@link StaticContentCache}, so frequently
+ * requested resources are served from memory. Init parameters ...
+ * <ul>
+ * <li><code>cache</code> - "false" disables the cache
+ * <li><code>cache.maxSize</code> - total size of cached content in bytes
+ * <li><code>cache.maxEntrySize</code> - size of the largest file cached in bytes
+ * <li><code>cache.offHeap</code> - "false" stores cached content on the java heap,
+ *     rather than in a {@link SlabAllocator}
+ * </ul>
+ * </p>
+ *
+ * <p>
+ * Resources are also served at {@link AssetManifest fingerprinted URLs},
+ * eg. <code>/js/app.3f2a9c81.js</code>, which clients may cache forever.
+ * Pages find these URLs using {@link AssetManifest#resolve(javax.servlet.ServletContext, String)}.
+ * The init parameter <code>fingerprint</code> - "false" disables fingerprinted URLs.
+ * </p>
+ *
  * @author $Author: $
  * @version $Revision: $
  */
 public class DownloadFileServlet extends HttpServlet {
     private static final long serialVersionUID = -4596308910266964873L;
 
+    /** Content encodings that may have pre-compressed variants. */
+    static final ContentNegotiator ENCODINGS = ContentNegotiator.forEncodings("br", "gzip", ContentNegotiator.IDENTITY);
+
+    private static final String GZIP = "gzip";
+
+    /** Content encodings of pre-compressed variants, in server preference order. */
+    private static final String[] VARIANT_ENCODINGS = { "br", "gzip" };
+
+    /** Init parameter; "false" disables pre-compressed variants. */
+    public static final String PRECOMPRESSED = "precompressed";
+
+    /** Init parameter; where generated variants are stored. */
+    public static final String PRECOMPRESSED_FOLDER = "precompressed.folder";
+
+    /** Init parameter; "true" generates variants when the servlet starts. */
+    public static final String PRECOMPRESSED_AT_STARTUP = "precompressed.atStartup";
+
+    /** Init parameter; "false" disables the content cache. */
+    public static final String CACHE = "cache";
+
+    /** Init parameter; total size of cached content. */
+    public static final String CACHE_MAX_SIZE = "cache.maxSize";
+
+    /** Init parameter; size of the largest file cached. */
+    public static final String CACHE_MAX_ENTRY_SIZE = "cache.maxEntrySize";
+
+    /** Init parameter; "false" stores cached content on the java heap. */
+    public static final String CACHE_OFF_HEAP = "cache.offHeap";
+
+    /** Init parameter; "false" disables fingerprinted URLs. */
+    public static final String FINGERPRINT = "fingerprint";
+
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+
     private static final String CACHE_CONTROL = "Cache-Control";
 
-    private static final String MAX_AGE = "max-age=180"; // 30 minutes
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final int COPY_BUFFER_SIZE = (4 * 1024); // 4K buffer
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    private static final String ETAG = "ETag";
+
+    /** Used when no {@link CachePolicyTable} entry matches. */
+    private static final CachePolicy DEFAULT_CACHE_POLICY = CachePolicy.maxAge(180); // 3 minutes
 
     private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
 
+    private static final String IF_NONE_MATCH = "If-None-Match";
+
+    private static final String IF_RANGE = "If-Range";
+
     private static final String LAST_MODIFIED = "Last-Modified";
 
+    private static final String RANGE = "Range";
+
+    private static final String VARY = "Vary";
+
     private static final Logger LOGGER = Logger.getLogger(DownloadFileServlet.class);
 
+    private transient StaticContentCache cache;
+
+    /** Only files in the watched folder are cached. */
+    private transient String cachedFolder;
+
+    private transient AssetManifest manifest;
+
+    private transient PrecompressedVariants variants;
+
+    @Override
+    public void init() throws ServletException {
+        final TinyWebServletContext context = (TinyWebServletContext) this.getServletContext();
+
+        if (!"false".equalsIgnoreCase(this.getInitParameter(FINGERPRINT))) {
+            final AssetManifest m = new AssetManifest(context);
+
+            // fingerprints must be recomputed when files change
+            if (context.addResourceListener(m)) {
+                this.manifest = m;
+                context.setAttribute(AssetManifest.ATTRIBUTE, m);
+                m.scheduleAll();
+            } else {
+                m.shutdown();
+            }
+        }
+
+        if (context.getContentArchive() != null) {
+            // already in memory, and never changes
+            return;
+        }
+
+        if (!"false".equalsIgnoreCase(this.getInitParameter(CACHE))) {
+            final long maxSize = this.getLongParameter(CACHE_MAX_SIZE, StaticContentCache.DEFAULT_MAX_SIZE);
+            final int maxEntrySize = (int) this.getLongParameter(CACHE_MAX_ENTRY_SIZE, StaticContentCache.DEFAULT_MAX_ENTRY_SIZE);
+
+            final StaticContentCache c;
+            if ("false".equalsIgnoreCase(this.getInitParameter(CACHE_OFF_HEAP))) {
+                c = new StaticContentCache(maxSize, maxEntrySize);
+            } else {
+                // slabs must hold the largest entry
+                final int slabSize = (int) Math.min(maxSize, Math.max(SlabAllocator.DEFAULT_SLAB_SIZE, maxEntrySize));
+                c = new StaticContentCache(new SlabAllocator(maxSize, slabSize, Math.min(maxEntrySize, slabSize)));
+            }
+
+            // cached files must be removed when they change
+            if (context.addResourceListener(c)) {
+                this.cache = c;
+                this.cachedFolder = context.getWebContentHome().getAbsolutePath() + File.separator;
+            }
+        }
+
+        if ("false".equalsIgnoreCase(this.getInitParameter(PRECOMPRESSED))) {
+            return;
+        }
+
+        final File home = context.getWebContentHome();
+
+        File folder;
+        final String name = this.getInitParameter(PRECOMPRESSED_FOLDER);
+        if (name != null) {
+            folder = new File(name);
+        } else {
+            // one folder per web content folder; not shared with other users
+            final String id = Integer.toHexString(home.getAbsolutePath().hashCode());
+            folder = new File(new File(System.getProperty("user.home"), ".tinyweb"), "precompressed-" + id);
+        }
+
+        this.variants = new PrecompressedVariants(folder, home, context);
+
+        if ("true".equalsIgnoreCase(this.getInitParameter(PRECOMPRESSED_AT_STARTUP))) {
+            this.variants.scheduleAll(home, "/");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.manifest != null) {
+            final TinyWebServletContext context = (TinyWebServletContext) this.getServletContext();
+            context.removeResourceListener(this.manifest);
+            context.removeAttribute(AssetManifest.ATTRIBUTE);
+            this.manifest.shutdown();
+        }
+
+        if (this.cache != null) {
+            ((TinyWebServletContext) this.getServletContext()).removeResourceListener(this.cache);
+            LOGGER.info(this.cache);
+        }
+
+        if (this.variants != null) {
+            this.variants.shutdown();
+        }
+    }
+
+    /**
+     * Get a numeric init parameter.
+     *
+     * @param aName
+     *            The parameter name
+     * @param aDefault
+     *            The value used when the parameter is missing or invalid
+     * @return the value
+     */
+    private long getLongParameter(String aName, long aDefault) {
+        final String value = this.getInitParameter(aName);
+        if (value == null) {
+            return aDefault;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+
+        } catch (final NumberFormatException e) {
+            LOGGER.warn("Invalid init parameter " + aName + "=" + value);
+            return aDefault;
+        }
+    }
+
     @Override
     public void doGet(HttpServletRequest aRequest, HttpServletResponse aResponse)
             throws ServletException, IOException {
 
         final TinyWebServletContext context = (TinyWebServletContext) this.getServletContext();
 
-        final String resourcePath = aRequest.getServletPath();
-        if (resourcePath.indexOf("WEB-INF") > -1) {
-            LOGGER.error("Cannot access resource: " + resourcePath);
-            aResponse.sendError(HttpServletResponse.SC_FORBIDDEN, "Cannot access resource: " + resourcePath);
+        // one name per resource, the one the folder watcher reports, so alias paths
+        // cannot keep stale content in the cache
+        final String requestPath = ServletUtils.normalizePath(ServletUtils.getRequestPath(aRequest));
+        if (requestPath.indexOf("WEB-INF") > -1) {
+            LOGGER.error("Cannot access resource: " + requestPath);
+            aResponse.sendError(HttpServletResponse.SC_FORBIDDEN, "Cannot access resource: " + requestPath);
             return;
         }
 
+        // fingerprinted URLs always identify the same content
+        final String logicalPath = (this.manifest != null) ? this.manifest.findLogicalPath(requestPath) : null;
+        final String resourcePath = (logicalPath != null) ? logicalPath : requestPath;
+
+        // unless the file changed since it was fingerprinted, and the change is not yet reported
+        CachePolicy policy = CachePolicy.IMMUTABLE;
+        if ((logicalPath == null) || !this.manifest.isCurrent(requestPath)) {
+            policy = CachePolicyTable.getInstance().find(resourcePath, context.getMimeType(resourcePath));
+            if (policy == null) {
+                policy = DEFAULT_CACHE_POLICY;
+            }
+        }
+        final String cacheControl = policy.getHeaderValue();
+
+        final ZipContentSource archive = context.getContentArchive();
+        if (archive != null) {
+            final ZipContentSource.Entry entry = context.getResourceEntry(resourcePath);
+            if ((entry != null) && !entry.isDirectory()) {
+                this.sendEntry(resourcePath, archive, entry, cacheControl, aRequest, aResponse);
+                return;
+            }
+        }
+
+        final boolean useCache = (this.cache != null) && (aRequest.getHeader(RANGE) == null);
+        if (useCache) {
+            final StaticContentCache.StaticContent c = this.findCached(resourcePath, aRequest);
+            this.cache.recordLookup(c != null);
+
+            if (c != null) {
+                try {
+                    this.sendCached(resourcePath, c, cacheControl, aRequest, aResponse);
+                } finally {
+                    c.release();
+                }
+                return;
+            }
+        }
+
+        // changes reported while the file is read must not be cached
+        final long invalidations = useCache ? this.cache.getInvalidationCount() : 0;
+
         final long lastModified = context.getResourceLastModified(resourcePath);
         if (lastModified == -1) {
             LOGGER.error("Cannot find resource: " + resourcePath);
@@ -57,32 +337,635 @@ public class DownloadFileServlet extends HttpServlet {
             return;
         }
 
-        final long ifModifiedSince = aRequest.getDateHeader(IF_MODIFIED_SINCE);
-        if (ifModifiedSince > -1) {
-            if ((lastModified / 1000) <= (ifModifiedSince / 1000)) // ignore milli-seconds
-            {
-                LOGGER.info("Resource not modified: " + resourcePath);
-                aResponse.sendError(HttpServletResponse.SC_NOT_MODIFIED, "Not Modified");
+        // validators are sent with 304 responses too
+
+        final File file = context.getResourceFile(resourcePath);
+        final String etag = (file != null) ? context.getResourceETag(resourcePath) : null;
+
+        final String mimeType = context.getMimeType(resourcePath);
+        final boolean compressible = CompressionPolicy.getInstance().isCompressible(mimeType);
+
+        setValidators(aResponse, lastModified, etag, cacheControl, file != null, compressible);
+
+        if (isNotModified(aRequest, aResponse, etag, lastModified)) {
+            sendNotModified(resourcePath, aRequest, aResponse);
+            return;
+        }
+
+        final String range = aRequest.getHeader(RANGE);
+        if ((range != null) && (file != null) && this.isRangeCurrent(aRequest, etag, lastModified)) {
+            final List<ByteRange> ranges = ByteRange.parse(range, file.length());
+            if (ranges != null) {
+                this.sendRanges(file, mimeType, ranges, aResponse);
                 return;
             }
         }
 
-        final InputStream in = context.getResourceAsStream(resourcePath);
+        InputStream in = null;
+        String encoding = null;
+
+        final PrecompressedVariants.Variant variant = ((this.variants != null) && (file != null) && compressible)
+                ? this.findVariant(resourcePath, file, aRequest)
+                : null;
+
+        if (variant != null) {
+            in = openFile(variant.getFile(), aResponse);
+            if (in != null) {
+                encoding = variant.getEncoding();
+                aResponse.setHeader(CONTENT_ENCODING, encoding);
+                aResponse.setHeader(ETAG, ETags.withEncoding(etag, encoding));
+            }
+        }
+
+        if ((in == null) && (file != null)) {
+            in = openFile(file, aResponse);
+        }
+
+        if (in == null) {
+            in = context.getResourceAsStream(resourcePath);
+        }
         assert (in != null);
 
-        aResponse.setCharacterEncoding("UTF-8 ");
-        aResponse.setContentType(context.getMimeType(resourcePath));
-        aResponse.addDateHeader(LAST_MODIFIED, lastModified);
-        aResponse.addHeader(CACHE_CONTROL, MAX_AGE);
+        aResponse.setCharacterEncoding("UTF-8");
+        aResponse.setContentType(mimeType);
+
+        try {
+            if (useCache && (in instanceof FileInputStream) && file.getAbsolutePath().startsWith(this.cachedFolder)
+                    && (((FileInputStream) in).getChannel().size() <= this.cache.getMaxEntrySize())) {
+
+                final ByteBuffer content = readContent(((FileInputStream) in).getChannel());
+                this.cache.put(
+                        resourcePath,
+                        new StaticContentCache.StaticContent(content, encoding, mimeType, lastModified, etag),
+                        invalidations);
+
+                sendContent(content, aResponse);
+
+            } else if ((in instanceof FileInputStream) && (aResponse instanceof TinyWebResponse)) {
+                // zero copy
+                final FileChannel channel = ((FileInputStream) in).getChannel();
+                ((TinyWebResponse) aResponse).transferFrom(channel, 0, channel.size());
+
+            } else {
+                ServletUtils.copyContent(in, aResponse.getOutputStream());
+            }
+
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Find the cached representation to send.
+     *
+     * <p>
+     * Clients that accept a pre-compressed variant are only sent the
+     * unencoded resource when it is too small to compress.
+     * </p>
+     *
+     * @param aPath
+     *            The resource path
+     * @param aRequest
+     *            The HTTP request
+     * @return the representation, to be released when sent, or null (not cached)
+     */
+    private StaticContentCache.StaticContent findCached(String aPath, HttpServletRequest aRequest) {
+        final String acceptEncoding = aRequest.getHeader(ContentNegotiator.ACCEPT_ENCODING);
+
+        boolean encodable = false;
+        if ((this.variants != null) && (acceptEncoding != null)
+                && CompressionPolicy.getInstance().isCompressible(this.getServletContext().getMimeType(aPath))) {
+
+            for (final String e : VARIANT_ENCODINGS) {
+                if (ENCODINGS.isAcceptable(acceptEncoding, e)) {
+                    final StaticContentCache.StaticContent c = this.cache.get(aPath, e);
+                    if (c != null) {
+                        return c;
+                    }
+                    encodable = true;
+                }
+            }
+        }
+
+        final StaticContentCache.StaticContent c = this.cache.get(aPath, null);
+        if ((c != null) && encodable && (c.getLength() >= CompressionPolicy.getInstance().getMinimumSize())) {
+            c.release();
+            return null; // variant preferred
+        }
+        return c;
+    }
+
+    /**
+     * Send a cached representation.
+     *
+     * @param aPath
+     *            The resource path
+     * @param aContent
+     *            The representation
+     * @param aCacheControl
+     *            The <code>Cache-Control</code> header
+     * @param aRequest
+     *            The HTTP request
+     * @param aResponse
+     *            The HTTP response
+     * @throws IOException
+     *             when the representation cannot be sent
+     */
+    private void sendCached(
+            String aPath,
+            StaticContentCache.StaticContent aContent,
+            String aCacheControl,
+            HttpServletRequest aRequest,
+            HttpServletResponse aResponse) throws IOException {
+
+        final String etag = aContent.getETag();
+        final boolean compressible = CompressionPolicy.getInstance().isCompressible(aContent.getMimeType());
+
+        setValidators(aResponse, aContent.getLastModified(), etag, aCacheControl, true, compressible);
+
+        if (isNotModified(aRequest, aResponse, etag, aContent.getLastModified())) {
+            sendNotModified(aPath, aRequest, aResponse);
+            return;
+        }
+
+        final String encoding = aContent.getEncoding();
+        if (encoding != null) {
+            aResponse.setHeader(CONTENT_ENCODING, encoding);
+            aResponse.setHeader(ETAG, ETags.withEncoding(etag, encoding));
+        }
+
+        aResponse.setHeader(CONTENT_LENGTH, Integer.toString(aContent.getLength()));
+        aResponse.setCharacterEncoding("UTF-8");
+        aResponse.setContentType(aContent.getMimeType());
+
+        sendContent(aContent.getContent(), aResponse);
+    }
+
+    /**
+     * Send a resource stored in the web content archive.
+     *
+     * <p>
+     * Stored entries are sent as slices of the mapped archive. Compressed
+     * entries are sent to clients that accept <code>gzip</code> as their
+     * raw deflate data, framed by a <code>gzip</code> header and trailer;
+     * other clients are sent the inflated content.
+     * </p>
+     *
+     * @param aPath
+     *            The resource path
+     * @param aArchive
+     *            The archive
+     * @param aEntry
+     *            The resource
+     * @param aCacheControl
+     *            The <code>Cache-Control</code> header
+     * @param aRequest
+     *            The HTTP request
+     * @param aResponse
+     *            The HTTP response
+     * @throws IOException
+     *             when the resource cannot be sent
+     */
+    private void sendEntry(
+            String aPath,
+            ZipContentSource aArchive,
+            ZipContentSource.Entry aEntry,
+            String aCacheControl,
+            HttpServletRequest aRequest,
+            HttpServletResponse aResponse) throws IOException {
+
+        final String etag = ETags.create(aEntry.getSize(), aEntry.getLastModified());
+        final String mimeType = this.getServletContext().getMimeType(aPath);
+        final boolean deflated = (aEntry.getMethod() == ZipContentSource.DEFLATED);
+
+        setValidators(aResponse, aEntry.getLastModified(), etag, aCacheControl, false,
+                deflated || CompressionPolicy.getInstance().isCompressible(mimeType));
+
+        if (isNotModified(aRequest, aResponse, etag, aEntry.getLastModified())) {
+            sendNotModified(aPath, aRequest, aResponse);
+            return;
+        }
+
+        aResponse.setCharacterEncoding("UTF-8");
+        aResponse.setContentType(mimeType);
+
+        if (!deflated) {
+            aResponse.setHeader(CONTENT_LENGTH, Integer.toString(aEntry.getSize()));
+            sendContent(aArchive.getRawContent(aEntry), aResponse);
+            return;
+        }
+
+        final String acceptEncoding = aRequest.getHeader(ContentNegotiator.ACCEPT_ENCODING);
+        if ((acceptEncoding == null) || !ENCODINGS.isAcceptable(acceptEncoding, GZIP)) {
+            aResponse.setHeader(CONTENT_LENGTH, Integer.toString(aEntry.getSize()));
+
+            final InputStream in = aArchive.openStream(aEntry);
+            try {
+                ServletUtils.copyContent(in, aResponse.getOutputStream());
+            } finally {
+                in.close();
+            }
+            return;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(ZipContentSource.GZIP_HEADER_SIZE);
+        ZipContentSource.writeGzipHeader(header);
+
+        final ByteBuffer trailer = ByteBuffer.allocate(ZipContentSource.GZIP_TRAILER_SIZE);
+        ZipContentSource.writeGzipTrailer(aEntry, trailer);
+
+        aResponse.setHeader(CONTENT_ENCODING, GZIP);
+        aResponse.setHeader(ETAG, ETags.withEncoding(etag, GZIP));
+        aResponse.setHeader(CONTENT_LENGTH,
+                Integer.toString(header.capacity() + aEntry.getCompressedSize() + trailer.capacity()));
+
+        // header is buffered, then sent with the compressed data
+        final OutputStream out = aResponse.getOutputStream();
+        out.write(header.array());
+        sendContent(aArchive.getRawContent(aEntry), aResponse);
+        out.write(trailer.array());
+    }
+
+    /**
+     * Set the headers sent with both full and <code>304 Not Modified</code> responses.
+     *
+     * @param aResponse
+     *            The HTTP response
+     * @param aLastModified
+     *            When the resource was last modified
+     * @param aETag
+     *            The resource tag or null (not available)
+     * @param aCacheControl
+     *            The <code>Cache-Control</code> header
+     * @param aIsFile
+     *            Is the resource stored in a file, ie. are ranges supported?
+     * @param aCompressible
+     *            Does the response depend on <code>Accept-Encoding</code>?
+     */
+    private static void setValidators(
+            HttpServletResponse aResponse,
+            long aLastModified,
+            String aETag,
+            String aCacheControl,
+            boolean aIsFile,
+            boolean aCompressible) {
+
+        aResponse.addDateHeader(LAST_MODIFIED, aLastModified);
+        aResponse.addHeader(CACHE_CONTROL, aCacheControl);
+        if (aETag != null) {
+            aResponse.setHeader(ETAG, aETag);
+        }
+        if (aIsFile) {
+            aResponse.setHeader(ACCEPT_RANGES, "bytes");
+        }
+        if (aCompressible) {
+            // response depends on Accept-Encoding, whatever the outcome
+            aResponse.setHeader(VARY, ContentNegotiator.ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * Tell the client its copy of the resource is current.
+     *
+     * @param aPath
+     *            The resource path
+     * @param aRequest
+     *            The HTTP request
+     * @param aResponse
+     *            The HTTP response
+     * @throws IOException
+     *             when the response cannot be sent
+     */
+    static void sendNotModified(String aPath, HttpServletRequest aRequest, HttpServletResponse aResponse)
+            throws IOException {
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Resource not modified: " + aPath);
+        }
+
+        if (!"GET".equals(aRequest.getMethod()) && !"HEAD".equals(aRequest.getMethod())) {
+            aResponse.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+        } else if (aResponse instanceof TinyWebResponse) {
+            ((TinyWebResponse) aResponse).sendNotModified();
+        } else {
+            aResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+    }
+
+    /**
+     * Read the whole of a file.
+     *
+     * @param aChannel
+     *            The file
+     * @return the content; positioned at the first byte
+     * @throws IOException
+     *             when the file cannot be read
+     */
+    private static ByteBuffer readContent(FileChannel aChannel) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate((int) aChannel.size());
+
+        while (buf.hasRemaining()) {
+            if (aChannel.read(buf, buf.position()) < 0) {
+                throw new EOFException("Resource truncated at " + buf.position());
+            }
+        }
+
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Send content held in memory.
+     *
+     * <p>
+     * Off-heap content is written straight to the socket by
+     * {@link TinyWebResponse#transferFrom(ByteBuffer)}.
+     * </p>
+     *
+     * @param aContent
+     *            The content
+     * @param aResponse
+     *            The HTTP response
+     * @throws IOException
+     *             when the content cannot be sent
+     */
+    private static void sendContent(ByteBuffer aContent, HttpServletResponse aResponse) throws IOException {
+        if (aResponse instanceof TinyWebResponse) {
+            ((TinyWebResponse) aResponse).transferFrom(aContent);
+            return;
+        }
+
+        final OutputStream out = aResponse.getOutputStream();
+        if (aContent.hasArray()) {
+            out.write(aContent.array(), aContent.arrayOffset() + aContent.position(), aContent.remaining());
+            return;
+        }
+
+        final byte[] buf = new byte[Math.min(aContent.remaining(), COPY_BUFFER_SIZE)];
+        while (aContent.hasRemaining()) {
+            final int n = Math.min(aContent.remaining(), buf.length);
+            aContent.get(buf, 0, n);
+            out.write(buf, 0, n);
+        }
+    }
+
+    /**
+     * Open the stated file and set the <code>Content-Length</code>.
+     *
+     * @param aFile
+     *            The resource
+     * @param aResponse
+     *            The HTTP response
+     * @return the content or null (file removed)
+     * @throws IOException
+     *             when the file size is not available
+     */
+    private static FileInputStream openFile(File aFile, HttpServletResponse aResponse) throws IOException {
+        final FileInputStream in;
+        try {
+            in = new FileInputStream(aFile);
+
+        } catch (final FileNotFoundException e) {
+            return null;
+        }
+
+        aResponse.setHeader(CONTENT_LENGTH, Long.toString(in.getChannel().size()));
+        return in;
+    }
+
+    /**
+     * Does the client already hold the current version of the resource?
+     *
+     * <p>
+     * <code>If-Modified-Since</code> is ignored when the request has an
+     * <code>If-None-Match</code> header, and for methods other than
+     * <code>GET</code> and <code>HEAD</code>.
+     * </p>
+     *
+     * @param aRequest
+     *            The HTTP request
+     * @param aResponse
+     *            The HTTP response; its <code>ETag</code> is set to the matching tag
+     * @param aETag
+     *            The resource tag or null (not available)
+     * @param aLastModified
+     *            When the resource was last modified
+     * @return true when not modified
+     */
+    static boolean isNotModified(
+            HttpServletRequest aRequest,
+            HttpServletResponse aResponse,
+            String aETag,
+            long aLastModified) {
+
+        final String ifNoneMatch = aRequest.getHeader(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (aETag == null) {
+                return ETags.ANY.equals(ifNoneMatch.trim());
+            }
+
+            final String match = ETags.findMatch(ifNoneMatch, aETag);
+            if (match != null) {
+                // identify the representation the client holds, eg. gzip variant
+                aResponse.setHeader(ETAG, match);
+                return true;
+            }
+
+            return false;
+        }
+
+        if (!"GET".equals(aRequest.getMethod()) && !"HEAD".equals(aRequest.getMethod())) {
+            return false;
+        }
+
+        final long ifModifiedSince = aRequest.getDateHeader(IF_MODIFIED_SINCE);
+        return (ifModifiedSince > -1) && ((aLastModified / 1000) <= (ifModifiedSince / 1000)); // ignore milli-seconds
+    }
+
+    /**
+     * Does the <code>If-Range</code> header (if any) identify the current resource?
+     *
+     * @param aRequest
+     *            The HTTP request
+     * @param aETag
+     *            The resource tag or null (not available)
+     * @param aLastModified
+     *            When the resource was last modified
+     * @return true when the <code>Range</code> header must be used
+     */
+    private boolean isRangeCurrent(HttpServletRequest aRequest, String aETag, long aLastModified) {
+        final String ifRange = aRequest.getHeader(IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+
+        final String v = ifRange.trim();
+        if (v.startsWith("\"") || v.startsWith("W/")) {
+            // strong comparison; weak tags never match
+            return v.equals(aETag);
+        }
 
         try {
-            ServletUtils.copyContent(in, aResponse.getOutputStream());
+            final long date = aRequest.getDateHeader(IF_RANGE);
+            return (aLastModified / 1000) == (date / 1000); // ignore milli-seconds
+
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Send the stated parts of the resource.
+     *
+     * <p>
+     * A single range is sent as the body of a <code>206 Partial Content</code>
+     * response. Several ranges are sent as <code>multipart/byteranges</code>.
+     * Data is sent using {@link TinyWebResponse#transferFrom(FileChannel, long, long)}
+     * or positioned {@link FileChannel} reads.
+     * </p>
+     *
+     * @param aFile
+     *            The resource
+     * @param aMimeType
+     *            The resource MIME type
+     * @param aRanges
+     *            The satisfiable ranges; empty means none
+     * @param aResponse
+     *            The HTTP response
+     * @throws IOException
+     *             when the resource cannot be sent
+     */
+    private void sendRanges(File aFile, String aMimeType, List<ByteRange> aRanges, HttpServletResponse aResponse)
+            throws IOException {
+
+        final FileInputStream in = new FileInputStream(aFile);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long length = channel.size();
+
+            if (aRanges.isEmpty()) {
+                aResponse.setHeader(CONTENT_RANGE, "bytes */" + length);
+                aResponse.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+
+            aResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            aResponse.setCharacterEncoding("UTF-8");
+
+            final OutputStream out = aResponse.getOutputStream();
+            final ByteBuffer buf = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+
+            if (aRanges.size() == 1) {
+                final ByteRange r = aRanges.get(0);
+
+                aResponse.setContentType(aMimeType);
+                aResponse.setHeader(CONTENT_RANGE, r.toContentRange(length));
+                aResponse.setHeader(CONTENT_LENGTH, Long.toString(r.getLength()));
+
+                sendRange(channel, r, aResponse, buf);
+                return;
+            }
+
+            // multipart/byteranges; each part has its own head
+
+            final String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            final byte[][] partHeads = new byte[aRanges.size()][];
+            final byte[] end = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+            long total = end.length;
+            for (int i = 0; i < partHeads.length; i++) {
+                final ByteRange r = aRanges.get(i);
+                final String head = ((i > 0) ? "\r\n" : "") + "--" + boundary + "\r\n"
+                        + "Content-Type: " + aMimeType + "\r\n"
+                        + CONTENT_RANGE + ": " + r.toContentRange(length) + "\r\n\r\n";
+
+                partHeads[i] = head.getBytes(StandardCharsets.ISO_8859_1);
+                total += partHeads[i].length + r.getLength();
+            }
+            total += 2; // CRLF after the last part
+
+            aResponse.setContentType("multipart/byteranges; boundary=" + boundary);
+            aResponse.setHeader(CONTENT_LENGTH, Long.toString(total));
+
+            for (int i = 0; i < partHeads.length; i++) {
+                out.write(partHeads[i]);
+                sendRange(channel, aRanges.get(i), aResponse, buf);
+            }
+
+            out.write('\r');
+            out.write('\n');
+            out.write(end);
 
         } finally {
             in.close();
         }
     }
 
+    /**
+     * Send part of a file.
+     *
+     * @param aChannel
+     *            The file
+     * @param aRange
+     *            The bytes to send
+     * @param aResponse
+     *            The HTTP response
+     * @param aBuf
+     *            A heap buffer used when the data has to be copied
+     * @throws IOException
+     *             when the data cannot be sent
+     */
+    private static void sendRange(FileChannel aChannel, ByteRange aRange, HttpServletResponse aResponse, ByteBuffer aBuf)
+            throws IOException {
+
+        if (aResponse instanceof TinyWebResponse) {
+            // zero copy
+            ((TinyWebResponse) aResponse).transferFrom(aChannel, aRange.getStart(), aRange.getLength());
+            return;
+        }
+
+        final OutputStream out = aResponse.getOutputStream();
+
+        long pos = aRange.getStart();
+        long remaining = aRange.getLength();
+
+        while (remaining > 0) {
+            aBuf.clear();
+            if (remaining < aBuf.capacity()) {
+                aBuf.limit((int) remaining);
+            }
+
+            final int n = aChannel.read(aBuf, pos);
+            if (n < 0) {
+                throw new EOFException("Resource truncated at " + pos);
+            }
+
+            out.write(aBuf.array(), aBuf.arrayOffset(), n);
+            pos += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Find the best pre-compressed variant of the stated resource.
+     *
+     * @param aPath
+     *            The resource path
+     * @param aFile
+     *            The original resource
+     * @param aRequest
+     *            The HTTP request
+     * @return the variant or null (serve the original)
+     */
+    private PrecompressedVariants.Variant findVariant(String aPath, File aFile, HttpServletRequest aRequest) {
+        final String acceptEncoding = aRequest.getHeader(ContentNegotiator.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        return this.variants.findVariant(aPath, aFile, acceptEncoding);
+    }
+
     @Override
     public void doPost(HttpServletRequest aRequest, HttpServletResponse aResponse)
             throws ServletException, IOException {
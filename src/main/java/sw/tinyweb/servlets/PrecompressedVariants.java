@@ -0,0 +1,374 @@
+package sw.tinyweb.servlets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletContext;
+
+import org.apache.log4j.Logger;
+
+import sw.tinyweb.io.CompressionPolicy;
+import sw.tinyweb.utils.ServletUtils;
+
+/**
+ * Pre-compressed variants of static resources, eg. <code>foo.js.gz</code>.
+ *
+ * <p>
+ * Variants are found ...
+ * <ol>
+ * <li>next to the original resource, eg. <code>foo.js.br</code> created by a build tool,
+ * <li>or in the cache folder, where missing <code>gzip</code> variants are generated.
+ * </ol>
+ * Generation happens on a single low priority background thread, so the
+ * request that finds a variant missing is served without waiting for it.
+ * </p>
+ *
+ * <p>
+ * A variant is only used when it is at least as new as the original.
+ * Generated variants are given the timestamp of the original they were
+ * created from, so they are regenerated when the original changes.
+ * </p>
+ *
+ * <p>
+ * Generated variants are trusted once written, so the cache folder must
+ * only be writable by the server; it is created with owner-only access.
+ * Variants are only generated for originals inside the web content
+ * folder, and stored under their canonical path, whatever path they
+ * were requested with.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ *
+ * @see DownloadFileServlet
+ */
+public class PrecompressedVariants {
+
+    private static final Logger LOGGER = Logger.getLogger(PrecompressedVariants.class);
+
+    /** Content encodings and their file name suffixes, in server preference order. */
+    private static final String[][] ENCODINGS = {
+        { "br", ".br" },
+        { "gzip", ".gz" },
+    };
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private final File cacheFolder;
+
+    /** Canonical path of the cache folder, followed by a separator. */
+    private final String cachePath;
+
+    private final ServletContext context;
+
+    /** Canonical path of the web content folder, followed by a separator. */
+    private final String homePath;
+
+    private final ExecutorService generator;
+
+    /** Originals being compressed, or not worth compressing; variant path to original timestamp. */
+    private final Map<String, Long> pending = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Constructor.
+     *
+     * @param aCacheFolder
+     *            Where to store generated variants; only writable by the server
+     * @param aWebContentHome
+     *            The web content folder, holding the originals
+     * @param aContext
+     *            Provides the MIME types of resources
+     */
+    public PrecompressedVariants(File aCacheFolder, File aWebContentHome, ServletContext aContext) {
+        this.cacheFolder = aCacheFolder;
+        this.cachePath = toFolderPath(aCacheFolder);
+        this.homePath = toFolderPath(aWebContentHome);
+        this.context = aContext;
+
+        this.generator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable aTask) {
+                final Thread t = new Thread(aTask, "TinyWeb-precompress");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    /** @return where generated variants are stored */
+    public File getCacheFolder() {
+        return this.cacheFolder;
+    }
+
+    /**
+     * Find the best variant the client will accept.
+     *
+     * <p>
+     * Schedules generation of the <code>gzip</code> variant when it is
+     * missing or out of date.
+     * </p>
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/foo.js"
+     * @param aFile
+     *            The original resource
+     * @param aAcceptEncoding
+     *            The <code>Accept-Encoding</code> request header; must not be null
+     * @return the variant or null (serve the original, eg. not in the web content folder)
+     */
+    @Nullable
+    public Variant findVariant(String aPath, File aFile, String aAcceptEncoding) {
+        final File cached = this.getCacheFile(aFile);
+        if (cached == null) {
+            return null;
+        }
+
+        final long lastModified = aFile.lastModified();
+
+        for (final String[] e : ENCODINGS) {
+            if (!DownloadFileServlet.ENCODINGS.isAcceptable(aAcceptEncoding, e[0])) {
+                continue;
+            }
+
+            final File sibling = new File(aFile.getPath() + e[1]);
+            if (sibling.isFile() && (sibling.lastModified() >= lastModified)) {
+                return new Variant(e[0], sibling);
+            }
+
+            if (GZIP_SUFFIX.equals(e[1])) {
+                if (cached.isFile() && (cached.lastModified() == lastModified)) {
+                    return new Variant(e[0], cached);
+                }
+
+                this.schedule(aPath, aFile, cached);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Generate missing variants for every compressible file in the stated folder.
+     *
+     * @param aFolder
+     *            The web content folder
+     * @param aPath
+     *            The resource path of the folder, eg. "/"
+     */
+    public void scheduleAll(File aFolder, String aPath) {
+        final File[] files = aFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final CompressionPolicy policy = CompressionPolicy.getInstance();
+        for (final File f : files) {
+            final String path = aPath + f.getName();
+            if (f.isDirectory()) {
+                if (!"WEB-INF".equals(f.getName())) {
+                    this.scheduleAll(f, path + "/");
+                }
+
+            } else if (policy.isCompressible(this.context.getMimeType(f.getName()))) {
+                final File cached = this.getCacheFile(f);
+                if ((cached != null) && (!cached.isFile() || (cached.lastModified() != f.lastModified()))) {
+                    this.schedule(path, f, cached);
+                }
+            }
+        }
+    }
+
+    /** Stop generating variants. */
+    public void shutdown() {
+        this.generator.shutdownNow();
+    }
+
+    /**
+     * Schedule generation of the <code>gzip</code> variant.
+     *
+     * <p>
+     * Does nothing when already scheduled for this version of the original.
+     * </p>
+     *
+     * @param aPath
+     *            The resource path
+     * @param aFile
+     *            The original resource
+     * @param aCached
+     *            The variant
+     */
+    private void schedule(final String aPath, final File aFile, final File aCached) {
+        final Long lastModified = Long.valueOf(aFile.lastModified());
+        if (lastModified.equals(this.pending.put(aCached.getPath(), lastModified))) {
+            return; // already scheduled, or not worth compressing
+        }
+
+        try {
+            this.generator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    generate(aPath, aFile, aCached, lastModified.longValue());
+                }
+            });
+
+        } catch (final RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    /**
+     * Create the <code>gzip</code> variant.
+     *
+     * <p>
+     * The variant is written to a new temporary file and then renamed, so
+     * requests never see a partial variant.
+     * </p>
+     *
+     * @param aPath
+     *            The resource path
+     * @param aFile
+     *            The original resource
+     * @param aCached
+     *            The variant
+     * @param aLastModified
+     *            The timestamp of the original
+     */
+    private void generate(String aPath, File aFile, File aCached, long aLastModified) {
+        final String key = aCached.getPath();
+
+        File tmp = null;
+        try {
+            final File folder = aCached.getParentFile();
+            if (!ServletUtils.createPrivateFolder(this.cacheFolder) || (!folder.isDirectory() && !folder.mkdirs())) {
+                throw new IOException("Cannot create folder " + folder);
+            }
+
+            // a new file, never one planted by someone else
+            tmp = File.createTempFile("." + aCached.getName() + "-", ".tmp", folder);
+
+            final InputStream in = new FileInputStream(aFile);
+            try {
+                final OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 4 * 1024) {
+                    {
+                        this.def.setLevel(Deflater.BEST_COMPRESSION);
+                    }
+                };
+
+                try {
+                    ServletUtils.copyContent(in, out);
+                } finally {
+                    out.close();
+                }
+
+            } finally {
+                in.close();
+            }
+
+            if (aFile.lastModified() != aLastModified) {
+                // changed whilst compressing; try again on next request
+                this.pending.remove(key);
+                return;
+            }
+
+            if (tmp.length() >= aFile.length()) {
+                // not worth compressing; remembered until the original changes
+                LOGGER.debug("Compression does not reduce size of " + aPath);
+                return;
+            }
+
+            aCached.delete();
+            if (!tmp.renameTo(aCached) || !aCached.setLastModified(aLastModified)) {
+                throw new IOException("Cannot create " + aCached);
+            }
+
+            this.pending.remove(key);
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Compressed " + aPath + " from " + aFile.length() + " to " + aCached.length() + " bytes");
+            }
+
+        } catch (final IOException e) {
+            // not retried until the original changes
+            LOGGER.error("Cannot compress " + aPath, e);
+            aCached.delete();
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Get the location of the generated <code>gzip</code> variant.
+     *
+     * @param aFile
+     *            The original resource
+     * @return the file (which may not exist), or null (the original is not
+     *         in the web content folder)
+     */
+    @Nullable
+    private File getCacheFile(File aFile) {
+        try {
+            final String original = aFile.getCanonicalPath();
+            if (!original.startsWith(this.homePath)) {
+                return null;
+            }
+
+            final File cached = new File(this.cacheFolder, original.substring(this.homePath.length()) + GZIP_SUFFIX);
+            return cached.getCanonicalPath().startsWith(this.cachePath) ? cached : null;
+
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /** @return the canonical path of the folder, followed by a separator */
+    private static String toFolderPath(File aFolder) {
+        String p;
+        try {
+            p = aFolder.getCanonicalPath();
+        } catch (final IOException e) {
+            p = aFolder.getAbsolutePath();
+        }
+        return p.endsWith(File.separator) ? p : (p + File.separator);
+    }
+
+    /** A pre-compressed variant of a resource. */
+    public static class Variant {
+
+        private final String encoding;
+
+        private final File file;
+
+        Variant(String aEncoding, File aFile) {
+            this.encoding = aEncoding;
+            this.file = aFile;
+        }
+
+        /** @return the content encoding, eg. "gzip" */
+        public String getEncoding() {
+            return this.encoding;
+        }
+
+        /** @return the compressed data */
+        public File getFile() {
+            return this.file;
+        }
+    }
+
+}
@@ -0,0 +1,534 @@
+package sw.tinyweb.servlets;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import sw.tinyweb.io.SlabAllocator;
+import sw.tinyweb.utils.FolderWatcher;
+
+/**
+ * An in-memory cache of small, frequently requested static resources.
+ *
+ * <p>
+ * Holds the content and response metadata of each resource, so a hit is
+ * served without touching the file system. Pre-compressed variants are
+ * cached separately from the resource they were created from.
+ * </p>
+ *
+ * <p>
+ * The cache is bounded by the total size of the cached content; least
+ * recently used resources are evicted first. Resources larger than the
+ * maximum entry size are never cached.
+ * </p>
+ *
+ * <p>
+ * Content is stored on the java heap, or copied into off-heap memory
+ * provided by a {@link SlabAllocator}. Off-heap content is freed when its
+ * representation has been removed and every request sending it has
+ * {@link StaticContent#release() released} it. When the allocator has
+ * no chunk of the required size, the least recently used resource of that
+ * size is evicted; otherwise the resources of one slab, so the slab can be
+ * re-assigned. Resources still being sent are never evicted to make space.
+ * </p>
+ *
+ * <p>
+ * Cached resources are removed when the
+ * {@link FolderWatcher watcher} reports their file has changed, or a
+ * variant of it has changed.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ *
+ * @see DownloadFileServlet
+ */
+public class StaticContentCache implements FolderWatcher.Listener {
+
+    /** Default total size of cached content. */
+    public static final long DEFAULT_MAX_SIZE = (4 * 1024 * 1024); // 4M
+
+    /** Default size of the largest resource cached. */
+    public static final int DEFAULT_MAX_ENTRY_SIZE = (64 * 1024); // 64K
+
+    /** File name suffixes of pre-compressed variants, see {@link PrecompressedVariants}. */
+    private static final String[] VARIANT_SUFFIXES = { ".br", ".gz" };
+
+    private static final String[] VARIANT_ENCODINGS = { "br", "gzip" };
+
+    private final LinkedHashMap<String, StaticContent> entries = new LinkedHashMap<String, StaticContent>(64, 0.75f, true);
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private long invalidations;
+
+    private final int maxEntrySize;
+
+    private final long maxSize;
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private long size;
+
+    private final SlabAllocator store;
+
+    /**
+     * Constructor; content is stored on the java heap.
+     *
+     * @param aMaxSize
+     *            The total size of cached content
+     * @param aMaxEntrySize
+     *            The size of the largest resource cached
+     */
+    public StaticContentCache(long aMaxSize, int aMaxEntrySize) {
+        this.maxSize = aMaxSize;
+        this.maxEntrySize = aMaxEntrySize;
+        this.store = null;
+    }
+
+    /**
+     * Constructor; content is stored off-heap.
+     *
+     * @param aStore
+     *            Provides the memory; its budget bounds the cache size
+     */
+    public StaticContentCache(SlabAllocator aStore) {
+        this.maxSize = aStore.getBudget();
+        this.maxEntrySize = aStore.getMaxChunkSize();
+        this.store = aStore;
+    }
+
+    /** @return where content is stored off-heap, or null (java heap) */
+    @Nullable
+    public SlabAllocator getStore() {
+        return this.store;
+    }
+
+    /** @return the size of the largest resource cached */
+    public int getMaxEntrySize() {
+        return this.maxEntrySize;
+    }
+
+    /** @return the total size of cached content allowed */
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+
+    /** @return the total size of cached content */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /** @return the number of cached representations */
+    public synchronized int getEntryCount() {
+        return this.entries.size();
+    }
+
+    /** @return the number of lookups that found a cached resource */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /** @return the number of lookups that did not find a cached resource */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /** @return the number of resources removed to make space for others */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * How many times have resources been removed because they changed?
+     *
+     * <p>
+     * Read before reading a resource, and passed to
+     * {@link #put(String, StaticContent, long)}, so a resource that
+     * changed while it was being read is not cached.
+     * </p>
+     *
+     * @return the count
+     */
+    public synchronized long getInvalidationCount() {
+        return this.invalidations;
+    }
+
+    /**
+     * Record the outcome of a lookup.
+     *
+     * <p>
+     * A single request may {@link #get(String, String) get} several
+     * representations before it finds one it can use.
+     * </p>
+     *
+     * @param aHit
+     *            true when a cached resource was used
+     */
+    public void recordLookup(boolean aHit) {
+        if (aHit) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get a cached representation.
+     *
+     * <p>
+     * The caller MUST {@link StaticContent#release() release} the
+     * representation when it has been sent.
+     * </p>
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/foo.js"
+     * @param aEncoding
+     *            The content encoding, eg. "gzip", or null (unencoded)
+     * @return the representation or null (not cached)
+     */
+    @Nullable
+    public synchronized StaticContent get(String aPath, @Nullable String aEncoding) {
+        final StaticContent c = this.entries.get(toKey(aPath, aEncoding));
+        if (c != null) {
+            // cached representations are always referenced by the cache
+            c.retain();
+        }
+        return c;
+    }
+
+    /**
+     * Cache a representation.
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/foo.js"
+     * @param aContent
+     *            The representation; copied when content is stored off-heap
+     * @param aInvalidations
+     *            The {@link #getInvalidationCount() invalidation count} before
+     *            the representation was read
+     * @return false when the representation is too large to cache, or may be out of date
+     */
+    public boolean put(String aPath, StaticContent aContent, long aInvalidations) {
+        final int length = aContent.getLength();
+        if ((length > this.maxEntrySize) || (length > this.maxSize)) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (aInvalidations != this.invalidations) {
+                return false;
+            }
+
+            final String key = toKey(aPath, aContent.getEncoding());
+            this.removeEntry(key);
+
+            StaticContent c = aContent;
+            if (this.store != null) {
+                c = this.copyToStore(aContent);
+                if (c == null) {
+                    return false;
+                }
+            }
+
+            this.entries.put(key, c);
+            this.size += length;
+
+            // evict least recently used
+            final Iterator<StaticContent> it = this.entries.values().iterator();
+            while ((this.size > this.maxSize) && it.hasNext()) {
+                this.evict(it);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copy content off-heap, evicting resources to make space.
+     *
+     * @param aContent
+     *            The representation
+     * @return the copy or null (no space)
+     */
+    @Nullable
+    private StaticContent copyToStore(StaticContent aContent) {
+        final int length = aContent.getLength();
+
+        SlabAllocator.Chunk chunk = this.store.allocate(length);
+        if (chunk == null) {
+            // evict a resource using the same chunk size, freeing its chunk
+            final int chunkSize = this.store.getChunkSize(length);
+
+            final Iterator<StaticContent> it = this.entries.values().iterator();
+            while ((chunk == null) && it.hasNext()) {
+                final StaticContent c = it.next();
+                if ((c.chunk != null) && (c.chunk.getChunkSize() == chunkSize) && !c.chunk.isShared()) {
+                    this.evict(c, it);
+                    chunk = this.store.allocate(length);
+                }
+            }
+
+            // or empty a slab of another chunk size
+            if ((chunk == null) && this.evictSlab()) {
+                chunk = this.store.allocate(length);
+            }
+
+            if (chunk == null) {
+                // chunks still being sent
+                return null;
+            }
+        }
+
+        final ByteBuffer b = chunk.getBuffer();
+        b.put(aContent.getContent());
+        b.flip();
+
+        return new StaticContent(b, chunk, aContent);
+    }
+
+    /**
+     * Evict all resources held by one slab, so it can be re-assigned.
+     *
+     * <p>
+     * The slab holding the least recently used resource is chosen, among
+     * the slabs holding no content still being sent.
+     * </p>
+     *
+     * @return false when no slab can be emptied
+     */
+    private boolean evictSlab() {
+        // resources not being sent, by slab; in least recently used order
+        final Map<Object, List<Map.Entry<String, StaticContent>>> slabs = new LinkedHashMap<Object, List<Map.Entry<String, StaticContent>>>();
+        for (final Map.Entry<String, StaticContent> e : this.entries.entrySet()) {
+            final SlabAllocator.Chunk chunk = e.getValue().chunk;
+            if ((chunk == null) || chunk.isShared()) {
+                continue;
+            }
+
+            List<Map.Entry<String, StaticContent>> resources = slabs.get(chunk.getSlab());
+            if (resources == null) {
+                resources = new ArrayList<Map.Entry<String, StaticContent>>();
+                slabs.put(chunk.getSlab(), resources);
+            }
+            resources.add(e);
+        }
+
+        for (final List<Map.Entry<String, StaticContent>> resources : slabs.values()) {
+            if (resources.size() < this.store.getAllocatedChunks(resources.get(0).getValue().chunk)) {
+                continue; // other chunks still being sent
+            }
+
+            for (final Map.Entry<String, StaticContent> e : resources) {
+                this.entries.remove(e.getKey());
+                this.evicted(e.getValue());
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private void evict(Iterator<StaticContent> aIterator) {
+        this.evict(aIterator.next(), aIterator);
+    }
+
+    private void evict(StaticContent aContent, Iterator<StaticContent> aIterator) {
+        aIterator.remove();
+        this.evicted(aContent);
+    }
+
+    private void evicted(StaticContent aContent) {
+        this.size -= aContent.getLength();
+        this.evictions.incrementAndGet();
+        aContent.release();
+    }
+
+    /**
+     * Remove all representations of the stated resource.
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/foo.js"
+     */
+    public synchronized void remove(String aPath) {
+        this.invalidations++;
+
+        this.removeEntry(toKey(aPath, null));
+        for (final String e : VARIANT_ENCODINGS) {
+            this.removeEntry(toKey(aPath, e));
+        }
+    }
+
+    /** Remove all resources. */
+    public synchronized void clear() {
+        this.invalidations++;
+
+        for (final StaticContent c : this.entries.values()) {
+            c.release();
+        }
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    @Override
+    public void resourceChanged(String aPath) {
+        this.remove(aPath);
+
+        for (final String suffix : VARIANT_SUFFIXES) {
+            if (aPath.endsWith(suffix)) {
+                // variant of another resource
+                this.remove(aPath.substring(0, aPath.length() - suffix.length()));
+            }
+        }
+    }
+
+    @Override
+    public void resourcesChanged() {
+        this.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "StaticContentCache[entries=" + this.getEntryCount() + ", size=" + this.getSize()
+                + ", hits=" + this.getHitCount() + ", misses=" + this.getMissCount()
+                + ", evictions=" + this.getEvictionCount()
+                + ((this.store != null) ? ", store=" + this.store : "") + "]";
+    }
+
+    private void removeEntry(String aKey) {
+        final StaticContent old = this.entries.remove(aKey);
+        if (old != null) {
+            this.size -= old.getLength();
+            old.release();
+        }
+    }
+
+    private static String toKey(String aPath, @Nullable String aEncoding) {
+        return (aEncoding == null) ? aPath : (aPath + ';' + aEncoding);
+    }
+
+    /**
+     * A cached representation of a static resource.
+     */
+    public static class StaticContent {
+
+        private final SlabAllocator.Chunk chunk;
+
+        private final ByteBuffer content;
+
+        private final String encoding;
+
+        private final String etag;
+
+        private final long lastModified;
+
+        private final String mimeType;
+
+        /**
+         * Constructor.
+         *
+         * @param aContent
+         *            The content; positioned at the first byte, and never modified
+         * @param aEncoding
+         *            The content encoding, eg. "gzip", or null (unencoded)
+         * @param aMimeType
+         *            The resource MIME type
+         * @param aLastModified
+         *            When the resource was last modified
+         * @param aETag
+         *            The tag of the unencoded resource
+         */
+        public StaticContent(
+                ByteBuffer aContent,
+                @Nullable String aEncoding,
+                String aMimeType,
+                long aLastModified,
+                String aETag) {
+
+            this.content = aContent.duplicate();
+            this.chunk = null;
+            this.encoding = aEncoding;
+            this.mimeType = aMimeType;
+            this.lastModified = aLastModified;
+            this.etag = aETag;
+        }
+
+        /**
+         * Constructor; copy the metadata of another representation.
+         *
+         * @param aContent
+         *            The content, held in the stated chunk
+         * @param aChunk
+         *            The off-heap memory
+         * @param aOther
+         *            The representation copied
+         */
+        private StaticContent(ByteBuffer aContent, SlabAllocator.Chunk aChunk, StaticContent aOther) {
+            this.content = aContent;
+            this.chunk = aChunk;
+            this.encoding = aOther.encoding;
+            this.mimeType = aOther.mimeType;
+            this.lastModified = aOther.lastModified;
+            this.etag = aOther.etag;
+        }
+
+        /** @return true when the content is held off-heap */
+        public boolean isDirect() {
+            return this.content.isDirect();
+        }
+
+        /** Remove a reference; off-heap content is freed when none remain. */
+        public void release() {
+            if (this.chunk != null) {
+                this.chunk.release();
+            }
+        }
+
+        private void retain() {
+            if (this.chunk != null) {
+                this.chunk.retain();
+            }
+        }
+
+        /** @return a new view of the shared content; positioned at the first byte, must not be modified */
+        public ByteBuffer getContent() {
+            return this.content.duplicate();
+        }
+
+        /** @return the content encoding, eg. "gzip", or null (unencoded) */
+        @Nullable
+        public String getEncoding() {
+            return this.encoding;
+        }
+
+        /** @return the tag of the unencoded resource */
+        public String getETag() {
+            return this.etag;
+        }
+
+        /** @return when the resource was last modified */
+        public long getLastModified() {
+            return this.lastModified;
+        }
+
+        /** @return the content size in bytes */
+        public int getLength() {
+            return this.content.remaining();
+        }
+
+        /** @return the resource MIME type */
+        public String getMimeType() {
+            return this.mimeType;
+        }
+    }
+
+}
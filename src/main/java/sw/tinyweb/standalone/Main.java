@@ -1,6 +1,7 @@
 package sw.tinyweb.standalone;
 
 import java.io.File;
+import java.io.IOException;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -10,7 +11,9 @@ import org.apache.log4j.Logger;
 import sw.tinyweb.ExecutionOptions;
 import sw.tinyweb.TinyWebServer;
 import sw.tinyweb.TinyWebServletConfig;
+import sw.tinyweb.WarmUpTraffic;
 import sw.tinyweb.servlets.AboutTinyWebServlet;
+import sw.tinyweb.servlets.BundleServlet;
 import sw.tinyweb.servlets.DownloadFileServlet;
 
 public class Main {
@@ -19,30 +22,58 @@ public class Main {
 
     private static final TinyWebServletConfig[] SERVLET_CONFIGURATIONS = new TinyWebServletConfig[] {
             new TinyWebServletConfig(AboutTinyWebServlet.class),
-            new TinyWebServletConfig(DownloadFileServlet.class, ExecutionOptions.REQUIRES_THREAD),
+            createBundleConfiguration(),
+            createDownloadConfiguration(),
     };
 
     private static final String[][] SERVLET_MAPPINGS = new String[][] {
         { "/about", "AboutTinyWebServlet" },
+        { "/bundles/w3org.css", "BundleServlet" },
+        { "/bundles/site.js", "BundleServlet" },
         { "*", "DownloadFileServlet" },
     };
 
+    private static TinyWebServletConfig createBundleConfiguration() {
+        final TinyWebServletConfig c = new TinyWebServletConfig(BundleServlet.class);
+        c.addInitParam(BundleServlet.BUNDLE_PREFIX + "/bundles/w3org.css", "/w3org_files/activity-home.css");
+        c.addInitParam(BundleServlet.BUNDLE_PREFIX + "/bundles/site.js", "/js/ajaxutils.js");
+        c.setLoadOnStartup(1);
+        return c;
+    }
+
+    private static TinyWebServletConfig createDownloadConfiguration() {
+        final TinyWebServletConfig c = new TinyWebServletConfig(DownloadFileServlet.class, ExecutionOptions.REQUIRES_THREAD);
+        c.setLoadOnStartup(1);
+        return c;
+    }
+
     public static void main(String[] args) {
         if (args.length < 2) {
-            System.out.println("tinyweb <port> <web-content>");
+            System.out.println("tinyweb <port> <web-content> [<warm-up-traffic>]");
             System.exit(1);
         }
 
         final int port = Integer.parseInt(args[0]);
         final File webContent = new File(args[1]);
 
-        if (!webContent.isDirectory()) {
-            System.out.println("Invalid <web-content> folder: " + args[1]);
+        if (!webContent.isDirectory() && !webContent.isFile()) {
+            System.out.println("Invalid <web-content> folder or archive: " + args[1]);
             System.exit(1);
         }
 
         final TinyWebServer tserver = new TinyWebServer(port, webContent);
 
+        if (args.length > 2) {
+            final WarmUpTraffic traffic = new WarmUpTraffic();
+            try {
+                traffic.load(new File(args[2]));
+            } catch (final IOException e) {
+                System.out.println("Invalid <warm-up-traffic> file: " + args[2]);
+                System.exit(1);
+            }
+            tserver.setWarmUpTraffic(traffic);
+        }
+
         tserver.addServletContextListener(new ServletContextListener() {
 
             @Override
@@ -0,0 +1,153 @@
+package sw.tinyweb.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of <code>Accept-Language</code> header values to locales.
+ *
+ * <p>
+ * Browsers send the same header with every request and the number of
+ * distinct headers seen by a server is tiny, so each header is only
+ * parsed once.
+ * </p>
+ *
+ * @see HttpHeaderUtils#parseLanguages(String)
+ */
+public class AcceptLanguageCache {
+
+    /** Maximum number of distinct headers remembered. */
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    private static final Logger LOGGER = Logger.getLogger(AcceptLanguageCache.class);
+
+    /** Sort into decreasing preference order (item 0 = highest). */
+    private static final Comparator<LanguageTag> QUALITY_ORDER = new Comparator<LanguageTag>() {
+        @Override
+        public int compare(LanguageTag aTag, LanguageTag aOther) {
+            return Double.compare(aOther.getQualityLevel(), aTag.getQualityLevel());
+        }
+    };
+
+    private static AcceptLanguageCache globalInstance;
+
+    /** @return the global instance */
+    public static synchronized AcceptLanguageCache getInstance() {
+        if (globalInstance == null) {
+            globalInstance = new AcceptLanguageCache(DEFAULT_CACHE_SIZE);
+        }
+
+        return globalInstance;
+    }
+
+    private final BoundedCache<String, List<Locale>> cache;
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxSize
+     *            The maximum number of distinct headers remembered
+     */
+    public AcceptLanguageCache(int aMaxSize) {
+        this.cache = new BoundedCache<String, List<Locale>>(aMaxSize);
+    }
+
+    /**
+     * Get the locales requested by the stated header.
+     *
+     * @param aHeader
+     *            The <code>Accept-Language</code> text or null (header not present)
+     * @return the immutable list of locales in decreasing preference order (item 0 = highest)
+     */
+    public List<Locale> getLocales(@Nullable String aHeader) {
+        if ((aHeader == null) || aHeader.isEmpty()) {
+            return Collections.singletonList(Locale.getDefault());
+        }
+
+        List<Locale> locales = this.cache.get(aHeader);
+        if (locales == null) {
+            locales = this.parseLocales(aHeader);
+            this.cache.put(aHeader, locales);
+        }
+
+        return locales;
+    }
+
+    /**
+     * Extract the locales from the stated header.
+     *
+     * @param aHeader
+     *            The header text
+     * @return the immutable list of locales
+     */
+    private List<Locale> parseLocales(String aHeader) {
+        // create unique list of languages tags
+
+        final List<LanguageTag> languages = new ArrayList<LanguageTag>();
+        try {
+            for (final LanguageTag lt : HttpHeaderUtils.getInstance().parseLanguages(aHeader)) {
+                final LanguageTag old = this.findLanguage(languages, lt.getLanguage());
+                if (old == null) {
+                    languages.add(lt);
+                } else if (old.getQualityLevel() < lt.getQualityLevel()) {
+                    languages.remove(old);
+                    languages.add(lt);
+                }
+            }
+        } catch (final IllegalArgumentException e) {
+            LOGGER.warn("Invalid Accept-Language header: " + aHeader);
+            languages.clear();
+        }
+
+        // list locales in decreasing preference order (item 0 = highest)
+
+        Collections.sort(languages, QUALITY_ORDER);
+
+        final List<Locale> locales = new ArrayList<Locale>(languages.size());
+        for (final LanguageTag language : languages) {
+            if (language.getQualityLevel() <= 0) {
+                continue; // not acceptable
+            }
+
+            try {
+                locales.add(language.getLocale());
+            } catch (final IllegalArgumentException e) {
+                // ignore wildcards and unsupported tags, eg. "*"
+            }
+        }
+
+        if (locales.isEmpty()) {
+            locales.add(Locale.getDefault());
+        }
+
+        return Collections.unmodifiableList(locales);
+    }
+
+    /**
+     * Find the language.
+     *
+     * @param aLanguages
+     *            The list of languages
+     * @param aLanguage
+     *            The RFC 1766 language tag
+     * @return the tag
+     */
+    @Nullable
+    private LanguageTag findLanguage(List<LanguageTag> aLanguages, String aLanguage) {
+        for (final LanguageTag lt : aLanguages) {
+            if (lt.getLanguage().equals(aLanguage)) {
+                return lt;
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,88 @@
+package sw.tinyweb.utils;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread safe cache with an upper limit on the number of entries.
+ *
+ * <p>
+ * Designed for caching values derived from HTTP header text, where the
+ * number of distinct headers is normally tiny but cannot be trusted
+ * (eg. clients can send any text they like). When the cache is full, an
+ * arbitrary entry is discarded to make room for the new one.
+ * </p>
+ *
+ * @param <K>
+ *            The key type
+ * @param <V>
+ *            The value type
+ */
+public class BoundedCache<K, V> {
+
+    private final ConcurrentHashMap<K, V> entries;
+
+    private final int maxSize;
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxSize
+     *            The maximum number of entries
+     */
+    public BoundedCache(int aMaxSize) {
+        if (aMaxSize < 1) {
+            throw new IllegalArgumentException("Invalid cache size: " + aMaxSize);
+        }
+
+        this.entries = new ConcurrentHashMap<K, V>(Math.min(aMaxSize, 64));
+        this.maxSize = aMaxSize;
+    }
+
+    /**
+     * Find the stated entry.
+     *
+     * @param aKey
+     *            The key
+     * @return the value or null (not cached)
+     */
+    public V get(K aKey) {
+        return this.entries.get(aKey);
+    }
+
+    /**
+     * Add a new entry.
+     *
+     * @param aKey
+     *            The key
+     * @param aValue
+     *            The value
+     */
+    public void put(K aKey, V aValue) {
+        if (this.entries.size() >= this.maxSize) {
+            final Iterator<K> i = this.entries.keySet().iterator();
+            if (i.hasNext()) {
+                i.next();
+                i.remove();
+            }
+        }
+
+        this.entries.put(aKey, aValue);
+    }
+
+    /** Remove all entries. */
+    public void clear() {
+        this.entries.clear();
+    }
+
+    /** @return the number of entries */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /** @return the maximum number of entries */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+}
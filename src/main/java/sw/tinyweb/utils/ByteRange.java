@@ -0,0 +1,185 @@
+package sw.tinyweb.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A range of bytes requested by the <code>Range</code> header.
+ *
+ * <p>
+ * For example,
+ * <pre>
+ *     Range: bytes=0-499, 1000-, -300
+ * </pre>
+ * requests the first 500 bytes, everything from byte 1000 onwards and the
+ * last 300 bytes.
+ * </p>
+ *
+ * <p>
+ * See HTTP 1.1 <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html">specification</a>.
+ * </p>
+ */
+public final class ByteRange {
+
+    /** More ranges than this are ignored, ie. the whole resource is sent. */
+    public static final int MAX_RANGES = 16;
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+
+    private final long end;
+
+    /**
+     * Constructor.
+     *
+     * @param aStart
+     *            The first byte
+     * @param aEnd
+     *            The last byte (inclusive)
+     */
+    public ByteRange(long aStart, long aEnd) {
+        this.start = aStart;
+        this.end = aEnd;
+    }
+
+    /** @return the first byte */
+    public long getStart() {
+        return this.start;
+    }
+
+    /** @return the last byte (inclusive) */
+    public long getEnd() {
+        return this.end;
+    }
+
+    /** @return the number of bytes */
+    public long getLength() {
+        return (this.end - this.start) + 1;
+    }
+
+    /**
+     * Create the <code>Content-Range</code> header value.
+     *
+     * @param aTotalLength
+     *            The resource size
+     * @return the value, eg. "bytes 0-499/1234"
+     */
+    public String toContentRange(long aTotalLength) {
+        return "bytes " + this.start + '-' + this.end + '/' + aTotalLength;
+    }
+
+    @Override
+    public boolean equals(Object aOther) {
+        if (!(aOther instanceof ByteRange)) {
+            return false;
+        }
+
+        final ByteRange r = (ByteRange) aOther;
+        return (this.start == r.start) && (this.end == r.end);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (this.start ^ (this.end >>> 32) ^ this.end);
+    }
+
+    @Override
+    public String toString() {
+        return this.start + "-" + this.end;
+    }
+
+    /**
+     * Parse a <code>Range</code> header.
+     *
+     * <p>
+     * Ranges beyond the end of the resource are truncated. Ranges that
+     * start beyond the end are dropped.
+     * </p>
+     *
+     * @param aHeader
+     *            The header value
+     * @param aLength
+     *            The resource size
+     * @return the satisfiable ranges (empty when none), or null when the
+     *         header must be ignored, ie. invalid, another unit or too many ranges
+     */
+    @Nullable
+    public static List<ByteRange> parse(String aHeader, long aLength) {
+        if (!aHeader.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+
+        final List<ByteRange> ranges = new ArrayList<ByteRange>(1);
+        int count = 0;
+
+        for (final String spec : aHeader.substring(BYTES_UNIT.length()).split(",")) {
+            final String s = spec.trim();
+            if (s.isEmpty()) {
+                continue;
+            }
+
+            if (++count > MAX_RANGES) {
+                return null;
+            }
+
+            final int dash = s.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            final long first = parseNumber(s, 0, dash);
+            final long last = parseNumber(s, dash + 1, s.length());
+
+            if (dash == 0) {
+                // suffix range, eg. "-300"
+                if (last < 0) {
+                    return null;
+                }
+
+                if ((last > 0) && (aLength > 0)) {
+                    ranges.add(new ByteRange(Math.max(0, aLength - last), aLength - 1));
+                }
+                continue;
+            }
+
+            if ((first < 0) || ((dash < s.length() - 1) && ((last < 0) || (last < first)))) {
+                return null;
+            }
+
+            if (first < aLength) {
+                final long end = (dash == s.length() - 1) ? aLength - 1 : Math.min(last, aLength - 1);
+                ranges.add(new ByteRange(first, end));
+            }
+        }
+
+        if (count == 0) {
+            return null;
+        }
+
+        return (ranges.size() == 1) ? Collections.singletonList(ranges.get(0)) : ranges;
+    }
+
+    /** @return the number, or -1 (not a number) */
+    private static long parseNumber(String aText, int aStart, int aEnd) {
+        final String s = aText.substring(aStart, aEnd).trim();
+        if (s.isEmpty() || (s.length() > 18)) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if ((c < '0') || (c > '9')) {
+                return -1;
+            }
+            value = (value * 10) + (c - '0');
+        }
+
+        return value;
+    }
+
+}
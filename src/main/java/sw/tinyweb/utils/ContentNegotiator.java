@@ -0,0 +1,389 @@
+package sw.tinyweb.utils;
+
+import java.util.Enumeration;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Server driven content negotiation.
+ *
+ * <p>
+ * Selects the best variant from those a servlet can produce, using the
+ * quality values in the <code>Accept</code>, <code>Accept-Encoding</code> or
+ * <code>Accept-Charset</code> request header. For example,
+ * <pre>
+ *     private static final ContentNegotiator FORMATS =
+ *         ContentNegotiator.forMediaTypes("application/json", "text/xml");
+ *
+ *     final String type = FORMATS.negotiate(request);
+ *     if (type == null) {
+ *         response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE);
+ *     }
+ * </pre>
+ * Variants are listed in server preference order, which is used when the
+ * client rates several variants equally.
+ * </p>
+ *
+ * <p>
+ * Decisions are cached per distinct header value, so each header is only
+ * parsed once. Instances are thread safe and normally held in a static field.
+ * </p>
+ *
+ * <p>
+ * See HTTP 1.1 <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html">specification</a>.
+ * </p>
+ */
+public class ContentNegotiator {
+
+    /** Media type header. */
+    public static final String ACCEPT = "Accept";
+
+    /** Character set header. */
+    public static final String ACCEPT_CHARSET = "Accept-Charset";
+
+    /** Content encoding header. */
+    public static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    /** Content encoding that is always acceptable, unless explicitly refused. */
+    public static final String IDENTITY = "identity";
+
+    /** Maximum number of distinct headers remembered. */
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    /** Cached "no acceptable variant" decision. */
+    private static final String NONE = "";
+
+    /**
+     * Create a negotiator for the <code>Accept</code> header.
+     *
+     * @param aTypes
+     *            The media types, eg. "application/json"
+     * @return the negotiator
+     */
+    public static ContentNegotiator forMediaTypes(String... aTypes) {
+        return new ContentNegotiator(ACCEPT, aTypes);
+    }
+
+    /**
+     * Create a negotiator for the <code>Accept-Encoding</code> header.
+     *
+     * @param aEncodings
+     *            The content encodings, eg. "gzip" or "identity"
+     * @return the negotiator
+     */
+    public static ContentNegotiator forEncodings(String... aEncodings) {
+        return new ContentNegotiator(ACCEPT_ENCODING, aEncodings);
+    }
+
+    /**
+     * Create a negotiator for the <code>Accept-Charset</code> header.
+     *
+     * @param aCharsets
+     *            The character sets, eg. "UTF-8"
+     * @return the negotiator
+     */
+    public static ContentNegotiator forCharsets(String... aCharsets) {
+        return new ContentNegotiator(ACCEPT_CHARSET, aCharsets);
+    }
+
+    private final BoundedCache<String, String> decisions = new BoundedCache<String, String>(DEFAULT_CACHE_SIZE);
+
+    private final String headerName;
+
+    private final String[] variants;
+
+    /** Variants in lower case, for matching. */
+    private final String[] keys;
+
+    /**
+     * Constructor.
+     *
+     * @param aHeaderName
+     *            The request header used to select a variant
+     * @param aVariants
+     *            The variants, in server preference order
+     */
+    public ContentNegotiator(String aHeaderName, String... aVariants) {
+        if (aVariants.length < 1) {
+            throw new IllegalArgumentException("No variants declared for " + aHeaderName);
+        }
+
+        this.headerName = aHeaderName;
+        this.variants = aVariants.clone();
+        this.keys = new String[aVariants.length];
+        for (int i = 0; i < aVariants.length; i++) {
+            this.keys[i] = aVariants[i].trim().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    /** @return the request header used to select a variant */
+    public String getHeaderName() {
+        return this.headerName;
+    }
+
+    /**
+     * Select the best variant for the stated request.
+     *
+     * @param aRequest
+     *            The HTTP request
+     * @return the variant or null (no acceptable variant)
+     *
+     * @see #negotiate(String)
+     */
+    @Nullable
+    public String negotiate(HttpServletRequest aRequest) {
+        @SuppressWarnings("unchecked")
+        final Enumeration<String> e = aRequest.getHeaders(this.headerName);
+        if ((e == null) || !e.hasMoreElements()) {
+            return this.negotiate((String) null);
+        }
+
+        String header = e.nextElement();
+        while (e.hasMoreElements()) {
+            // NB. Headers may contain multiple fields
+            header = header + "," + e.nextElement();
+        }
+
+        return this.negotiate(header);
+    }
+
+    /**
+     * Select the best variant for the stated header.
+     *
+     * @param aHeader
+     *            The header text or null (header not present)
+     * @return the variant or null (no acceptable variant)
+     */
+    @Nullable
+    public String negotiate(@Nullable String aHeader) {
+        if (aHeader == null) {
+            return this.getDefaultVariant();
+        }
+
+        String decision = this.decisions.get(aHeader);
+        if (decision == null) {
+            final int best = this.selectVariant(aHeader);
+            decision = (best < 0) ? NONE : this.variants[best];
+            this.decisions.put(aHeader, decision);
+        }
+
+        return (decision == NONE) ? null : decision;
+    }
+
+    /**
+     * Is the stated variant acceptable?
+     *
+     * @param aHeader
+     *            The header text or null (header not present)
+     * @param aVariant
+     *            The variant
+     * @return true when the quality value is greater than zero
+     */
+    public boolean isAcceptable(@Nullable String aHeader, String aVariant) {
+        if (aHeader == null) {
+            return true;
+        }
+
+        final String key = aVariant.trim().toLowerCase(Locale.ENGLISH);
+        return this.getQualityLevel(aHeader, key) > 0;
+    }
+
+    /** @return the variant used when the request has no header */
+    private String getDefaultVariant() {
+        if (ACCEPT_ENCODING.equals(this.headerName)) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (IDENTITY.equals(this.keys[i])) {
+                    return this.variants[i];
+                }
+            }
+        }
+
+        return this.variants[0];
+    }
+
+    /**
+     * Find the variant with the highest quality value.
+     *
+     * @param aHeader
+     *            The header text
+     * @return the variant index or -1 (none acceptable)
+     */
+    private int selectVariant(String aHeader) {
+        int best = -1;
+        double bestQ = 0;
+
+        for (int i = 0; i < this.keys.length; i++) {
+            final double q = this.getQualityLevel(aHeader, this.keys[i]);
+            if (q > bestQ) {
+                best = i;
+                bestQ = q;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Get the quality value the header assigns to the stated variant.
+     *
+     * <p>
+     * The most specific matching range wins, eg. <code>text/html</code>
+     * before <code>text/*</code> before <code>*&#47;*</code>.
+     * </p>
+     *
+     * @param aHeader
+     *            The header text
+     * @param aKey
+     *            The variant (lower case)
+     * @return the quality value or 0 (not acceptable)
+     */
+    private double getQualityLevel(String aHeader, String aKey) {
+        double q = -1;
+        int specificity = 0;
+
+        final int len = aHeader.length();
+        int pos = 0;
+        while (pos < len) {
+            int end = aHeader.indexOf(',', pos);
+            if (end < 0) {
+                end = len;
+            }
+
+            int rangeEnd = aHeader.indexOf(';', pos);
+            if ((rangeEnd < 0) || (rangeEnd > end)) {
+                rangeEnd = end;
+            }
+
+            final int s = this.matchRange(aHeader, trimStart(aHeader, pos, rangeEnd), trimEnd(aHeader, pos, rangeEnd), aKey);
+            if (s > specificity) {
+                specificity = s;
+                q = parseQualityLevel(aHeader, rangeEnd, end);
+            }
+
+            pos = end + 1;
+        }
+
+        if (q < 0) {
+            // not mentioned; identity encoding is acceptable unless refused
+            q = (IDENTITY.equals(aKey) && ACCEPT_ENCODING.equals(this.headerName)) ? 1 : 0;
+        }
+
+        return q;
+    }
+
+    /**
+     * Match a single range against the stated variant.
+     *
+     * @param aHeader
+     *            The header text
+     * @param aStart
+     *            The first character of the range
+     * @param aEnd
+     *            The end of the range (exclusive)
+     * @param aKey
+     *            The variant (lower case)
+     * @return the specificity of the match or 0 (no match)
+     */
+    private int matchRange(String aHeader, int aStart, int aEnd, String aKey) {
+        final int len = aEnd - aStart;
+
+        if ((len == aKey.length()) && aHeader.regionMatches(true, aStart, aKey, 0, len)) {
+            return 3; // exact match
+        }
+
+        if ((len == 1) && (aHeader.charAt(aStart) == '*')) {
+            return 1; // any encoding or charset
+        }
+
+        if ((len == 3) && aHeader.startsWith("*/*", aStart)) {
+            return 1; // any media type
+        }
+
+        if ((len > 2) && aHeader.startsWith("/*", aEnd - 2)) {
+            // media range, eg. "text/*"
+            final int typeLen = len - 1;
+            if ((aKey.length() > typeLen) && aHeader.regionMatches(true, aStart, aKey, 0, typeLen)) {
+                return 2;
+            }
+        }
+
+        if ((len == 6) && aHeader.regionMatches(true, aStart, "x-gzip", 0, 6) && "gzip".equals(aKey)) {
+            return 3; // HTTP 1.0 alias
+        }
+
+        return 0;
+    }
+
+    /**
+     * Extract the <code>q</code> parameter.
+     *
+     * @param aHeader
+     *            The header text
+     * @param aStart
+     *            The start of the parameters
+     * @param aEnd
+     *            The end of the parameters (exclusive)
+     * @return the quality value
+     */
+    private static double parseQualityLevel(String aHeader, int aStart, int aEnd) {
+        int pos = aStart;
+        while (pos < aEnd) {
+            pos = trimStart(aHeader, pos + 1, aEnd);
+            if ((pos + 1 < aEnd)
+                    && ((aHeader.charAt(pos) == 'q') || (aHeader.charAt(pos) == 'Q'))
+                    && (aHeader.charAt(pos + 1) == '=')) {
+                return parseDecimal(aHeader, pos + 2, aEnd);
+            }
+
+            final int next = aHeader.indexOf(';', pos);
+            pos = ((next < 0) || (next > aEnd)) ? aEnd : next;
+        }
+
+        return 1;
+    }
+
+    /** @return the value (0 to 1) of a quality parameter, eg. "0.8" */
+    private static double parseDecimal(String aHeader, int aStart, int aEnd) {
+        double value = 0;
+        double scale = 0;
+
+        for (int i = aStart; i < aEnd; i++) {
+            final char c = aHeader.charAt(i);
+            if ((c >= '0') && (c <= '9')) {
+                if (scale == 0) {
+                    value = (value * 10) + (c - '0');
+                } else {
+                    value += (c - '0') * scale;
+                    scale /= 10;
+                }
+            } else if ((c == '.') && (scale == 0)) {
+                scale = 0.1;
+            } else if ((c == ';') || (c == ' ')) {
+                break;
+            } else {
+                return 0; // invalid
+            }
+        }
+
+        return Math.min(value, 1);
+    }
+
+    private static int trimStart(String aText, int aPos, int aEnd) {
+        int i = aPos;
+        while ((i < aEnd) && (aText.charAt(i) <= ' ')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimEnd(String aText, int aPos, int aEnd) {
+        int i = aEnd;
+        while ((i > aPos) && (aText.charAt(i - 1) <= ' ')) {
+            i--;
+        }
+        return i;
+    }
+
+}
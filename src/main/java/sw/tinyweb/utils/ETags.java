@@ -0,0 +1,131 @@
+package sw.tinyweb.utils;
+
+import javax.annotation.Nullable;
+
+/**
+ * Entity tags, as used by the <code>ETag</code> and <code>If-None-Match</code> headers.
+ *
+ * <p>
+ * Tags for static resources are derived from the resource size and
+ * last-modified time, eg. <code>"2f6d-1706c61b3f8"</code>, so they can be
+ * created without reading the content. Compressed representations append
+ * the content encoding, eg. <code>"2f6d-1706c61b3f8-gzip"</code>, so each
+ * representation has a distinct strong tag.
+ * </p>
+ *
+ * <p>
+ * See HTTP 1.1 <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html">specification</a>.
+ * </p>
+ */
+public final class ETags {
+
+    /** Matches any current representation. */
+    public static final String ANY = "*";
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private ETags() {
+        // static methods only
+    }
+
+    /**
+     * Create a strong entity tag.
+     *
+     * @param aLength
+     *            The resource size in bytes
+     * @param aLastModified
+     *            When the resource was last modified
+     * @return the quoted tag
+     */
+    public static String create(long aLength, long aLastModified) {
+        return '"' + Long.toHexString(aLength) + '-' + Long.toHexString(aLastModified) + '"';
+    }
+
+    /**
+     * Create the tag of an encoded representation.
+     *
+     * @param aETag
+     *            The tag of the unencoded representation
+     * @param aEncoding
+     *            The content encoding, eg. "gzip"
+     * @return the quoted tag
+     */
+    public static String withEncoding(String aETag, String aEncoding) {
+        if ((aEncoding == null) || ContentNegotiator.IDENTITY.equals(aEncoding) || !aETag.endsWith("\"")) {
+            return aETag;
+        }
+
+        return aETag.substring(0, aETag.length() - 1) + '-' + aEncoding + '"';
+    }
+
+    /**
+     * Find the tag that matches the stated resource.
+     *
+     * <p>
+     * Uses the weak comparison function, and ignores content encodings,
+     * so a cached compressed representation matches the resource it
+     * was created from.
+     * </p>
+     *
+     * @param aHeader
+     *            The <code>If-None-Match</code> header, eg. <code>"abc", W/"def"</code>
+     * @param aETag
+     *            The tag of the unencoded resource
+     * @return the matching tag from the header, the stated tag (header is <code>*</code>),
+     *         or null (no match)
+     */
+    @Nullable
+    public static String findMatch(@Nullable String aHeader, String aETag) {
+        if (aHeader == null) {
+            return null;
+        }
+
+        // compare opaque tags without the closing quote
+        final int baseLen = aETag.length() - 1;
+
+        final int len = aHeader.length();
+        int pos = 0;
+
+        while (pos < len) {
+            final char c = aHeader.charAt(pos);
+            if ((c == ',') || (c == ' ') || (c == '\t')) {
+                pos++;
+                continue;
+            }
+
+            if (c == '*') {
+                return aETag;
+            }
+
+            final int start = pos;
+            if (aHeader.startsWith(WEAK_PREFIX, pos)) {
+                pos += WEAK_PREFIX.length();
+            }
+
+            if ((pos >= len) || (aHeader.charAt(pos) != '"')) {
+                // invalid tag; skip it
+                pos = skipTo(aHeader, ',', pos);
+                continue;
+            }
+
+            final int opaque = pos;
+            final int end = skipTo(aHeader, '"', opaque + 1);
+            pos = end + 1;
+
+            final int tagLen = end - opaque;
+            if ((tagLen >= baseLen)
+                    && aHeader.regionMatches(opaque, aETag, 0, baseLen)
+                    && ((tagLen == baseLen) || (aHeader.charAt(opaque + baseLen) == '-'))) {
+                return aHeader.substring(start, Math.min(pos, len));
+            }
+        }
+
+        return null;
+    }
+
+    private static int skipTo(String aText, char aChar, int aFrom) {
+        final int pos = aText.indexOf(aChar, aFrom);
+        return (pos < 0) ? aText.length() : pos;
+    }
+
+}
@@ -0,0 +1,276 @@
+package sw.tinyweb.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reports changes to the files in a folder tree.
+ *
+ * <p>
+ * Uses a {@link WatchService}, so changes are reported by the operating
+ * system (eg. <code>inotify</code> on Linux) on a single daemon thread.
+ * Changed files are identified by their resource path, eg. "/js/foo.js".
+ * </p>
+ *
+ * <p>
+ * Some platforms poll for changes, so listeners may be told about a
+ * change several seconds after it happened.
+ * </p>
+ *
+ * <p>
+ * Thread safe.
+ * </p>
+ */
+public class FolderWatcher implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(FolderWatcher.class);
+
+    /** Informed about changes to watched files. */
+    public interface Listener {
+
+        /**
+         * A file has been created, modified or deleted.
+         *
+         * @param aPath
+         *            The resource path, eg. "/js/foo.js"
+         */
+        void resourceChanged(String aPath);
+
+        /** Any file may have changed, eg. events were lost. */
+        void resourcesChanged();
+    }
+
+    private final Map<WatchKey, Path> folders = new ConcurrentHashMap<WatchKey, Path>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private final Path root;
+
+    private volatile boolean cancelled;
+
+    private WatchService watchService;
+
+    /**
+     * Constructor.
+     *
+     * @param aRoot
+     *            The folder to watch, including sub-folders
+     */
+    public FolderWatcher(File aRoot) {
+        this.root = aRoot.toPath().toAbsolutePath();
+    }
+
+    /**
+     * Add a new listener.
+     *
+     * @param aListener
+     *            The listener
+     */
+    public void addListener(Listener aListener) {
+        this.listeners.add(aListener);
+    }
+
+    /**
+     * Remove the stated listener.
+     *
+     * @param aListener
+     *            The listener
+     */
+    public void removeListener(Listener aListener) {
+        this.listeners.remove(aListener);
+    }
+
+    /**
+     * Inform listeners about a change found by other means, eg. a file
+     * that changed while it was not being watched.
+     *
+     * @param aPath
+     *            The resource path, eg. "/js/foo.js"
+     */
+    public void reportChange(String aPath) {
+        this.fireResourceChanged(aPath);
+    }
+
+    /**
+     * Start watching.
+     *
+     * @throws IOException
+     *             when the folders cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (this.watchService != null) {
+            return;
+        }
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.registerAll(this.root);
+
+        final Thread t = new Thread(this, "TinyWeb-watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Stop watching. */
+    public synchronized void stop() {
+        this.cancelled = true;
+
+        if (this.watchService != null) {
+            try {
+                this.watchService.close();
+
+            } catch (final IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!this.cancelled) {
+            final WatchKey key;
+            try {
+                key = this.watchService.take();
+
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final ClosedWatchServiceException e) {
+                return;
+            }
+
+            final Path folder = this.folders.get(key);
+            if (folder != null) {
+                this.processEvents(folder, key);
+            }
+
+            if (!key.reset()) {
+                // folder deleted
+                this.folders.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Inform listeners about the events for the stated folder.
+     *
+     * @param aFolder
+     *            The folder
+     * @param aKey
+     *            The folder's key
+     */
+    private void processEvents(Path aFolder, WatchKey aKey) {
+        for (final WatchEvent<?> e : aKey.pollEvents()) {
+            if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                this.fireResourcesChanged();
+                continue;
+            }
+
+            final Path child = aFolder.resolve((Path) e.context());
+
+            if ((e.kind() == StandardWatchEventKinds.ENTRY_CREATE) && Files.isDirectory(child)) {
+                // files may have been added before the folder was registered
+                try {
+                    this.registerAll(child);
+                } catch (final IOException ex) {
+                    LOGGER.warn("Cannot watch folder " + child, ex);
+                }
+
+                this.fireResourcesChanged();
+                continue;
+            }
+
+            if ((e.kind() == StandardWatchEventKinds.ENTRY_DELETE) && this.unregisterAll(child)) {
+                // folder deleted or moved away; its files are not reported one by one
+                this.fireResourcesChanged();
+                continue;
+            }
+
+            this.fireResourceChanged(this.toResourcePath(child));
+        }
+    }
+
+    /**
+     * Watch the stated folder and its sub-folders.
+     *
+     * @param aFolder
+     *            The folder
+     * @throws IOException
+     *             when a folder cannot be watched
+     */
+    private void registerAll(Path aFolder) throws IOException {
+        Files.walkFileTree(aFolder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path aDir, BasicFileAttributes aAttrs) throws IOException {
+                final WatchKey key = aDir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+
+                folders.put(key, aDir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Stop watching the stated folder and its sub-folders.
+     *
+     * <p>
+     * A folder moved out of the tree is still watched by some platforms,
+     * which would report its files under their old paths.
+     * </p>
+     *
+     * @param aFolder
+     *            The folder
+     * @return false when the folder was not watched, eg. it was a file
+     */
+    private boolean unregisterAll(Path aFolder) {
+        boolean found = false;
+        for (final Map.Entry<WatchKey, Path> e : this.folders.entrySet()) {
+            if (e.getValue().startsWith(aFolder)) {
+                e.getKey().cancel();
+                this.folders.remove(e.getKey());
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private String toResourcePath(Path aFile) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Path p : this.root.relativize(aFile)) {
+            sb.append('/').append(p.toString());
+        }
+        return sb.toString();
+    }
+
+    private void fireResourceChanged(String aPath) {
+        for (final Listener l : this.listeners) {
+            l.resourceChanged(aPath);
+        }
+    }
+
+    private void fireResourcesChanged() {
+        for (final Listener l : this.listeners) {
+            l.resourcesChanged();
+        }
+    }
+
+}
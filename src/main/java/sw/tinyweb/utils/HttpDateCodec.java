@@ -0,0 +1,390 @@
+package sw.tinyweb.utils;
+
+/**
+ * HTTP date encoder / decoder.
+ *
+ * <p>
+ * Supports the three date formats allowed by the HTTP 1.1
+ * <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec3.html#sec3.3.1">specification</a> -
+ * <pre>
+ *     Sun, 06 Nov 1994 08:49:37 GMT    <font style="color:green">// RFC 822, updated by RFC 1123</font>
+ *     Sunday, 06-Nov-94 08:49:37 GMT   <font style="color:green">// RFC 850, obsoleted by RFC 1036</font>
+ *     Sun Nov  6 08:49:37 1994         <font style="color:green">// ANSI C's asctime() format</font>
+ * </pre>
+ * Dates are always formatted as RFC 1123 (GMT, English day and month names).
+ * </p>
+ *
+ * <p>
+ * All methods are thread safe. Parsing never allocates, and the formatted
+ * value for the current second is cached (as text and as US-ASCII bytes)
+ * so that every response sent within the same second shares a single
+ * <code>Date</code> header value.
+ * </p>
+ *
+ * @see HttpHeaderUtils
+ */
+public final class HttpDateCodec {
+
+    /** Day names, indexed by days since the epoch (1970-01-01 was a Thursday). */
+    private static final String[] DAYS = { "Thu", "Fri", "Sat", "Sun", "Mon", "Tue", "Wed" };
+
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    /** Length of a RFC 1123 date, eg. <code>Sun, 06 Nov 1994 08:49:37 GMT</code>. */
+    private static final int RFC1123_LENGTH = 29;
+
+    /** A formatted date, valid for a single second. */
+    private static final class FormattedDate {
+        final long second;
+
+        final String text;
+
+        final byte[] bytes;
+
+        FormattedDate(long aSecond) {
+            final char[] chars = new char[RFC1123_LENGTH];
+            formatRfc1123(aSecond, chars);
+
+            this.second = aSecond;
+            this.text = new String(chars);
+            this.bytes = new byte[chars.length];
+            for (int i = 0; i < chars.length; i++) {
+                this.bytes[i] = (byte) chars[i];
+            }
+        }
+    }
+
+    private static volatile FormattedDate currentDate = new FormattedDate(currentSecond());
+
+    private static volatile FormattedDate lastFormatted = currentDate;
+
+    private HttpDateCodec() {
+        // static methods only
+    }
+
+    /** @return the current time as a RFC 1123 date */
+    public static String getCurrentDate() {
+        return currentFormattedDate().text;
+    }
+
+    /**
+     * Get the current time as a RFC 1123 date.
+     *
+     * <p>
+     * The array is shared by all callers and MUST NOT be modified.
+     * </p>
+     *
+     * @return the US-ASCII encoded date
+     */
+    public static byte[] getCurrentDateBytes() {
+        return currentFormattedDate().bytes;
+    }
+
+    /**
+     * Format the time as a RFC 1123 date.
+     *
+     * @param aTime
+     *            The time in milli-seconds since the epoch
+     * @return the formatted date
+     */
+    public static String format(long aTime) {
+        final long second = Math.floorDiv(aTime, 1000L);
+
+        final FormattedDate now = currentDate;
+        if (now.second == second) {
+            return now.text;
+        }
+
+        // Last-Modified headers for popular resources repeat the same value
+
+        FormattedDate d = lastFormatted;
+        if (d.second != second) {
+            d = new FormattedDate(second);
+            lastFormatted = d;
+        }
+
+        return d.text;
+    }
+
+    /**
+     * Parse a RFC 1123, RFC 850 or asctime() date.
+     *
+     * @param aText
+     *            The header text
+     * @return the time in milli-seconds since the epoch or -1 (invalid date)
+     */
+    public static long parse(CharSequence aText) {
+        if (aText == null) {
+            return -1;
+        }
+
+        int pos = skipWhitespace(aText, 0);
+        final int end = trimEnd(aText);
+
+        // skip day name, eg. "Sun," / "Sunday," / "Sun"
+
+        while ((pos < end) && isLetter(aText.charAt(pos))) {
+            pos++;
+        }
+
+        if (pos >= end) {
+            return -1;
+        }
+
+        final boolean asctime = (aText.charAt(pos) != ',');
+        if (!asctime) {
+            pos++;
+        }
+
+        pos = skipWhitespace(aText, pos);
+
+        int day;
+        int month;
+        int year;
+
+        if (asctime) {
+            // Nov  6 08:49:37 1994
+
+            month = parseMonth(aText, pos, end);
+            pos = skipWhitespace(aText, pos + 3);
+
+            final int n = countDigits(aText, pos, end);
+            if (month < 0 || n < 1 || n > 2) {
+                return -1;
+            }
+
+            day = parseDigits(aText, pos, n);
+            pos += n;
+            year = -1; // follows the time
+
+        } else {
+            // 06 Nov 1994 08:49:37 GMT  or  06-Nov-94 08:49:37 GMT
+
+            int n = countDigits(aText, pos, end);
+            if (n < 1 || n > 2) {
+                return -1;
+            }
+
+            day = parseDigits(aText, pos, n);
+            pos += n;
+
+            if (!isDateSeparator(aText, pos, end)) {
+                return -1;
+            }
+
+            month = parseMonth(aText, pos + 1, end);
+            pos += 4;
+
+            if (month < 0 || !isDateSeparator(aText, pos, end)) {
+                return -1;
+            }
+
+            pos++;
+            n = countDigits(aText, pos, end);
+            if (n == 2) {
+                // RFC 850 two digit year
+                year = parseDigits(aText, pos, n);
+                year += (year < 70) ? 2000 : 1900;
+            } else if (n == 4) {
+                year = parseDigits(aText, pos, n);
+            } else {
+                return -1;
+            }
+
+            pos += n;
+        }
+
+        // 08:49:37
+
+        pos = skipWhitespace(aText, pos);
+        if ((pos + 8 > end)
+                || (countDigits(aText, pos, end) != 2)
+                || (aText.charAt(pos + 2) != ':')
+                || (countDigits(aText, pos + 3, end) != 2)
+                || (aText.charAt(pos + 5) != ':')
+                || (countDigits(aText, pos + 6, end) != 2)) {
+            return -1;
+        }
+
+        final int hour = parseDigits(aText, pos, 2);
+        final int minute = parseDigits(aText, pos + 3, 2);
+        final int second = Math.min(parseDigits(aText, pos + 6, 2), 59); // ignore leap seconds
+        pos += 8;
+
+        if (asctime) {
+            pos = skipWhitespace(aText, pos);
+            if (countDigits(aText, pos, end) != 4) {
+                return -1;
+            }
+
+            year = parseDigits(aText, pos, 4);
+        }
+
+        // time zone is always GMT; anything else is rejected by the
+        // specification but tolerated here
+
+        if (day < 1 || day > 31 || hour > 23 || minute > 59) {
+            return -1;
+        }
+
+        final long days = daysFromCivil(year, month + 1, day);
+        return ((((days * 24) + hour) * 60 + minute) * 60 + second) * 1000L;
+    }
+
+    /** @return the current formatted date, refreshed once per second */
+    private static FormattedDate currentFormattedDate() {
+        final long second = currentSecond();
+
+        FormattedDate d = currentDate;
+        if (d.second != second) {
+            d = new FormattedDate(second);
+            currentDate = d; // benign race; all threads produce the same value
+        }
+
+        return d;
+    }
+
+    private static long currentSecond() {
+        return System.currentTimeMillis() / 1000L;
+    }
+
+    /**
+     * Write a RFC 1123 date into the stated array.
+     *
+     * @param aSecond
+     *            The time in seconds since the epoch
+     * @param aChars
+     *            The target array (29 characters)
+     */
+    private static void formatRfc1123(long aSecond, char[] aChars) {
+        final long days = Math.floorDiv(aSecond, 86400L);
+        final int secs = (int) Math.floorMod(aSecond, 86400L);
+
+        // civil date, see http://howardhinnant.github.io/date_algorithms.html
+
+        final long z = days + 719468;
+        final long era = Math.floorDiv(z, 146097L);
+        final int doe = (int) (z - era * 146097);
+        final int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final int mp = (5 * doy + 2) / 153;
+        final int day = doy - (153 * mp + 2) / 5 + 1;
+        final int month = (mp < 10) ? mp + 3 : mp - 9;
+        final long year = yoe + era * 400 + ((month <= 2) ? 1 : 0);
+
+        final String dayName = DAYS[(int) Math.floorMod(days, 7L)];
+        final String monthName = MONTHS[month - 1];
+
+        aChars[0] = dayName.charAt(0);
+        aChars[1] = dayName.charAt(1);
+        aChars[2] = dayName.charAt(2);
+        aChars[3] = ',';
+        aChars[4] = ' ';
+        put2Digits(aChars, 5, day);
+        aChars[7] = ' ';
+        aChars[8] = monthName.charAt(0);
+        aChars[9] = monthName.charAt(1);
+        aChars[10] = monthName.charAt(2);
+        aChars[11] = ' ';
+        put2Digits(aChars, 12, (int) (year / 100) % 100);
+        put2Digits(aChars, 14, (int) (year % 100));
+        aChars[16] = ' ';
+        put2Digits(aChars, 17, secs / 3600);
+        aChars[19] = ':';
+        put2Digits(aChars, 20, (secs / 60) % 60);
+        aChars[22] = ':';
+        put2Digits(aChars, 23, secs % 60);
+        aChars[25] = ' ';
+        aChars[26] = 'G';
+        aChars[27] = 'M';
+        aChars[28] = 'T';
+    }
+
+    private static void put2Digits(char[] aChars, int aPos, int aValue) {
+        aChars[aPos] = (char) ('0' + (aValue / 10));
+        aChars[aPos + 1] = (char) ('0' + (aValue % 10));
+    }
+
+    /**
+     * Convert a civil date into days since the epoch.
+     *
+     * @param aYear
+     *            The year
+     * @param aMonth
+     *            The month (1 = January)
+     * @param aDay
+     *            The day of the month
+     * @return the number of days
+     */
+    private static long daysFromCivil(int aYear, int aMonth, int aDay) {
+        final int y = (aMonth <= 2) ? aYear - 1 : aYear;
+        final int era = ((y >= 0) ? y : y - 399) / 400;
+        final int yoe = y - era * 400;
+        final int doy = (153 * (aMonth + ((aMonth > 2) ? -3 : 9)) + 2) / 5 + aDay - 1;
+        final int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    /** @return the month index (0 = January) or -1 (not a month) */
+    private static int parseMonth(CharSequence aText, int aPos, int aEnd) {
+        if (aPos + 3 > aEnd) {
+            return -1;
+        }
+
+        final char c0 = Character.toLowerCase(aText.charAt(aPos));
+        final char c1 = Character.toLowerCase(aText.charAt(aPos + 1));
+        final char c2 = Character.toLowerCase(aText.charAt(aPos + 2));
+
+        for (int i = 0; i < MONTHS.length; i++) {
+            final String m = MONTHS[i];
+            if (Character.toLowerCase(m.charAt(0)) == c0 && m.charAt(1) == c1 && m.charAt(2) == c2) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int parseDigits(CharSequence aText, int aPos, int aCount) {
+        int value = 0;
+        for (int i = aPos; i < aPos + aCount; i++) {
+            value = (value * 10) + (aText.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static int countDigits(CharSequence aText, int aPos, int aEnd) {
+        int i = aPos;
+        while ((i < aEnd) && (aText.charAt(i) >= '0') && (aText.charAt(i) <= '9')) {
+            i++;
+        }
+        return i - aPos;
+    }
+
+    private static boolean isDateSeparator(CharSequence aText, int aPos, int aEnd) {
+        return (aPos < aEnd) && ((aText.charAt(aPos) == ' ') || (aText.charAt(aPos) == '-'));
+    }
+
+    private static boolean isLetter(char aChar) {
+        return ((aChar >= 'a') && (aChar <= 'z')) || ((aChar >= 'A') && (aChar <= 'Z'));
+    }
+
+    private static int skipWhitespace(CharSequence aText, int aPos) {
+        int i = aPos;
+        while ((i < aText.length()) && (aText.charAt(i) == ' ' || aText.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimEnd(CharSequence aText) {
+        int i = aText.length();
+        while ((i > 0) && (aText.charAt(i - 1) <= ' ')) {
+            i--;
+        }
+        return i;
+    }
+
+}
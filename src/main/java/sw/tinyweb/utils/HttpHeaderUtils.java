@@ -1,14 +1,13 @@
 package sw.tinyweb.utils;
 
 import java.io.PrintWriter;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
 
+import javax.annotation.Nullable;
 import javax.servlet.http.Cookie;
 
 import sw.tinyweb.HttpStatusCodes;
@@ -39,6 +38,93 @@ public class HttpHeaderUtils {
         return globalInstance;
     }
 
+    /**
+     * Extract all cookies from a <code>Cookie</code> request header.
+     *
+     * <p>
+     * For example, <code>Cookie: jsessionid=12; theme="dark"</code>
+     * </p>
+     *
+     * <p>
+     * RFC 2109 attributes (eg. <code>$Path</code>) and malformed
+     * name/value pairs are ignored.
+     * </p>
+     *
+     * @param aText
+     *            The text from the HTTP header
+     * @param aList
+     *            The list to which the cookies are added
+     *
+     * @see #findCookieValue(String, String)
+     */
+    public void parseCookies(String aText, List<Cookie> aList) {
+        final int len = aText.length();
+
+        int pos = 0;
+        while (pos < len) {
+            int end = aText.indexOf(';', pos);
+            if (end < 0) {
+                end = len;
+            }
+
+            final int ipos = aText.indexOf('=', pos);
+            if ((ipos > -1) && (ipos < end)) {
+                final String name = aText.substring(pos, ipos).trim();
+                if ((name.length() > 0) && (name.charAt(0) != '$')) {
+                    try {
+                        aList.add(new TinyWebCookie(name, this.parseCookieValue(aText, ipos + 1, end)));
+                    } catch (final IllegalArgumentException e) {
+                        // ignore reserved or invalid cookie names
+                    }
+                }
+            }
+
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * Find the value of the stated cookie.
+     *
+     * <p>
+     * Scans the <code>Cookie</code> request header without creating
+     * objects for the other cookies.
+     * </p>
+     *
+     * @param aText
+     *            The text from the HTTP header
+     * @param aName
+     *            The cookie identifier
+     * @return the value or null (not found)
+     *
+     * @see #parseCookies(String, List)
+     */
+    @Nullable
+    public String findCookieValue(String aText, String aName) {
+        final int len = aText.length();
+        final int nameLen = aName.length();
+
+        int pos = 0;
+        while (pos < len) {
+            int end = aText.indexOf(';', pos);
+            if (end < 0) {
+                end = len;
+            }
+
+            final int start = skipWhitespace(aText, pos, end);
+            if (aText.startsWith(aName, start)) {
+                final int ipos = skipWhitespace(aText, start + nameLen, end);
+                if ((ipos < end) && (aText.charAt(ipos) == '=')) {
+                    return this.parseCookieValue(aText, ipos + 1, end);
+                }
+            }
+
+            pos = end + 1;
+        }
+
+        return null;
+    }
+
     /**
      * Extract the cookie.
      *
@@ -47,7 +133,11 @@ public class HttpHeaderUtils {
      * @return the new cookie
      * @throws TinyWebException
      *             when the cookie information is rejected
+     *
+     * @deprecated Only returns the first cookie of a <code>Cookie</code>
+     *             header; replaced by {@link #parseCookies(String, List)}
      */
+    @Deprecated
     public Cookie parseCookie(String aText) throws TinyWebException {
         TinyWebCookie cookie = null;
 
@@ -102,58 +192,84 @@ public class HttpHeaderUtils {
      * @param aLocale
      *            The target locale
      *
-     * @see #formatDate(Date, Locale)
+     * @see #formatSetCookie(Cookie, Locale)
      */
     public void writeSetCookie(PrintWriter aWriter, Cookie aCookie, Locale aLocale) {
         aWriter.print("Set-Cookie: ");
-        aWriter.print(aCookie.getName());
-        aWriter.print("=");
-        aWriter.print(aCookie.getValue());
+        aWriter.println(this.formatSetCookie(aCookie, aLocale));
+    }
+
+    /**
+     * Create the value of a Set-Cookie directive.
+     *
+     * <p>
+     * For example, <code>jsessionid=12; Path=/; HttpOnly</code>
+     * </p>
+     *
+     * @param aCookie
+     *            The cookie
+     * @param aLocale
+     *            The target locale
+     * @return the header value
+     *
+     * @see HttpDateCodec#format(long)
+     */
+    public String formatSetCookie(Cookie aCookie, Locale aLocale) {
+        final StringBuilder sb = new StringBuilder(64);
+        sb.append(aCookie.getName());
+        sb.append('=');
+        sb.append(aCookie.getValue());
 
         if (aCookie.getMaxAge() > 0) {
-            final Date expires = new Date(System.currentTimeMillis() + (aCookie.getMaxAge() * 1000));
-            aWriter.print("; Expires=");
-            aWriter.print(this.formatDate(expires, aLocale));
+            final long expires = System.currentTimeMillis() + (aCookie.getMaxAge() * 1000L);
+            sb.append("; Expires=");
+            sb.append(HttpDateCodec.format(expires));
         }
 
         if (aCookie.getPath() != null) {
-            aWriter.print("; Path=");
-            aWriter.print(aCookie.getPath());
+            sb.append("; Path=");
+            sb.append(aCookie.getPath());
         }
 
         if (aCookie.getDomain() != null) {
-            aWriter.print("; Domain=");
-            aWriter.print(aCookie.getDomain());
+            sb.append("; Domain=");
+            sb.append(aCookie.getDomain());
         }
 
         if (aCookie.getVersion() > 0) {
-            aWriter.print("; Version=");
-            aWriter.print(aCookie.getVersion());
+            sb.append("; Version=");
+            sb.append(aCookie.getVersion());
         }
 
         if (aCookie.getSecure()) {
-            aWriter.print("; Secure");
+            sb.append("; Secure");
         }
 
         if ((aCookie instanceof TinyWebCookie) && ((TinyWebCookie) aCookie).isHttpOnly()) {
-            aWriter.print("; HttpOnly");
+            sb.append("; HttpOnly");
         }
 
-        aWriter.println();
+        return sb.toString();
     }
 
     /**
      * Format the date as a <a href="http://tools.ietf.org/html/rfc1123">RFC1123</a> string.
      *
+     * <p>
+     * HTTP dates are always GMT with English day and month names,
+     * so the locale is ignored.
+     * </p>
+     *
      * @param aTime
      *            The date to be formatted
      * @param aLocale
      *            The target locale
      * @return the formatted date
+     *
+     * @see HttpDateCodec#format(long)
      */
     public String formatDate(Date aTime, Locale aLocale) {
-        final SimpleDateFormat df = new SimpleDateFormat(RFC1123_DATE_FORMAT, aLocale);
-        return df.format(aTime);
+        return HttpDateCodec.format(aTime.getTime());
     }
 
     /**
@@ -164,23 +280,16 @@ public class HttpHeaderUtils {
      * @return the date
      * @throws TinyWebException
      *             when the date cannot be created
+     *
+     * @see HttpDateCodec#parse(CharSequence)
      */
     public Date parseDate(String aText) throws TinyWebException {
-        SimpleDateFormat fmt = new SimpleDateFormat(RFC1123_DATE_FORMAT);
-        try {
-            return fmt.parse(aText);
-
-        } catch (final ParseException e) {
-            // ignore
+        final long time = HttpDateCodec.parse(aText);
+        if (time == -1) {
+            throw new TinyWebException(HttpStatusCodes.BAD_REQUEST, "Invalid date field: " + aText);
         }
 
-        fmt = new SimpleDateFormat();
-        try {
-            return fmt.parse(aText);
-
-        } catch (final ParseException e) {
-            throw new TinyWebException(HttpStatusCodes.BAD_REQUEST, "Invalid date field: " + aText, e);
-        }
+        return new Date(time);
     }
 
     /**
@@ -218,6 +327,40 @@ public class HttpHeaderUtils {
         return languages;
     }
 
+    /**
+     * Extract a cookie value, removing white-space and enclosing quotes.
+     *
+     * @param aText
+     *            The header text
+     * @param aStart
+     *            The first character of the value
+     * @param aEnd
+     *            The end of the value (exclusive)
+     * @return the value
+     */
+    private String parseCookieValue(String aText, int aStart, int aEnd) {
+        int start = skipWhitespace(aText, aStart, aEnd);
+        int end = aEnd;
+        while ((end > start) && (aText.charAt(end - 1) <= ' ')) {
+            end--;
+        }
+
+        if ((end - start >= 2) && (aText.charAt(start) == '"') && (aText.charAt(end - 1) == '"')) {
+            start++;
+            end--;
+        }
+
+        return aText.substring(start, end);
+    }
+
+    private static int skipWhitespace(String aText, int aPos, int aEnd) {
+        int i = aPos;
+        while ((i < aEnd) && (aText.charAt(i) <= ' ')) {
+            i++;
+        }
+        return i;
+    }
+
     /**
      * Remove enclosing quotes.
      *
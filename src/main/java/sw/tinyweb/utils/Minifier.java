@@ -0,0 +1,241 @@
+package sw.tinyweb.utils;
+
+/**
+ * Removes comments and redundant white space from CSS and JavaScript.
+ *
+ * <p>
+ * Deliberately conservative; the result always behaves like the source.
+ * Strings, regular expressions and licence comments (<code>/*!</code>,
+ * or containing "Copyright" or "@license") are kept as they are.
+ * JavaScript line breaks are kept, so automatic semicolon insertion
+ * still applies.
+ * </p>
+ */
+public final class Minifier {
+
+    /** White space around these characters is never needed. */
+    private static final String CSS_PUNCTUATION = "{};,>";
+
+    private static final String JS_PUNCTUATION = "{}();,=:[]?!&|";
+
+    /** A regular expression, rather than division, may follow these characters. */
+    private static final String JS_REGEX_PREFIX = "(,=:[!&|?{};+-*%<>~^";
+
+    private Minifier() {
+        // static methods only
+    }
+
+    /**
+     * Minify a style sheet.
+     *
+     * @param aSource
+     *            The CSS
+     * @return the minified CSS
+     */
+    public static String css(String aSource) {
+        final StringBuilder out = new StringBuilder(aSource.length());
+        boolean space = false;
+
+        int i = 0;
+        final int n = aSource.length();
+        while (i < n) {
+            final char c = aSource.charAt(i);
+
+            if ((c == '/') && (i + 1 < n) && (aSource.charAt(i + 1) == '*')) {
+                int end = aSource.indexOf("*/", i + 2);
+                end = (end < 0) ? n : end + 2;
+
+                if (isLicence(aSource, i, end)) {
+                    out.append(aSource, i, end).append('\n');
+                    space = false;
+                } else {
+                    space = true;
+                }
+                i = end;
+                continue;
+            }
+
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+
+            if (space && (out.length() > 0)) {
+                final char last = out.charAt(out.length() - 1);
+                if ((CSS_PUNCTUATION.indexOf(last) < 0) && (last != ':') && (last != '(') && (last != '\n')
+                        && (CSS_PUNCTUATION.indexOf(c) < 0) && (c != ')')) {
+                    out.append(' ');
+                }
+            }
+            space = false;
+
+            if ((c == '}') && (out.length() > 0) && (out.charAt(out.length() - 1) == ';')) {
+                out.setLength(out.length() - 1);
+            }
+
+            if ((c == '"') || (c == '\'')) {
+                i = copyString(aSource, i, out);
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Minify a script.
+     *
+     * @param aSource
+     *            The JavaScript
+     * @return the minified JavaScript
+     */
+    public static String javaScript(String aSource) {
+        final StringBuilder out = new StringBuilder(aSource.length());
+        char pending = 0; // ' ' or '\n'
+
+        int i = 0;
+        final int n = aSource.length();
+        while (i < n) {
+            final char c = aSource.charAt(i);
+            final char next = (i + 1 < n) ? aSource.charAt(i + 1) : 0;
+
+            if ((c == '/') && (next == '/')) {
+                final int end = aSource.indexOf('\n', i);
+                i = (end < 0) ? n : end;
+                continue;
+            }
+
+            if ((c == '/') && (next == '*')) {
+                int end = aSource.indexOf("*/", i + 2);
+                end = (end < 0) ? n : end + 2;
+
+                if (isLicence(aSource, i, end)) {
+                    if (out.length() > 0) {
+                        out.append('\n');
+                    }
+                    out.append(aSource, i, end);
+                    pending = '\n';
+                } else if (aSource.substring(i, end).indexOf('\n') > -1) {
+                    pending = '\n';
+                } else if (pending == 0) {
+                    pending = ' ';
+                }
+                i = end;
+                continue;
+            }
+
+            if (Character.isWhitespace(c)) {
+                if (c == '\n') {
+                    pending = '\n';
+                } else if (pending == 0) {
+                    pending = ' ';
+                }
+                i++;
+                continue;
+            }
+
+            if ((pending != 0) && (out.length() > 0)) {
+                final char last = out.charAt(out.length() - 1);
+                if (pending == '\n') {
+                    out.append('\n');
+                } else if ((JS_PUNCTUATION.indexOf(last) < 0) && (JS_PUNCTUATION.indexOf(c) < 0)) {
+                    out.append(' ');
+                }
+            }
+            pending = 0;
+
+            if ((c == '"') || (c == '\'') || (c == '`')) {
+                i = copyString(aSource, i, out);
+            } else if ((c == '/') && isRegexAllowed(out)) {
+                i = copyRegex(aSource, i, out);
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+
+        return out.toString();
+    }
+
+    private static boolean isLicence(String aSource, int aStart, int aEnd) {
+        final String comment = aSource.substring(aStart, aEnd);
+        return comment.startsWith("/*!") || comment.contains("Copyright") || comment.contains("@license");
+    }
+
+    /** @return can a regular expression start here? */
+    private static boolean isRegexAllowed(StringBuilder aOut) {
+        int end = aOut.length();
+        while ((end > 0) && Character.isWhitespace(aOut.charAt(end - 1))) {
+            end--;
+        }
+        if (end == 0) {
+            return true;
+        }
+
+        final char last = aOut.charAt(end - 1);
+        if (JS_REGEX_PREFIX.indexOf(last) > -1) {
+            return true;
+        }
+
+        final String tail = aOut.substring(Math.max(0, end - 6), end);
+        return tail.endsWith("return") || tail.endsWith("typeof");
+    }
+
+    /**
+     * Copy a string literal.
+     *
+     * @return the index after the closing quote
+     */
+    private static int copyString(String aSource, int aStart, StringBuilder aOut) {
+        final char quote = aSource.charAt(aStart);
+        int i = aStart + 1;
+        while (i < aSource.length()) {
+            final char c = aSource.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            i++;
+            if ((c == quote) || ((c == '\n') && (quote != '`'))) {
+                break;
+            }
+        }
+
+        i = Math.min(i, aSource.length());
+        aOut.append(aSource, aStart, i);
+        return i;
+    }
+
+    /**
+     * Copy a regular expression literal, excluding its flags.
+     *
+     * @return the index after the closing '/'
+     */
+    private static int copyRegex(String aSource, int aStart, StringBuilder aOut) {
+        boolean inClass = false;
+        int i = aStart + 1;
+        while (i < aSource.length()) {
+            final char c = aSource.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            i++;
+            if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (((c == '/') && !inClass) || (c == '\n')) {
+                break;
+            }
+        }
+
+        i = Math.min(i, aSource.length());
+        aOut.append(aSource, aStart, i);
+        return i;
+    }
+
+}
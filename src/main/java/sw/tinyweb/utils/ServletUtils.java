@@ -1,9 +1,12 @@
 package sw.tinyweb.utils;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
@@ -64,7 +67,7 @@ public class ServletUtils {
      */
     public static void copyContent(InputStream aIn, OutputStream aOut)
             throws IOException {
-        final byte[] buf = new byte[1024];
+        final byte[] buf = new byte[4 * 1024];
         int n;
 
         while ((n = aIn.read(buf)) > -1) {
@@ -138,6 +141,89 @@ public class ServletUtils {
         return (mtype != null) ? mtype : "text/plain";
     }
 
+    /**
+     * Create a folder that only its owner can read, write or list.
+     *
+     * <p>
+     * Used for files the server trusts once written, which must not be
+     * stored where other users can write, eg. <code>java.io.tmpdir</code>.
+     * </p>
+     *
+     * @param aFolder
+     *            The folder; unchanged when it already exists
+     * @return false when the folder does not exist and cannot be created
+     */
+    public static boolean createPrivateFolder(File aFolder) {
+        if (aFolder.isDirectory()) {
+            return true;
+        }
+        if (!aFolder.mkdirs()) {
+            return aFolder.isDirectory(); // created meanwhile
+        }
+
+        aFolder.setReadable(false, false);
+        aFolder.setWritable(false, false);
+        aFolder.setExecutable(false, false);
+        aFolder.setReadable(true, true);
+        aFolder.setWritable(true, true);
+        aFolder.setExecutable(true, true);
+        return true;
+    }
+
+    /**
+     * Normalise a resource path, eg. "/js//./lib/../app.js" becomes "/js/app.js".
+     *
+     * <p>
+     * Empty and "." segments are removed, and ".." segments remove the
+     * segment before them; ".." never goes above the root. The result
+     * starts with "/", and has no trailing "/" (unless the root), so each
+     * resource has one path, as reported by {@link FolderWatcher}.
+     * </p>
+     *
+     * @param aPath
+     *            The path
+     * @return the normalised path
+     */
+    public static String normalizePath(String aPath) {
+        if (aPath.startsWith("/") && (aPath.indexOf("//") < 0) && (aPath.indexOf("/.") < 0)
+                && ((aPath.length() == 1) || !aPath.endsWith("/"))) {
+            return aPath; // already normalised
+        }
+
+        final List<String> segments = new ArrayList<String>();
+        for (final String s : aPath.split("/")) {
+            if ("..".equals(s)) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else if (!s.isEmpty() && !".".equals(s)) {
+                segments.add(s);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            return "/";
+        }
+
+        final StringBuilder sb = new StringBuilder(aPath.length());
+        for (final String s : segments) {
+            sb.append('/').append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the request path within the application context.
+     *
+     * @param aReq
+     *            The HTTP request
+     * @return the servlet path followed by the path info, eg. "/js/app.js"
+     */
+    public static String getRequestPath(HttpServletRequest aReq) {
+        final String pathInfo = aReq.getPathInfo();
+        return (pathInfo != null) ? aReq.getServletPath() + pathInfo : aReq.getServletPath();
+    }
+
     /**
      * Generate the correct URL for the stated action.
      *
@@ -0,0 +1,159 @@
+package sw.tinyweb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sw.tinyweb.utils.ETags;
+import sw.tinyweb.utils.FolderWatcher;
+
+/**
+ * <code>ResourceIndexSnapshot</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Files found in a loaded snapshot, excluding <code>WEB-INF</code>.
+ * <li>Snapshots for other servlet mappings are ignored.
+ * <li>Changed and deleted files invalidated.
+ * <li>Invalidated entries reported to resource listeners.
+ * </ol>
+ * </p>
+ */
+public class ResourceIndexSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFind() throws Exception {
+        final File home = this.createContent();
+        final File index = new File(this.folder.getRoot(), "index");
+        ResourceIndexSnapshot.write(index, home, mappings("DownloadFile"), ResourceIndexSnapshot.scan(home));
+
+        final ResourceIndexSnapshot snapshot = ResourceIndexSnapshot.load(index, home, mappings("DownloadFile"));
+        assertEquals(3, snapshot.size());
+
+        final File js = new File(home, "js/a.js");
+        final ResourceIndexSnapshot.Record r = snapshot.find("/js/a.js");
+        assertEquals(js.length(), r.getLength());
+        assertEquals(js.lastModified(), r.getLastModified());
+        assertEquals("text/javascript", r.getMimeType());
+        assertEquals(ETags.create(js.length(), js.lastModified()), r.getETag());
+
+        assertNotNull(snapshot.find("/index.html"));
+        assertNotNull(snapshot.find("/site.css"));
+        assertNull(snapshot.find("/js"));
+        assertNull(snapshot.find("/WEB-INF/web.xml"));
+        assertNull(snapshot.find("/missing.html"));
+    }
+
+    @Test
+    public void testMappingsChanged() throws Exception {
+        final File home = this.createContent();
+        final File index = new File(this.folder.getRoot(), "index");
+        ResourceIndexSnapshot.write(index, home, mappings("DownloadFile"), ResourceIndexSnapshot.scan(home));
+
+        assertNull(ResourceIndexSnapshot.load(index, home, mappings("Other")));
+        assertNull(ResourceIndexSnapshot.load(index, this.folder.getRoot(), mappings("DownloadFile")));
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        final File home = this.createContent();
+        final File index = new File(this.folder.getRoot(), "index");
+        ResourceIndexSnapshot.write(index, home, mappings("DownloadFile"), ResourceIndexSnapshot.scan(home));
+
+        final ResourceIndexSnapshot snapshot = ResourceIndexSnapshot.load(index, home, mappings("DownloadFile"));
+
+        write(new File(home, "js/a.js"), "changed content");
+        new File(home, "index.html").delete();
+
+        final List<ResourceIndexSnapshot.Record> current = ResourceIndexSnapshot.scan(home);
+        assertEquals(2, snapshot.validate(current).size());
+
+        assertNull(snapshot.find("/js/a.js"));
+        assertNull(snapshot.find("/index.html"));
+        assertNotNull(snapshot.find("/site.css"));
+    }
+
+    @Test
+    public void testReportChanges() throws Exception {
+        final File home = this.createContent();
+        final File index = new File(this.folder.getRoot(), "index");
+        ResourceIndexSnapshot.write(index, home, mappings("DownloadFile"), ResourceIndexSnapshot.scan(home));
+
+        // changed while the server was stopped
+        final File js = new File(home, "js/a.js");
+        final String indexedETag = ETags.create(js.length(), js.lastModified());
+        write(js, "changed content");
+
+        final TinyWebServletContext context = new TinyWebServletContext("/", "test", home);
+        try {
+            final List<String> reported = new ArrayList<String>();
+            context.addResourceListener(new FolderWatcher.Listener() {
+                @Override
+                public void resourceChanged(String aPath) {
+                    reported.add(aPath);
+                }
+
+                @Override
+                public void resourcesChanged() {
+                    // not expected
+                }
+            });
+
+            final ResourceIndexSnapshot snapshot = ResourceIndexSnapshot.load(index, home, mappings("DownloadFile"));
+            context.setResourceSnapshot(snapshot);
+            assertEquals(indexedETag, context.getResourceETag("/js/a.js"));
+
+            context.reportResourceChanges(snapshot.validate(ResourceIndexSnapshot.scan(home)));
+
+            assertTrue(reported.contains("/js/a.js"));
+            assertEquals(ETags.create(js.length(), js.lastModified()), context.getResourceETag("/js/a.js"));
+
+        } finally {
+            context.stopResourceWatcher();
+        }
+    }
+
+    private File createContent() throws Exception {
+        final File home = this.folder.newFolder("content");
+        new File(home, "js").mkdir();
+        new File(home, "WEB-INF").mkdir();
+
+        write(new File(home, "index.html"), "<html/>");
+        write(new File(home, "js/a.js"), "var a;");
+        write(new File(home, "site.css"), "body {}");
+        write(new File(home, "WEB-INF/web.xml"), "<web-app/>");
+        return home;
+    }
+
+    private static Map<String, String> mappings(String aServletName) {
+        final Map<String, String> m = new HashMap<String, String>();
+        m.put("*", aServletName);
+        return m;
+    }
+
+    private static void write(File aFile, String aContent) throws Exception {
+        final FileOutputStream out = new FileOutputStream(aFile);
+        try {
+            out.write(aContent.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+}
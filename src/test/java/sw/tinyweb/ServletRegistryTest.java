@@ -0,0 +1,96 @@
+package sw.tinyweb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+
+import org.junit.Test;
+
+/**
+ * <code>ServletRegistry</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Concurrent first requests initialise a servlet once.
+ * <li>Two servlet names of one class have their own instances.
+ * </ol>
+ * </p>
+ */
+public class ServletRegistryTest {
+
+    private static final AtomicInteger INITS = new AtomicInteger();
+
+    @Test
+    public void testConcurrentInit() throws Exception {
+        INITS.set(0);
+
+        final ServletRegistry registry = new ServletRegistry();
+        final TinyWebServletConfig config = new TinyWebServletConfig(SlowServlet.class);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        start.await();
+                        return registry.getServlet(config, null);
+                    }
+                }));
+            }
+            start.countDown();
+
+            final Object first = results.get(0).get();
+            for (final Future<Object> f : results) {
+                assertSame(first, f.get());
+            }
+            assertEquals(1, INITS.get());
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testServletNames() throws Exception {
+        final ServletRegistry registry = new ServletRegistry();
+        final TinyWebServletConfig a = new TinyWebServletConfig(SlowServlet.class, ExecutionOptions.NO_THREAD, "a");
+        final TinyWebServletConfig b = new TinyWebServletConfig(SlowServlet.class, ExecutionOptions.NO_THREAD, "b");
+
+        assertNotSame(registry.getServlet(a, null), registry.getServlet(b, null));
+        assertSame(registry.getServlet(a, null), registry.getServlet(a, null));
+    }
+
+    /**
+     * A servlet that takes a while to initialise.
+     */
+    public static class SlowServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void init() throws ServletException {
+            INITS.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package sw.tinyweb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * <code>ServletRouter</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Exact paths, then longest prefixes, then extensions, then the default.
+ * <li>Servlet path and path info of each kind of mapping.
+ * <li>No default mapping.
+ * </ol>
+ * </p>
+ */
+public class ServletRouterTest {
+
+    @Test
+    public void testPrecedence() {
+        final ServletRouter router = createRouter(true);
+
+        assertEquals("about", router.find("/about").getServletName());
+        assertEquals("files", router.find("/about/team").getServletName());
+        assertEquals("files", router.find("/aboutus").getServletName());
+        assertEquals("api", router.find("/api").getServletName());
+        assertEquals("api", router.find("/api/").getServletName());
+        assertEquals("users", router.find("/api/users").getServletName());
+        assertEquals("users", router.find("/api/users/42").getServletName());
+        assertEquals("status", router.find("/api/status").getServletName());
+        assertEquals("api", router.find("/api/usersx").getServletName());
+        assertEquals("api", router.find("/api/page.jsp").getServletName());
+        assertEquals("jsp", router.find("/page.jsp").getServletName());
+        assertEquals("jsp", router.find("/a/b.c/page.jsp").getServletName());
+        assertEquals("files", router.find("/a.jsp/page").getServletName());
+        assertEquals("files", router.find("/jsp").getServletName());
+        assertEquals("files", router.find("/").getServletName());
+    }
+
+    @Test
+    public void testPaths() {
+        final ServletRouter router = createRouter(true);
+
+        ServletRouter.Route r = router.find("/api/users/42");
+        assertEquals("/api/users", r.getServletPath("/api/users/42"));
+        assertEquals("/42", r.getPathInfo("/api/users/42"));
+
+        r = router.find("/api/users");
+        assertEquals("/api/users", r.getServletPath("/api/users"));
+        assertNull(r.getPathInfo("/api/users"));
+
+        r = router.find("/page.jsp");
+        assertEquals("/page.jsp", r.getServletPath("/page.jsp"));
+        assertNull(r.getPathInfo("/page.jsp"));
+
+        r = router.find("/css/site.css");
+        assertEquals("*", r.getPattern());
+        assertEquals("/css/site.css", r.getServletPath("/css/site.css"));
+        assertNull(r.getPathInfo("/css/site.css"));
+    }
+
+    @Test
+    public void testNoDefault() {
+        final ServletRouter router = createRouter(false);
+
+        assertNull(router.find("/css/site.css"));
+        assertEquals("about", router.find("/about").getServletName());
+
+        final Map<String, String> mappings = new HashMap<String, String>();
+        mappings.put("/*", "all");
+        final ServletRouter.Route r = new ServletRouter(mappings).find("/x/y");
+        assertEquals("all", r.getServletName());
+        assertEquals("", r.getServletPath("/x/y"));
+        assertEquals("/x/y", r.getPathInfo("/x/y"));
+    }
+
+    private static ServletRouter createRouter(boolean aDefault) {
+        final Map<String, String> mappings = new HashMap<String, String>();
+        mappings.put("/about", "about");
+        mappings.put("/api/*", "api");
+        mappings.put("/api/users/*", "users");
+        mappings.put("/api/status", "status");
+        mappings.put("*.jsp", "jsp");
+        if (aDefault) {
+            mappings.put("*", "files");
+        }
+        return new ServletRouter(mappings);
+    }
+
+}
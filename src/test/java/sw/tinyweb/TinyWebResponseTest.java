@@ -0,0 +1,349 @@
+package sw.tinyweb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sw.tinyweb.io.CachePolicy;
+import sw.tinyweb.io.CachePolicyTable;
+import sw.tinyweb.io.CompressionPolicy;
+import sw.tinyweb.utils.ServletUtils;
+
+/**
+ * <code>TinyWebResponse</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Response head encoding.
+ * <li>Chunked responses.
+ * <li>Automatic <code>Content-Length</code> for buffered responses.
+ * <li>Gathering writes.
+ * <li>Compressed responses, buffered and chunked.
+ * <li>File transfers.
+ * <li>Direct buffer transfers, sent with the response head.
+ * <li>Error responses.
+ * <li><code>Cache-Control</code> from the cache policy table.
+ * </ol>
+ * </p>
+ */
+public class TinyWebResponseTest {
+
+    /** Channel that records the data written and the number of writes. */
+    private static class RecordingChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        int writes;
+
+        @Override
+        public long write(ByteBuffer[] aSrcs, int aOffset, int aLength) throws IOException {
+            this.writes++;
+
+            long n = 0;
+            for (int i = aOffset; i < aOffset + aLength; i++) {
+                while (aSrcs[i].hasRemaining()) {
+                    this.data.write(aSrcs[i].get());
+                    n++;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] aSrcs) throws IOException {
+            return this.write(aSrcs, 0, aSrcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer aSrc) throws IOException {
+            return (int) this.write(new ByteBuffer[] { aSrc });
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // ignore
+        }
+
+        @Override
+        public String toString() {
+            return new String(this.data.toByteArray());
+        }
+    }
+
+    @Before
+    public void setUp() {
+        // test results must not depend on the machine load
+        final CompressionPolicy policy = new CompressionPolicy();
+        policy.setAdaptive(false);
+        CompressionPolicy.setInstance(policy);
+    }
+
+    @After
+    public void tearDown() {
+        CompressionPolicy.setInstance(null);
+        CachePolicyTable.setInstance(null);
+    }
+
+    @Test
+    public void testChunkedResponse() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final TinyWebResponse resp = new TinyWebResponse(new TinyWebRequest(), out);
+
+        resp.getOutputStream().write("hello".getBytes("UTF-8"));
+        resp.flushBuffer();
+        resp.closeStream();
+
+        final String s = new String(out.toByteArray(), "UTF-8");
+        assertTrue(s, s.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(s, s.contains("\r\nDate: "));
+        assertTrue(s, s.contains("\r\nContent-Type: text/html\r\n"));
+        assertTrue(s, s.contains("\r\nTransfer-Encoding: chunked\r\n"));
+        assertTrue(s, s.endsWith("\r\n\r\n5\r\nhello\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    public void testGatheringWrite() throws Exception {
+        final RecordingChannel channel = new RecordingChannel();
+        final TinyWebResponse resp = new TinyWebResponse(new TinyWebRequest(), channel);
+
+        final byte[] data = new byte[30];
+        resp.setBufferSize(16);
+        resp.getOutputStream().write(data, 0, 16);
+        resp.getOutputStream().write(data, 16, 14);
+        resp.closeStream();
+
+        // head, chunk header and data, then chunk header, data and EOF chunk
+        assertEquals(2, channel.writes);
+        assertTrue(channel.toString(), channel.toString().endsWith("\r\n\r\n10\r\n" + new String(data, 0, 16)
+                + "\r\ne\r\n" + new String(data, 16, 14) + "\r\n0\r\n\r\n"));
+    }
+
+    @Test
+    public void testContentLength() throws Exception {
+        final RecordingChannel channel = new RecordingChannel();
+        final TinyWebResponse resp = new TinyWebResponse(new TinyWebRequest(), channel);
+
+        final PrintWriter writer = resp.getWriter();
+        writer.print("caf\u00e9");
+        writer.close();
+        resp.closeStream();
+        resp.closeStream();
+
+        final String s = new String(channel.data.toByteArray(), "UTF-8");
+        assertEquals(1, channel.writes);
+        assertTrue(s, s.contains("\r\nContent-Length: 5\r\n"));
+        assertFalse(s, s.contains("Transfer-Encoding"));
+        assertTrue(s, s.endsWith("\r\n\r\ncaf\u00e9"));
+    }
+
+    @Test
+    public void testCompressedResponse() throws Exception {
+        final TinyWebRequest req = new TinyWebRequest();
+        req.addHeader("Accept-Encoding", "gzip, deflate");
+
+        final RecordingChannel channel = new RecordingChannel();
+        final TinyWebResponse resp = new TinyWebResponse(req, channel);
+
+        final String text = repeat("<p>Hello world</p>\r\n", 200);
+        resp.getWriter().print(text);
+        resp.closeStream();
+
+        final byte[] data = channel.data.toByteArray();
+        final int body = indexOfBody(data);
+        final String head = new String(data, 0, body, "ISO-8859-1");
+
+        assertTrue(head, head.contains("\r\nContent-Encoding: gzip\r\n"));
+        assertTrue(head, head.contains("\r\nVary: Accept-Encoding\r\n"));
+        assertTrue(head, head.contains("\r\nContent-Length: " + (data.length - body) + "\r\n"));
+        assertTrue(head, (data.length - body) < (text.length() / 5));
+
+        final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data, body, data.length - body));
+        assertEquals(text, new String(readAll(in), "UTF-8"));
+    }
+
+    @Test
+    public void testCompressedChunkedResponse() throws Exception {
+        final TinyWebRequest req = new TinyWebRequest();
+        req.addHeader("Accept-Encoding", "deflate");
+
+        final RecordingChannel channel = new RecordingChannel();
+        final TinyWebResponse resp = new TinyWebResponse(req, channel);
+        resp.setContentType("application/json");
+
+        final String text = repeat("{\"name\": \"value\"},\n", 2000);
+        resp.getOutputStream().write(text.getBytes("UTF-8"));
+        resp.closeStream();
+
+        final byte[] data = channel.data.toByteArray();
+        final int body = indexOfBody(data);
+        final String head = new String(data, 0, body, "ISO-8859-1");
+
+        assertTrue(head, head.contains("\r\nContent-Encoding: deflate\r\n"));
+        assertTrue(head, head.contains("\r\nTransfer-Encoding: chunked\r\n"));
+        assertFalse(head, head.contains("Content-Length"));
+
+        final InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(dechunk(data, body)));
+        assertEquals(text, new String(readAll(in), "UTF-8"));
+    }
+
+    @Test
+    public void testTransferFrom() throws Exception {
+        final File f = File.createTempFile("tinyweb", ".bin");
+        f.deleteOnExit();
+
+        final FileOutputStream fout = new FileOutputStream(f);
+        fout.write("0123456789".getBytes("US-ASCII"));
+        fout.close();
+
+        final RecordingChannel channel = new RecordingChannel();
+        final TinyWebResponse resp = new TinyWebResponse(new TinyWebRequest(), channel);
+        resp.setContentType("application/octet-stream");
+        resp.setContentLength(4);
+
+        final FileInputStream in = new FileInputStream(f);
+        try {
+            resp.transferFrom(in.getChannel(), 3, 4);
+        } finally {
+            in.close();
+        }
+        resp.closeStream();
+
+        final String s = channel.toString();
+        assertTrue(s, s.contains("\r\nContent-Length: 4\r\n"));
+        assertTrue(s, s.endsWith("\r\n\r\n3456"));
+    }
+
+    @Test
+    public void testTransferFromBuffer() throws Exception {
+        final ByteBuffer content = ByteBuffer.allocateDirect(5);
+        content.put("hello".getBytes("US-ASCII"));
+        content.flip();
+
+        final RecordingChannel channel = new RecordingChannel();
+        final TinyWebResponse resp = new TinyWebResponse(new TinyWebRequest(), channel);
+        resp.setContentType("application/octet-stream");
+        resp.setContentLength(5);
+
+        resp.transferFrom(content);
+        resp.closeStream();
+
+        final String s = channel.toString();
+        assertTrue(s, s.contains("\r\nContent-Length: 5\r\n"));
+        assertTrue(s, s.endsWith("\r\n\r\nhello"));
+        assertEquals(1, channel.writes);
+        assertFalse(content.hasRemaining());
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        final RecordingChannel channel = new RecordingChannel();
+        final TinyWebResponse resp = new TinyWebResponse(new TinyWebRequest(), channel);
+
+        final PrintWriter writer = resp.getWriter();
+        writer.print("ignored");
+        resp.resetBuffer();
+        resp.sendError(404, "Cannot find\r\nresource");
+
+        final String s = channel.toString();
+        assertTrue(s, s.startsWith("HTTP/1.1 404 Cannot find  resource\r\nDate: "));
+        assertTrue(s, s.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    public void testCachePolicy() throws Exception {
+        final CachePolicyTable table = new CachePolicyTable();
+        table.add("/api/*", "application/json", CachePolicy.NO_STORE);
+        CachePolicyTable.setInstance(table);
+
+        final TinyWebRequest req = new TinyWebRequest();
+        req.setServletPath("/api/users");
+
+        RecordingChannel channel = new RecordingChannel();
+        TinyWebResponse resp = new TinyWebResponse(req, channel);
+        resp.setContentType("application/json");
+        resp.getWriter().print("[]");
+        resp.closeStream();
+        assertTrue(channel.toString(), channel.toString().contains("\r\nCache-Control: no-store\r\n"));
+
+        // set by the servlet
+        channel = new RecordingChannel();
+        resp = new TinyWebResponse(req, channel);
+        resp.setContentType("application/json");
+        resp.setHeader("Cache-Control", "max-age=5");
+        resp.closeStream();
+        assertTrue(channel.toString(), channel.toString().contains("\r\nCache-Control: max-age=5\r\n"));
+
+        // errors are not cached
+        channel = new RecordingChannel();
+        resp = new TinyWebResponse(req, channel);
+        resp.setContentType("application/json");
+        resp.sendError(500, "Failed");
+        assertFalse(channel.toString(), channel.toString().contains("Cache-Control"));
+    }
+
+    private static String repeat(String aText, int aCount) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < aCount; i++) {
+            sb.append(aText);
+        }
+        return sb.toString();
+    }
+
+    private static int indexOfBody(byte[] aData) {
+        for (int i = 3; i < aData.length; i++) {
+            if ((aData[i - 3] == '\r') && (aData[i - 2] == '\n') && (aData[i - 1] == '\r') && (aData[i] == '\n')) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] dechunk(byte[] aData, int aOffset) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int pos = aOffset;
+        while (true) {
+            int size = 0;
+            for (; aData[pos] != '\r'; pos++) {
+                size = (size * 16) + Character.digit(aData[pos], 16);
+            }
+            pos += 2;
+
+            if (size == 0) {
+                return out.toByteArray();
+            }
+
+            out.write(aData, pos, size);
+            pos += size + 2;
+        }
+    }
+
+    private static byte[] readAll(InputStream aIn) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ServletUtils.copyContent(aIn, out);
+        return out.toByteArray();
+    }
+
+}
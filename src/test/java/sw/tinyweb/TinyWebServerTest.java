@@ -0,0 +1,160 @@
+package sw.tinyweb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <code>TinyWebServer</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Servlets loaded on start up in order; servlets of one order in parallel.
+ * <li>A failed servlet stops the start up; loaded servlets are destroyed, listeners informed.
+ * </ol>
+ * </p>
+ */
+public class TinyWebServerTest {
+
+    private static final List<String> EVENTS = new ArrayList<String>();
+
+    private static CyclicBarrier barrier;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        synchronized (EVENTS) {
+            EVENTS.clear();
+        }
+        barrier = new CyclicBarrier(2);
+    }
+
+    @Test
+    public void testLoadOnStartup() throws Exception {
+        final TinyWebServer server = new TinyWebServer(0, this.folder.getRoot());
+        server.addServletConfiguration(createConfig("last", 5, false));
+        server.addServletConfiguration(createConfig("a", 1, true));
+        server.addServletConfiguration(createConfig("b", 1, true));
+        server.addServletConfiguration(createConfig("lazy", -1, false));
+
+        server.loadServletsOnStartup(new TinyWebServletContext("/", "test", this.folder.getRoot()));
+
+        // "a" and "b" wait for each other, so only load in parallel
+        final List<String> events = getEvents();
+        assertEquals(3, events.size());
+        assertEquals(new HashSet<String>(Arrays.asList("init a", "init b")), new HashSet<String>(events.subList(0, 2)));
+        assertEquals("init last", events.get(2));
+    }
+
+    @Test
+    public void testLoadOnStartupFailure() throws Exception {
+        final TinyWebServer server = new TinyWebServer(0, this.folder.getRoot());
+        server.setResourceIndexFile(null);
+        server.addServletConfiguration(createConfig("first", 1, false));
+        server.addServletConfiguration(createConfig("failed", 2, false));
+        server.addServletConfiguration(createConfig("last", 3, false));
+        server.addServletContextListener(new ServletContextListener() {
+            @Override
+            public void contextInitialized(ServletContextEvent aEvent) {
+                record("context initialized");
+            }
+
+            @Override
+            public void contextDestroyed(ServletContextEvent aEvent) {
+                record("context destroyed");
+            }
+        });
+
+        // returns without listening
+        server.run();
+
+        assertEquals(Arrays.asList("context initialized", "init first", "init failed", "destroy first", "context destroyed"),
+                getEvents());
+    }
+
+    @Test
+    public void testLoadOnStartupException() throws Exception {
+        final TinyWebServer server = new TinyWebServer(0, this.folder.getRoot());
+        server.addServletConfiguration(createConfig("failed", 1, false));
+
+        try {
+            server.loadServletsOnStartup(new TinyWebServletContext("/", "test", this.folder.getRoot()));
+            fail("Servlet loaded");
+        } catch (final ServletException e) {
+            assertTrue(e.getMessage().contains("failed"));
+        }
+        assertFalse(getEvents().contains("destroy failed"));
+    }
+
+    private static TinyWebServletConfig createConfig(String aName, int aOrder, boolean aParallel) {
+        final TinyWebServletConfig config = new TinyWebServletConfig(RecordingServlet.class, ExecutionOptions.NO_THREAD, aName);
+        config.setLoadOnStartup(aOrder);
+        if (aParallel) {
+            config.addInitParam("parallel", "true");
+        }
+        return config;
+    }
+
+    private static void record(String aEvent) {
+        synchronized (EVENTS) {
+            EVENTS.add(aEvent);
+        }
+    }
+
+    private static List<String> getEvents() {
+        synchronized (EVENTS) {
+            return new ArrayList<String>(EVENTS);
+        }
+    }
+
+    /**
+     * Records its life cycle; fails to initialise when named "failed".
+     */
+    public static class RecordingServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void init() throws ServletException {
+            if ("true".equals(this.getInitParameter("parallel"))) {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (final Exception e) {
+                    throw new ServletException("Not loaded in parallel", e);
+                }
+            }
+
+            record("init " + this.getServletName());
+
+            if ("failed".equals(this.getServletName())) {
+                throw new ServletException("Cannot initialise");
+            }
+        }
+
+        @Override
+        public void destroy() {
+            record("destroy " + this.getServletName());
+        }
+    }
+
+}
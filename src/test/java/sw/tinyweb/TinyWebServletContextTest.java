@@ -0,0 +1,165 @@
+package sw.tinyweb;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <code>TinyWebServletContext</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Missing resources remembered until their time to live passes.
+ * <li>Resources remembered until their time to live passes when changes are not watched.
+ * <li>Requests for many missing resources do not evict resources found.
+ * <li>A change reported while a resource is resolved is not lost.
+ * <li>A change reported for a resource applies to every path it was requested with.
+ * </ol>
+ * </p>
+ */
+public class TinyWebServletContextTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TinyWebServletContext context;
+
+    private File home;
+
+    @Before
+    public void setUp() throws Exception {
+        this.home = this.folder.newFolder("home");
+        new File(this.home, "a.js").createNewFile();
+
+        this.context = new TinyWebServletContext("/", "test", this.home);
+    }
+
+    @After
+    public void tearDown() {
+        this.context.stopResourceWatcher();
+    }
+
+    @Test
+    public void testMissingResourceTTL() throws Exception {
+        this.stopWatching();
+
+        assertNull(this.context.getResource("/b.js"));
+        new File(this.home, "b.js").createNewFile();
+        assertNull(this.context.getResource("/b.js"));
+
+        this.context.missingResourceTTL = 0;
+        assertNull(this.context.getResource("/c.js"));
+        new File(this.home, "c.js").createNewFile();
+        assertNotNull(this.context.getResource("/c.js"));
+    }
+
+    @Test
+    public void testUnwatchedResourceTTL() throws Exception {
+        this.stopWatching();
+        this.context.unwatchedResourceTTL = TimeUnit.HOURS.toNanos(1);
+
+        assertNotNull(this.context.getResource("/a.js"));
+        assertTrue(new File(this.home, "a.js").delete());
+        assertNotNull(this.context.getResource("/a.js"));
+
+        this.context.unwatchedResourceTTL = 0;
+        new File(this.home, "b.js").createNewFile();
+        assertNotNull(this.context.getResource("/b.js"));
+        assertTrue(new File(this.home, "b.js").delete());
+        assertNull(this.context.getResource("/b.js"));
+    }
+
+    @Test
+    public void testMissingResourcesBounded() throws Exception {
+        this.stopWatching();
+        this.context.unwatchedResourceTTL = TimeUnit.HOURS.toNanos(1);
+
+        assertNotNull(this.context.getResource("/a.js"));
+        assertTrue(new File(this.home, "a.js").delete());
+
+        for (int i = 0; i < 5000; i++) {
+            assertNull(this.context.getResource("/missing" + i + ".js"));
+        }
+
+        // still cached
+        assertNotNull(this.context.getResource("/a.js"));
+    }
+
+    @Test
+    public void testChangeWhileResolving() throws Exception {
+        final File created = new File(this.home, "new.js");
+
+        // the file is created, and reported, after it was found missing
+        final AppenderSkeleton appender = new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent aEvent) {
+                if (!created.exists() && String.valueOf(aEvent.getMessage()).endsWith("/new.js")) {
+                    try {
+                        created.createNewFile();
+                    } catch (final IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    context.reportResourceChanges(Collections.singletonList("/new.js"));
+                }
+            }
+
+            @Override
+            public boolean requiresLayout() {
+                return false;
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+
+        final Logger logger = Logger.getLogger(TinyWebServletContext.class);
+        logger.addAppender(appender);
+        try {
+            assertNull(this.context.getResource("/new.js"));
+        } finally {
+            logger.removeAppender(appender);
+        }
+
+        assertNotNull(this.context.getResource("/new.js"));
+    }
+
+    @Test
+    public void testAliasPaths() throws Exception {
+        final File js = new File(this.home, "js/b.js");
+        js.getParentFile().mkdir();
+        js.createNewFile();
+
+        assertNotNull(this.context.getResource("/js//b.js"));
+        assertNotNull(this.context.getResource("/./js/lib/../b.js"));
+
+        assertTrue(js.delete());
+        this.context.reportResourceChanges(Collections.singletonList("/js/b.js"));
+
+        assertNull(this.context.getResource("/js//b.js"));
+        assertNull(this.context.getResource("/./js/lib/../b.js"));
+    }
+
+    /** Resolve a resource, so the context watches for changes, then stop watching. */
+    private void stopWatching() throws Exception {
+        assertNotNull(this.context.getResource("/"));
+        this.context.stopResourceWatcher();
+    }
+
+}
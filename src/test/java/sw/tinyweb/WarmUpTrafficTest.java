@@ -0,0 +1,165 @@
+package sw.tinyweb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.CompilationMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <code>WarmUpTraffic</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Request lines and access log lines loaded; other methods ignored.
+ * <li>Replay stops when compilation settles, after the minimum requests.
+ * <li>Replay stops after the minimum requests when compilation is not monitored.
+ * <li>Replay stops when the maximum duration passes.
+ * </ol>
+ * </p>
+ */
+public class WarmUpTrafficTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoad() throws Exception {
+        final File sample = this.folder.newFile("traffic.txt");
+        final FileOutputStream out = new FileOutputStream(sample);
+        try {
+            out.write(("# sample\n"
+                    + "GET /index.html\n"
+                    + "\n"
+                    + "127.0.0.1 - - [18/Oct/2026:10:00:00 +0000] \"GET /css/site.css?v=2 HTTP/1.1\" 200 2642\n"
+                    + "127.0.0.1 - - [18/Oct/2026:10:00:01 +0000] \"POST /api/orders HTTP/1.1\" 201 12\n"
+                    + "DELETE /api/orders/42\n"
+                    + "PUT /api/orders/43 HTTP/1.1\n"
+                    + "HEAD /js/app.js HTTP/1.1\n"
+                    + "GET index.html\n").getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+
+        final WarmUpTraffic traffic = new WarmUpTraffic();
+        assertEquals(3, traffic.load(sample));
+        assertEquals(3, traffic.size());
+
+        final List<String> lines = new ArrayList<String>();
+        for (final byte[] r : traffic.getRequests()) {
+            final String request = new String(r, StandardCharsets.ISO_8859_1);
+            assertTrue(request, request.endsWith("\r\n\r\n"));
+            lines.add(request.substring(0, request.indexOf("\r\n")));
+        }
+
+        assertEquals("GET /index.html HTTP/1.1", lines.get(0));
+        assertEquals("GET /css/site.css?v=2 HTTP/1.1", lines.get(1));
+        assertEquals("HEAD /js/app.js HTTP/1.1", lines.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddUnsafeMethod() {
+        new WarmUpTraffic().add("POST", "/api/orders");
+    }
+
+    @Test
+    public void testCompilationSettled() {
+        final WarmUpTraffic traffic = createTraffic(2000);
+
+        // compiles during the first 3 checks, then nothing
+        final FakeCompiler jit = new FakeCompiler(3);
+        final int count = traffic.replay(new CountingReplayer(), jit);
+
+        assertEquals(2000 + ((3 - 1 + WarmUpTraffic.QUIET_CHECKS) * WarmUpTraffic.CHECK_INTERVAL), count);
+        assertEquals(3 + WarmUpTraffic.QUIET_CHECKS, jit.checks);
+    }
+
+    @Test
+    public void testNotMonitored() {
+        final WarmUpTraffic traffic = createTraffic(2500);
+        final CountingReplayer replayer = new CountingReplayer();
+
+        assertEquals(3000, traffic.replay(replayer, null));
+        assertEquals(3000, replayer.count);
+    }
+
+    @Test
+    public void testMaximumDuration() {
+        final WarmUpTraffic traffic = createTraffic(Integer.MAX_VALUE);
+        traffic.setMaximumDuration(100);
+
+        final long start = System.currentTimeMillis();
+        final int count = traffic.replay(new CountingReplayer(), new FakeCompiler(Integer.MAX_VALUE));
+
+        assertTrue(count > 0);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    private static WarmUpTraffic createTraffic(int aMinimumRequests) {
+        final WarmUpTraffic traffic = new WarmUpTraffic();
+        traffic.add("GET", "/a.html");
+        traffic.add("HEAD", "/b.html");
+        traffic.setMinimumRequests(aMinimumRequests);
+        return traffic;
+    }
+
+    /**
+     * Counts replayed requests.
+     */
+    private static final class CountingReplayer implements WarmUpTraffic.Replayer {
+
+        int count;
+
+        @Override
+        public void replay(byte[] aRequest) {
+            this.count++;
+        }
+    }
+
+    /**
+     * Reports compilation for a number of checks, then none.
+     */
+    private static final class FakeCompiler implements CompilationMXBean {
+
+        int checks;
+
+        private final int compilingChecks;
+
+        FakeCompiler(int aCompilingChecks) {
+            this.compilingChecks = aCompilingChecks;
+        }
+
+        @Override
+        public long getTotalCompilationTime() {
+            this.checks++;
+            return Math.min(this.checks, this.compilingChecks);
+        }
+
+        @Override
+        public boolean isCompilationTimeMonitoringSupported() {
+            return true;
+        }
+
+        @Override
+        public String getName() {
+            return "fake";
+        }
+
+        @Override
+        public ObjectName getObjectName() {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package sw.tinyweb.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * <code>BufferPool</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Temporary buffers handed out once the pool is exhausted.
+ * <li>Temporary buffers discarded when released; direct buffers pooled.
+ * </ol>
+ * </p>
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void testExhausted() {
+        final BufferPool pool = new BufferPool(16, 64, true);
+
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 6; i++) {
+            buffers.add(pool.acquire());
+        }
+
+        assertEquals(64, pool.getAllocatedBytes());
+        assertEquals(2, pool.getTemporaryCount());
+        assertFalse(buffers.get(4).isDirect());
+        assertFalse(buffers.get(5).isDirect());
+
+        // temporary buffers first
+        for (int i = buffers.size() - 1; i >= 0; i--) {
+            pool.release(buffers.get(i));
+        }
+        assertEquals(4, pool.getFreeCount());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(pool.acquire().isDirect());
+        }
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(2, pool.getTemporaryCount());
+    }
+
+}
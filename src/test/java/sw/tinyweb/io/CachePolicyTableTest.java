@@ -0,0 +1,80 @@
+package sw.tinyweb.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * <code>CachePolicyTable</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li><code>Cache-Control</code> header values.
+ * <li>Exact paths, then longest prefixes, then extensions, then defaults.
+ * <li>MIME types, including prefixes and parameters.
+ * </ol>
+ * </p>
+ */
+public class CachePolicyTableTest {
+
+    private static final CachePolicy API = CachePolicy.NO_STORE;
+
+    private static final CachePolicy IMAGES = CachePolicy.maxAge(86400);
+
+    private static final CachePolicy INDEX = CachePolicy.maxAge(0);
+
+    private static final CachePolicy LIB = CachePolicy.IMMUTABLE;
+
+    private static final CachePolicy SCRIPTS = new CachePolicy(600, 3600, 60, false, false);
+
+    private static final CachePolicy STYLES = CachePolicy.maxAge(300);
+
+    @Test
+    public void testHeaderValue() {
+        assertEquals("no-store", CachePolicy.NO_STORE.getHeaderValue());
+        assertEquals("immutable, max-age=31536000", CachePolicy.IMMUTABLE.getHeaderValue());
+        assertEquals("max-age=600, s-maxage=3600, stale-while-revalidate=60", SCRIPTS.getHeaderValue());
+        assertEquals("s-maxage=10", new CachePolicy(CachePolicy.UNSET, 10, CachePolicy.UNSET, false, false).getHeaderValue());
+    }
+
+    @Test
+    public void testPatterns() {
+        final CachePolicyTable table = createTable();
+
+        assertSame(INDEX, table.find("/index.html", "text/html"));
+        assertSame(API, table.find("/api", null));
+        assertSame(API, table.find("/api/users", "application/json"));
+        assertSame(SCRIPTS, table.find("/apiary.js", "text/javascript"));
+        assertSame(LIB, table.find("/js/lib/jquery.js", "text/javascript"));
+        assertSame(SCRIPTS, table.find("/js/app.js", "text/javascript"));
+        assertSame(STYLES, table.find("/css/site.css", "text/css"));
+        assertNull(table.find("/about.html", "text/html"));
+    }
+
+    @Test
+    public void testMimeTypes() {
+        final CachePolicyTable table = createTable();
+
+        assertSame(IMAGES, table.find("/img/logo.png", "image/png"));
+        assertSame(IMAGES, table.find("/img/logo.svg", "IMAGE/svg+xml; charset=UTF-8"));
+        assertSame(STYLES, table.find("/js/theme.css", "text/css"));
+        assertNull(table.find("/js/data.json", "application/json"));
+        assertNull(table.find("/js/data.json", null));
+    }
+
+    private static CachePolicyTable createTable() {
+        final CachePolicyTable table = new CachePolicyTable();
+        table.add("/", "image/", IMAGES);
+        table.add("*.css", null, STYLES);
+        table.add("/js/*", "text/javascript", SCRIPTS);
+        table.add("/js/lib/*", null, LIB);
+        table.add("/api/*", null, API);
+        table.add("*.js", null, SCRIPTS);
+        table.add("/index.html", null, INDEX);
+        return table;
+    }
+
+}
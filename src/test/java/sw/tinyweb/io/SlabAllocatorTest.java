@@ -0,0 +1,112 @@
+package sw.tinyweb.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * <code>SlabAllocator</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Allocations use the smallest chunk size that fits.
+ * <li>Chunks are freed when their last reference is released.
+ * <li>Allocations fail once the budget is exhausted.
+ * <li>Empty slabs are re-assigned to another chunk size.
+ * </ol>
+ * </p>
+ */
+public class SlabAllocatorTest {
+
+    @Test
+    public void testChunkSizes() {
+        final SlabAllocator allocator = new SlabAllocator(4096, 1024, 1000);
+
+        assertEquals(256, allocator.getChunkSize(1));
+        assertEquals(256, allocator.getChunkSize(256));
+        assertEquals(384, allocator.getChunkSize(257));
+        assertEquals(1000, allocator.getChunkSize(1000));
+        assertEquals(-1, allocator.getChunkSize(1001));
+        assertEquals(1000, allocator.getMaxChunkSize());
+
+        final SlabAllocator.Chunk chunk = allocator.allocate(300);
+        assertEquals(300, chunk.getSize());
+        assertEquals(384, chunk.getChunkSize());
+        assertEquals(300, chunk.getBuffer().remaining());
+        assertTrue(chunk.getBuffer().isDirect());
+
+        assertNull(allocator.allocate(1001));
+    }
+
+    @Test
+    public void testReferences() {
+        final SlabAllocator allocator = new SlabAllocator(1024, 1024, 1024);
+
+        final SlabAllocator.Chunk chunk = allocator.allocate(100);
+        assertFalse(chunk.isShared());
+        assertEquals(100, allocator.getUsedBytes());
+
+        assertTrue(chunk.retain());
+        assertTrue(chunk.isShared());
+
+        chunk.release();
+        assertFalse(chunk.isShared());
+        assertEquals(100, allocator.getUsedBytes());
+
+        chunk.release();
+        assertEquals(0, allocator.getUsedBytes());
+        assertFalse(chunk.retain());
+    }
+
+    @Test
+    public void testBudget() {
+        final SlabAllocator allocator = new SlabAllocator(2048, 1024, 1024);
+
+        final SlabAllocator.Chunk a = allocator.allocate(1000);
+        final SlabAllocator.Chunk b = allocator.allocate(1000);
+        assertNotNull(b);
+        assertNull(allocator.allocate(1000));
+        assertNull(allocator.allocate(10));
+        assertEquals(2, allocator.getFailureCount());
+        assertEquals(2048, allocator.getReservedBytes());
+
+        a.release();
+        assertNotNull(allocator.allocate(1000));
+        assertEquals(2048, allocator.getReservedBytes());
+    }
+
+    @Test
+    public void testSlabReassigned() {
+        final SlabAllocator allocator = new SlabAllocator(1024, 1024, 1024);
+
+        final SlabAllocator.Chunk a = allocator.allocate(200);
+        final SlabAllocator.Chunk b = allocator.allocate(200);
+        assertSame(a.getSlab(), b.getSlab());
+        assertEquals(2, allocator.getAllocatedChunks(a));
+        assertNull(allocator.allocate(1000));
+
+        a.release();
+        assertEquals(1, allocator.getAllocatedChunks(b));
+        assertNull(allocator.allocate(1000));
+
+        b.release();
+        final SlabAllocator.Chunk c = allocator.allocate(1000);
+        assertNotNull(c);
+        assertNotSame(a.getSlab(), c.getSlab());
+        assertEquals(1024, c.getChunkSize());
+
+        final ByteBuffer buffer = c.getBuffer();
+        buffer.put(new byte[1000]);
+        assertFalse(buffer.hasRemaining());
+    }
+
+}
@@ -0,0 +1,154 @@
+package sw.tinyweb.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import sw.tinyweb.utils.ServletUtils;
+
+/**
+ * <code>ZipContentSource</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Archive index, including folders.
+ * <li>Stored entries read from the mapped archive.
+ * <li>Deflated entries inflated, or framed as <code>gzip</code>.
+ * <li>Central directory records extending past the archive rejected.
+ * </ol>
+ * </p>
+ */
+public class ZipContentSourceTest {
+
+    private static final String STORED_TEXT = "stored content";
+
+    private static final String DEFLATED_TEXT = "deflated content, deflated content, deflated content";
+
+    @Test
+    public void testIndex() throws Exception {
+        final ZipContentSource source = new ZipContentSource(createArchive());
+
+        assertTrue(source.getEntry("/js/").isDirectory());
+        assertEquals(ZipContentSource.STORED, source.getEntry("/js/a.js").getMethod());
+        assertEquals(ZipContentSource.DEFLATED, source.getEntry("b.html").getMethod());
+        assertEquals(DEFLATED_TEXT.length(), source.getEntry("/b.html").getSize());
+        assertNull(source.getEntry("/missing.html"));
+        assertEquals(3, source.getEntries().size());
+    }
+
+    @Test
+    public void testStored() throws Exception {
+        final ZipContentSource source = new ZipContentSource(createArchive());
+        final ZipContentSource.Entry e = source.getEntry("/js/a.js");
+
+        final ByteBuffer b = source.getRawContent(e);
+        assertTrue(b.isDirect());
+        assertEquals(STORED_TEXT, toString(b));
+        assertEquals(STORED_TEXT, read(source.openStream(e)));
+    }
+
+    @Test
+    public void testDeflated() throws Exception {
+        final ZipContentSource source = new ZipContentSource(createArchive());
+        final ZipContentSource.Entry e = source.getEntry("/b.html");
+
+        assertEquals(DEFLATED_TEXT, read(source.openStream(e)));
+
+        final ByteBuffer gzip = ByteBuffer.allocate(
+                ZipContentSource.GZIP_HEADER_SIZE + e.getCompressedSize() + ZipContentSource.GZIP_TRAILER_SIZE);
+        ZipContentSource.writeGzipHeader(gzip);
+        gzip.put(source.getRawContent(e));
+        ZipContentSource.writeGzipTrailer(e, gzip);
+
+        assertEquals(DEFLATED_TEXT, read(new GZIPInputStream(new ByteArrayInputStream(gzip.array()))));
+    }
+
+    @Test(expected = ZipException.class)
+    public void testInvalidNameLength() throws Exception {
+        final File f = createArchive();
+
+        final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            final byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+
+            // last central directory record; "PK\1\2"
+            int pos = data.length - 4;
+            while ((data[pos] != 'P') || (data[pos + 1] != 'K') || (data[pos + 2] != 1) || (data[pos + 3] != 2)) {
+                pos--;
+            }
+
+            raf.seek(pos + 28);
+            raf.write(new byte[] { (byte) 0xff, (byte) 0xff });
+        } finally {
+            raf.close();
+        }
+
+        new ZipContentSource(f);
+    }
+
+    private static File createArchive() throws Exception {
+        final File f = File.createTempFile("tinyweb", ".zip");
+        f.deleteOnExit();
+
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(f));
+        try {
+            out.putNextEntry(new ZipEntry("js/"));
+            out.closeEntry();
+
+            final byte[] stored = STORED_TEXT.getBytes("US-ASCII");
+            final CRC32 crc = new CRC32();
+            crc.update(stored);
+
+            final ZipEntry a = new ZipEntry("js/a.js");
+            a.setMethod(ZipEntry.STORED);
+            a.setSize(stored.length);
+            a.setCrc(crc.getValue());
+            out.putNextEntry(a);
+            out.write(stored);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("b.html"));
+            out.write(DEFLATED_TEXT.getBytes("US-ASCII"));
+            out.closeEntry();
+
+        } finally {
+            out.close();
+        }
+
+        return f;
+    }
+
+    private static String read(InputStream aIn) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ServletUtils.copyContent(aIn, out);
+        } finally {
+            aIn.close();
+        }
+        return out.toString("US-ASCII");
+    }
+
+    private static String toString(ByteBuffer aBuffer) throws Exception {
+        final byte[] bytes = new byte[aBuffer.remaining()];
+        aBuffer.get(bytes);
+        return new String(bytes, "US-ASCII");
+    }
+
+}
@@ -0,0 +1,126 @@
+package sw.tinyweb.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sw.tinyweb.TinyWebServletContext;
+
+/**
+ * <code>AssetManifest</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Fingerprint inserted before the file extension, and removed again.
+ * <li>Fingerprints computed for all resources, excluding <code>WEB-INF</code>
+ *     and pre-compressed variants.
+ * <li>Fingerprinted URL no longer current once its file changes, before
+ *     the change is reported.
+ * </ol>
+ * </p>
+ */
+public class AssetManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testToURL() {
+        assertEquals("/js/app.3f2a9c81.js", AssetManifest.toURL("/js/app.js", "3f2a9c81"));
+        assertEquals("/js/app.min.3f2a9c81.js", AssetManifest.toURL("/js/app.min.js", "3f2a9c81"));
+        assertEquals("/LICENSE.3f2a9c81", AssetManifest.toURL("/LICENSE", "3f2a9c81"));
+        assertEquals("/.htaccess.3f2a9c81", AssetManifest.toURL("/.htaccess", "3f2a9c81"));
+        assertEquals("/v1.2/LICENSE.3f2a9c81", AssetManifest.toURL("/v1.2/LICENSE", "3f2a9c81"));
+
+        assertEquals("/js/app.min.js", AssetManifest.fromURL("/js/app.min.3f2a9c81.js"));
+        assertEquals("/LICENSE", AssetManifest.fromURL("/LICENSE.3f2a9c81"));
+        assertEquals("/.htaccess", AssetManifest.fromURL("/.htaccess.3f2a9c81"));
+        assertEquals("/v1.2/LICENSE", AssetManifest.fromURL("/v1.2/LICENSE.3f2a9c81"));
+        assertNull(AssetManifest.fromURL("/js/app.js"));
+        assertNull(AssetManifest.fromURL("/js/app.3F2A9C81.js"));
+        assertNull(AssetManifest.fromURL("/index"));
+    }
+
+    @Test
+    public void testIsCurrent() throws Exception {
+        final File home = this.folder.newFolder("content");
+        final File js = new File(home, "app.js");
+        write(js, "var a;");
+
+        // not watched; changes never reported
+        final AssetManifest manifest = new AssetManifest(new TinyWebServletContext("/", "test", home));
+        try {
+            final String url = AssetManifest.toURL("/app.js", "00000000");
+            assertFalse(manifest.isCurrent(url));
+
+            manifest.scheduleAll();
+            for (int i = 0; (i < 100) && (manifest.size() < 1); i++) {
+                Thread.sleep(50);
+            }
+
+            final String a = manifest.resolve("/app.js");
+            assertEquals("/app.js", manifest.findLogicalPath(a));
+            assertTrue(manifest.isCurrent(a));
+
+            write(js, "var a = 1;");
+            assertEquals("/app.js", manifest.findLogicalPath(a));
+            assertFalse(manifest.isCurrent(a));
+
+        } finally {
+            manifest.shutdown();
+        }
+    }
+
+    @Test
+    public void testScheduleAll() throws Exception {
+        final File home = this.folder.newFolder("content");
+        new File(home, "js").mkdir();
+        new File(home, "WEB-INF").mkdir();
+
+        write(new File(home, "js/a.js"), "var a;");
+        write(new File(home, "js/b.js"), "var b;");
+        write(new File(home, "js/a.js.gz"), "not really gzip");
+        write(new File(home, "WEB-INF/web.xml"), "<web-app/>");
+
+        final AssetManifest manifest = new AssetManifest(new TinyWebServletContext("/", "test", home));
+        try {
+            manifest.scheduleAll();
+            for (int i = 0; (i < 100) && (manifest.size() < 2); i++) {
+                Thread.sleep(50);
+            }
+
+            final String a = manifest.resolve("/js/a.js");
+            assertTrue(a, a.matches("/js/a\\.[0-9a-f]{8}\\.js"));
+            assertNotEquals(a.substring(5, 13), manifest.resolve("/js/b.js").substring(5, 13));
+            assertEquals("/js/a.js", manifest.findLogicalPath(a));
+
+            Thread.sleep(100);
+            assertEquals(2, manifest.size());
+            assertEquals("/WEB-INF/web.xml", manifest.resolve("/WEB-INF/web.xml"));
+            assertNull(manifest.findLogicalPath("/js/a.js"));
+
+        } finally {
+            manifest.shutdown();
+        }
+    }
+
+    private static void write(File aFile, String aContent) throws Exception {
+        final FileOutputStream out = new FileOutputStream(aFile);
+        try {
+            out.write(aContent.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+}
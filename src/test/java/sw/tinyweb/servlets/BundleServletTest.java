@@ -0,0 +1,50 @@
+package sw.tinyweb.servlets;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * <code>BundleServlet</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Relative style sheet URLs rebased, with and without quotes, including "." and ".." segments.
+ * <li>Absolute, protocol relative, fragment and <code>data:</code> URLs kept.
+ * </ol>
+ * </p>
+ */
+public class BundleServletTest {
+
+    @Test
+    public void testRebaseUrls() {
+        assertEquals("a{background:url(/css/img/a.png)}",
+                BundleServlet.rebaseUrls("a{background:url(img/a.png)}", "/css/site.css"));
+        assertEquals("a{background:url(\"/img/a.png\")}",
+                BundleServlet.rebaseUrls("a{background:url( \"../img/a.png\" )}", "/css/site.css"));
+        assertEquals("a{background:url('/css/a.png?v=2')}",
+                BundleServlet.rebaseUrls("a{background:url('./a.png?v=2')}", "/css/site.css"));
+        assertEquals("@font-face{src:url(/fonts/a.woff),url(/css/lib/b.woff)}",
+                BundleServlet.rebaseUrls("@font-face{src:url(../../fonts/a.woff),url(b.woff)}", "/css/lib/x.css"));
+
+        // above the web content root
+        assertEquals("a{background:url(/a.png)}",
+                BundleServlet.rebaseUrls("a{background:url(../../a.png)}", "/css/site.css"));
+        assertEquals("a{background:url(/a.png)}",
+                BundleServlet.rebaseUrls("a{background:url(a.png)}", "/site.css"));
+    }
+
+    @Test
+    public void testUrlsKept() {
+        final String css = "a{background:url(/img/a.png)}"
+                + "b{background:url(//cdn.example.com/b.png)}"
+                + "c{background:url(https://example.com/c.png)}"
+                + "d{filter:url(#blur)}"
+                + "e{background:url(\"data:image/gif;base64,R0lGODlhAQABAAAAACw=\")}"
+                + "f{background:url('data:image/svg+xml;utf8,<svg></svg>')}";
+
+        assertEquals(css, BundleServlet.rebaseUrls(css, "/css/site.css"));
+    }
+
+}
@@ -0,0 +1,149 @@
+package sw.tinyweb.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sw.tinyweb.TinyWebRequest;
+import sw.tinyweb.TinyWebResponse;
+import sw.tinyweb.TinyWebServletConfig;
+import sw.tinyweb.TinyWebServletContext;
+import sw.tinyweb.io.NullChannel;
+import sw.tinyweb.utils.FolderWatcher;
+
+/**
+ * <code>DownloadFileServlet</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li><code>If-None-Match</code> matched for any method.
+ * <li><code>If-Modified-Since</code> only evaluated for <code>GET</code> requests.
+ * <li>Content cached under an alias path removed when the file changes.
+ * </ol>
+ * </p>
+ */
+public class DownloadFileServletTest {
+
+    private static final String ETAG = "\"a-14\"";
+
+    /** Sun, 18 Oct 2026 10:00:00 GMT. */
+    private static final long LAST_MODIFIED = 1792317600000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testIfNoneMatch() throws Exception {
+        final TinyWebRequest req = newRequest("POST", "If-None-Match: \"x\", \"a-14-gzip\"");
+        final TinyWebResponse resp = new TinyWebResponse(req, new NullChannel());
+
+        assertTrue(DownloadFileServlet.isNotModified(req, resp, ETAG, LAST_MODIFIED));
+        assertTrue(resp.containsHeader("ETag"));
+
+        assertFalse(DownloadFileServlet.isNotModified(newRequest("GET", "If-None-Match: \"b-14\""), resp, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testIfModifiedSince() throws Exception {
+        final String header = "If-Modified-Since: Sun, 18 Oct 2026 10:00:00 GMT";
+        final TinyWebResponse resp = new TinyWebResponse(new TinyWebRequest(), new NullChannel());
+
+        assertTrue(DownloadFileServlet.isNotModified(newRequest("GET", header), resp, ETAG, LAST_MODIFIED));
+        assertFalse(DownloadFileServlet.isNotModified(newRequest("GET", header), resp, ETAG, LAST_MODIFIED + 1000));
+
+        // not a precondition of other methods
+        assertFalse(DownloadFileServlet.isNotModified(newRequest("POST", header), resp, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void testAliasPath() throws Exception {
+        final File home = this.folder.newFolder("content");
+        new File(home, "js").mkdir();
+        final File js = new File(home, "js/a.js");
+        write(js, "var a = 1;");
+
+        final TinyWebServletContext context = new TinyWebServletContext("/", "test", home);
+        final TinyWebServletConfig config = new TinyWebServletConfig(DownloadFileServlet.class);
+        config.addInitParam(DownloadFileServlet.FINGERPRINT, "false");
+        config.addInitParam(DownloadFileServlet.PRECOMPRESSED, "false");
+        config.addInitParam(DownloadFileServlet.CACHE_OFF_HEAP, "false");
+        config.setServletContext(context);
+
+        final DownloadFileServlet servlet = new DownloadFileServlet();
+        servlet.init(config);
+        try {
+            assertEquals("var a = 1;", get(servlet, "/js//a.js"));
+
+            // told after the cache
+            final CountDownLatch changed = new CountDownLatch(1);
+            context.addResourceListener(new FolderWatcher.Listener() {
+                @Override
+                public void resourceChanged(String aPath) {
+                    if ("/js/a.js".equals(aPath)) {
+                        changed.countDown();
+                    }
+                }
+
+                @Override
+                public void resourcesChanged() {
+                    changed.countDown();
+                }
+            });
+
+            write(js, "var a = 2;");
+            js.setLastModified(js.lastModified() + 2000);
+            assertTrue(changed.await(10, TimeUnit.SECONDS));
+
+            assertEquals("var a = 2;", get(servlet, "/js//a.js"));
+            assertEquals("var a = 2;", get(servlet, "/./js/a.js"));
+
+        } finally {
+            servlet.destroy();
+            context.stopResourceWatcher();
+        }
+    }
+
+    private static String get(DownloadFileServlet aServlet, String aPath) throws Exception {
+        final TinyWebRequest req = newRequest("GET", "Accept: */*");
+        req.setServletPath(aPath);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final TinyWebResponse resp = new TinyWebResponse(req, out);
+        aServlet.service(req, resp);
+        resp.flushBuffer();
+
+        final String text = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+        return text.substring(text.indexOf("\r\n\r\n") + 4);
+    }
+
+    private static void write(File aFile, String aContent) throws Exception {
+        final FileOutputStream out = new FileOutputStream(aFile);
+        try {
+            out.write(aContent.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static TinyWebRequest newRequest(String aMethod, String aHeader) throws Exception {
+        final String text = aMethod + " /a.js HTTP/1.1\r\nHost: localhost\r\n" + aHeader + "\r\n\r\n";
+
+        final TinyWebRequest req = new TinyWebRequest();
+        req.initRequest(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)));
+        return req;
+    }
+
+}
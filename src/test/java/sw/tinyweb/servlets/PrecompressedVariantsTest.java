@@ -0,0 +1,211 @@
+package sw.tinyweb.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sw.tinyweb.TinyWebServletContext;
+import sw.tinyweb.servlets.PrecompressedVariants.Variant;
+import sw.tinyweb.utils.ServletUtils;
+
+/**
+ * <code>PrecompressedVariants</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>The preferred variant the client accepts is chosen.
+ * <li>Variants older than the original are not used.
+ * <li>Missing <code>gzip</code> variants generated in the background; regenerated when the original changes.
+ * <li>Variants generated for compressible files of a folder, excluding <code>WEB-INF</code>.
+ * <li>Variants stored under the canonical path, in an owner-only folder; none for files outside the web content folder.
+ * </ol>
+ * </p>
+ */
+public class PrecompressedVariantsTest {
+
+    private static final long TIME = 1792317600000L;
+
+    private static final String TEXT;
+    static {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("console.log('hello world');\n");
+        }
+        TEXT = sb.toString();
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cache;
+
+    private File home;
+
+    private PrecompressedVariants variants;
+
+    @Before
+    public void setUp() throws Exception {
+        this.home = this.folder.newFolder("home");
+        this.cache = new File(this.folder.getRoot(), "cache");
+        this.variants = new PrecompressedVariants(this.cache, this.home, new TinyWebServletContext("/", "test", this.home));
+    }
+
+    @After
+    public void tearDown() {
+        this.variants.shutdown();
+    }
+
+    @Test
+    public void testFindVariant() throws Exception {
+        final File js = this.createFile("foo.js", TEXT, TIME);
+        final File br = this.createFile("foo.js.br", "br", TIME);
+        final File gz = this.createFile("foo.js.gz", "gz", TIME + 1000);
+
+        Variant v = this.variants.findVariant("/foo.js", js, "gzip, br");
+        assertEquals("br", v.getEncoding());
+        assertEquals(br, v.getFile());
+
+        v = this.variants.findVariant("/foo.js", js, "gzip, br;q=0");
+        assertEquals("gzip", v.getEncoding());
+        assertEquals(gz, v.getFile());
+
+        assertNull(this.variants.findVariant("/foo.js", js, "identity"));
+    }
+
+    @Test
+    public void testStaleVariant() throws Exception {
+        final File js = this.createFile("foo.js", TEXT, TIME);
+        this.createFile("foo.js.br", "br", TIME - 1000);
+
+        assertNull(this.variants.findVariant("/foo.js", js, "br"));
+    }
+
+    @Test
+    public void testGenerated() throws Exception {
+        final File js = this.createFile("js/foo.js", TEXT, TIME);
+
+        // served uncompressed until generated
+        assertNull(this.variants.findVariant("/js/foo.js", js, "gzip"));
+
+        final File generated = new File(this.cache, "js/foo.js.gz");
+        Variant v = this.waitForVariant("/js/foo.js", js);
+        assertEquals("gzip", v.getEncoding());
+        assertEquals(generated, v.getFile());
+        assertEquals(TIME, generated.lastModified());
+        assertTrue(generated.length() < js.length());
+        assertEquals(TEXT, gunzip(generated));
+
+        // original changed
+        final String changed = TEXT + TEXT;
+        this.createFile("js/foo.js", changed, TIME + 1000);
+        assertNull(this.variants.findVariant("/js/foo.js", js, "gzip"));
+
+        v = this.waitForVariant("/js/foo.js", js);
+        assertEquals(TIME + 1000, v.getFile().lastModified());
+        assertEquals(changed, gunzip(v.getFile()));
+    }
+
+    @Test
+    public void testScheduleAll() throws Exception {
+        this.createFile("a.js", TEXT, TIME);
+        this.createFile("css/b.css", TEXT, TIME);
+        this.createFile("c.png", TEXT, TIME);
+        this.createFile("WEB-INF/d.js", TEXT, TIME);
+
+        this.variants.scheduleAll(this.home, "/");
+
+        assertNotNull(this.waitForVariant("/a.js", new File(this.home, "a.js")));
+        assertNotNull(this.waitForVariant("/css/b.css", new File(this.home, "css/b.css")));
+        assertFalse(new File(this.cache, "c.png.gz").exists());
+        assertFalse(new File(this.cache, "WEB-INF/d.js.gz").exists());
+    }
+
+    @Test
+    public void testCanonicalPath() throws Exception {
+        final File js = this.createFile("js/foo.js", TEXT, TIME);
+
+        final Variant v = this.waitForVariant("/js//./foo.js", new File(this.home, "js/./foo.js"));
+        assertEquals(new File(this.cache, "js/foo.js.gz"), v.getFile());
+        assertNotNull(this.variants.findVariant("/js/foo.js", js, "gzip"));
+
+        assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE),
+                Files.getPosixFilePermissions(this.cache.toPath()));
+    }
+
+    @Test
+    public void testOutsideWebContent() throws Exception {
+        final File outside = new File(this.folder.newFolder("x"), "y.js");
+        final FileOutputStream out = new FileOutputStream(outside);
+        try {
+            out.write(TEXT.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+
+        assertNull(this.variants.findVariant("/../x/y.js", new File(this.home, "../x/y.js"), "gzip"));
+
+        // nothing scheduled
+        this.variants.scheduleAll(this.folder.getRoot(), "/..");
+        Thread.sleep(200);
+        assertFalse(new File(this.folder.getRoot(), "x/y.js.gz").exists());
+    }
+
+    private File createFile(String aPath, String aText, long aLastModified) throws Exception {
+        final File f = new File(this.home, aPath);
+        f.getParentFile().mkdirs();
+
+        final FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(aText.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+
+        assertTrue(f.setLastModified(aLastModified));
+        return f;
+    }
+
+    private Variant waitForVariant(String aPath, File aFile) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline) {
+            final Variant v = this.variants.findVariant(aPath, aFile, "gzip");
+            if (v != null) {
+                return v;
+            }
+            Thread.sleep(20);
+        }
+
+        throw new AssertionError("Variant not generated: " + aPath);
+    }
+
+    private static String gunzip(File aFile) throws Exception {
+        final InputStream in = new GZIPInputStream(new FileInputStream(aFile));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ServletUtils.copyContent(in, out);
+        } finally {
+            in.close();
+        }
+        return out.toString("US-ASCII");
+    }
+
+}
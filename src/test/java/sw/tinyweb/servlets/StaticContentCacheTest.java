@@ -0,0 +1,150 @@
+package sw.tinyweb.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import sw.tinyweb.io.SlabAllocator;
+import sw.tinyweb.servlets.StaticContentCache.StaticContent;
+
+/**
+ * <code>StaticContentCache</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Least recently used resources are evicted.
+ * <li>Changed resources, and their variants, are removed.
+ * <li>Resources read before a change are not cached.
+ * <li>Off-heap content is freed once evicted and released; content being sent is not evicted.
+ * <li>Off-heap resources of other sizes evicted one slab at a time.
+ * </ol>
+ * </p>
+ */
+public class StaticContentCacheTest {
+
+    @Test
+    public void testEviction() throws Exception {
+        final StaticContentCache cache = new StaticContentCache(100, 60);
+
+        assertTrue(cache.put("/a", newContent(40, null), 0));
+        assertTrue(cache.put("/b", newContent(40, null), 0));
+        assertFalse(cache.put("/big", newContent(61, null), 0));
+
+        assertNotNull(cache.get("/a", null)); // "/b" now least recently used
+        assertTrue(cache.put("/c", newContent(40, null), 0));
+
+        assertNotNull(cache.get("/a", null));
+        assertNull(cache.get("/b", null));
+        assertEquals(80, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testResourceChanged() throws Exception {
+        final StaticContentCache cache = new StaticContentCache(1000, 100);
+
+        cache.put("/foo.js", newContent(10, null), 0);
+        cache.put("/foo.js", newContent(5, "gzip"), 0);
+        cache.put("/bar.js", newContent(10, null), 0);
+        assertEquals(3, cache.getEntryCount());
+
+        cache.resourceChanged("/foo.js.gz");
+
+        assertNull(cache.get("/foo.js", null));
+        assertNull(cache.get("/foo.js", "gzip"));
+        assertNotNull(cache.get("/bar.js", null));
+        assertEquals(10, cache.getSize());
+
+        cache.resourcesChanged();
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testStalePut() throws Exception {
+        final StaticContentCache cache = new StaticContentCache(1000, 100);
+
+        final long invalidations = cache.getInvalidationCount();
+        cache.resourceChanged("/foo.js");
+
+        assertFalse(cache.put("/foo.js", newContent(10, null), invalidations));
+        assertNull(cache.get("/foo.js", null));
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        final SlabAllocator store = new SlabAllocator(2048, 1024, 1024);
+        final StaticContentCache cache = new StaticContentCache(store);
+
+        assertTrue(cache.put("/a", newContent(1000, null), 0));
+        assertTrue(cache.put("/b", newContent(1000, null), 0));
+        assertEquals(2000, store.getUsedBytes());
+
+        final StaticContent a = cache.get("/a", null);
+        assertTrue(a.isDirect());
+        assertEquals(1000, a.getContent().remaining());
+
+        // "/b" evicted; "/a" is still being sent
+        assertTrue(cache.put("/c", newContent(1000, null), 0));
+        assertNull(cache.get("/b", null));
+        assertEquals(1, cache.getEvictionCount());
+
+        // "/a" is still being sent, so "/c" evicted instead
+        assertTrue(cache.put("/d", newContent(1000, null), 0));
+        assertNull(cache.get("/c", null));
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(2000, store.getUsedBytes());
+
+        // all being sent
+        final StaticContent d = cache.get("/d", null);
+        assertFalse(cache.put("/e", newContent(1000, null), 0));
+        assertEquals(2, cache.getEntryCount());
+
+        a.release();
+        d.release();
+        cache.clear();
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    public void testSlabEviction() throws Exception {
+        // 256 byte chunks, 4 per slab; 1024 byte chunks, 1 per slab
+        final SlabAllocator store = new SlabAllocator(2048, 1024, 1024);
+        final StaticContentCache cache = new StaticContentCache(store);
+
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(cache.put("/a" + i, newContent(200, null), 0));
+        }
+        assertTrue(cache.put("/b", newContent(1000, null), 0));
+
+        // "/a1" is being sent, so its slab cannot be emptied; only "/b" evicted
+        final StaticContent a1 = cache.get("/a1", null);
+        assertTrue(cache.put("/c", newContent(300, null), 0));
+        assertNull(cache.get("/b", null));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(5, cache.getEntryCount());
+        a1.release();
+
+        // least recently used slab emptied; "/c" kept
+        assertTrue(cache.put("/d", newContent(1000, null), 0));
+        assertNull(cache.get("/a2", null));
+        assertNull(cache.get("/a1", null));
+        assertEquals(5, cache.getEvictionCount());
+        assertEquals(1300, store.getUsedBytes());
+
+        final StaticContent c = cache.get("/c", null);
+        assertNotNull(c);
+        c.release();
+    }
+
+    private static StaticContent newContent(int aLength, String aEncoding) {
+        return new StaticContent(ByteBuffer.allocate(aLength), aEncoding, "text/javascript", 0, "\"a-0\"");
+    }
+
+}
@@ -0,0 +1,75 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import sw.tinyweb.TinyWebRequest;
+
+/**
+ * <code>AcceptLanguageCache</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Locales in decreasing preference order; duplicates and unacceptable languages removed.
+ * <li>Missing and invalid headers give the default locale.
+ * <li>Each header parsed once, while the cache has room.
+ * <li>Multiple <code>Accept-Language</code> fields of a request combined.
+ * </ol>
+ * </p>
+ */
+public class AcceptLanguageCacheTest {
+
+    @Test
+    public void testGetLocales() {
+        final AcceptLanguageCache cache = new AcceptLanguageCache(10);
+
+        assertEquals(Arrays.asList(Locale.FRENCH, Locale.UK, Locale.ENGLISH),
+                cache.getLocales("en;q=0.5, en-GB;q=0.8, fr"));
+        assertEquals(Arrays.asList(Locale.GERMAN, Locale.ENGLISH),
+                cache.getLocales("en;q=0.2, de;q=0.9, en;q=0.3, it;q=0"));
+    }
+
+    @Test
+    public void testDefaultLocale() {
+        final AcceptLanguageCache cache = new AcceptLanguageCache(10);
+        final List<Locale> defaults = Collections.singletonList(Locale.getDefault());
+
+        assertEquals(defaults, cache.getLocales(null));
+        assertEquals(defaults, cache.getLocales(""));
+        assertEquals(defaults, cache.getLocales("en;x"));
+        assertEquals(defaults, cache.getLocales("fr;q=0"));
+    }
+
+    @Test
+    public void testCached() {
+        final AcceptLanguageCache cache = new AcceptLanguageCache(2);
+
+        final List<Locale> locales = cache.getLocales("fr, en;q=0.5");
+        assertSame(locales, cache.getLocales("fr, en;q=0.5"));
+
+        // full; still correct
+        cache.getLocales("de");
+        cache.getLocales("it");
+        assertEquals(locales, cache.getLocales("fr, en;q=0.5"));
+    }
+
+    @Test
+    public void testRequest() throws Exception {
+        final TinyWebRequest req = new TinyWebRequest();
+        req.addHeader("Accept-Language", "en;q=0.5");
+        req.addHeader("Accept-Language", "fr");
+
+        assertEquals(Locale.FRENCH, req.getLocale());
+        assertEquals(Arrays.asList(Locale.FRENCH, Locale.ENGLISH), Collections.list(req.getLocales()));
+        assertEquals(Locale.FRENCH, req.getLocale());
+    }
+
+}
@@ -0,0 +1,55 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * <code>BoundedCache</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Cached values found; others not.
+ * <li>The number of entries never exceeds the maximum; replaced entries do not evict others.
+ * </ol>
+ * </p>
+ */
+public class BoundedCacheTest {
+
+    @Test
+    public void testGet() {
+        final BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(10);
+        cache.put("a", 1);
+        cache.put("b", 2);
+
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(2), cache.get("b"));
+        assertNull(cache.get("c"));
+
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        final BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(3);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, i);
+            assertEquals(Math.min(i + 1, 3), cache.size());
+        }
+
+        // the newest entry is kept
+        assertEquals(Integer.valueOf(99), cache.get("key99"));
+        assertEquals(3, cache.getMaxSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new BoundedCache<String, Integer>(0);
+    }
+
+}
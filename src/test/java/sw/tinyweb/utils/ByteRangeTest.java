@@ -0,0 +1,60 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * <code>ByteRange</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Single, open ended and suffix ranges.
+ * <li>Multiple ranges.
+ * <li>Unsatisfiable ranges.
+ * <li>Invalid headers.
+ * </ol>
+ * </p>
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void testSingleRange() throws Exception {
+        assertEquals(Arrays.asList(new ByteRange(0, 499)), ByteRange.parse("bytes=0-499", 1000));
+        assertEquals(Arrays.asList(new ByteRange(500, 999)), ByteRange.parse("bytes=500-", 1000));
+        assertEquals(Arrays.asList(new ByteRange(700, 999)), ByteRange.parse("bytes=-300", 1000));
+        assertEquals(Arrays.asList(new ByteRange(900, 999)), ByteRange.parse("bytes=900-5000", 1000));
+        assertEquals(Arrays.asList(new ByteRange(0, 999)), ByteRange.parse("bytes=-5000", 1000));
+
+        assertEquals("bytes 0-499/1000", new ByteRange(0, 499).toContentRange(1000));
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception {
+        final List<ByteRange> ranges = ByteRange.parse("bytes=0-9, 20-29 ,-5", 100);
+        assertEquals(Arrays.asList(new ByteRange(0, 9), new ByteRange(20, 29), new ByteRange(95, 99)), ranges);
+    }
+
+    @Test
+    public void testUnsatisfiable() throws Exception {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertEquals(Arrays.asList(new ByteRange(0, 0)), ByteRange.parse("bytes=2000-3000, 0-0", 1000));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=5-1", 1000));
+        assertNull(ByteRange.parse("bytes=abc", 1000));
+        assertNull(ByteRange.parse("bytes=", 1000));
+        assertNull(ByteRange.parse("bytes=0-1,2-3,4-5,6-7,8-9,10-11,12-13,14-15,16-17,18-19,20-21,22-23,24-25,26-27,28-29,30-31,32-33", 1000));
+    }
+
+}
@@ -0,0 +1,73 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * <code>ContentNegotiator</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Media types and media ranges.
+ * <li>Content encodings, including implicit <code>identity</code>.
+ * <li>Character sets.
+ * <li>Cached decisions.
+ * </ol>
+ * </p>
+ */
+public class ContentNegotiatorTest {
+
+    @Test
+    public void testMediaTypes() throws Exception {
+        final ContentNegotiator n = ContentNegotiator.forMediaTypes("application/json", "text/xml");
+
+        assertEquals("application/json", n.negotiate((String) null));
+        assertEquals("application/json", n.negotiate("*/*"));
+        assertEquals("text/xml", n.negotiate("text/*, application/json;q=0.5"));
+        assertEquals("application/json", n.negotiate("text/html, application/*;q=0.9, */*;q=0.1"));
+        assertEquals("text/xml", n.negotiate("text/xml; level=1, application/json;q=0"));
+        assertNull(n.negotiate("image/png"));
+    }
+
+    @Test
+    public void testEncodings() throws Exception {
+        final ContentNegotiator n = ContentNegotiator.forEncodings("gzip", "deflate", "identity");
+
+        assertEquals("identity", n.negotiate((String) null));
+        assertEquals("gzip", n.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", n.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("gzip", n.negotiate("x-gzip"));
+        assertEquals("identity", n.negotiate("br"));
+        assertEquals("gzip", n.negotiate("*"));
+        assertNull(n.negotiate("br, identity;q=0"));
+
+        assertTrue(n.isAcceptable("br", "identity"));
+        assertFalse(n.isAcceptable("gzip;q=0", "gzip"));
+    }
+
+    @Test
+    public void testCharsets() throws Exception {
+        final ContentNegotiator n = ContentNegotiator.forCharsets("UTF-8", "ISO-8859-1");
+
+        assertEquals("UTF-8", n.negotiate("iso-8859-1;q=0.7, utf-8"));
+        assertEquals("ISO-8859-1", n.negotiate("iso-8859-1, *;q=0.5"));
+        assertNull(n.negotiate("windows-1252"));
+    }
+
+    @Test
+    public void testCachedDecision() throws Exception {
+        final ContentNegotiator n = ContentNegotiator.forEncodings("gzip", "identity");
+        final String header = "gzip;q=1.0, identity;q=0.5";
+
+        assertEquals("gzip", n.negotiate(header));
+        assertEquals("gzip", n.negotiate(header));
+        assertNull(n.negotiate("identity;q=0"));
+        assertNull(n.negotiate("identity;q=0"));
+    }
+
+}
@@ -0,0 +1,42 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * <code>ETags</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Tag creation, with and without content encodings.
+ * <li><code>If-None-Match</code> lists, weak tags and <code>*</code>.
+ * </ol>
+ * </p>
+ */
+public class ETagsTest {
+
+    @Test
+    public void testCreate() throws Exception {
+        assertEquals("\"2f6d-ff\"", ETags.create(0x2f6d, 0xff));
+        assertEquals("\"2f6d-ff-gzip\"", ETags.withEncoding("\"2f6d-ff\"", "gzip"));
+        assertEquals("\"2f6d-ff\"", ETags.withEncoding("\"2f6d-ff\"", "identity"));
+    }
+
+    @Test
+    public void testFindMatch() throws Exception {
+        final String etag = ETags.create(10, 20);
+
+        assertEquals(etag, ETags.findMatch(etag, etag));
+        assertEquals(etag, ETags.findMatch("*", etag));
+        assertEquals("W/\"a-14\"", ETags.findMatch("\"x\", W/\"a-14\"", etag));
+        assertEquals("\"a-14-gzip\"", ETags.findMatch("\"a-14-gzip\"", etag));
+
+        assertNull(ETags.findMatch(null, etag));
+        assertNull(ETags.findMatch("\"a-15\", \"a-140\"", etag));
+        assertNull(ETags.findMatch("a-14", etag));
+    }
+
+}
@@ -0,0 +1,91 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <code>FolderWatcher</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>A deleted file is reported by its resource path.
+ * <li>A folder moved out of the tree reports all resources changed, and is no longer watched.
+ * </ol>
+ * </p>
+ */
+public class FolderWatcherTest {
+
+    private static final String ALL = "*";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<String>();
+
+    private File root;
+
+    private FolderWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        this.root = this.folder.newFolder("root");
+        new File(this.root, "js").mkdir();
+        new File(this.root, "js/a.js").createNewFile();
+        new File(this.root, "b.js").createNewFile();
+
+        this.watcher = new FolderWatcher(this.root);
+        this.watcher.addListener(new FolderWatcher.Listener() {
+            @Override
+            public void resourceChanged(String aPath) {
+                events.add(aPath);
+            }
+
+            @Override
+            public void resourcesChanged() {
+                events.add(ALL);
+            }
+        });
+        this.watcher.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.watcher.stop();
+    }
+
+    @Test
+    public void testFileDeleted() throws Exception {
+        assertTrue(new File(this.root, "b.js").delete());
+
+        assertEquals("/b.js", this.events.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFolderMoved() throws Exception {
+        final File moved = new File(this.folder.getRoot(), "moved");
+        Files.move(new File(this.root, "js").toPath(), moved.toPath());
+
+        assertEquals(ALL, this.events.poll(10, TimeUnit.SECONDS));
+
+        // not reported under its old path
+        new File(moved, "c.js").createNewFile();
+        assertTrue(new File(this.root, "b.js").delete());
+
+        assertEquals("/b.js", this.events.poll(10, TimeUnit.SECONDS));
+        assertTrue(this.events.toString(), this.events.isEmpty());
+    }
+
+}
@@ -0,0 +1,77 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * <code>HttpDateCodec</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>RFC 1123 formatting.
+ * <li>RFC 1123, RFC 850 and asctime() parsing.
+ * <li>Invalid dates.
+ * <li>Current date caching.
+ * </ol>
+ * </p>
+ */
+public class HttpDateCodecTest {
+
+    /** Sun, 06 Nov 1994 08:49:37 GMT. */
+    private static final long SPEC_EXAMPLE = 784111777000L;
+
+    @Test
+    public void testFormat() throws Exception {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDateCodec.format(SPEC_EXAMPLE));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDateCodec.format(0));
+        assertEquals("Tue, 29 Feb 2000 23:59:59 GMT", HttpDateCodec.format(951868799999L));
+
+        final SimpleDateFormat fmt = new SimpleDateFormat(HttpHeaderUtils.RFC1123_DATE_FORMAT, Locale.ENGLISH);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        final long now = System.currentTimeMillis();
+        assertEquals(fmt.format(now), HttpDateCodec.format(now));
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertEquals(SPEC_EXAMPLE, HttpDateCodec.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(SPEC_EXAMPLE, HttpDateCodec.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(SPEC_EXAMPLE, HttpDateCodec.parse("Sun Nov  6 08:49:37 1994"));
+
+        // tolerated variations
+        assertEquals(SPEC_EXAMPLE, HttpDateCodec.parse(" Sun, 6 Nov 1994 08:49:37 GMT "));
+        assertEquals(SPEC_EXAMPLE, HttpDateCodec.parse("Sun, 06-Nov-1994 08:49:37 GMT"));
+
+        final long now = (System.currentTimeMillis() / 1000) * 1000;
+        assertEquals(now, HttpDateCodec.parse(HttpDateCodec.format(now)));
+    }
+
+    @Test
+    public void testParse_Invalid() throws Exception {
+        assertEquals(-1, HttpDateCodec.parse(null));
+        assertEquals(-1, HttpDateCodec.parse(""));
+        assertEquals(-1, HttpDateCodec.parse("yesterday"));
+        assertEquals(-1, HttpDateCodec.parse("Sun, 06 Xyz 1994 08:49:37 GMT"));
+        assertEquals(-1, HttpDateCodec.parse("Sun, 06 Nov 1994 08:49 GMT"));
+        assertEquals(-1, HttpDateCodec.parse("Sun, 32 Nov 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    public void testCurrentDate() throws Exception {
+        final String s = HttpDateCodec.getCurrentDate();
+        final byte[] b = HttpDateCodec.getCurrentDateBytes();
+        assertSame(HttpDateCodec.format(HttpDateCodec.parse(s)), HttpDateCodec.format(HttpDateCodec.parse(s)));
+
+        assertEquals(29, b.length);
+        assertEquals(HttpDateCodec.parse(s), HttpDateCodec.parse(new String(b, "US-ASCII")));
+    }
+
+}
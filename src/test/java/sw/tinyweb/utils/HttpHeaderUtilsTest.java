@@ -0,0 +1,65 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.Test;
+
+/**
+ * <code>HttpHeaderUtils</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Multi-cookie headers.
+ * <li>Quoted, reserved and malformed cookies.
+ * <li>Single cookie look-up.
+ * </ol>
+ * </p>
+ */
+public class HttpHeaderUtilsTest {
+
+    private final HttpHeaderUtils utils = HttpHeaderUtils.getInstance();
+
+    @Test
+    public void testParseCookies() throws Exception {
+        final List<Cookie> cookies = new ArrayList<Cookie>();
+        this.utils.parseCookies("_ga=GA1.2.3; jsessionid=12 ; theme=dark", cookies);
+
+        assertEquals(3, cookies.size());
+        assertEquals("_ga", cookies.get(0).getName());
+        assertEquals("GA1.2.3", cookies.get(0).getValue());
+        assertEquals("jsessionid", cookies.get(1).getName());
+        assertEquals("12", cookies.get(1).getValue());
+        assertEquals("theme", cookies.get(2).getName());
+        assertEquals("dark", cookies.get(2).getValue());
+    }
+
+    @Test
+    public void testParseCookies_Attributes() throws Exception {
+        final List<Cookie> cookies = new ArrayList<Cookie>();
+        this.utils.parseCookies("$Version=1; a=\"x=y\"; $Path=/; junk; Path=/; b=", cookies);
+
+        assertEquals(2, cookies.size());
+        assertEquals("a", cookies.get(0).getName());
+        assertEquals("x=y", cookies.get(0).getValue());
+        assertEquals("b", cookies.get(1).getName());
+        assertEquals("", cookies.get(1).getValue());
+    }
+
+    @Test
+    public void testFindCookieValue() throws Exception {
+        final String header = "_ga=GA1.2.3; xjsessionid=1; jsessionid = \"42\"; jsessionid=43";
+
+        assertEquals("42", this.utils.findCookieValue(header, "jsessionid"));
+        assertEquals("GA1.2.3", this.utils.findCookieValue(header, "_ga"));
+        assertNull(this.utils.findCookieValue(header, "_gid"));
+        assertNull(this.utils.findCookieValue("", "jsessionid"));
+    }
+
+}
@@ -0,0 +1,42 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * <code>Minifier</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>CSS comments and white space removed; strings, licences and descendant selectors kept.
+ * <li>JavaScript comments and white space removed; strings, regular expressions and line breaks kept.
+ * </ol>
+ * </p>
+ */
+public class MinifierTest {
+
+    @Test
+    public void testCss() {
+        assertEquals("a:hover,b>i{color:red;margin:0 auto}",
+                Minifier.css("a:hover ,\n b > i {\n  color: red; /* note */\n  margin: 0  auto;\n}\n"));
+        assertEquals("div :first-child{content:\"a  /* b */\"}",
+                Minifier.css("div :first-child { content: \"a  /* b */\"; }"));
+        assertEquals("/*! keep */\n@media screen and (max-width:10px){p{x:y}}",
+                Minifier.css("/*! keep */ @media screen and ( max-width: 10px ) { p { x: y } }"));
+    }
+
+    @Test
+    public void testJavaScript() {
+        assertEquals("var a=1\nvar b='x  // y'",
+                Minifier.javaScript("// comment\nvar a = 1 /* one */\n\n  var b = 'x  // y'"));
+        assertEquals("var r=/[/*]\\//g,d=a / b",
+                Minifier.javaScript("var r = /[/*]\\//g, d = a / b"));
+        assertEquals("if(x){return -1}",
+                Minifier.javaScript("if ( x ) { return -1 }"));
+        assertEquals("a + +b\n/* Copyright me */\nf()",
+                Minifier.javaScript("a + +b\n/* Copyright me */\nf()"));
+    }
+
+}
@@ -0,0 +1,38 @@
+package sw.tinyweb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * <code>ServletUtils</code> test suite.
+ *
+ * <p>
+ * Test scenarios...
+ * <ol>
+ * <li>Empty, "." and ".." segments removed from resource paths; never above the root.
+ * </ol>
+ * </p>
+ */
+public class ServletUtilsTest {
+
+    @Test
+    public void testNormalizePath() {
+        final String path = "/js/app.js";
+        assertSame(path, ServletUtils.normalizePath(path));
+        assertEquals("/", ServletUtils.normalizePath("/"));
+
+        assertEquals("/js/app.js", ServletUtils.normalizePath("/js//app.js"));
+        assertEquals("/js/app.js", ServletUtils.normalizePath("/./js/./app.js"));
+        assertEquals("/js/app.js", ServletUtils.normalizePath("/js/lib/../app.js"));
+        assertEquals("/js/app.js", ServletUtils.normalizePath("js/app.js"));
+        assertEquals("/js", ServletUtils.normalizePath("/js/"));
+        assertEquals("/.well-known/a", ServletUtils.normalizePath("/.well-known/a"));
+
+        assertEquals("/x/y.js", ServletUtils.normalizePath("/../../x/y.js"));
+        assertEquals("/", ServletUtils.normalizePath("/js/.."));
+        assertEquals("/", ServletUtils.normalizePath(""));
+    }
+
+}